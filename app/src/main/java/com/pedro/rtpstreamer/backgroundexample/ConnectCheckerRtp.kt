@@ -39,6 +39,9 @@ interface ConnectCheckerRtp: ConnectCheckerRtmp, ConnectCheckerRtsp {
     onNewBitrateRtp(bitrate)
   }
 
+  override fun onNewRttRtmp(rtt: Long, rttVariance: Long) {
+  }
+
   override fun onDisconnectRtmp() {
     onDisconnectRtp()
   }
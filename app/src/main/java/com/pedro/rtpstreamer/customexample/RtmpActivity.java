@@ -347,6 +347,11 @@ public class RtmpActivity extends AppCompatActivity
     });
   }
 
+  @Override
+  public void onNewRttRtmp(long rtt, long rttVariance) {
+
+  }
+
   @Override
   public void onDisconnectRtmp() {
     runOnUiThread(new Runnable() {
@@ -90,6 +90,11 @@ public class ExampleRtmpActivity extends AppCompatActivity
 
   }
 
+  @Override
+  public void onNewRttRtmp(long rtt, long rttVariance) {
+
+  }
+
   @Override
   public void onDisconnectRtmp() {
     runOnUiThread(new Runnable() {
@@ -105,6 +105,11 @@ public class DisplayActivity extends AppCompatActivity
 
   }
 
+  @Override
+  public void onNewRttRtmp(long rtt, long rttVariance) {
+
+  }
+
   @Override
   public void onDisconnectRtmp() {
     runOnUiThread(new Runnable() {
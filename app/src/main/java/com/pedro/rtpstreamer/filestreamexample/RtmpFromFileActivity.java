@@ -112,6 +112,11 @@ public class RtmpFromFileActivity extends AppCompatActivity
 
   }
 
+  @Override
+  public void onNewRttRtmp(long rtt, long rttVariance) {
+
+  }
+
   @Override
   public void onDisconnectRtmp() {
     runOnUiThread(new Runnable() {
@@ -352,6 +352,11 @@ public class OpenGlRtmpActivity extends AppCompatActivity
 
   }
 
+  @Override
+  public void onNewRttRtmp(long rtt, long rttVariance) {
+
+  }
+
   @Override
   public void onDisconnectRtmp() {
     runOnUiThread(new Runnable() {
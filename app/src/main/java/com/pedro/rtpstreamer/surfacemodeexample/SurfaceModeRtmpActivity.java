@@ -93,6 +93,11 @@ public class SurfaceModeRtmpActivity extends AppCompatActivity
 
   }
 
+  @Override
+  public void onNewRttRtmp(long rtt, long rttVariance) {
+
+  }
+
   @Override
   public void onDisconnectRtmp() {
     runOnUiThread(new Runnable() {
@@ -1,12 +1,18 @@
 package com.pedro.encoder;
 
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import com.pedro.encoder.utils.CodecIndex;
 import com.pedro.encoder.utils.CodecUtil;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
 
 /**
  * Created by pedro on 18/09/19.
@@ -14,12 +20,24 @@ import java.nio.ByteBuffer;
 public abstract class BaseEncoder implements EncoderCallback {
 
   private static final String TAG = "BaseEncoder";
+  private static final float LATENCY_ALPHA = 0.1f;
   private MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
   protected MediaCodec codec;
   protected long presentTimeUs;
   protected volatile boolean running = false;
   protected boolean isBufferMode = true;
   protected CodecUtil.Force force = CodecUtil.Force.FIRST_COMPATIBLE_FOUND;
+  protected boolean asyncMode = false;
+  private HandlerThread handlerThread;
+  protected volatile Handler handler;
+  private MediaCodec.Callback callback;
+  //async mode, input buffers without data
+  private final Queue<Integer> freeInputBuffers = new ArrayDeque<>();
+  private final Object inputLock = new Object();
+  //encode latency in buffer mode, from the frame pts (capture time) to the output with same pts
+  private volatile long encodeLatencyUs = 0;
+  private volatile long lastEncodeLatencyUs = 0;
+  private volatile long maxEncodeLatencyUs = 0;
 
   public void start() {
     start(true);
@@ -32,6 +50,7 @@ public abstract class BaseEncoder implements EncoderCallback {
   public void stop() {
     running = false;
     stopImp();
+    stopHandler();
     try {
       codec.stop();
       codec.release();
@@ -41,7 +60,7 @@ public abstract class BaseEncoder implements EncoderCallback {
     }
   }
 
-  protected abstract MediaCodecInfo chooseEncoder(String mime);
+  protected abstract CodecIndex.Codec chooseEncoder(String mime);
 
   protected void getDataFromEncoder(Frame frame) throws IllegalStateException {
     if (isBufferMode) {
@@ -50,6 +69,13 @@ public abstract class BaseEncoder implements EncoderCallback {
         inputAvailable(codec, inBufferIndex, frame);
       }
     }
+    drainOutputSync();
+  }
+
+  /**
+   * Sync mode, send all outputs ready without waiting.
+   */
+  protected void drainOutputSync() throws IllegalStateException {
     for (; running; ) {
       int outBufferIndex = codec.dequeueOutputBuffer(bufferInfo, 0);
       if (outBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
@@ -65,19 +91,158 @@ public abstract class BaseEncoder implements EncoderCallback {
 
   protected abstract Frame getInputFrame() throws InterruptedException;
 
+  /**
+   * Async mode, next frame queued to encode without blocking.
+   *
+   * @return null if no frame queued (default)
+   */
+  protected Frame pollInputFrame() {
+    return null;
+  }
+
+  /**
+   * Receive codec buffers in MediaCodec callbacks instead of polling them, outputs are sent as
+   * soon as they are ready instead of with the next input. Applied in the next start and only in
+   * API 23+, ignored in older devices.
+   */
+  public void setAsyncMode(boolean asyncMode) {
+    this.asyncMode = asyncMode;
+  }
+
+  public boolean isAsyncMode() {
+    return asyncMode && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+  }
+
+  /**
+   * Start the codec, with a handler thread for callbacks in async mode.
+   *
+   * @param handlerRequired create the handler thread in sync mode too, for a polling loop.
+   */
+  protected void startCodec(String name, boolean handlerRequired) {
+    resetEncodeLatency();
+    synchronized (inputLock) {
+      freeInputBuffers.clear();
+    }
+    if (handlerRequired || isAsyncMode()) {
+      handlerThread = new HandlerThread(name);
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+    }
+    if (isAsyncMode()) {
+      createAsyncCallback(name);
+      codec.setCallback(callback, handler);
+    }
+    codec.start();
+  }
+
+  private void stopHandler() {
+    if (handlerThread != null) {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+        handlerThread.quitSafely();
+      } else {
+        handlerThread.quit();
+      }
+      handlerThread = null;
+      handler = null;
+    }
+  }
+
+  /**
+   * Async mode, encode the frame now if an input buffer is free.
+   *
+   * @return false if all input buffers are in use by the codec
+   */
+  protected boolean encodeFrameAsync(Frame frame) throws IllegalStateException {
+    synchronized (inputLock) {
+      Integer inBufferIndex = freeInputBuffers.poll();
+      if (inBufferIndex == null) return false;
+      inputAvailable(codec, inBufferIndex, frame);
+      return true;
+    }
+  }
+
+  /**
+   * Async mode, give frames queued to free input buffers.
+   */
+  protected void drainInputAsync() throws IllegalStateException {
+    synchronized (inputLock) {
+      while (!freeInputBuffers.isEmpty()) {
+        Frame frame = pollInputFrame();
+        if (frame == null) break;
+        inputAvailable(codec, freeInputBuffers.poll(), frame);
+      }
+    }
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.M)
+  private void createAsyncCallback(final String tag) {
+    callback = new MediaCodec.Callback() {
+      @Override
+      public void onInputBufferAvailable(@NonNull MediaCodec mediaCodec, int inBufferIndex) {
+        try {
+          synchronized (inputLock) {
+            freeInputBuffers.add(inBufferIndex);
+          }
+          drainInputAsync();
+        } catch (IllegalStateException e) {
+          Log.i(tag, "Encoding error", e);
+        }
+      }
+
+      @Override
+      public void onOutputBufferAvailable(@NonNull MediaCodec mediaCodec, int outBufferIndex,
+          @NonNull MediaCodec.BufferInfo bufferInfo) {
+        try {
+          outputAvailable(mediaCodec, outBufferIndex, bufferInfo);
+        } catch (IllegalStateException e) {
+          Log.i(tag, "Encoding error", e);
+        }
+      }
+
+      @Override
+      public void onError(@NonNull MediaCodec mediaCodec, @NonNull MediaCodec.CodecException e) {
+        Log.e(tag, "Error", e);
+      }
+
+      @Override
+      public void onOutputFormatChanged(@NonNull MediaCodec mediaCodec,
+          @NonNull MediaFormat mediaFormat) {
+        formatChanged(mediaCodec, mediaFormat);
+      }
+    };
+  }
+
   private void processInput(@NonNull ByteBuffer byteBuffer, @NonNull MediaCodec mediaCodec,
       int inBufferIndex, Frame frame) throws IllegalStateException {
     try {
       if (frame == null) frame = getInputFrame();
-      byteBuffer.clear();
-      byteBuffer.put(frame.getBuffer(), frame.getOffset(), frame.getSize());
-      long pts = System.nanoTime() / 1000 - presentTimeUs;
-      mediaCodec.queueInputBuffer(inBufferIndex, 0, frame.getSize(), pts, 0);
+      //a frame that waited in a queue keeps its capture time, not the time a buffer was free
+      long timeStamp = frame.getTimeStamp() > 0 ? frame.getTimeStamp() : System.nanoTime() / 1000;
+      int size;
+      try {
+        byteBuffer.clear();
+        size = fillInputBuffer(byteBuffer, frame);
+      } finally {
+        //data copied, a pooled frame can be reused
+        frame.release();
+      }
+      long pts = Math.max(0, timeStamp - presentTimeUs);
+      mediaCodec.queueInputBuffer(inBufferIndex, 0, size, pts, 0);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
     }
   }
 
+  /**
+   * Copy the frame to the codec input buffer.
+   *
+   * @return bytes written
+   */
+  protected int fillInputBuffer(@NonNull ByteBuffer byteBuffer, @NonNull Frame frame) {
+    byteBuffer.put(frame.getBuffer(), frame.getOffset(), frame.getSize());
+    return frame.getSize();
+  }
+
   protected abstract void checkBuffer(@NonNull ByteBuffer byteBuffer,
       @NonNull MediaCodec.BufferInfo bufferInfo);
 
@@ -86,6 +251,9 @@ public abstract class BaseEncoder implements EncoderCallback {
 
   private void processOutput(@NonNull ByteBuffer byteBuffer, @NonNull MediaCodec mediaCodec,
       int outBufferIndex, @NonNull MediaCodec.BufferInfo bufferInfo) throws IllegalStateException {
+    if (isBufferMode && (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+      onEncodeLatency(System.nanoTime() / 1000 - presentTimeUs - bufferInfo.presentationTimeUs);
+    }
     checkBuffer(byteBuffer, bufferInfo);
     sendBuffer(byteBuffer, bufferInfo);
     mediaCodec.releaseOutputBuffer(outBufferIndex, false);
@@ -99,6 +267,38 @@ public abstract class BaseEncoder implements EncoderCallback {
     return running;
   }
 
+  private void onEncodeLatency(long latencyUs) {
+    if (latencyUs < 0) return;
+    lastEncodeLatencyUs = latencyUs;
+    encodeLatencyUs = encodeLatencyUs == 0 ? latencyUs
+        : (long) ((1 - LATENCY_ALPHA) * encodeLatencyUs + LATENCY_ALPHA * latencyUs);
+    if (latencyUs > maxEncodeLatencyUs) maxEncodeLatencyUs = latencyUs;
+  }
+
+  public void resetEncodeLatency() {
+    encodeLatencyUs = 0;
+    lastEncodeLatencyUs = 0;
+    maxEncodeLatencyUs = 0;
+  }
+
+  /**
+   * @return smoothed time in microseconds from the capture time of a frame until it is encoded.
+   * It is measured from the pts, so the time the frame waited in the input queue or ring for a
+   * free codec buffer is included, not only the codec time. Frames without capture time use the
+   * time they are given to the codec. Only measured with buffer input, 0 in surface mode.
+   */
+  public long getEncodeLatencyUs() {
+    return encodeLatencyUs;
+  }
+
+  public long getLastEncodeLatencyUs() {
+    return lastEncodeLatencyUs;
+  }
+
+  public long getMaxEncodeLatencyUs() {
+    return maxEncodeLatencyUs;
+  }
+
   @Override
   public void inputAvailable(@NonNull MediaCodec mediaCodec, int inBufferIndex, Frame frame)
       throws IllegalStateException {
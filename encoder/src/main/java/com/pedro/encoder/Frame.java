@@ -8,12 +8,21 @@ import android.graphics.ImageFormat;
 
 public class Frame {
 
+  /**
+   * Owner of a reusable frame, called when the frame data is no longer needed.
+   */
+  public interface ReleaseListener {
+    void onFrameReleased(Frame frame);
+  }
+
   private byte[] buffer;
   private int offset;
   private int size;
   private int orientation;
   private boolean flip;
   private int format = ImageFormat.NV21; //nv21 or yv12 supported
+  private long timeStamp; //capture time in microseconds (System.nanoTime() / 1000), 0 if unknown
+  private ReleaseListener releaseListener;
 
   /**
    * Used with video frame
@@ -83,4 +92,24 @@ public class Frame {
   public void setSize(int size) {
     this.size = size;
   }
+
+  public long getTimeStamp() {
+    return timeStamp;
+  }
+
+  public void setTimeStamp(long timeStamp) {
+    this.timeStamp = timeStamp;
+  }
+
+  public void setReleaseListener(ReleaseListener releaseListener) {
+    this.releaseListener = releaseListener;
+  }
+
+  /**
+   * Called by the consumer of the frame after using the data, or discarding it. The buffer of a
+   * pooled frame is reused after this so it must not be read anymore.
+   */
+  public void release() {
+    if (releaseListener != null) releaseListener.onFrameReleased(this);
+  }
 }
@@ -8,10 +8,11 @@ import androidx.annotation.NonNull;
 import com.pedro.encoder.BaseEncoder;
 import com.pedro.encoder.Frame;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
+import com.pedro.encoder.input.audio.PcmRing;
+import com.pedro.encoder.utils.CodecIndex;
 import com.pedro.encoder.utils.CodecUtil;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -23,11 +24,16 @@ import java.util.List;
 public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
 
   private static final String TAG = "AudioEncoder";
+  private static final int DEFAULT_SLOT_SIZE = 4096;
 
   private GetAacData getAacData;
   private int bitRate = 64 * 1024;  //in kbps
   private int sampleRate = 32000; //in hz
   private boolean isStereo = true;
+  private int pcmRingSize = 8;
+  private PcmRing pcmRing;
+  //sync mode, input buffer dequeued when the ring was empty, used with the next chunk
+  private int heldInputIndex = -1;
 
   public AudioEncoder(GetAacData getAacData) {
     this.getAacData = getAacData;
@@ -40,29 +46,14 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
       int maxInputSize) {
     this.sampleRate = sampleRate;
     isBufferMode = true;
+    pcmRing = new PcmRing(pcmRingSize, maxInputSize > 0 ? maxInputSize : DEFAULT_SLOT_SIZE);
     try {
-      List<MediaCodecInfo> encoders = new ArrayList<>();
-      if (force == CodecUtil.Force.HARDWARE) {
-        encoders = CodecUtil.getAllHardwareEncoders(CodecUtil.AAC_MIME);
-      } else if (force == CodecUtil.Force.SOFTWARE) {
-        encoders = CodecUtil.getAllSoftwareEncoders(CodecUtil.AAC_MIME);
-      }
-
-      if (force == CodecUtil.Force.FIRST_COMPATIBLE_FOUND) {
-        MediaCodecInfo encoder = chooseEncoder(CodecUtil.AAC_MIME);
-        if (encoder != null) {
-          codec = MediaCodec.createByCodecName(encoder.getName());
-        } else {
-          Log.e(TAG, "Valid encoder not found");
-          return false;
-        }
+      CodecIndex.Codec encoder = chooseEncoder(CodecUtil.AAC_MIME);
+      if (encoder != null) {
+        codec = MediaCodec.createByCodecName(encoder.getName());
       } else {
-        if (encoders.isEmpty()) {
-          Log.e(TAG, "Valid encoder not found");
-          return false;
-        } else {
-          codec = MediaCodec.createByCodecName(encoders.get(0).getName());
-        }
+        Log.e(TAG, "Valid encoder not found");
+        return false;
       }
 
       int channelCount = (isStereo) ? 2 : 1;
@@ -92,7 +83,9 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
   @Override
   public void start(boolean resetTs) {
     presentTimeUs = System.nanoTime() / 1000;
-    codec.start();
+    pcmRing.clear();
+    heldInputIndex = -1;
+    startCodec(TAG, false);
     running = true;
     Log.i(TAG, "started");
   }
@@ -107,6 +100,11 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
     return null;
   }
 
+  @Override
+  protected Frame pollInputFrame() {
+    return pcmRing.peek();
+  }
+
   @Override
   protected void checkBuffer(@NonNull ByteBuffer byteBuffer,
       @NonNull MediaCodec.BufferInfo bufferInfo) {
@@ -124,38 +122,98 @@ public class AudioEncoder extends BaseEncoder implements GetMicrophoneData {
    * Use it after prepareAudioEncoder(int sampleRate, int channel).
    * Used too with microphone.
    *
+   * Data is copied to a ring before returning, so the frame buffer can be reused by the caller.
+   * It is encoded when the codec has a free input buffer, in order.
    */
   @Override
   public void inputPCMData(Frame frame) {
     if (running) {
+      if (!pcmRing.write(frame.getBuffer(), frame.getOffset(), frame.getSize())) {
+        Log.i(TAG, "frame discarded");
+      }
+      frame.release();
       try {
-        getDataFromEncoder(frame);
+        if (isAsyncMode()) {
+          drainInputAsync();
+        } else {
+          drainInputSync();
+        }
       } catch (IllegalStateException e) {
         Log.i(TAG, "Encoding error", e);
       }
     } else {
       Log.i(TAG, "frame discarded");
+      frame.release();
     }
   }
 
-  @Override
-  protected MediaCodecInfo chooseEncoder(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList = CodecUtil.getAllEncoders(mime);
-    for (MediaCodecInfo mediaCodecInfo : mediaCodecInfoList) {
-      String name = mediaCodecInfo.getName().toLowerCase();
-      if (!name.contains("omx.google")) return mediaCodecInfo;
+  private void drainInputSync() throws IllegalStateException {
+    while (running) {
+      int inBufferIndex = heldInputIndex >= 0 ? heldInputIndex : codec.dequeueInputBuffer(0);
+      heldInputIndex = -1;
+      if (inBufferIndex < 0) break;
+      Frame frame = pcmRing.peek();
+      if (frame == null) {
+        //underrun, like async mode when a free buffer finds the ring empty
+        heldInputIndex = inBufferIndex;
+        break;
+      }
+      inputAvailable(codec, inBufferIndex, frame);
     }
-    if (mediaCodecInfoList.size() > 0) {
-      return mediaCodecInfoList.get(0);
+    drainOutputSync();
+  }
+
+  @Override
+  protected CodecIndex.Codec chooseEncoder(String mime) {
+    CodecIndex codecIndex = CodecIndex.getInstance();
+    if (force == CodecUtil.Force.HARDWARE) {
+      return chooseEncoder(codecIndex.getHardwareEncoders(mime), false);
+    } else if (force == CodecUtil.Force.SOFTWARE) {
+      return chooseEncoder(codecIndex.getSoftwareEncoders(mime), false);
     } else {
-      return null;
+      return chooseEncoder(codecIndex.getEncoders(mime), true);
     }
   }
 
+  /**
+   * @param preferHardware skip software only codecs if there is another one.
+   * @return null if the list is empty.
+   */
+  static CodecIndex.Codec chooseEncoder(List<CodecIndex.Codec> codecs, boolean preferHardware) {
+    if (preferHardware) {
+      for (CodecIndex.Codec codec : codecs) {
+        if (!codec.isSoftwareOnly()) return codec;
+      }
+    }
+    return codecs.isEmpty() ? null : codecs.get(0);
+  }
+
   public void setSampleRate(int sampleRate) {
     this.sampleRate = sampleRate;
   }
 
+  /**
+   * Chunks of PCM that can wait for a codec input buffer, applied in the next prepare. 8 by
+   * default.
+   */
+  public void setPcmRingSize(int pcmRingSize) {
+    this.pcmRingSize = Math.max(1, pcmRingSize);
+  }
+
+  /**
+   * @return PCM chunks discarded because the ring was full (codec too slow).
+   */
+  public long getPcmOverruns() {
+    return pcmRing != null ? pcmRing.getOverruns() : 0;
+  }
+
+  /**
+   * @return times the codec had a free input buffer and no PCM was waiting.
+   */
+  public long getPcmUnderruns() {
+    return pcmRing != null ? pcmRing.getUnderruns() : 0;
+  }
+
   @Override
   public void formatChanged(@NonNull MediaCodec mediaCodec, @NonNull MediaFormat mediaFormat) {
     getAacData.onAudioFormat(mediaFormat);
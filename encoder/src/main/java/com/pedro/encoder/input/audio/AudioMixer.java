@@ -0,0 +1,353 @@
+package com.pedro.encoder.input.audio;
+
+import com.pedro.encoder.Frame;
+
+/**
+ * Mix several 16 bits PCM sources (microphone, internal audio, decoded file...) to one output
+ * with the sample rate and channels of the encoder.
+ *
+ * The first input added is the master: each chunk written to it produces a mixed chunk of the
+ * same duration in the master thread, taking from the other inputs the samples they have
+ * buffered. Other inputs are written from their own threads, each one with a ring that absorbs
+ * the jitter between sources: an input waits until it has the target latency buffered before
+ * being mixed, is filled with silence (underrun) if it has no samples in time and samples over
+ * the max latency are skipped so the delay doesn't grow when its clock is faster than the master.
+ *
+ * Every input is converted to the output sample rate (linear interpolation) and channels when
+ * written. Samples are multiplied by the gain of the input, summed and soft clipped. After add
+ * inputs, nothing is allocated except if a source writes chunks bigger than the previous ones.
+ */
+public class AudioMixer {
+
+  private static final int DEFAULT_TARGET_LATENCY_MS = 40;
+  private static final int DEFAULT_MAX_LATENCY_MS = 200;
+  //soft clip starts at 75% of full scale
+  private static final float CLIP_THRESHOLD = 0.75f * Short.MAX_VALUE;
+  private static final float CLIP_RANGE = Short.MAX_VALUE - CLIP_THRESHOLD;
+
+  private final GetMicrophoneData output;
+  private final int sampleRate;
+  private final int channels;
+  private final int targetLatencyFrames;
+  private final int maxLatencyFrames;
+  private volatile Input[] inputs = new Input[0];
+  //master thread only
+  private float[] mixBuffer = new float[0];
+  private short[] readBuffer = new short[0];
+  private byte[] outputBuffer = new byte[0];
+  private final Frame outputFrame = new Frame(outputBuffer, 0, 0);
+
+  public AudioMixer(GetMicrophoneData output, int sampleRate, boolean isStereo) {
+    this(output, sampleRate, isStereo, DEFAULT_TARGET_LATENCY_MS, DEFAULT_MAX_LATENCY_MS);
+  }
+
+  /**
+   * @param targetLatencyMs samples buffered in a secondary input before mixing it.
+   * @param maxLatencyMs samples buffered in a secondary input, over this they are skipped.
+   */
+  public AudioMixer(GetMicrophoneData output, int sampleRate, boolean isStereo,
+      int targetLatencyMs, int maxLatencyMs) {
+    this.output = output;
+    this.sampleRate = sampleRate;
+    this.channels = isStereo ? 2 : 1;
+    this.targetLatencyFrames = sampleRate * targetLatencyMs / 1000;
+    this.maxLatencyFrames = Math.max(targetLatencyFrames * 2, sampleRate * maxLatencyMs / 1000);
+  }
+
+  /**
+   * Add an input, the first one is the master. Add all inputs before writing to them.
+   *
+   * @param sampleRate of the PCM written to this input.
+   * @param isStereo channels of the PCM written to this input.
+   * @param gain 1 keep the volume.
+   */
+  public synchronized Input addInput(int sampleRate, boolean isStereo, float gain) {
+    Input input = new Input(inputs.length == 0, sampleRate, isStereo ? 2 : 1, gain);
+    Input[] newInputs = new Input[inputs.length + 1];
+    System.arraycopy(inputs, 0, newInputs, 0, inputs.length);
+    newInputs[inputs.length] = input;
+    inputs = newInputs;
+    return input;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  /**
+   * @return bytes of the output chunk produced by a master chunk of masterChunkSize bytes, use
+   * it as max input size of the audio encoder.
+   */
+  public int getOutputSize(int masterChunkSize) {
+    if (inputs.length == 0) return masterChunkSize;
+    Input master = inputs[0];
+    long frames = (long) masterChunkSize / (2 * master.channels) * sampleRate / master.sampleRate;
+    return (int) (frames + 1) * channels * 2;
+  }
+
+  /**
+   * Discard samples buffered in all inputs. Use it when sources are stopped.
+   */
+  public void reset() {
+    Input[] inputs = this.inputs;
+    for (Input input : inputs) {
+      input.reset();
+    }
+  }
+
+  //master thread
+  private void mix(Input master) {
+    Input[] inputs = this.inputs;
+    int frames;
+    while ((frames = master.available()) > 0) {
+      int samples = frames * channels;
+      ensureCapacity(samples);
+      master.read(readBuffer, frames);
+      float gain = master.gain;
+      for (int i = 0; i < samples; i++) {
+        mixBuffer[i] = readBuffer[i] * gain;
+      }
+      for (Input input : inputs) {
+        if (input != master) input.mixTo(mixBuffer, frames, readBuffer);
+      }
+      int position = 0;
+      for (int i = 0; i < samples; i++) {
+        short sample = softClip(mixBuffer[i]);
+        outputBuffer[position++] = (byte) sample;
+        outputBuffer[position++] = (byte) (sample >> 8);
+      }
+      outputFrame.setBuffer(outputBuffer);
+      outputFrame.setOffset(0);
+      outputFrame.setSize(position);
+      output.inputPCMData(outputFrame);
+    }
+  }
+
+  private void ensureCapacity(int samples) {
+    if (mixBuffer.length < samples) {
+      mixBuffer = new float[samples];
+      readBuffer = new short[samples];
+      outputBuffer = new byte[samples * 2];
+    }
+  }
+
+  /**
+   * Linear below the threshold and tending to full scale over it, so loud sums are compressed
+   * instead of clipped.
+   */
+  static short softClip(float sample) {
+    float abs = Math.abs(sample);
+    if (abs <= CLIP_THRESHOLD) return (short) sample;
+    float clipped =
+        CLIP_THRESHOLD + CLIP_RANGE * (float) Math.tanh((abs - CLIP_THRESHOLD) / CLIP_RANGE);
+    return (short) (sample < 0 ? -clipped : clipped);
+  }
+
+  /**
+   * A source of the mixer. Write is called from the source thread, one thread per input.
+   */
+  public class Input {
+
+    private final boolean master;
+    private final int sampleRate;
+    private final int channels;
+    private volatile float gain;
+    //samples converted to the output format, interleaved
+    private final short[] ring;
+    private final int ringFrames;
+    //written only by the producer
+    private volatile long writeCount = 0;
+    private volatile long overruns = 0;
+    //written only by the mixer
+    private volatile long readCount = 0;
+    private volatile long underruns = 0;
+    private boolean buffering = true;
+    //producer scratch and resampler state
+    private short[] converted = new short[0];
+    private final short[] previous;
+    private double position = 0;
+
+    private Input(boolean master, int sampleRate, int channels, float gain) {
+      this.master = master;
+      this.sampleRate = sampleRate;
+      this.channels = channels;
+      this.gain = gain;
+      //one second at least, the master is mixed as soon as it is written so any chunk fits
+      ringFrames = Math.max(maxLatencyFrames, AudioMixer.this.sampleRate);
+      ring = new short[ringFrames * AudioMixer.this.channels];
+      previous = new short[AudioMixer.this.channels];
+    }
+
+    public void setGain(float gain) {
+      this.gain = gain;
+    }
+
+    public float getGain() {
+      return gain;
+    }
+
+    public boolean isMaster() {
+      return master;
+    }
+
+    /**
+     * @return samples per channel discarded because the ring was full.
+     */
+    public long getOverruns() {
+      return overruns;
+    }
+
+    /**
+     * @return times this input had no samples when the master was mixed.
+     */
+    public long getUnderruns() {
+      return underruns;
+    }
+
+    /**
+     * Write 16 bits little endian PCM from the source thread. A master write returns after the
+     * mixed chunk is given to the output.
+     */
+    public void write(byte[] pcm, int offset, int size) {
+      int frames = size / (2 * channels);
+      if (frames == 0) return;
+      int outputFrames = convert(pcm, offset, frames);
+      push(converted, outputFrames);
+      if (master) mix(this);
+    }
+
+    /**
+     * Same as write from a frame of a source like MicrophoneManager.
+     */
+    public void write(Frame frame) {
+      write(frame.getBuffer(), frame.getOffset(), frame.getSize());
+    }
+
+    /**
+     * Align channels and sample rate to the output in converted.
+     *
+     * @return frames in converted.
+     */
+    private int convert(byte[] pcm, int offset, int frames) {
+      final int outChannels = AudioMixer.this.channels;
+      final int outRate = AudioMixer.this.sampleRate;
+      int maxFrames = (int) ((long) frames * outRate / sampleRate) + 2;
+      if (converted.length < (maxFrames + frames) * outChannels) {
+        converted = new short[(maxFrames + frames) * outChannels];
+      }
+      //channels first, to the end of converted, then resample to the start
+      int source = maxFrames * outChannels;
+      int p = offset;
+      for (int i = 0; i < frames; i++) {
+        int left = (pcm[p] & 0xFF) | (pcm[p + 1] << 8);
+        p += 2;
+        int right = left;
+        if (channels == 2) {
+          right = (pcm[p] & 0xFF) | (pcm[p + 1] << 8);
+          p += 2;
+        }
+        if (outChannels == 2) {
+          converted[source + i * 2] = (short) left;
+          converted[source + i * 2 + 1] = (short) right;
+        } else {
+          converted[source + i] = (short) ((left + right) >> 1);
+        }
+      }
+      if (sampleRate == outRate) {
+        System.arraycopy(converted, source, converted, 0, frames * outChannels);
+        return frames;
+      }
+      //position is relative to the chunk start, -1 is the last frame of the previous chunk
+      double step = (double) sampleRate / outRate;
+      int out = 0;
+      while (position < frames - 1) {
+        int index = (int) Math.floor(position);
+        float fraction = (float) (position - index);
+        for (int c = 0; c < outChannels; c++) {
+          int a = index < 0 ? previous[c] : converted[source + index * outChannels + c];
+          int b = converted[source + (index + 1) * outChannels + c];
+          converted[out * outChannels + c] = (short) (a + (b - a) * fraction);
+        }
+        out++;
+        position += step;
+      }
+      position -= frames;
+      for (int c = 0; c < outChannels; c++) {
+        previous[c] = converted[source + (frames - 1) * outChannels + c];
+      }
+      return out;
+    }
+
+    //producer
+    private void push(short[] data, int frames) {
+      final int outChannels = AudioMixer.this.channels;
+      long write = writeCount;
+      int free = (int) (ringFrames - (write - readCount));
+      if (frames > free) {
+        overruns += frames - free;
+        frames = free;
+      }
+      int start = (int) (write % ringFrames);
+      int first = Math.min(frames, ringFrames - start);
+      System.arraycopy(data, 0, ring, start * outChannels, first * outChannels);
+      if (first < frames) {
+        System.arraycopy(data, first * outChannels, ring, 0, (frames - first) * outChannels);
+      }
+      writeCount = write + frames;
+    }
+
+    //mixer
+    private int available() {
+      return (int) (writeCount - readCount);
+    }
+
+    //mixer
+    private void read(short[] data, int frames) {
+      final int outChannels = AudioMixer.this.channels;
+      long read = readCount;
+      int start = (int) (read % ringFrames);
+      int first = Math.min(frames, ringFrames - start);
+      System.arraycopy(ring, start * outChannels, data, 0, first * outChannels);
+      if (first < frames) {
+        System.arraycopy(ring, 0, data, first * outChannels, (frames - first) * outChannels);
+      }
+      readCount = read + frames;
+    }
+
+    //mixer, add this input to the master chunk
+    private void mixTo(float[] mix, int frames, short[] scratch) {
+      int available = available();
+      if (buffering) {
+        if (available < targetLatencyFrames) return;
+        buffering = false;
+      }
+      if (available > maxLatencyFrames) {
+        //source clock faster than master, go back to the target latency
+        readCount += available - targetLatencyFrames;
+        available = targetLatencyFrames;
+      }
+      int toRead = Math.min(frames, available);
+      if (toRead < frames) {
+        underruns++;
+        buffering = true;
+      }
+      if (toRead == 0) return;
+      // the master chunk was already consumed from scratch
+      read(scratch, toRead);
+      float gain = this.gain;
+      int samples = toRead * AudioMixer.this.channels;
+      for (int i = 0; i < samples; i++) {
+        mix[i] += scratch[i] * gain;
+      }
+    }
+
+    private void reset() {
+      readCount = writeCount;
+      buffering = true;
+    }
+  }
+}
@@ -7,4 +7,21 @@ public abstract class CustomAudioEffect {
    * @return it must be of same size that pcmBuffer parameter.
    */
   public abstract byte[] process(byte[] pcmBuffer);
+
+  /**
+   * Called with the valid data of the microphone buffer, by default process(pcmBuffer). Override
+   * it to process only size bytes from offset, modifying pcmBuffer in place is recommended to
+   * avoid allocations.
+   *
+   * @return buffer with the result at the same offset.
+   */
+  public byte[] process(byte[] pcmBuffer, int offset, int size) {
+    return process(pcmBuffer);
+  }
+
+  /**
+   * Called when the effect is set and when the microphone is created. 16 bits PCM.
+   */
+  public void setAudioInfo(int sampleRate, boolean isStereo) {
+  }
 }
@@ -8,5 +8,9 @@ import com.pedro.encoder.Frame;
 
 public interface GetMicrophoneData {
 
+  /**
+   * The frame and its buffer can be reused by the caller after return, copy the data if it is
+   * needed later.
+   */
   void inputPCMData(Frame frame);
 }
@@ -24,6 +24,8 @@ public class MicrophoneManager {
   private GetMicrophoneData getMicrophoneData;
   private ByteBuffer pcmBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
   private byte[] pcmBufferMuted = new byte[BUFFER_SIZE];
+  //reused in each read, the receiver copies the data before inputPCMData returns
+  private final Frame frame = new Frame(pcmBufferMuted, 0, 0);
   protected boolean running = false;
   private boolean created = false;
 
@@ -41,6 +43,7 @@ public class MicrophoneManager {
   }
 
   public void setCustomAudioEffect(CustomAudioEffect customAudioEffect) {
+    customAudioEffect.setAudioInfo(sampleRate, channel == AudioFormat.CHANNEL_IN_STEREO);
     this.customAudioEffect = customAudioEffect;
   }
 
@@ -74,6 +77,7 @@ public class MicrophoneManager {
     audioPostProcessEffect = new AudioPostProcessEffect(audioRecord.getAudioSessionId());
     if (echoCanceler) audioPostProcessEffect.enableEchoCanceler();
     if (noiseSuppressor) audioPostProcessEffect.enableNoiseSuppressor();
+    customAudioEffect.setAudioInfo(sampleRate, isStereo);
     String chl = (isStereo) ? "Stereo" : "Mono";
     Log.i(TAG, "Microphone created, " + sampleRate + "hz, " + chl);
     created = true;
@@ -104,6 +108,7 @@ public class MicrophoneManager {
               .build();
 
       audioPostProcessEffect = new AudioPostProcessEffect(audioRecord.getAudioSessionId());
+      customAudioEffect.setAudioInfo(sampleRate, isStereo);
       String chl = (isStereo) ? "Stereo" : "Mono";
       Log.i(TAG, "Internal microphone created, " + sampleRate + "hz, " + chl);
       created = true;
@@ -158,7 +163,7 @@ public class MicrophoneManager {
   }
 
   /**
-   * @return Object with size and PCM buffer data
+   * @return Object with size and PCM buffer data, valid until next read
    */
   private Frame read() {
     pcmBuffer.rewind();
@@ -166,8 +171,11 @@ public class MicrophoneManager {
     if (size <= 0) {
       return null;
     }
-    return new Frame(muted ? pcmBufferMuted : customAudioEffect.process(pcmBuffer.array()),
-        muted ? 0 : pcmBuffer.arrayOffset(), size);
+    frame.setBuffer(muted ? pcmBufferMuted
+        : customAudioEffect.process(pcmBuffer.array(), pcmBuffer.arrayOffset(), size));
+    frame.setOffset(muted ? 0 : pcmBuffer.arrayOffset());
+    frame.setSize(size);
+    return frame;
   }
 
   /**
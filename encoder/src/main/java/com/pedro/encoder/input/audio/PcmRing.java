@@ -0,0 +1,115 @@
+package com.pedro.encoder.input.audio;
+
+import com.pedro.encoder.Frame;
+
+/**
+ * Preallocated ring of PCM slots between one producer thread (microphone, decoder or app) and
+ * one consumer thread (audio encoder), without locks nor allocations.
+ *
+ * The producer copies each chunk to the next free slot with write, so the source buffer can be
+ * reused as soon as write returns, the time of the write is kept in the slot as capture time.
+ * The consumer gets the oldest slot with peek, as a Frame that is reused, and releases it after
+ * copying its data, that slot is given back to the producer.
+ *
+ * Overruns are chunks discarded because all slots were waiting for the consumer. Underruns are
+ * peeks that found the ring empty (the consumer had a free codec buffer and was waiting for PCM).
+ */
+public class PcmRing implements Frame.ReleaseListener {
+
+  private final Frame[] slots;
+  //written only by the producer
+  private volatile long writeCount = 0;
+  private volatile long overruns = 0;
+  //written only by the consumer
+  private volatile long readCount = 0;
+  private volatile long underruns = 0;
+
+  /**
+   * @param capacity number of slots.
+   * @param slotSize initial bytes of each slot, bigger chunks grow the slot.
+   */
+  public PcmRing(int capacity, int slotSize) {
+    slots = new Frame[Math.max(1, capacity)];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new Frame(new byte[slotSize], 0, 0);
+      slots[i].setReleaseListener(this);
+    }
+  }
+
+  /**
+   * Producer, copy a chunk to the ring.
+   *
+   * @return false if the ring is full and the chunk was discarded.
+   */
+  public boolean write(byte[] data, int offset, int size) {
+    long write = writeCount;
+    if (write - readCount >= slots.length) {
+      overruns++;
+      return false;
+    }
+    Frame slot = slots[(int) (write % slots.length)];
+    if (slot.getBuffer().length < size) {
+      //the slot is owned by the producer until writeCount is increased
+      slot.setBuffer(new byte[size]);
+    }
+    System.arraycopy(data, offset, slot.getBuffer(), 0, size);
+    slot.setSize(size);
+    slot.setTimeStamp(System.nanoTime() / 1000);
+    writeCount = write + 1;
+    return true;
+  }
+
+  /**
+   * Consumer, oldest chunk of the ring. The same frame is returned until it is released.
+   *
+   * @return null if the ring is empty.
+   */
+  public Frame peek() {
+    long read = readCount;
+    if (read == writeCount) {
+      underruns++;
+      return null;
+    }
+    return slots[(int) (read % slots.length)];
+  }
+
+  /**
+   * Consumer, the frame returned by peek was copied and the slot can be written again.
+   */
+  @Override
+  public void onFrameReleased(Frame frame) {
+    long read = readCount;
+    //only the oldest slot can be released, ignore if released twice
+    if (read != writeCount && slots[(int) (read % slots.length)] == frame) {
+      readCount = read + 1;
+    }
+  }
+
+  /**
+   * Discard chunks not read. Use it only when producer and consumer are stopped.
+   */
+  public void clear() {
+    readCount = writeCount;
+    overruns = 0;
+    underruns = 0;
+  }
+
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  /**
+   * @return chunks waiting for the consumer.
+   */
+  public int getQueuedChunks() {
+    return (int) (writeCount - readCount);
+  }
+
+  public long getOverruns() {
+    return overruns;
+  }
+
+  public long getUnderruns() {
+    return underruns;
+  }
+}
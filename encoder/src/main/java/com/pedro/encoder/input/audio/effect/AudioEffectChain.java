@@ -0,0 +1,94 @@
+package com.pedro.encoder.input.audio.effect;
+
+import com.pedro.encoder.input.audio.CustomAudioEffect;
+
+/**
+ * Custom audio effect that applies a list of PcmEffect in order, in place over the 16 bits
+ * samples of the microphone buffer:
+ *
+ * <pre>
+ *   AudioEffectChain chain = new AudioEffectChain();
+ *   chain.add(new HighPassEffect(80));
+ *   chain.add(new NoiseGateEffect(-50));
+ *   chain.add(new CompressorEffect(-20, 4, 5, 100, 6));
+ *   chain.add(CompressorEffect.limiter(-1));
+ *   rtmpCamera.setCustomAudioEffect(chain);
+ * </pre>
+ *
+ * Effects can be added or removed while processing. Nothing is allocated per buffer.
+ */
+public class AudioEffectChain extends CustomAudioEffect {
+
+  private volatile PcmEffect[] effects = new PcmEffect[0];
+  private volatile int sampleRate = 32000;
+  private volatile int channels = 2;
+  //audio thread
+  private short[] samples = new short[2048];
+
+  public synchronized void add(PcmEffect effect) {
+    effect.configure(sampleRate, channels);
+    PcmEffect[] newEffects = new PcmEffect[effects.length + 1];
+    System.arraycopy(effects, 0, newEffects, 0, effects.length);
+    newEffects[effects.length] = effect;
+    effects = newEffects;
+  }
+
+  public synchronized void remove(PcmEffect effect) {
+    PcmEffect[] effects = this.effects;
+    for (int i = 0; i < effects.length; i++) {
+      if (effects[i] == effect) {
+        PcmEffect[] newEffects = new PcmEffect[effects.length - 1];
+        System.arraycopy(effects, 0, newEffects, 0, i);
+        System.arraycopy(effects, i + 1, newEffects, i, effects.length - i - 1);
+        this.effects = newEffects;
+        return;
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    effects = new PcmEffect[0];
+  }
+
+  public PcmEffect[] getEffects() {
+    return effects.clone();
+  }
+
+  @Override
+  public synchronized void setAudioInfo(int sampleRate, boolean isStereo) {
+    this.sampleRate = sampleRate;
+    this.channels = isStereo ? 2 : 1;
+    for (PcmEffect effect : effects) {
+      effect.configure(sampleRate, channels);
+    }
+  }
+
+  @Override
+  public byte[] process(byte[] pcmBuffer) {
+    return process(pcmBuffer, 0, pcmBuffer.length);
+  }
+
+  @Override
+  public byte[] process(byte[] pcmBuffer, int offset, int size) {
+    PcmEffect[] effects = this.effects;
+    if (effects.length == 0) return pcmBuffer;
+    int count = size / 2;
+    if (samples.length < count) samples = new short[count];
+    short[] samples = this.samples;
+    int p = offset;
+    for (int i = 0; i < count; i++) {
+      samples[i] = (short) ((pcmBuffer[p] & 0xFF) | (pcmBuffer[p + 1] << 8));
+      p += 2;
+    }
+    for (PcmEffect effect : effects) {
+      if (effect.isEnabled()) effect.process(samples, 0, count);
+    }
+    p = offset;
+    for (int i = 0; i < count; i++) {
+      short sample = samples[i];
+      pcmBuffer[p++] = (byte) sample;
+      pcmBuffer[p++] = (byte) (sample >> 8);
+    }
+    return pcmBuffer;
+  }
+}
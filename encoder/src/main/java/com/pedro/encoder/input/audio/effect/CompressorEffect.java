@@ -0,0 +1,119 @@
+package com.pedro.encoder.input.audio.effect;
+
+/**
+ * Reduce the level over a threshold by a ratio (4 means 4dB over the threshold become 1dB) and
+ * apply makeup gain, so voice has a more constant volume. With an infinite ratio and a short
+ * attack it works as a limiter, see {@link #limiter(float)}. Channels are linked (the loudest one
+ * decides) to keep the stereo image.
+ *
+ * The gain is computed only while the envelope is over the threshold, quiet signal costs a
+ * multiplication per sample.
+ */
+public class CompressorEffect extends PcmEffect {
+
+  private volatile float thresholdDb;
+  private volatile float ratio;
+  private volatile float attackMs;
+  private volatile float releaseMs;
+  private volatile float makeupDb;
+  private volatile boolean dirty = true;
+  //audio thread
+  private float threshold;
+  private float exponent;
+  private float attackCoefficient;
+  private float releaseCoefficient;
+  private float makeup;
+  private float envelope = 0;
+  private float gainReduction = 1f;
+
+  public CompressorEffect(float thresholdDb, float ratio) {
+    this(thresholdDb, ratio, 5, 100, 0);
+  }
+
+  public CompressorEffect(float thresholdDb, float ratio, float attackMs, float releaseMs,
+      float makeupDb) {
+    this.thresholdDb = thresholdDb;
+    this.ratio = ratio;
+    this.attackMs = attackMs;
+    this.releaseMs = releaseMs;
+    this.makeupDb = makeupDb;
+  }
+
+  /**
+   * @return compressor that keeps peaks under ceilingDb (dBFS).
+   */
+  public static CompressorEffect limiter(float ceilingDb) {
+    return new CompressorEffect(ceilingDb, Float.POSITIVE_INFINITY, 0.1f, 50, 0);
+  }
+
+  public void setThreshold(float thresholdDb) {
+    this.thresholdDb = thresholdDb;
+    dirty = true;
+  }
+
+  public void setRatio(float ratio) {
+    this.ratio = ratio;
+    dirty = true;
+  }
+
+  public void setTimes(float attackMs, float releaseMs) {
+    this.attackMs = attackMs;
+    this.releaseMs = releaseMs;
+    dirty = true;
+  }
+
+  public void setMakeupGain(float makeupDb) {
+    this.makeupDb = makeupDb;
+    dirty = true;
+  }
+
+  /**
+   * @return current gain reduction in dB (0 or negative).
+   */
+  public float getGainReductionDb() {
+    return (float) (20 * Math.log10(gainReduction));
+  }
+
+  @Override
+  public void configure(int sampleRate, int channels) {
+    super.configure(sampleRate, channels);
+    dirty = true;
+  }
+
+  @Override
+  public void reset() {
+    envelope = 0;
+    gainReduction = 1f;
+  }
+
+  private void updateCoefficients() {
+    dirty = false;
+    threshold = dbToLinear(thresholdDb) * Short.MAX_VALUE;
+    //gain = (envelope / threshold) ^ (1 / ratio - 1)
+    exponent = ratio <= 1 ? 0 : 1f / ratio - 1f;
+    attackCoefficient = timeCoefficient(attackMs);
+    releaseCoefficient = timeCoefficient(releaseMs);
+    makeup = dbToLinear(makeupDb);
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int count) {
+    if (dirty) updateCoefficients();
+    final int channels = this.channels;
+    int end = offset + count - channels + 1;
+    for (int i = offset; i < end; i += channels) {
+      int peak = Math.abs(samples[i]);
+      if (channels == 2) peak = Math.max(peak, Math.abs(samples[i + 1]));
+      float coefficient = peak > envelope ? attackCoefficient : releaseCoefficient;
+      envelope = peak + (envelope - peak) * coefficient;
+      if (envelope > threshold && exponent != 0) {
+        gainReduction = (float) Math.pow(envelope / threshold, exponent);
+      } else {
+        gainReduction = 1f;
+      }
+      float gain = gainReduction * makeup;
+      samples[i] = clamp(samples[i] * gain);
+      if (channels == 2) samples[i + 1] = clamp(samples[i + 1] * gain);
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package com.pedro.encoder.input.audio.effect;
+
+/**
+ * Multiply samples by a fixed gain, saturating at full scale.
+ */
+public class GainEffect extends PcmEffect {
+
+  private volatile float gain;
+
+  public GainEffect(float gainDb) {
+    setGainDb(gainDb);
+  }
+
+  public void setGainDb(float gainDb) {
+    this.gain = dbToLinear(gainDb);
+  }
+
+  public float getGain() {
+    return gain;
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int count) {
+    float gain = this.gain;
+    if (gain == 1f) return;
+    int end = offset + count;
+    for (int i = offset; i < end; i++) {
+      samples[i] = clamp(samples[i] * gain);
+    }
+  }
+}
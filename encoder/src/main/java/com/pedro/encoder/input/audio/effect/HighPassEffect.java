@@ -0,0 +1,108 @@
+package com.pedro.encoder.input.audio.effect;
+
+/**
+ * Second order Butterworth high pass filter (biquad) to remove rumble, wind and handling noise
+ * under the cutoff frequency. Each channel has its own history.
+ */
+public class HighPassEffect extends PcmEffect {
+
+  private static final double Q = Math.sqrt(0.5);
+  private static final float DENORMAL = 1e-10f;
+  //x1, x2, y1, y2 of each channel
+  private static final int HISTORY = 4;
+
+  private volatile float cutoffHz;
+  //replaced by setters in any thread, process reads it once per call
+  private volatile Filter filter;
+  //audio thread
+  private Filter applied;
+  private float[] history = new float[2 * HISTORY];
+
+  public HighPassEffect(float cutoffHz) {
+    this.cutoffHz = cutoffHz;
+    filter = new Filter(cutoffHz, sampleRate, channels, true);
+  }
+
+  public synchronized void setCutoff(float cutoffHz) {
+    this.cutoffHz = cutoffHz;
+    //same format, the history is still valid
+    filter = new Filter(cutoffHz, sampleRate, channels, false);
+  }
+
+  public float getCutoff() {
+    return cutoffHz;
+  }
+
+  @Override
+  public synchronized void configure(int sampleRate, int channels) {
+    super.configure(sampleRate, channels);
+  }
+
+  @Override
+  public synchronized void reset() {
+    filter = new Filter(cutoffHz, sampleRate, channels, true);
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int count) {
+    Filter filter = this.filter;
+    if (filter != applied) {
+      //the history is only touched here, a new format or reset is applied between buffers
+      int size = filter.channels * HISTORY;
+      if (history.length < size) history = new float[size];
+      if (filter.clearHistory) {
+        for (int i = 0; i < history.length; i++) {
+          history[i] = 0;
+        }
+      }
+      applied = filter;
+    }
+    final float b0 = filter.b0, b1 = filter.b1, b2 = filter.b2, a1 = filter.a1, a2 = filter.a2;
+    final int channels = filter.channels;
+    final float[] history = this.history;
+    for (int c = 0; c < channels; c++) {
+      int h = c * HISTORY;
+      float x1 = history[h], x2 = history[h + 1], y1 = history[h + 2], y2 = history[h + 3];
+      int end = offset + count;
+      for (int i = offset + c; i < end; i += channels) {
+        float x = samples[i];
+        float y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+        //avoid denormals decaying after silence, they are very slow in some cpus
+        if (y > -DENORMAL && y < DENORMAL) y = 0;
+        x2 = x1;
+        x1 = x;
+        y2 = y1;
+        y1 = y;
+        samples[i] = clamp(y);
+      }
+      history[h] = x1;
+      history[h + 1] = x2;
+      history[h + 2] = y1;
+      history[h + 3] = y2;
+    }
+  }
+
+  /**
+   * Coefficients of a cutoff and the format they are computed for, never modified.
+   */
+  private static class Filter {
+
+    private final int channels;
+    private final boolean clearHistory;
+    private final float b0, b1, b2, a1, a2;
+
+    Filter(float cutoffHz, int sampleRate, int channels, boolean clearHistory) {
+      this.channels = channels;
+      this.clearHistory = clearHistory;
+      double w0 = 2 * Math.PI * Math.min(cutoffHz, sampleRate * 0.45f) / sampleRate;
+      double cos = Math.cos(w0);
+      double alpha = Math.sin(w0) / (2 * Q);
+      double a0 = 1 + alpha;
+      b0 = (float) ((1 + cos) / 2 / a0);
+      b1 = (float) (-(1 + cos) / a0);
+      b2 = b0;
+      a1 = (float) (-2 * cos / a0);
+      a2 = (float) ((1 - alpha) / a0);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.pedro.encoder.input.audio.effect;
+
+/**
+ * Silence the signal while its level is under a threshold (background noise between words).
+ * The gate opens over the threshold and closes 6dB under it after the hold time, so it doesn't
+ * chatter with levels near the threshold. Gain changes are smoothed with attack and release
+ * times to avoid clicks. Channels are linked (the loudest one decides).
+ */
+public class NoiseGateEffect extends PcmEffect {
+
+  private static final float HYSTERESIS = 0.5f; //-6dB
+
+  private volatile float thresholdDb;
+  private volatile float attackMs;
+  private volatile float releaseMs;
+  private volatile float holdMs;
+  private volatile boolean dirty = true;
+  //audio thread
+  private float openLevel;
+  private float closeLevel;
+  private float attackCoefficient;
+  private float releaseCoefficient;
+  private float envelopeCoefficient;
+  private int holdFrames;
+  private float envelope = 0;
+  private float gain = 0;
+  private int holdCount = 0;
+  private boolean open = false;
+
+  public NoiseGateEffect(float thresholdDb) {
+    this(thresholdDb, 1, 100, 50);
+  }
+
+  public NoiseGateEffect(float thresholdDb, float attackMs, float releaseMs, float holdMs) {
+    this.thresholdDb = thresholdDb;
+    this.attackMs = attackMs;
+    this.releaseMs = releaseMs;
+    this.holdMs = holdMs;
+  }
+
+  public void setThreshold(float thresholdDb) {
+    this.thresholdDb = thresholdDb;
+    dirty = true;
+  }
+
+  public void setTimes(float attackMs, float releaseMs, float holdMs) {
+    this.attackMs = attackMs;
+    this.releaseMs = releaseMs;
+    this.holdMs = holdMs;
+    dirty = true;
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void configure(int sampleRate, int channels) {
+    super.configure(sampleRate, channels);
+    dirty = true;
+  }
+
+  @Override
+  public void reset() {
+    envelope = 0;
+    gain = 0;
+    holdCount = 0;
+    open = false;
+  }
+
+  private void updateCoefficients() {
+    dirty = false;
+    openLevel = dbToLinear(thresholdDb) * Short.MAX_VALUE;
+    closeLevel = openLevel * HYSTERESIS;
+    attackCoefficient = timeCoefficient(attackMs);
+    releaseCoefficient = timeCoefficient(releaseMs);
+    //level detector fast enough to follow the voice
+    envelopeCoefficient = timeCoefficient(5);
+    holdFrames = (int) (holdMs * sampleRate / 1000);
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int count) {
+    if (dirty) updateCoefficients();
+    final int channels = this.channels;
+    int end = offset + count - channels + 1;
+    for (int i = offset; i < end; i += channels) {
+      int peak = Math.abs(samples[i]);
+      if (channels == 2) peak = Math.max(peak, Math.abs(samples[i + 1]));
+      if (peak > envelope) {
+        envelope = peak;
+      } else {
+        envelope = peak + (envelope - peak) * envelopeCoefficient;
+      }
+      if (envelope >= openLevel) {
+        open = true;
+        holdCount = holdFrames;
+      } else if (envelope < closeLevel) {
+        if (holdCount > 0) {
+          holdCount--;
+        } else {
+          open = false;
+        }
+      }
+      float target = open ? 1f : 0f;
+      float coefficient = open ? attackCoefficient : releaseCoefficient;
+      gain = target + (gain - target) * coefficient;
+      samples[i] = (short) (samples[i] * gain);
+      if (channels == 2) samples[i + 1] = (short) (samples[i + 1] * gain);
+    }
+  }
+}
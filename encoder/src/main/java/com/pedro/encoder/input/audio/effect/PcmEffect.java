@@ -0,0 +1,60 @@
+package com.pedro.encoder.input.audio.effect;
+
+/**
+ * Stage of an AudioEffectChain. Modify 16 bits samples in place, interleaved if stereo.
+ *
+ * process is called from the audio thread and must not allocate. Setters can be called from any
+ * thread, values are applied in the next process.
+ */
+public abstract class PcmEffect {
+
+  protected int sampleRate = 32000;
+  protected int channels = 2;
+  private volatile boolean enabled = true;
+
+  /**
+   * Called by the chain before processing with other format.
+   */
+  public void configure(int sampleRate, int channels) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    reset();
+  }
+
+  /**
+   * @param count samples from offset, of all channels.
+   */
+  public abstract void process(short[] samples, int offset, int count);
+
+  /**
+   * Clear the state (envelopes, filter history...).
+   */
+  public void reset() {
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  protected static float dbToLinear(float db) {
+    return (float) Math.pow(10, db / 20);
+  }
+
+  /**
+   * @return coefficient of a one pole smoother that reach 63% of a change in timeMs.
+   */
+  protected float timeCoefficient(float timeMs) {
+    if (timeMs <= 0) return 0;
+    return (float) Math.exp(-1000.0 / (timeMs * sampleRate));
+  }
+
+  protected static short clamp(float sample) {
+    if (sample > Short.MAX_VALUE) return Short.MAX_VALUE;
+    if (sample < Short.MIN_VALUE) return Short.MIN_VALUE;
+    return (short) sample;
+  }
+}
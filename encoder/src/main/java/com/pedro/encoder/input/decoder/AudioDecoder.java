@@ -9,6 +9,7 @@ import com.pedro.encoder.input.audio.GetMicrophoneData;
 import com.pedro.encoder.utils.PCMUtil;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Created by pedro on 20/06/17.
@@ -30,20 +31,34 @@ public class AudioDecoder {
   private int sampleRate;
   private boolean isStereo;
   private int channels = 1;
-  private int size = 2048;
-  private byte[] pcmBuffer = new byte[size];
-  private byte[] pcmBufferMuted = new byte[11];
+  //channels given by the decoder, could be different than the file
+  private int outputChannels = 1;
+  //decoded buffers with other channels than the file are mixed here first
+  private byte[] pcmBuffer = new byte[0];
+  private PcmFramePool framePool;
   private static boolean loopMode = false;
   private boolean muted = false;
   private long duration;
-  private volatile long seekTime = 0;
-  private volatile long startMs = 0;
+  private final MediaClock mediaClock;
+  private final boolean ownClock;
 
   public AudioDecoder(GetMicrophoneData getMicrophoneData,
       AudioDecoderInterface audioDecoderInterface, LoopFileInterface loopFileInterface) {
+    this(getMicrophoneData, audioDecoderInterface, loopFileInterface, null);
+  }
+
+  /**
+   * @param mediaClock clock shared with the VideoDecoder of the same file. If null the decoder
+   * use its own clock and moveTo move it.
+   */
+  public AudioDecoder(GetMicrophoneData getMicrophoneData,
+      AudioDecoderInterface audioDecoderInterface, LoopFileInterface loopFileInterface,
+      MediaClock mediaClock) {
     this.getMicrophoneData = getMicrophoneData;
     this.audioDecoderInterface = audioDecoderInterface;
     this.loopFileInterface = loopFileInterface;
+    this.ownClock = mediaClock == null;
+    this.mediaClock = ownClock ? new MediaClock() : mediaClock;
   }
 
   public boolean initExtractor(String filePath) throws IOException {
@@ -64,9 +79,9 @@ public class AudioDecoder {
       isStereo = channels >= 2;
       sampleRate = audioFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
       duration = audioFormat.getLong(MediaFormat.KEY_DURATION);
-      if (channels >= 2) {
-        pcmBuffer = new byte[2048 * channels];
-      }
+      outputChannels = channels;
+      //AAC frames have 1024 samples per channel (2048 with SBR), 16 bits each
+      framePool = new PcmFramePool(2048 * getEncoderChannels() * 2);
       return true;
       //audio decoder not supported
     } else {
@@ -105,7 +120,7 @@ public class AudioDecoder {
 
   public void stop() {
     decoding = false;
-    seekTime = 0;
+    if (ownClock) mediaClock.reset();
     if (thread != null) {
       thread.interrupt();
       try {
@@ -131,7 +146,6 @@ public class AudioDecoder {
   private void decodeAudio() throws IllegalStateException {
     ByteBuffer[] inputBuffers = audioDecoder.getInputBuffers();
     ByteBuffer[] outputBuffers = audioDecoder.getOutputBuffers();
-    startMs = System.currentTimeMillis();
     while (decoding) {
       int inIndex = audioDecoder.dequeueInputBuffer(10000);
       if (inIndex >= 0) {
@@ -150,44 +164,28 @@ public class AudioDecoder {
             outputBuffers = audioDecoder.getOutputBuffers();
             break;
           case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
+            MediaFormat outputFormat = audioDecoder.getOutputFormat();
+            outputChannels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            if (outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE) != sampleRate) {
+              Log.e(TAG, "Decoder sample rate is different than file, audio speed will be wrong");
+            }
+            break;
           case MediaCodec.INFO_TRY_AGAIN_LATER:
             break;
           default:
-            //needed for fix decode speed
-            while (audioExtractor.getSampleTime() / 1000
-                > System.currentTimeMillis() - startMs + seekTime) {
-              try {
-                Thread.sleep(10);
-              } catch (InterruptedException e) {
-                if (thread != null) thread.interrupt();
-                return;
-              }
-            }
+            //needed for fix decode speed, late buffers are given without wait to catch up
+            if (mediaClock.waitFor(false, audioInfo.presentationTimeUs) < 0) return;
             ByteBuffer outBuffer = outputBuffers[outIndex];
             //This buffer is PCM data
-            if (muted) {
-              outBuffer.get(pcmBufferMuted, 0,
-                  outBuffer.remaining() <= pcmBufferMuted.length ? outBuffer.remaining()
-                      : pcmBufferMuted.length);
-              getMicrophoneData.inputPCMData(new Frame(pcmBufferMuted, 0, pcmBufferMuted.length));
-            } else {
-              outBuffer.get(pcmBuffer, 0,
-                  outBuffer.remaining() <= pcmBuffer.length ? outBuffer.remaining()
-                      : pcmBuffer.length);
-              if (channels > 2) { //downgrade to stereo
-                byte[] bufferStereo = PCMUtil.pcmToStereo(pcmBuffer, channels);
-                getMicrophoneData.inputPCMData(new Frame(bufferStereo, 0, bufferStereo.length));
-              } else {
-                getMicrophoneData.inputPCMData(new Frame(pcmBuffer, 0, pcmBuffer.length));
-              }
-            }
+            outBuffer.limit(audioInfo.offset + audioInfo.size);
+            outBuffer.position(audioInfo.offset);
+            sendPcm(outBuffer, audioInfo.size);
             audioDecoder.releaseOutputBuffer(outIndex, false);
             break;
         }
 
         // All decoded frames have been rendered, we can stop playing now
         if ((audioInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-          seekTime = 0;
           Log.i(TAG, "end of file out");
           if (loopMode) {
             loopFileInterface.onReset(false);
@@ -199,6 +197,44 @@ public class AudioDecoder {
     }
   }
 
+  /**
+   * Give a decoded buffer to the receiver in a pooled frame, with the channels of the encoder
+   * (mono or stereo), or silence of the same size if muted.
+   */
+  private void sendPcm(ByteBuffer outBuffer, int size) {
+    int samples = size / (outputChannels * 2);
+    if (samples == 0) return;
+    int encoderChannels = getEncoderChannels();
+    Frame frame = framePool.obtain(samples * encoderChannels * 2);
+    if (frame == null) return;
+    byte[] buffer = frame.getBuffer();
+    if (muted) {
+      Arrays.fill(buffer, 0, frame.getSize(), (byte) 0);
+    } else if (outputChannels == encoderChannels) {
+      outBuffer.get(buffer, 0, frame.getSize());
+    } else {
+      if (pcmBuffer.length < size) pcmBuffer = new byte[size];
+      outBuffer.get(pcmBuffer, 0, size);
+      frame.setSize(
+          PCMUtil.downmix(pcmBuffer, 0, size, outputChannels, encoderChannels, buffer));
+    }
+    getMicrophoneData.inputPCMData(frame);
+  }
+
+  /**
+   * @return channels of the file given to the encoder, more than 2 are mixed to stereo.
+   */
+  private int getEncoderChannels() {
+    return isStereo ? 2 : 1;
+  }
+
+  /**
+   * @return decoded buffers discarded because the receiver didn't release previous frames.
+   */
+  public long getDiscardedFrames() {
+    return framePool != null ? framePool.getDiscarded() : 0;
+  }
+
   public double getTime() {
     if (decoding) {
       return audioExtractor.getSampleTime() / 10E5;
@@ -207,10 +243,12 @@ public class AudioDecoder {
     }
   }
 
+  /**
+   * Seek the file. With a shared clock the clock is moved by the owner of the clock.
+   */
   public void moveTo(double time) {
     audioExtractor.seekTo((long) (time * 10E5), MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-    seekTime = audioExtractor.getSampleTime() / 1000;
-    startMs = System.currentTimeMillis();
+    if (ownClock) mediaClock.seekTo(audioExtractor.getSampleTime());
   }
 
   public void setLoopMode(boolean loopMode) {
@@ -0,0 +1,283 @@
+package com.pedro.encoder.input.decoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+import com.pedro.encoder.audio.GetAacData;
+import com.pedro.encoder.input.demuxer.Demuxer;
+import com.pedro.encoder.input.demuxer.MediaTrack;
+import com.pedro.encoder.utils.CodecUtil;
+import com.pedro.encoder.video.GetVideoData;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Send the H264/H265 and AAC samples of a MP4 or FLV file to the stream without decode and
+ * encode them again. Samples are given in time order to the same callbacks used by the
+ * encoders, with the codec config of the tracks as sps/pps/vps, when their time arrives.
+ *
+ * Timestamps start in 0 and in loop mode the file is read again from the start with timestamps
+ * moved after the last sample sent, so the stream never goes back in time.
+ *
+ * Packetizers send the presentation time as decode time, so files with B-frames (samples not in
+ * presentation order) are rejected by initExtractor and need to be transcoded.
+ */
+public class FilePassthrough {
+
+  private static final String TAG = "FilePassthrough";
+  //used to separate loops and seeks, duration of the last sample is unknown
+  private static final long DEFAULT_SAMPLE_DURATION_US = 23000;
+
+  private final GetVideoData getVideoData;
+  private final GetAacData getAacData;
+  private final VideoDecoderInterface videoDecoderInterface;
+  private Demuxer demuxer;
+  private MediaTrack videoTrack;
+  private MediaTrack audioTrack;
+  //video samples are converted to annex b here
+  private ByteBuffer videoBuffer;
+  private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+  private volatile boolean running = false;
+  private volatile boolean loopMode = false;
+  private Thread thread;
+  //timestamps: stream time = sample time + loopOffsetUs, sent at startNs + stream time
+  private long loopOffsetUs = 0;
+  private long lastTimeUs = 0;
+  private long startNs;
+  private volatile long seekToUs = -1;
+  private volatile long currentTimeUs = 0;
+
+  /**
+   * @param getVideoData receive sps/pps/vps and video samples.
+   * @param getAacData receive audio samples, can be null to send only video.
+   * @param videoDecoderInterface called when the file finish if loop mode is disabled.
+   */
+  public FilePassthrough(GetVideoData getVideoData, GetAacData getAacData,
+      VideoDecoderInterface videoDecoderInterface) {
+    this.getVideoData = getVideoData;
+    this.getAacData = getAacData;
+    this.videoDecoderInterface = videoDecoderInterface;
+  }
+
+  /**
+   * @return false if the file hasn't H264 or H265 video or has B-frames.
+   * @throws IOException if the file can't be read or isn't MP4 or FLV.
+   */
+  public boolean initExtractor(String filePath) throws IOException {
+    demuxer = Demuxer.open(new File(filePath));
+    videoTrack = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    audioTrack = getAacData != null ? demuxer.getTrack(MediaTrack.Type.AUDIO) : null;
+    if (videoTrack == null || videoTrack.getSps() == null || videoTrack.getPps() == null
+        || (CodecUtil.H265_MIME.equals(videoTrack.getMime()) && videoTrack.getVps() == null)) {
+      Log.e(TAG, "Video not supported");
+      release();
+      return false;
+    }
+    if (videoTrack.hasReorderedSamples()) {
+      Log.e(TAG, "Video with B-frames not supported");
+      release();
+      return false;
+    }
+    if (audioTrack != null && audioTrack.getAudioConfig() == null) audioTrack = null;
+    //start codes can be bigger than nal lengths
+    videoBuffer = ByteBuffer.allocateDirect(videoTrack.getMaxSampleSize() * 2 + 1024);
+    return true;
+  }
+
+  public void start() {
+    loopOffsetUs = 0;
+    lastTimeUs = 0;
+    running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          sendFormats();
+          sendSamples();
+        } catch (IllegalStateException e) {
+          Log.i(TAG, "Passthrough error", e);
+        } finally {
+          //the demuxer is only used by this thread after start
+          release();
+        }
+      }
+    }, TAG);
+    thread.start();
+  }
+
+  public void stop() {
+    running = false;
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      thread = null;
+    } else {
+      release();
+    }
+  }
+
+  private synchronized void release() {
+    if (demuxer != null) {
+      try {
+        demuxer.close();
+      } catch (IOException e) {
+        Log.e(TAG, "Error closing file", e);
+      }
+      demuxer = null;
+    }
+  }
+
+  private void sendFormats() {
+    MediaFormat videoFormat = MediaFormat.createVideoFormat(videoTrack.getMime(),
+        videoTrack.getWidth(), videoTrack.getHeight());
+    videoFormat.setByteBuffer("csd-0", videoTrack.getCsd0());
+    if (videoTrack.getCsd1() != null) videoFormat.setByteBuffer("csd-1", videoTrack.getCsd1());
+    getVideoData.onVideoFormat(videoFormat);
+    if (audioTrack != null) {
+      MediaFormat audioFormat = MediaFormat.createAudioFormat(audioTrack.getMime(),
+          audioTrack.getSampleRate(), audioTrack.getChannels());
+      audioFormat.setByteBuffer("csd-0", audioTrack.getCsd0());
+      getAacData.onAudioFormat(audioFormat);
+    }
+    sendVideoConfig();
+  }
+
+  /**
+   * Give sps/pps/vps to the callback again, like a reset encoder would do. Use it when the stream
+   * is started or reconnected after start.
+   */
+  public void sendVideoConfig() {
+    if (CodecUtil.H265_MIME.equals(videoTrack.getMime())) {
+      getVideoData.onSpsPpsVps(videoTrack.getSps(), videoTrack.getPps(), videoTrack.getVps());
+    } else {
+      getVideoData.onSpsPps(videoTrack.getSps(), videoTrack.getPps());
+    }
+  }
+
+  private void sendSamples() {
+    startNs = System.nanoTime();
+    int videoIndex = 0;
+    int audioIndex = 0;
+    int videoCount = videoTrack.getSampleCount();
+    int audioCount = audioTrack != null ? audioTrack.getSampleCount() : 0;
+    while (running) {
+      long seek = seekToUs;
+      if (seek >= 0) {
+        seekToUs = -1;
+        videoIndex = videoTrack.getSyncSampleBefore(seek);
+        audioIndex = firstAudioSampleFrom(videoTrack.getDtsUs(videoIndex));
+        //keep stream time going forward from the last sample sent
+        loopOffsetUs = lastTimeUs + DEFAULT_SAMPLE_DURATION_US - videoTrack.getDtsUs(videoIndex);
+      }
+      if (videoIndex >= videoCount && audioIndex >= audioCount) {
+        Log.i(TAG, "end of file");
+        if (!loopMode) {
+          running = false;
+          videoDecoderInterface.onVideoDecoderFinished();
+          return;
+        }
+        videoIndex = 0;
+        audioIndex = 0;
+        loopOffsetUs = lastTimeUs + DEFAULT_SAMPLE_DURATION_US - videoTrack.getDtsUs(0);
+        continue;
+      }
+      //interleave tracks by time, whatever the order of the samples in the file
+      boolean isVideo = audioIndex >= audioCount || (videoIndex < videoCount
+          && videoTrack.getDtsUs(videoIndex) <= audioTrack.getDtsUs(audioIndex));
+      MediaTrack track = isVideo ? videoTrack : audioTrack;
+      int index = isVideo ? videoIndex++ : audioIndex++;
+      long sampleTimeUs = track.getDtsUs(index);
+      long timeUs = sampleTimeUs + loopOffsetUs;
+      if (!waitUntil(timeUs)) return;
+      int flags = track.isSync(index) ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+      if (isVideo) {
+        videoBuffer.clear();
+        int size = videoTrack.copyAnnexB(index, videoBuffer);
+        if (size <= 0) continue;
+        videoBuffer.flip();
+        info.set(0, size, timeUs, flags);
+        getVideoData.getVideoData(videoBuffer, info);
+      } else {
+        //zero copy, the slice of the mapped file is given as it is
+        ByteBuffer sample = audioTrack.getSample(index);
+        info.set(0, sample.remaining(), timeUs, flags);
+        getAacData.getAacData(sample, info);
+      }
+      lastTimeUs = Math.max(lastTimeUs, timeUs);
+      currentTimeUs = sampleTimeUs;
+    }
+  }
+
+  private int firstAudioSampleFrom(long timeUs) {
+    return audioTrack != null ? audioTrack.getSampleBefore(timeUs - 1) + 1 : 0;
+  }
+
+  /**
+   * Park until the stream time of the sample.
+   *
+   * @return false if stopped while waiting.
+   */
+  private boolean waitUntil(long timeUs) {
+    long targetNs = startNs + timeUs * 1000;
+    long remaining;
+    while ((remaining = targetNs - System.nanoTime()) > 0) {
+      if (!running || Thread.interrupted()) return false;
+      LockSupport.parkNanos(remaining);
+    }
+    return running;
+  }
+
+  /**
+   * Go to the key frame before the time, timestamps keep going forward.
+   *
+   * @param time in seconds.
+   */
+  public void moveTo(double time) {
+    seekToUs = (long) (time * 1000000);
+  }
+
+  public void setLoopMode(boolean loopMode) {
+    this.loopMode = loopMode;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return time in the file of the last sample sent in seconds.
+   */
+  public double getTime() {
+    return running ? currentTimeUs / 1000000.0 : 0;
+  }
+
+  public double getDuration() {
+    return videoTrack != null ? videoTrack.getDurationUs() / 1000000.0 : 0;
+  }
+
+  public int getWidth() {
+    return videoTrack != null ? videoTrack.getWidth() : 0;
+  }
+
+  public int getHeight() {
+    return videoTrack != null ? videoTrack.getHeight() : 0;
+  }
+
+  public boolean hasAudio() {
+    return audioTrack != null;
+  }
+
+  public int getSampleRate() {
+    return audioTrack != null ? audioTrack.getSampleRate() : 0;
+  }
+
+  public boolean isStereo() {
+    return audioTrack != null && audioTrack.getChannels() >= 2;
+  }
+}
@@ -0,0 +1,114 @@
+package com.pedro.encoder.input.decoder;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Clock shared by VideoDecoder and AudioDecoder of a file. Both streams wait for the deadline of
+ * each decoded sample in the same time base (nanoTime of media time 0), parking the thread until
+ * the exact deadline instead of sleeping in steps, so frames are delivered evenly and audio and
+ * video never drift apart.
+ *
+ * In loop mode each stream is moved by the same loop duration when it starts again, so a stream
+ * that finishes before the other waits for it instead of accumulating offset.
+ *
+ * Lateness of each stream (time between the deadline and the delivery) is measured to get the
+ * A/V offset.
+ */
+public class MediaClock {
+
+  private static final int VIDEO = 0;
+  private static final int AUDIO = 1;
+  private static final float LATENESS_ALPHA = 0.1f;
+
+  private boolean started = false;
+  private long baseNs;
+  private long loopDurationUs = 0;
+  private final long[] offsetUs = new long[2];
+  private final long[] lastTimeUs = new long[2];
+  private final float[] latenessUs = new float[2];
+
+  /**
+   * Media time 0 will be the first wait.
+   */
+  public synchronized void reset() {
+    started = false;
+    for (int i = 0; i < 2; i++) {
+      offsetUs[i] = 0;
+      lastTimeUs[i] = 0;
+      latenessUs[i] = 0;
+    }
+  }
+
+  /**
+   * @param loopDurationUs time added to a stream when the file is started again, use the
+   * duration of the longest track.
+   */
+  public synchronized void setLoopDuration(long loopDurationUs) {
+    this.loopDurationUs = loopDurationUs;
+  }
+
+  /**
+   * Called when a stream starts from the beginning of the file again, before its first sample.
+   */
+  public synchronized void onLoop(boolean isVideo) {
+    int stream = isVideo ? VIDEO : AUDIO;
+    offsetUs[stream] += loopDurationUs > 0 ? loopDurationUs : lastTimeUs[stream];
+  }
+
+  /**
+   * Move the clock to the time of the file now, used after seek both decoders.
+   */
+  public synchronized void seekTo(long timeUs) {
+    started = true;
+    baseNs = System.nanoTime() - timeUs * 1000;
+    offsetUs[VIDEO] = 0;
+    offsetUs[AUDIO] = 0;
+  }
+
+  /**
+   * Park the thread until the time of the sample. Starts the clock if it is the first sample.
+   *
+   * @param timeUs presentation time of the sample in the file.
+   * @return microseconds the sample is late (0 if on time) or -1 if the thread was interrupted.
+   */
+  public long waitFor(boolean isVideo, long timeUs) {
+    int stream = isVideo ? VIDEO : AUDIO;
+    long deadlineNs;
+    synchronized (this) {
+      if (!started) {
+        started = true;
+        baseNs = System.nanoTime() - timeUs * 1000;
+      }
+      deadlineNs = baseNs + (timeUs + offsetUs[stream]) * 1000;
+    }
+    long remaining;
+    while ((remaining = deadlineNs - System.nanoTime()) > 0) {
+      if (Thread.interrupted()) {
+        //keep the interrupted state to the caller
+        Thread.currentThread().interrupt();
+        return -1;
+      }
+      LockSupport.parkNanos(remaining);
+    }
+    long lateUs = -remaining / 1000;
+    synchronized (this) {
+      lastTimeUs[stream] = timeUs;
+      latenessUs[stream] += LATENESS_ALPHA * (lateUs - latenessUs[stream]);
+    }
+    return lateUs;
+  }
+
+  /**
+   * @return time of the file now, 0 if not started.
+   */
+  public synchronized long getTimeUs() {
+    return started ? (System.nanoTime() - baseNs) / 1000 : 0;
+  }
+
+  /**
+   * @return microseconds video is delivered after audio (moving average), negative if before.
+   */
+  public synchronized long getAvOffsetUs() {
+    return (long) (latenessUs[VIDEO] - latenessUs[AUDIO]);
+  }
+}
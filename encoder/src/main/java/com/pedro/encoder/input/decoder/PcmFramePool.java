@@ -0,0 +1,78 @@
+package com.pedro.encoder.input.decoder;
+
+import android.util.Log;
+import com.pedro.encoder.Frame;
+
+/**
+ * Audio frames reused by AudioDecoder for each decoded buffer. A frame is free again when the
+ * receiver releases it, usually before inputPCMData returns so only one frame is used. If the
+ * receiver keeps frames the pool grows up to a limit and after that buffers are discarded
+ * instead of allocating in each one.
+ */
+class PcmFramePool implements Frame.ReleaseListener {
+
+  private static final String TAG = "PcmFramePool";
+  private static final int MAX_FRAMES = 16;
+
+  private final Frame[] frames = new Frame[MAX_FRAMES];
+  private final boolean[] inUse = new boolean[MAX_FRAMES];
+  private int count = 0;
+  private int bufferSize;
+  private long discarded = 0;
+
+  /**
+   * @param bufferSize initial bytes of each frame, frames grow if a bigger buffer is needed.
+   */
+  PcmFramePool(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * @return free frame with a buffer of size bytes at least, null if all frames are in use.
+   */
+  synchronized Frame obtain(int size) {
+    int index = -1;
+    for (int i = 0; i < count; i++) {
+      if (!inUse[i]) {
+        index = i;
+        break;
+      }
+    }
+    if (index == -1) {
+      if (count == MAX_FRAMES) {
+        discarded++;
+        Log.i(TAG, "all frames in use, buffer discarded");
+        return null;
+      }
+      index = count++;
+      frames[index] = new Frame(new byte[Math.max(bufferSize, size)], 0, 0);
+      frames[index].setReleaseListener(this);
+    }
+    Frame frame = frames[index];
+    if (frame.getBuffer().length < size) {
+      bufferSize = size;
+      frame.setBuffer(new byte[size]);
+    }
+    frame.setOffset(0);
+    frame.setSize(size);
+    inUse[index] = true;
+    return frame;
+  }
+
+  @Override
+  public synchronized void onFrameReleased(Frame frame) {
+    for (int i = 0; i < count; i++) {
+      if (frames[i] == frame) {
+        inUse[i] = false;
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return buffers discarded because the receiver didn't release its frames.
+   */
+  synchronized long getDiscarded() {
+    return discarded;
+  }
+}
@@ -28,13 +28,30 @@ public class VideoDecoder {
   private int height;
   private long duration;
   private static boolean loopMode = false;
-  private volatile long seekTime = 0;
-  private volatile long startMs = 0;
+  //frames later than this are not rendered to catch up the clock
+  private static final long MAX_LATE_US = 50000;
+  //render a late frame after this number of dropped frames so the surface is never frozen
+  private static final int MAX_CONSECUTIVE_DROPS = 5;
+  private final MediaClock mediaClock;
+  private final boolean ownClock;
+  private int consecutiveDrops = 0;
+  private volatile long droppedFrames = 0;
 
   public VideoDecoder(VideoDecoderInterface videoDecoderInterface,
       LoopFileInterface loopFileInterface) {
+    this(videoDecoderInterface, loopFileInterface, null);
+  }
+
+  /**
+   * @param mediaClock clock shared with the AudioDecoder of the same file. If null the decoder
+   * use its own clock and moveTo move it.
+   */
+  public VideoDecoder(VideoDecoderInterface videoDecoderInterface,
+      LoopFileInterface loopFileInterface, MediaClock mediaClock) {
     this.videoDecoderInterface = videoDecoderInterface;
     this.loopFileInterface = loopFileInterface;
+    this.ownClock = mediaClock == null;
+    this.mediaClock = ownClock ? new MediaClock() : mediaClock;
   }
 
   public boolean initExtractor(String filePath) throws IOException {
@@ -92,7 +109,7 @@ public class VideoDecoder {
 
   public void stop() {
     decoding = false;
-    seekTime = 0;
+    if (ownClock) mediaClock.reset();
     if (thread != null) {
       thread.interrupt();
       try {
@@ -117,7 +134,6 @@ public class VideoDecoder {
 
   private void decodeVideo() throws IllegalStateException {
     ByteBuffer[] inputBuffers = videoDecoder.getInputBuffers();
-    startMs = System.currentTimeMillis();
     while (decoding) {
       int inIndex = videoDecoder.dequeueInputBuffer(10000);
       if (inIndex >= 0) {
@@ -132,19 +148,21 @@ public class VideoDecoder {
       }
       int outIndex = videoDecoder.dequeueOutputBuffer(videoInfo, 10000);
       if (outIndex >= 0) {
-        while (videoExtractor.getSampleTime() / 1000
-            > System.currentTimeMillis() - startMs + seekTime) {
-          try {
-            Thread.sleep(10);
-          } catch (InterruptedException e) {
-            if (thread != null) thread.interrupt();
-            return;
+        boolean render = videoInfo.size != 0;
+        if (render) {
+          long late = mediaClock.waitFor(true, videoInfo.presentationTimeUs);
+          if (late < 0) return;
+          if (late > MAX_LATE_US && consecutiveDrops < MAX_CONSECUTIVE_DROPS) {
+            render = false;
+            consecutiveDrops++;
+            droppedFrames++;
+          } else {
+            consecutiveDrops = 0;
           }
         }
-        videoDecoder.releaseOutputBuffer(outIndex, videoInfo.size != 0);
+        videoDecoder.releaseOutputBuffer(outIndex, render);
       }
       if ((videoInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-        seekTime = 0;
         Log.i(TAG, "end of file out");
         if (loopMode) {
           loopFileInterface.onReset(true);
@@ -163,10 +181,22 @@ public class VideoDecoder {
     }
   }
 
+  /**
+   * Seek the file to the previous key frame of the time. With its own clock the clock is moved to
+   * that key frame. With a shared clock the clock is moved to the time by the owner of the clock,
+   * so frames from the key frame to the time are late and decoded as fast as possible. They are
+   * dropped, except one after each MAX_CONSECUTIVE_DROPS (every sixth frame is rendered).
+   */
   public void moveTo(double time) {
     videoExtractor.seekTo((long) (time * 10E5), MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-    seekTime = videoExtractor.getSampleTime() / 1000;
-    startMs = System.currentTimeMillis();
+    if (ownClock) mediaClock.seekTo(videoExtractor.getSampleTime());
+  }
+
+  /**
+   * @return frames not rendered because they were decoded too late.
+   */
+  public long getDroppedFrames() {
+    return droppedFrames;
   }
 
   public void setLoopMode(boolean loopMode) {
@@ -0,0 +1,187 @@
+package com.pedro.encoder.input.demuxer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Demuxer of MP4 (ISO BMFF, not fragmented) and FLV files without Android APIs.
+ *
+ * The file is mapped in memory and the sample table of each track is built when it is opened,
+ * after that reading or seeking is only array access and the OS reads ahead the mapped pages.
+ * Only files up to 2GB can be mapped in one buffer.
+ */
+public abstract class Demuxer implements Closeable {
+
+  private static final int[] AAC_SAMPLE_RATES = {
+      96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+  };
+
+  private final RandomAccessFile file;
+  protected final ByteBuffer data;
+  protected final List<MediaTrack> tracks = new ArrayList<>();
+
+  Demuxer(File file) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = this.file.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("File bigger than 2GB not supported");
+      }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      data = mapped.order(ByteOrder.BIG_ENDIAN);
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Open a MP4 or FLV file, the format is detected by content.
+   *
+   * @throws IOException if the file can't be read or the format isn't supported.
+   */
+  public static Demuxer open(File file) throws IOException {
+    byte[] header = new byte[8];
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      randomAccessFile.readFully(header);
+    } finally {
+      randomAccessFile.close();
+    }
+    Demuxer demuxer;
+    if (header[0] == 'F' && header[1] == 'L' && header[2] == 'V') {
+      demuxer = new FlvDemuxer(file);
+    } else if (header[4] == 'f' && header[5] == 't' && header[6] == 'y' && header[7] == 'p') {
+      demuxer = new Mp4Demuxer(file);
+    } else {
+      throw new IOException("Format not supported");
+    }
+    try {
+      demuxer.parse();
+    } catch (IOException | RuntimeException e) {
+      //truncated or malformed files end in buffer exceptions
+      demuxer.close();
+      throw new IOException("Error reading file", e);
+    }
+    for (MediaTrack track : demuxer.tracks) {
+      track.setData(demuxer.data);
+      track.trim();
+    }
+    return demuxer;
+  }
+
+  /**
+   * Read the file from data and add its tracks.
+   */
+  abstract void parse() throws IOException;
+
+  public List<MediaTrack> getTracks() {
+    return Collections.unmodifiableList(tracks);
+  }
+
+  /**
+   * @return first track of the type, null if the file hasn't it.
+   */
+  public MediaTrack getTrack(MediaTrack.Type type) {
+    for (MediaTrack track : tracks) {
+      if (track.getType() == type) return track;
+    }
+    return null;
+  }
+
+  public long getDurationUs() {
+    long duration = 0;
+    for (MediaTrack track : tracks) {
+      duration = Math.max(duration, track.getDurationUs());
+    }
+    return duration;
+  }
+
+  /**
+   * Samples given by tracks can't be used after this.
+   */
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  protected static ByteBuffer copy(ByteBuffer buffer, int length) {
+    ByteBuffer copy = ByteBuffer.allocate(length);
+    ByteBuffer source = buffer.duplicate();
+    source.limit(source.position() + length);
+    copy.put(source);
+    copy.flip();
+    buffer.position(buffer.position() + length);
+    return copy;
+  }
+
+  /**
+   * Read an AVCDecoderConfigurationRecord (avcC) to the track.
+   */
+  protected static void parseAvcConfig(ByteBuffer record, MediaTrack track) {
+    record.position(record.position() + 4);
+    track.nalLengthSize = (record.get() & 0x03) + 1;
+    int spsCount = record.get() & 0x1F;
+    for (int i = 0; i < spsCount; i++) {
+      ByteBuffer sps = copy(record, record.getShort() & 0xFFFF);
+      if (track.sps == null) track.sps = MediaTrack.withStartCode(sps);
+    }
+    int ppsCount = record.get() & 0xFF;
+    for (int i = 0; i < ppsCount; i++) {
+      ByteBuffer pps = copy(record, record.getShort() & 0xFFFF);
+      if (track.pps == null) track.pps = MediaTrack.withStartCode(pps);
+    }
+  }
+
+  /**
+   * Read a HEVCDecoderConfigurationRecord (hvcC) to the track.
+   */
+  protected static void parseHevcConfig(ByteBuffer record, MediaTrack track) {
+    record.position(record.position() + 21);
+    track.nalLengthSize = (record.get() & 0x03) + 1;
+    int arrays = record.get() & 0xFF;
+    for (int i = 0; i < arrays; i++) {
+      int type = record.get() & 0x3F;
+      int count = record.getShort() & 0xFFFF;
+      for (int j = 0; j < count; j++) {
+        ByteBuffer nal = copy(record, record.getShort() & 0xFFFF);
+        //32 VPS, 33 SPS, 34 PPS
+        if (type == 32 && track.vps == null) {
+          track.vps = MediaTrack.withStartCode(nal);
+        } else if (type == 33 && track.sps == null) {
+          track.sps = MediaTrack.withStartCode(nal);
+        } else if (type == 34 && track.pps == null) {
+          track.pps = MediaTrack.withStartCode(nal);
+        }
+      }
+    }
+  }
+
+  /**
+   * Read sample rate and channels of an AAC AudioSpecificConfig, values in the track are kept
+   * if it can't be read.
+   */
+  protected static void parseAudioConfig(ByteBuffer config, MediaTrack track) {
+    track.audioConfig = config;
+    if (config.remaining() < 2) return;
+    int bits = ((config.get(config.position()) & 0xFF) << 8)
+        | (config.get(config.position() + 1) & 0xFF);
+    int frequencyIndex = (bits >> 7) & 0x0F;
+    int channelConfig = (bits >> 3) & 0x0F;
+    if (frequencyIndex < AAC_SAMPLE_RATES.length) {
+      track.sampleRate = AAC_SAMPLE_RATES[frequencyIndex];
+    }
+    if (channelConfig > 0 && channelConfig < 8) {
+      track.channels = channelConfig == 7 ? 8 : channelConfig;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.pedro.encoder.input.demuxer;
+
+import com.pedro.encoder.utils.CodecUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * FLV demuxer. Reads every tag header once to build the sample table of H264 (or H265 with the
+ * legacy codec id 12) video and AAC audio. Sequence headers are used as codec config and the
+ * video size is read from onMetaData.
+ */
+public class FlvDemuxer extends Demuxer {
+
+  private static final int TAG_AUDIO = 8;
+  private static final int TAG_VIDEO = 9;
+  private static final int TAG_SCRIPT = 18;
+  private static final int TAG_HEADER_SIZE = 11;
+  private static final int CODEC_AVC = 7;
+  private static final int CODEC_HEVC = 12;
+  private static final int SOUND_AAC = 10;
+
+  private MediaTrack video;
+  private MediaTrack audio;
+  private int width;
+  private int height;
+
+  FlvDemuxer(File file) throws IOException {
+    super(file);
+  }
+
+  @Override
+  void parse() throws IOException {
+    int position = data.getInt(5) + 4;
+    int end = data.limit();
+    while (position + TAG_HEADER_SIZE <= end) {
+      int type = data.get(position) & 0x1F;
+      int size = getUInt24(position + 1);
+      long timestamp = getUInt24(position + 4) | ((data.get(position + 7) & 0xFFL) << 24);
+      int payload = position + TAG_HEADER_SIZE;
+      //truncated file, keep the complete tags
+      if (payload + size > end) break;
+      if (type == TAG_VIDEO && size > 5) {
+        parseVideoTag(payload, size, timestamp * 1000);
+      } else if (type == TAG_AUDIO && size > 2) {
+        parseAudioTag(payload, size, timestamp * 1000);
+      } else if (type == TAG_SCRIPT) {
+        parseMetadata(payload, size);
+      }
+      position = payload + size + 4;
+    }
+    if (video != null) {
+      video.width = width;
+      video.height = height;
+      tracks.add(video);
+    }
+    if (audio != null) tracks.add(audio);
+    if (tracks.isEmpty()) throw new IOException("No H264, H265 or AAC tags found");
+  }
+
+  private int getUInt24(int position) {
+    return ((data.get(position) & 0xFF) << 16) | ((data.get(position + 1) & 0xFF) << 8)
+        | (data.get(position + 2) & 0xFF);
+  }
+
+  private void parseVideoTag(int payload, int size, long timeUs) {
+    int header = data.get(payload) & 0xFF;
+    int codec = header & 0x0F;
+    //enhanced rtmp headers (bit 7) are not supported
+    if ((header & 0x80) != 0 || (codec != CODEC_AVC && codec != CODEC_HEVC)) return;
+    if (video == null) {
+      video = new MediaTrack(MediaTrack.Type.VIDEO,
+          codec == CODEC_HEVC ? CodecUtil.H265_MIME : CodecUtil.H264_MIME);
+    }
+    int packetType = data.get(payload + 1);
+    if (packetType == 0) {
+      ByteBuffer record = slice(payload + 5, size - 5);
+      if (codec == CODEC_HEVC) {
+        parseHevcConfig(record, video);
+      } else {
+        parseAvcConfig(record, video);
+      }
+    } else if (packetType == 1) {
+      //signed 24 bits composition time in ms
+      int cts = (getUInt24(payload + 2) << 8) >> 8;
+      boolean sync = (header >> 4) == 1;
+      video.addSample(payload + 5, size - 5, timeUs, cts * 1000, sync);
+    }
+  }
+
+  private void parseAudioTag(int payload, int size, long timeUs) {
+    int header = data.get(payload) & 0xFF;
+    if ((header >> 4) != SOUND_AAC) return;
+    if (audio == null) {
+      audio = new MediaTrack(MediaTrack.Type.AUDIO, CodecUtil.AAC_MIME);
+      //flv header values, replaced by the sequence header
+      audio.sampleRate = 44100;
+      audio.channels = (header & 0x01) + 1;
+    }
+    int packetType = data.get(payload + 1);
+    if (packetType == 0) {
+      parseAudioConfig(copy(slice(payload + 2, size - 2), size - 2), audio);
+    } else if (packetType == 1) {
+      audio.addSample(payload + 2, size - 2, timeUs, 0, true);
+    }
+  }
+
+  private ByteBuffer slice(int position, int size) {
+    ByteBuffer buffer = data.duplicate();
+    buffer.limit(position + size);
+    buffer.position(position);
+    return buffer.slice();
+  }
+
+  /**
+   * Read width and height of onMetaData (AMF0 string and ECMA array).
+   */
+  private void parseMetadata(int payload, int size) {
+    ByteBuffer amf = slice(payload, size);
+    if (amf.get() != 2) return;
+    String name = readString(amf);
+    if (!name.equals("onMetaData")) return;
+    int type = amf.get();
+    if (type == 8) {
+      amf.getInt();
+    } else if (type != 3) {
+      return;
+    }
+    while (amf.remaining() > 3) {
+      String key = readString(amf);
+      int valueType = amf.get();
+      if (valueType == 0) {
+        double value = amf.getDouble();
+        if (key.equals("width")) width = (int) value;
+        if (key.equals("height")) height = (int) value;
+      } else if (valueType == 1) {
+        amf.get();
+      } else if (valueType == 2) {
+        readString(amf);
+      } else {
+        //nested values are not needed, width and height are usually before them
+        return;
+      }
+    }
+  }
+
+  private static String readString(ByteBuffer amf) {
+    int length = amf.getShort() & 0xFFFF;
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) (amf.get() & 0xFF);
+    }
+    return new String(chars);
+  }
+}
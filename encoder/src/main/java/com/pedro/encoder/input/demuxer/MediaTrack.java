@@ -0,0 +1,300 @@
+package com.pedro.encoder.input.demuxer;
+
+import com.pedro.encoder.utils.CodecUtil;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A track of a demuxed file with its codec config and sample table. The table is kept in
+ * primitive arrays (one entry per sample: file offset, size, decode time, composition offset and
+ * sync flag) so a file of hours is a few MB and any sample is found without reading the file.
+ *
+ * Samples are slices of the mapped file, nothing is copied until the caller reads them. Video
+ * samples are length prefixed NALs like in the file, use copyAnnexB to get start codes.
+ */
+public class MediaTrack {
+
+  public enum Type {
+    VIDEO, AUDIO
+  }
+
+  private static final byte[] START_CODE = { 0, 0, 0, 1 };
+
+  private final Type type;
+  private final String mime;
+  private ByteBuffer data;
+  //codec config
+  int width;
+  int height;
+  int sampleRate;
+  int channels;
+  int nalLengthSize = 4;
+  ByteBuffer sps;
+  ByteBuffer pps;
+  ByteBuffer vps;
+  ByteBuffer audioConfig;
+  //sample table
+  private int sampleCount = 0;
+  private long[] offsets = new long[0];
+  private int[] sizes = new int[0];
+  private long[] dtsUs = new long[0];
+  private int[] ctsUs = new int[0];
+  private boolean[] sync = new boolean[0];
+
+  MediaTrack(Type type, String mime) {
+    this.type = type;
+    this.mime = mime;
+  }
+
+  void setData(ByteBuffer data) {
+    this.data = data;
+  }
+
+  /**
+   * Allocate the table when the number of samples is known.
+   */
+  void allocate(int count) {
+    offsets = new long[count];
+    sizes = new int[count];
+    dtsUs = new long[count];
+    ctsUs = new int[count];
+    sync = new boolean[count];
+  }
+
+  void addSample(long offset, int size, long dts, int cts, boolean isSync) {
+    if (sampleCount == offsets.length) {
+      int capacity = Math.max(64, sampleCount * 2);
+      offsets = Arrays.copyOf(offsets, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      dtsUs = Arrays.copyOf(dtsUs, capacity);
+      ctsUs = Arrays.copyOf(ctsUs, capacity);
+      sync = Arrays.copyOf(sync, capacity);
+    }
+    offsets[sampleCount] = offset;
+    sizes[sampleCount] = size;
+    dtsUs[sampleCount] = dts;
+    ctsUs[sampleCount] = cts;
+    sync[sampleCount] = isSync;
+    sampleCount++;
+  }
+
+  /**
+   * Free the unused capacity of the table after adding all samples.
+   */
+  void trim() {
+    if (offsets.length == sampleCount) return;
+    offsets = Arrays.copyOf(offsets, sampleCount);
+    sizes = Arrays.copyOf(sizes, sampleCount);
+    dtsUs = Arrays.copyOf(dtsUs, sampleCount);
+    ctsUs = Arrays.copyOf(ctsUs, sampleCount);
+    sync = Arrays.copyOf(sync, sampleCount);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getMime() {
+    return mime;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  /**
+   * @return bytes of the length before each NAL in video samples.
+   */
+  public int getNalLengthSize() {
+    return nalLengthSize;
+  }
+
+  /**
+   * @return H264/H265 SPS with start code, null in audio.
+   */
+  public ByteBuffer getSps() {
+    return sps != null ? sps.duplicate() : null;
+  }
+
+  /**
+   * @return H264/H265 PPS with start code, null in audio.
+   */
+  public ByteBuffer getPps() {
+    return pps != null ? pps.duplicate() : null;
+  }
+
+  /**
+   * @return H265 VPS with start code, null in other codecs.
+   */
+  public ByteBuffer getVps() {
+    return vps != null ? vps.duplicate() : null;
+  }
+
+  /**
+   * @return AAC AudioSpecificConfig, null in video.
+   */
+  public ByteBuffer getAudioConfig() {
+    return audioConfig != null ? audioConfig.duplicate() : null;
+  }
+
+  /**
+   * @return codec config as MediaFormat csd-0: SPS (H264), VPS + SPS + PPS (H265) or
+   * AudioSpecificConfig (AAC).
+   */
+  public ByteBuffer getCsd0() {
+    if (type == Type.AUDIO) return getAudioConfig();
+    if (!CodecUtil.H265_MIME.equals(mime)) return getSps();
+    ByteBuffer csd = ByteBuffer.allocate(vps.remaining() + sps.remaining() + pps.remaining());
+    csd.put(vps.duplicate()).put(sps.duplicate()).put(pps.duplicate());
+    csd.flip();
+    return csd;
+  }
+
+  /**
+   * @return codec config as MediaFormat csd-1: PPS (H264) or null.
+   */
+  public ByteBuffer getCsd1() {
+    return type == Type.VIDEO && !CodecUtil.H265_MIME.equals(mime) ? getPps() : null;
+  }
+
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  public long getSampleOffset(int index) {
+    return offsets[index];
+  }
+
+  public int getSampleSize(int index) {
+    return sizes[index];
+  }
+
+  public long getDtsUs(int index) {
+    return dtsUs[index];
+  }
+
+  public long getPtsUs(int index) {
+    return dtsUs[index] + ctsUs[index];
+  }
+
+  public boolean isSync(int index) {
+    return sync[index];
+  }
+
+  /**
+   * @return largest sample, to allocate buffers to copy them.
+   */
+  public int getMaxSampleSize() {
+    int max = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      if (sizes[i] > max) max = sizes[i];
+    }
+    return max;
+  }
+
+  public long getDurationUs() {
+    if (sampleCount == 0) return 0;
+    long last = dtsUs[sampleCount - 1];
+    //duration of the last sample is unknown, use the previous one
+    long lastDuration = sampleCount > 1 ? last - dtsUs[sampleCount - 2] : 0;
+    return last + lastDuration - dtsUs[0];
+  }
+
+  /**
+   * @return true if presentation order isn't decode order (B-frames).
+   */
+  public boolean hasReorderedSamples() {
+    for (int i = 1; i < sampleCount; i++) {
+      if (getPtsUs(i) < getPtsUs(i - 1)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return sample data without copy. Valid until the demuxer is closed.
+   */
+  public ByteBuffer getSample(int index) {
+    ByteBuffer sample = data.duplicate();
+    int offset = (int) offsets[index];
+    sample.limit(offset + sizes[index]);
+    sample.position(offset);
+    return sample.slice();
+  }
+
+  /**
+   * @return index of the last sample decoded before or at the time, -1 if time is before the
+   * first sample.
+   */
+  public int getSampleBefore(long timeUs) {
+    int low = 0;
+    int high = sampleCount - 1;
+    int result = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (dtsUs[middle] <= timeUs) {
+        result = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return index of the sync sample where decode must start to show the time, 0 if there isn't.
+   */
+  public int getSyncSampleBefore(long timeUs) {
+    for (int i = getSampleBefore(timeUs); i >= 0; i--) {
+      if (sync[i]) return i;
+    }
+    return 0;
+  }
+
+  /**
+   * Copy a video sample replacing NAL lengths by start codes, the format expected by encoders
+   * output and packetizers.
+   *
+   * @return bytes written to dst from its position or -1 if dst hasn't enough space.
+   */
+  public int copyAnnexB(int index, ByteBuffer dst) {
+    ByteBuffer sample = getSample(index);
+    int start = dst.position();
+    while (sample.remaining() > nalLengthSize) {
+      int length = 0;
+      for (int i = 0; i < nalLengthSize; i++) {
+        length = (length << 8) | (sample.get() & 0xFF);
+      }
+      length = Math.min(length, sample.remaining());
+      if (dst.remaining() < START_CODE.length + length) {
+        dst.position(start);
+        return -1;
+      }
+      dst.put(START_CODE);
+      ByteBuffer nal = sample.duplicate();
+      nal.limit(nal.position() + length);
+      dst.put(nal);
+      sample.position(sample.position() + length);
+    }
+    return dst.position() - start;
+  }
+
+  static ByteBuffer withStartCode(ByteBuffer nal) {
+    ByteBuffer buffer = ByteBuffer.allocate(START_CODE.length + nal.remaining());
+    buffer.put(START_CODE).put(nal.duplicate());
+    buffer.flip();
+    return buffer;
+  }
+}
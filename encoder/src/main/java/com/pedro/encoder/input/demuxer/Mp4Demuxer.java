@@ -0,0 +1,263 @@
+package com.pedro.encoder.input.demuxer;
+
+import com.pedro.encoder.utils.CodecUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ISO BMFF demuxer. Reads moov and builds the sample table of H264, H265 and AAC tracks from
+ * stsz, stco/co64, stsc, stts, ctts and stss. Other tracks are ignored. QuickTime audio entries
+ * (version 1 and 2) are also read. Fragmented files (moof) are not supported and edit lists are
+ * ignored.
+ */
+public class Mp4Demuxer extends Demuxer {
+
+  //bytes of sample entries before their child boxes
+  private static final int VISUAL_SAMPLE_ENTRY_SIZE = 78;
+  private static final int AUDIO_SAMPLE_ENTRY_SIZE = 28;
+  //QuickTime sound sample description version 1 and 2 add fields after the base entry
+  private static final int AUDIO_SAMPLE_ENTRY_V1_SIZE = AUDIO_SAMPLE_ENTRY_SIZE + 16;
+  private static final int AUDIO_SAMPLE_ENTRY_V2_SIZE = AUDIO_SAMPLE_ENTRY_SIZE + 36;
+
+  private static class Box {
+    private final String type;
+    private final ByteBuffer content;
+
+    private Box(String type, ByteBuffer content) {
+      this.type = type;
+      this.content = content;
+    }
+  }
+
+  Mp4Demuxer(File file) throws IOException {
+    super(file);
+  }
+
+  @Override
+  void parse() throws IOException {
+    ByteBuffer moov = findBox(data, 0, "moov");
+    if (moov == null) throw new IOException("moov not found");
+    List<Box> boxes = children(moov, 0);
+    for (Box box : boxes) {
+      if (box.type.equals("mvex")) throw new IOException("Fragmented mp4 not supported");
+    }
+    for (Box box : boxes) {
+      if (box.type.equals("trak")) parseTrack(box.content);
+    }
+  }
+
+  /**
+   * @return boxes in parent from the offset, as slices of their content.
+   */
+  private static List<Box> children(ByteBuffer parent, int offset) {
+    List<Box> boxes = new ArrayList<>();
+    int position = offset;
+    int end = parent.limit();
+    while (position + 8 <= end) {
+      long size = parent.getInt(position) & 0xFFFFFFFFL;
+      int header = 8;
+      if (size == 1) {
+        size = parent.getLong(position + 8);
+        header = 16;
+      } else if (size == 0) {
+        size = end - position;
+      }
+      if (size < header || position + size > end) break;
+      char[] type = new char[4];
+      for (int i = 0; i < 4; i++) {
+        type[i] = (char) (parent.get(position + 4 + i) & 0xFF);
+      }
+      ByteBuffer content = parent.duplicate();
+      content.limit((int) (position + size));
+      content.position(position + header);
+      boxes.add(new Box(new String(type), content.slice()));
+      position += size;
+    }
+    return boxes;
+  }
+
+  private static ByteBuffer findBox(ByteBuffer parent, int offset, String type) {
+    for (Box box : children(parent, offset)) {
+      if (box.type.equals(type)) return box.content;
+    }
+    return null;
+  }
+
+  private static ByteBuffer findPath(ByteBuffer parent, String... path) {
+    ByteBuffer box = parent;
+    for (String type : path) {
+      box = findBox(box, 0, type);
+      if (box == null) return null;
+    }
+    return box;
+  }
+
+  private void parseTrack(ByteBuffer trak) throws IOException {
+    ByteBuffer mdia = findBox(trak, 0, "mdia");
+    if (mdia == null) return;
+    ByteBuffer mdhd = findBox(mdia, 0, "mdhd");
+    ByteBuffer stbl = findPath(mdia, "minf", "stbl");
+    if (mdhd == null || stbl == null) return;
+    //version 1 has 64 bits creation and modification times
+    long timescale = mdhd.get(0) == 1 ? mdhd.getInt(20) & 0xFFFFFFFFL
+        : mdhd.getInt(12) & 0xFFFFFFFFL;
+    if (timescale == 0) return;
+    ByteBuffer stsd = findBox(stbl, 0, "stsd");
+    if (stsd == null) return;
+    List<Box> entries = children(stsd, 8);
+    if (entries.isEmpty()) return;
+    MediaTrack track = parseSampleEntry(entries.get(0));
+    if (track == null) return;
+    parseSampleTable(stbl, timescale, track);
+    tracks.add(track);
+  }
+
+  private static MediaTrack parseSampleEntry(Box entry) {
+    ByteBuffer content = entry.content;
+    if (entry.type.equals("avc1") || entry.type.equals("avc3")
+        || entry.type.equals("hvc1") || entry.type.equals("hev1")) {
+      boolean h265 = entry.type.startsWith("h");
+      MediaTrack track = new MediaTrack(MediaTrack.Type.VIDEO,
+          h265 ? CodecUtil.H265_MIME : CodecUtil.H264_MIME);
+      track.width = content.getShort(24) & 0xFFFF;
+      track.height = content.getShort(26) & 0xFFFF;
+      ByteBuffer config = findBox(content, VISUAL_SAMPLE_ENTRY_SIZE, h265 ? "hvcC" : "avcC");
+      if (config != null) {
+        if (h265) {
+          parseHevcConfig(config, track);
+        } else {
+          parseAvcConfig(config, track);
+        }
+      }
+      return track;
+    } else if (entry.type.equals("mp4a")) {
+      MediaTrack track = new MediaTrack(MediaTrack.Type.AUDIO, CodecUtil.AAC_MIME);
+      int version = content.getShort(8) & 0xFFFF;
+      int childrenOffset;
+      if (version == 2) {
+        track.channels = content.getInt(40);
+        track.sampleRate = (int) Double.longBitsToDouble(content.getLong(32));
+        childrenOffset = AUDIO_SAMPLE_ENTRY_V2_SIZE;
+      } else {
+        track.channels = content.getShort(16) & 0xFFFF;
+        track.sampleRate = content.getInt(24) >>> 16;
+        childrenOffset = version == 1 ? AUDIO_SAMPLE_ENTRY_V1_SIZE : AUDIO_SAMPLE_ENTRY_SIZE;
+      }
+      ByteBuffer esds = findBox(content, childrenOffset, "esds");
+      if (esds == null) {
+        //QuickTime files can have it in a wave box
+        ByteBuffer wave = findBox(content, childrenOffset, "wave");
+        if (wave != null) esds = findBox(wave, 0, "esds");
+      }
+      if (esds != null) {
+        ByteBuffer config = parseEsds(esds);
+        if (config != null) parseAudioConfig(config, track);
+      }
+      return track;
+    }
+    return null;
+  }
+
+  /**
+   * @return DecoderSpecificInfo (AudioSpecificConfig) of an esds box.
+   */
+  private static ByteBuffer parseEsds(ByteBuffer esds) {
+    esds.position(4);
+    int tag = esds.get();
+    if (tag == 3) {
+      readDescriptorLength(esds);
+      esds.position(esds.position() + 2);
+      int flags = esds.get() & 0xFF;
+      if ((flags & 0x80) != 0) esds.position(esds.position() + 2);
+      if ((flags & 0x40) != 0) esds.position(esds.position() + (esds.get() & 0xFF));
+      if ((flags & 0x20) != 0) esds.position(esds.position() + 2);
+      tag = esds.get();
+    }
+    if (tag == 4) {
+      readDescriptorLength(esds);
+      esds.position(esds.position() + 13);
+      tag = esds.get();
+    }
+    if (tag != 5) return null;
+    return copy(esds, readDescriptorLength(esds));
+  }
+
+  private static int readDescriptorLength(ByteBuffer buffer) {
+    int length = 0;
+    for (int i = 0; i < 4; i++) {
+      int value = buffer.get() & 0xFF;
+      length = (length << 7) | (value & 0x7F);
+      if ((value & 0x80) == 0) break;
+    }
+    return length;
+  }
+
+  private static void parseSampleTable(ByteBuffer stbl, long timescale, MediaTrack track)
+      throws IOException {
+    ByteBuffer stsz = findBox(stbl, 0, "stsz");
+    ByteBuffer stsc = findBox(stbl, 0, "stsc");
+    ByteBuffer stts = findBox(stbl, 0, "stts");
+    ByteBuffer stco = findBox(stbl, 0, "stco");
+    ByteBuffer co64 = stco == null ? findBox(stbl, 0, "co64") : null;
+    ByteBuffer ctts = findBox(stbl, 0, "ctts");
+    ByteBuffer stss = findBox(stbl, 0, "stss");
+    if (stsz == null || stsc == null || stts == null || (stco == null && co64 == null)) {
+      throw new IOException("Sample table not supported in track " + track.getMime());
+    }
+    int fixedSize = stsz.getInt(4);
+    int count = stsz.getInt(8);
+    int chunkCount = stco != null ? stco.getInt(4) : co64.getInt(4);
+    int stscCount = stsc.getInt(4);
+    track.allocate(count);
+    //cursors of run length tables
+    int stscIndex = 0;
+    int sttsIndex = 0;
+    int sttsRemaining = stts.getInt(4) > 0 ? stts.getInt(8) : 0;
+    int cttsCount = ctts != null ? ctts.getInt(4) : 0;
+    int cttsIndex = 0;
+    int cttsRemaining = cttsCount > 0 ? ctts.getInt(8) : 0;
+    int stssCount = stss != null ? stss.getInt(4) : 0;
+    int stssIndex = 0;
+    long dts = 0;
+    int sample = 0;
+    for (int chunk = 0; chunk < chunkCount && sample < count; chunk++) {
+      //stsc first_chunk is 1 based
+      while (stscIndex + 1 < stscCount && chunk + 1 >= stsc.getInt(8 + (stscIndex + 1) * 12)) {
+        stscIndex++;
+      }
+      int samplesPerChunk = stsc.getInt(8 + stscIndex * 12 + 4);
+      long offset = stco != null ? stco.getInt(8 + chunk * 4) & 0xFFFFFFFFL
+          : co64.getLong(8 + chunk * 8);
+      for (int i = 0; i < samplesPerChunk && sample < count; i++) {
+        int size = fixedSize != 0 ? fixedSize : stsz.getInt(12 + sample * 4);
+        while (sttsRemaining == 0 && sttsIndex + 1 < stts.getInt(4)) {
+          sttsIndex++;
+          sttsRemaining = stts.getInt(8 + sttsIndex * 8);
+        }
+        int cts = 0;
+        if (cttsCount > 0) {
+          while (cttsRemaining == 0 && cttsIndex + 1 < cttsCount) {
+            cttsIndex++;
+            cttsRemaining = ctts.getInt(8 + cttsIndex * 8);
+          }
+          cts = ctts.getInt(8 + cttsIndex * 8 + 4);
+          cttsRemaining--;
+        }
+        boolean sync = stss == null;
+        if (stssIndex < stssCount && stss.getInt(8 + stssIndex * 4) == sample + 1) {
+          sync = true;
+          stssIndex++;
+        }
+        track.addSample(offset, size, dts * 1000000 / timescale,
+            (int) (cts * 1000000L / timescale), sync);
+        dts += stts.getInt(8 + sttsIndex * 8 + 4) & 0xFFFFFFFFL;
+        sttsRemaining--;
+        offset += size;
+        sample++;
+      }
+    }
+  }
+}
@@ -2,10 +2,15 @@ package com.pedro.encoder.input.gl.render;
 
 import android.content.Context;
 import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
 import android.os.Build;
+import android.util.Log;
 import android.view.Surface;
 import androidx.annotation.RequiresApi;
 import com.pedro.encoder.input.gl.render.filters.BaseFilterRender;
+import com.pedro.encoder.input.gl.render.filters.ColorFilterFusion;
+import com.pedro.encoder.input.gl.render.filters.FusedColorFilterRender;
+import com.pedro.encoder.input.gl.render.filters.FusibleColorFilter;
 import com.pedro.encoder.input.gl.render.filters.NoFilterRender;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,12 +22,24 @@ import java.util.List;
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
 public class ManagerRender {
 
-  //Increase it to render more than 1 filter and set filter by position.
-  // You must modify it before create your rtmp or rtsp object.
+  private static final String TAG = "ManagerRender";
+
+  /**
+   * @deprecated filters are added on demand with setFilter or addFilter, empty positions are not
+   * drawn. Use the constructor with numFilters if you need positions reserved from the start.
+   */
+  @Deprecated
   public static int numFilters = 1;
 
   private CameraRender cameraRender;
-  private List<BaseFilterRender> baseFilterRender = new ArrayList<>(numFilters);
+  //filters by position, NoFilterRender is an empty position and is not drawn
+  private final List<BaseFilterRender> baseFilterRender = new ArrayList<>();
+  //filters drawn in each frame, consecutive color filters are replaced by one fused pass
+  private final List<BaseFilterRender> drawFilters = new ArrayList<>();
+  private final List<FusedColorFilterRender> fusedFilters = new ArrayList<>();
+  //FBOs shared by drawFilters, each filter reads the output of the previous one and writes in
+  //the other FBO. Created when needed so no filters use none and one filter use only one.
+  private final RenderHandler[] pingPong = new RenderHandler[2];
   private ScreenRender screenRender;
 
   private int width;
@@ -30,8 +47,17 @@ public class ManagerRender {
   private int previewWidth;
   private int previewHeight;
   private Context context;
+  private boolean initialized = false;
 
   public ManagerRender() {
+    this(numFilters);
+  }
+
+  /**
+   * @param numFilters empty positions reserved for setFilter. Positions over it are created when
+   * needed so it is only useful to keep compatibility.
+   */
+  public ManagerRender(int numFilters) {
     cameraRender = new CameraRender();
     for (int i = 0; i < numFilters; i++) baseFilterRender.add(new NoFilterRender());
     screenRender = new ScreenRender();
@@ -45,20 +71,80 @@ public class ManagerRender {
     this.previewWidth = previewWidth;
     this.previewHeight = previewHeight;
     cameraRender.initGl(width, height, context, previewWidth, previewHeight);
-    for (int i = 0; i < numFilters; i++) {
-      int textId = i == 0 ? cameraRender.getTexId() : baseFilterRender.get(i - 1).getTexId();
-      baseFilterRender.get(i).setPreviousTexId(textId);
-      baseFilterRender.get(i).initGl(width, height, context, previewWidth, previewHeight);
-      baseFilterRender.get(i).initFBOLink();
+    for (BaseFilterRender filter : baseFilterRender) {
+      filter.initGl(width, height, context, previewWidth, previewHeight);
     }
     screenRender.setStreamSize(encoderWidth, encoderHeight);
-    screenRender.setTexId(baseFilterRender.get(numFilters - 1).getTexId());
     screenRender.initGl(context);
+    initialized = true;
+    relink();
+  }
+
+  /**
+   * Build the list of passes drawn in each frame and link their textures. Empty positions are
+   * skipped, consecutive color filters are fused and the passes alternate the 2 FBOs, so the
+   * number of full frame copies is the number of real filters and the memory used doesn't
+   * depend of it.
+   */
+  private void relink() {
+    if (!initialized) return;
+    List<BaseFilterRender> activeFilters = new ArrayList<>();
+    for (BaseFilterRender filter : baseFilterRender) {
+      if (!(filter instanceof NoFilterRender)) activeFilters.add(filter);
+    }
+    fuseColorFilters(activeFilters);
+    int texId = cameraRender.getTexId();
+    for (int i = 0; i < drawFilters.size(); i++) {
+      RenderHandler renderHandler = getPingPong(i % 2);
+      drawFilters.get(i).setPreviousTexId(texId);
+      drawFilters.get(i).setRenderHandler(renderHandler);
+      texId = renderHandler.getTexId()[0];
+    }
+    screenRender.setTexId(texId);
+  }
+
+  private RenderHandler getPingPong(int index) {
+    if (pingPong[index] == null) {
+      RenderHandler renderHandler = new RenderHandler();
+      //same FBO configuration used by all renders
+      cameraRender.initFBO(width, height, renderHandler.getFboId(), renderHandler.getRboId(),
+          renderHandler.getTexId());
+      pingPong[index] = renderHandler;
+    }
+    return pingPong[index];
+  }
+
+  /**
+   * Replace each run of consecutive color filters by one pass. The fused pass is linked like any
+   * other filter by relink.
+   */
+  private void fuseColorFilters(List<BaseFilterRender> activeFilters) {
+    releaseFusedFilters();
+    drawFilters.clear();
+    int index = 0;
+    for (int[] run : ColorFilterFusion.findRuns(activeFilters)) {
+      while (index < run[0]) drawFilters.add(activeFilters.get(index++));
+      List<FusibleColorFilter> filters = new ArrayList<>();
+      for (int i = run[0]; i <= run[1]; i++) {
+        filters.add((FusibleColorFilter) activeFilters.get(i));
+      }
+      FusedColorFilterRender fused = new FusedColorFilterRender(filters);
+      fused.initGl(width, height, context, previewWidth, previewHeight);
+      fusedFilters.add(fused);
+      drawFilters.add(fused);
+      index = run[1] + 1;
+    }
+    while (index < activeFilters.size()) drawFilters.add(activeFilters.get(index++));
+  }
+
+  private void releaseFusedFilters() {
+    for (FusedColorFilterRender fused : fusedFilters) fused.release();
+    fusedFilters.clear();
   }
 
   public void drawOffScreen() {
     cameraRender.draw();
-    for (BaseFilterRender baseFilterRender : baseFilterRender) baseFilterRender.draw();
+    for (BaseFilterRender baseFilterRender : drawFilters) baseFilterRender.draw();
   }
 
   public void drawScreen(int width, int height, boolean keepAspectRatio, int mode, int rotation,
@@ -67,13 +153,32 @@ public class ManagerRender {
             flipStreamVertical, flipStreamHorizontal);
   }
 
+  /**
+   * @return texture with the frame after all filters, filled in drawOffScreen.
+   */
+  public int getOutputTexId() {
+    return drawFilters.isEmpty() ? cameraRender.getTexId()
+        : drawFilters.get(drawFilters.size() - 1).getTexId();
+  }
+
   public void release() {
     cameraRender.release();
+    releaseFusedFilters();
+    drawFilters.clear();
     for (int i = 0; i < this.baseFilterRender.size(); i++) {
       this.baseFilterRender.get(i).release();
       this.baseFilterRender.set(i, new NoFilterRender());
     }
+    for (int i = 0; i < pingPong.length; i++) {
+      if (pingPong[i] != null) {
+        GLES20.glDeleteFramebuffers(1, pingPong[i].getFboId(), 0);
+        GLES20.glDeleteRenderbuffers(1, pingPong[i].getRboId(), 0);
+        GLES20.glDeleteTextures(1, pingPong[i].getTexId(), 0);
+        pingPong[i] = null;
+      }
+    }
     screenRender.release();
+    initialized = false;
   }
 
   public void enableAA(boolean AAEnabled) {
@@ -96,14 +201,84 @@ public class ManagerRender {
     return cameraRender.getSurface();
   }
 
+  /**
+   * Replace the filter in position, positions over the current number of filters are created
+   * empty. Set a NoFilterRender to remove the filter and keep the position of the others.
+   * Negative positions are ignored.
+   */
   public void setFilter(int position, BaseFilterRender baseFilterRender) {
-    final int id = this.baseFilterRender.get(position).getPreviousTexId();
-    final RenderHandler renderHandler = this.baseFilterRender.get(position).getRenderHandler();
+    if (position < 0) {
+      Log.e(TAG, "setFilter ignored, invalid position " + position);
+      return;
+    }
+    while (this.baseFilterRender.size() <= position) {
+      this.baseFilterRender.add(new NoFilterRender());
+    }
     this.baseFilterRender.get(position).release();
     this.baseFilterRender.set(position, baseFilterRender);
-    this.baseFilterRender.get(position).setPreviousTexId(id);
-    this.baseFilterRender.get(position).initGl(width, height, context, previewWidth, previewHeight);
-    this.baseFilterRender.get(position).setRenderHandler(renderHandler);
+    initFilter(baseFilterRender);
+    relink();
+  }
+
+  /**
+   * Insert a filter in position moving the filters after it. Like setFilter, positions over the
+   * current number of filters are created empty and negative positions are ignored.
+   */
+  public void addFilter(int position, BaseFilterRender baseFilterRender) {
+    if (position < 0) {
+      Log.e(TAG, "addFilter ignored, invalid position " + position);
+      return;
+    }
+    while (this.baseFilterRender.size() < position) {
+      this.baseFilterRender.add(new NoFilterRender());
+    }
+    this.baseFilterRender.add(position, baseFilterRender);
+    initFilter(baseFilterRender);
+    relink();
+  }
+
+  /**
+   * Add a filter after all others.
+   */
+  public void addFilter(BaseFilterRender baseFilterRender) {
+    addFilter(this.baseFilterRender.size(), baseFilterRender);
+  }
+
+  /**
+   * Remove the filter in position moving the filters after it. Positions without filter are
+   * ignored.
+   */
+  public void removeFilter(int position) {
+    if (position < 0 || position >= this.baseFilterRender.size()) {
+      Log.e(TAG, "removeFilter ignored, invalid position " + position);
+      return;
+    }
+    this.baseFilterRender.remove(position).release();
+    relink();
+  }
+
+  public void removeFilter(BaseFilterRender baseFilterRender) {
+    int position = this.baseFilterRender.indexOf(baseFilterRender);
+    if (position != -1) removeFilter(position);
+  }
+
+  public void clearFilters() {
+    for (BaseFilterRender filter : this.baseFilterRender) filter.release();
+    this.baseFilterRender.clear();
+    relink();
+  }
+
+  /**
+   * @return number of positions, including empty ones.
+   */
+  public int filtersCount() {
+    return baseFilterRender.size();
+  }
+
+  private void initFilter(BaseFilterRender baseFilterRender) {
+    if (initialized) {
+      baseFilterRender.initGl(width, height, context, previewWidth, previewHeight);
+    }
   }
 
   public void setCameraRotation(int rotation) {
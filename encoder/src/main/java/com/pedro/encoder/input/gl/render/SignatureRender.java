@@ -0,0 +1,152 @@
+package com.pedro.encoder.input.gl.render;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Build;
+import androidx.annotation.RequiresApi;
+import com.pedro.encoder.R;
+import com.pedro.encoder.utils.gl.GlUtil;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Downscale a texture to 1/16 of its size in two passes (each pixel is the average of 4x4
+ * pixels of the previous pass) and read it, to compare frames in the CPU with a few KB.
+ * At 1080p the signature is 120x68 pixels. Each of them is the 8 bits average of 16x16 pixels
+ * of the frame, so a change is only visible if the differences in that area add up to about 256
+ * levels: a word of text or the cursor moving, not one pixel changing a bit.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class SignatureRender extends BaseRenderOffScreen {
+
+  //rotation matrix
+  private final float[] squareVertexData = {
+      // X, Y, Z, U, V
+      -1f, -1f, 0f, 0f, 0f, //bottom left
+      1f, -1f, 0f, 1f, 0f, //bottom right
+      -1f, 1f, 0f, 0f, 1f, //top left
+      1f, 1f, 0f, 1f, 1f, //top right
+  };
+
+  private int program = -1;
+  private int aPositionHandle = -1;
+  private int aTextureHandle = -1;
+  private int uMVPMatrixHandle = -1;
+  private int uSTMatrixHandle = -1;
+  private int uSamplerHandle = -1;
+  private int uTexelSizeHandle = -1;
+
+  //first pass, 1/4 of the size
+  private final int[] quarterFboId = new int[] { 0 };
+  private final int[] quarterRboId = new int[] { 0 };
+  private final int[] quarterTexId = new int[] { 0 };
+  private int quarterWidth;
+  private int quarterHeight;
+  private int signatureWidth;
+  private int signatureHeight;
+  private ByteBuffer signature;
+  private int texId;
+
+  public SignatureRender() {
+    squareVertex = ByteBuffer.allocateDirect(squareVertexData.length * FLOAT_SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+    squareVertex.put(squareVertexData).position(0);
+    Matrix.setIdentityM(MVPMatrix, 0);
+    Matrix.setIdentityM(STMatrix, 0);
+  }
+
+  @Override
+  public void initGl(int width, int height, Context context, int previewWidth,
+      int previewHeight) {
+    this.width = width;
+    this.height = height;
+    quarterWidth = (width + 3) / 4;
+    quarterHeight = (height + 3) / 4;
+    signatureWidth = (quarterWidth + 3) / 4;
+    signatureHeight = (quarterHeight + 3) / 4;
+    signature = ByteBuffer.allocateDirect(signatureWidth * signatureHeight * 4);
+    GlUtil.checkGlError("initGl start");
+    String vertexShader = GlUtil.getStringFromRaw(context, R.raw.simple_vertex);
+    String fragmentShader = GlUtil.getStringFromRaw(context, R.raw.downscale_fragment);
+
+    program = GlUtil.createProgram(vertexShader, fragmentShader);
+    aPositionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+    aTextureHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+    uMVPMatrixHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
+    uSTMatrixHandle = GLES20.glGetUniformLocation(program, "uSTMatrix");
+    uSamplerHandle = GLES20.glGetUniformLocation(program, "uSampler");
+    uTexelSizeHandle = GLES20.glGetUniformLocation(program, "uTexelSize");
+    initFBO(quarterWidth, quarterHeight, quarterFboId, quarterRboId, quarterTexId);
+    initFBO(signatureWidth, signatureHeight);
+    GlUtil.checkGlError("initGl end");
+  }
+
+  /**
+   * @param texId texture to downscale, with the size given in initGl.
+   */
+  public void setTexId(int texId) {
+    this.texId = texId;
+  }
+
+  /**
+   * Downscale the texture and read the result to the signature. The read waits for the GPU.
+   */
+  @Override
+  public void draw() {
+    GlUtil.checkGlError("drawSignature start");
+    drawPass(quarterFboId[0], quarterWidth, quarterHeight, texId, width, height);
+    drawPass(renderHandler.getFboId()[0], signatureWidth, signatureHeight, quarterTexId[0],
+        quarterWidth, quarterHeight);
+    signature.clear();
+    GLES20.glReadPixels(0, 0, signatureWidth, signatureHeight, GLES20.GL_RGBA,
+        GLES20.GL_UNSIGNED_BYTE, signature);
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    GlUtil.checkGlError("drawSignature end");
+  }
+
+  private void drawPass(int fboId, int width, int height, int sourceTexId, int sourceWidth,
+      int sourceHeight) {
+    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fboId);
+    GLES20.glViewport(0, 0, width, height);
+    GLES20.glUseProgram(program);
+
+    squareVertex.position(SQUARE_VERTEX_DATA_POS_OFFSET);
+    GLES20.glVertexAttribPointer(aPositionHandle, 3, GLES20.GL_FLOAT, false,
+        SQUARE_VERTEX_DATA_STRIDE_BYTES, squareVertex);
+    GLES20.glEnableVertexAttribArray(aPositionHandle);
+
+    squareVertex.position(SQUARE_VERTEX_DATA_UV_OFFSET);
+    GLES20.glVertexAttribPointer(aTextureHandle, 2, GLES20.GL_FLOAT, false,
+        SQUARE_VERTEX_DATA_STRIDE_BYTES, squareVertex);
+    GLES20.glEnableVertexAttribArray(aTextureHandle);
+
+    GLES20.glUniformMatrix4fv(uMVPMatrixHandle, 1, false, MVPMatrix, 0);
+    GLES20.glUniformMatrix4fv(uSTMatrixHandle, 1, false, STMatrix, 0);
+    GLES20.glUniform2f(uTexelSizeHandle, 1f / sourceWidth, 1f / sourceHeight);
+
+    GLES20.glUniform1i(uSamplerHandle, 4);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE4);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, sourceTexId);
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+  }
+
+  /**
+   * @return RGBA pixels of the last draw, valid until the next draw.
+   */
+  public ByteBuffer getSignature() {
+    return signature;
+  }
+
+  @Override
+  public void release() {
+    GLES20.glDeleteProgram(program);
+    GLES20.glDeleteFramebuffers(1, quarterFboId, 0);
+    GLES20.glDeleteRenderbuffers(1, quarterRboId, 0);
+    GLES20.glDeleteTextures(1, quarterTexId, 0);
+    GLES20.glDeleteFramebuffers(1, renderHandler.getFboId(), 0);
+    GLES20.glDeleteRenderbuffers(1, renderHandler.getRboId(), 0);
+    GLES20.glDeleteTextures(1, renderHandler.getTexId(), 0);
+  }
+}
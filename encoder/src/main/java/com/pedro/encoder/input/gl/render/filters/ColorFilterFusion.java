@@ -0,0 +1,80 @@
+package com.pedro.encoder.input.gl.render.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fusion rules and shader generation of FusibleColorFilter, without GL calls.
+ *
+ * Consecutive fusible filters (2 or more) are drawn in one pass. The generated shader applies
+ * the code of each filter in order to the same color, clamped between filters like the 8 bits
+ * textures of separated passes do, and uniforms of filter n are renamed with the prefix uFn.
+ */
+public class ColorFilterFusion {
+
+  private static final String PLACEHOLDER = "$";
+
+  /**
+   * @return first and last index (both included) of each run of 2 or more consecutive
+   * FusibleColorFilter in filters.
+   */
+  public static List<int[]> findRuns(List<?> filters) {
+    List<int[]> runs = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= filters.size(); i++) {
+      boolean fusible = i < filters.size() && filters.get(i) instanceof FusibleColorFilter;
+      if (fusible && start == -1) {
+        start = i;
+      } else if (!fusible && start != -1) {
+        if (i - start >= 2) runs.add(new int[] { start, i - 1 });
+        start = -1;
+      }
+    }
+    return runs;
+  }
+
+  /**
+   * @param uniform declaration of FusibleColorFilter.getColorUniforms.
+   * @param stage position of the filter in the fused shader.
+   * @return name of the uniform in the fused shader.
+   */
+  public static String getUniformName(String uniform, int stage) {
+    String name = uniform.substring(uniform.lastIndexOf(' ') + 1);
+    return name.replace(PLACEHOLDER, getPrefix(stage));
+  }
+
+  /**
+   * @return fragment shader that applies all filters in order, to use with simple_vertex.
+   */
+  public static String buildFragmentShader(List<? extends FusibleColorFilter> filters) {
+    StringBuilder shader = new StringBuilder();
+    shader.append("precision mediump float;\n\n");
+    shader.append("uniform sampler2D uSampler;\n");
+    for (int stage = 0; stage < filters.size(); stage++) {
+      for (String uniform : filters.get(stage).getColorUniforms()) {
+        shader.append("uniform ").append(uniform.replace(PLACEHOLDER, getPrefix(stage)))
+            .append(";\n");
+      }
+    }
+    shader.append("\nvarying vec2 vTextureCoord;\n\n");
+    shader.append("void main() {\n");
+    shader.append("  vec4 color = texture2D(uSampler, vTextureCoord);\n");
+    for (int stage = 0; stage < filters.size(); stage++) {
+      if (stage > 0) shader.append("  color = clamp(color, 0.0, 1.0);\n");
+      shader.append("  //").append(filters.get(stage).getClass().getSimpleName()).append("\n");
+      shader.append("  {\n");
+      String code = filters.get(stage).getColorCode().replace(PLACEHOLDER, getPrefix(stage));
+      for (String line : code.split("\n")) {
+        shader.append("    ").append(line).append("\n");
+      }
+      shader.append("  }\n");
+    }
+    shader.append("  gl_FragColor = color;\n");
+    shader.append("}\n");
+    return shader.toString();
+  }
+
+  private static String getPrefix(int stage) {
+    return "uF" + stage;
+  }
+}
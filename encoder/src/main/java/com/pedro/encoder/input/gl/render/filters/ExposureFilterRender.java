@@ -15,7 +15,7 @@ import java.nio.ByteOrder;
  */
 
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-public class ExposureFilterRender extends BaseFilterRender {
+public class ExposureFilterRender extends BaseFilterRender implements FusibleColorFilter {
 
   //rotation matrix
   private final float[] squareVertexDataFilter = {
@@ -82,6 +82,21 @@ public class ExposureFilterRender extends BaseFilterRender {
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, previousTexId);
   }
 
+  @Override
+  public String[] getColorUniforms() {
+    return new String[] { "float $Exposure" };
+  }
+
+  @Override
+  public String getColorCode() {
+    return "color.rgb = color.rgb * pow(2.0, $Exposure);";
+  }
+
+  @Override
+  public void setColorUniforms(int[] locations) {
+    GLES20.glUniform1f(locations[0], exposure);
+  }
+
   @Override
   public void release() {
     GLES20.glDeleteProgram(program);
@@ -0,0 +1,111 @@
+package com.pedro.encoder.input.gl.render.filters;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Build;
+import androidx.annotation.RequiresApi;
+import com.pedro.encoder.R;
+import com.pedro.encoder.utils.gl.GlUtil;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Draw several FusibleColorFilter in one pass with a shader generated by ColorFilterFusion.
+ * Values of the filters are read in each draw so changes in the filters are applied live.
+ * Created by ManagerRender, the filters keep their own FBO but only the last one is written.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class FusedColorFilterRender extends BaseFilterRender {
+
+  //rotation matrix
+  private final float[] squareVertexDataFilter = {
+      // X, Y, Z, U, V
+      -1f, -1f, 0f, 0f, 0f, //bottom left
+      1f, -1f, 0f, 1f, 0f, //bottom right
+      -1f, 1f, 0f, 0f, 1f, //top left
+      1f, 1f, 0f, 1f, 1f, //top right
+  };
+
+  private int program = -1;
+  private int aPositionHandle = -1;
+  private int aTextureHandle = -1;
+  private int uMVPMatrixHandle = -1;
+  private int uSTMatrixHandle = -1;
+  private int uSamplerHandle = -1;
+
+  private final List<FusibleColorFilter> filters;
+  private final int[][] uniformHandles;
+
+  public FusedColorFilterRender(List<FusibleColorFilter> filters) {
+    this.filters = new ArrayList<>(filters);
+    uniformHandles = new int[filters.size()][];
+    squareVertex = ByteBuffer.allocateDirect(squareVertexDataFilter.length * FLOAT_SIZE_BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+    squareVertex.put(squareVertexDataFilter).position(0);
+    Matrix.setIdentityM(MVPMatrix, 0);
+    Matrix.setIdentityM(STMatrix, 0);
+  }
+
+  @Override
+  protected void initGlFilter(Context context) {
+    String vertexShader = GlUtil.getStringFromRaw(context, R.raw.simple_vertex);
+    String fragmentShader = ColorFilterFusion.buildFragmentShader(filters);
+
+    program = GlUtil.createProgram(vertexShader, fragmentShader);
+    aPositionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+    aTextureHandle = GLES20.glGetAttribLocation(program, "aTextureCoord");
+    uMVPMatrixHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
+    uSTMatrixHandle = GLES20.glGetUniformLocation(program, "uSTMatrix");
+    uSamplerHandle = GLES20.glGetUniformLocation(program, "uSampler");
+    for (int stage = 0; stage < filters.size(); stage++) {
+      String[] uniforms = filters.get(stage).getColorUniforms();
+      uniformHandles[stage] = new int[uniforms.length];
+      for (int i = 0; i < uniforms.length; i++) {
+        uniformHandles[stage][i] = GLES20.glGetUniformLocation(program,
+            ColorFilterFusion.getUniformName(uniforms[i], stage));
+      }
+    }
+  }
+
+  @Override
+  protected void drawFilter() {
+    GLES20.glUseProgram(program);
+
+    squareVertex.position(SQUARE_VERTEX_DATA_POS_OFFSET);
+    GLES20.glVertexAttribPointer(aPositionHandle, 3, GLES20.GL_FLOAT, false,
+        SQUARE_VERTEX_DATA_STRIDE_BYTES, squareVertex);
+    GLES20.glEnableVertexAttribArray(aPositionHandle);
+
+    squareVertex.position(SQUARE_VERTEX_DATA_UV_OFFSET);
+    GLES20.glVertexAttribPointer(aTextureHandle, 2, GLES20.GL_FLOAT, false,
+        SQUARE_VERTEX_DATA_STRIDE_BYTES, squareVertex);
+    GLES20.glEnableVertexAttribArray(aTextureHandle);
+
+    GLES20.glUniformMatrix4fv(uMVPMatrixHandle, 1, false, MVPMatrix, 0);
+    GLES20.glUniformMatrix4fv(uSTMatrixHandle, 1, false, STMatrix, 0);
+    for (int stage = 0; stage < filters.size(); stage++) {
+      filters.get(stage).setColorUniforms(uniformHandles[stage]);
+    }
+
+    GLES20.glUniform1i(uSamplerHandle, 4);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE4);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, previousTexId);
+  }
+
+  @Override
+  public void release() {
+    GLES20.glDeleteProgram(program);
+  }
+
+  /**
+   * @return filters drawn by this pass, in order.
+   */
+  public List<FusibleColorFilter> getFilters() {
+    return Collections.unmodifiableList(filters);
+  }
+}
@@ -0,0 +1,28 @@
+package com.pedro.encoder.input.gl.render.filters;
+
+/**
+ * Filter that only changes the color of each pixel with itself (no neighbours, no position).
+ * Consecutive filters of this type are drawn by ManagerRender in one pass with a shader
+ * generated by ColorFilterFusion, instead of one full frame pass each.
+ */
+public interface FusibleColorFilter {
+
+  /**
+   * @return uniforms used by getColorCode, type and name with $ before the name, like
+   * "float $Brightness". $ is replaced to get unique names in the fused shader.
+   */
+  String[] getColorUniforms();
+
+  /**
+   * @return GLSL statements that modify the vec4 color (RGBA 0 to 1) using getColorUniforms.
+   * Variables declared here are local to the filter.
+   */
+  String getColorCode();
+
+  /**
+   * Set the current values of the uniforms in the program in use, called in each draw.
+   *
+   * @param locations of getColorUniforms in the same order.
+   */
+  void setColorUniforms(int[] locations);
+}
@@ -15,7 +15,7 @@ import java.nio.ByteOrder;
  */
 
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-public class GammaFilterRender extends BaseFilterRender {
+public class GammaFilterRender extends BaseFilterRender implements FusibleColorFilter {
 
   //rotation matrix
   private final float[] squareVertexDataFilter = {
@@ -82,6 +82,21 @@ public class GammaFilterRender extends BaseFilterRender {
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, previousTexId);
   }
 
+  @Override
+  public String[] getColorUniforms() {
+    return new String[] { "float $Gamma" };
+  }
+
+  @Override
+  public String getColorCode() {
+    return "color.rgb = pow(color.rgb, vec3($Gamma));";
+  }
+
+  @Override
+  public void setColorUniforms(int[] locations) {
+    GLES20.glUniform1f(locations[0], gamma);
+  }
+
   @Override
   public void release() {
     GLES20.glDeleteProgram(program);
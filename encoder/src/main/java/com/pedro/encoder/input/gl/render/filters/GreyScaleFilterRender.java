@@ -15,7 +15,7 @@ import java.nio.ByteOrder;
  */
 
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-public class GreyScaleFilterRender extends BaseFilterRender {
+public class GreyScaleFilterRender extends BaseFilterRender implements FusibleColorFilter {
 
   //rotation matrix
   private final float[] squareVertexDataFilter = {
@@ -77,6 +77,20 @@ public class GreyScaleFilterRender extends BaseFilterRender {
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, previousTexId);
   }
 
+  @Override
+  public String[] getColorUniforms() {
+    return new String[0];
+  }
+
+  @Override
+  public String getColorCode() {
+    return "color.rgb = vec3(dot(color.rgb, vec3(0.299, 0.587, 0.114)));";
+  }
+
+  @Override
+  public void setColorUniforms(int[] locations) {
+  }
+
   @Override
   public void release() {
     GLES20.glDeleteProgram(program);
@@ -15,7 +15,7 @@ import java.nio.ByteOrder;
  */
 
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-public class SaturationFilterRender extends BaseFilterRender {
+public class SaturationFilterRender extends BaseFilterRender implements FusibleColorFilter {
 
   //rotation matrix
   private final float[] squareVertexDataFilter = {
@@ -94,6 +94,29 @@ public class SaturationFilterRender extends BaseFilterRender {
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, previousTexId);
   }
 
+  @Override
+  public String[] getColorUniforms() {
+    return new String[] { "float $Shift", "vec3 $Weights", "vec3 $Exponents", "float $Saturation" };
+  }
+
+  @Override
+  public String getColorCode() {
+    return "float kv = dot(color.rgb, $Weights) + $Shift;\n"
+        + "vec3 saturated = $Saturation * color.rgb + (1.0 - $Saturation) * kv;\n"
+        + "float de = dot(color.rgb, $Weights);\n"
+        + "vec3 exponential = de * pow(color.rgb / de, $Exponents);\n"
+        + "float maxColor = max(max(max(exponential.r, exponential.g), exponential.b), 1.0);\n"
+        + "color = vec4(saturated + exponential / maxColor, color.a * 2.0);";
+  }
+
+  @Override
+  public void setColorUniforms(int[] locations) {
+    GLES20.glUniform1f(locations[0], shift);
+    GLES20.glUniform3f(locations[1], weights[0], weights[1], weights[2]);
+    GLES20.glUniform3f(locations[2], exponents[0], exponents[1], exponents[2]);
+    GLES20.glUniform1f(locations[3], saturation);
+  }
+
   @Override
   public void release() {
     GLES20.glDeleteProgram(program);
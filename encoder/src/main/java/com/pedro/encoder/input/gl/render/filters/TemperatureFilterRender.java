@@ -15,7 +15,7 @@ import java.nio.ByteOrder;
  */
 
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-public class TemperatureFilterRender extends BaseFilterRender {
+public class TemperatureFilterRender extends BaseFilterRender implements FusibleColorFilter {
 
   //rotation matrix
   private final float[] squareVertexDataFilter = {
@@ -82,6 +82,27 @@ public class TemperatureFilterRender extends BaseFilterRender {
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, previousTexId);
   }
 
+  @Override
+  public String[] getColorUniforms() {
+    return new String[] { "float $Temperature" };
+  }
+
+  @Override
+  public String getColorCode() {
+    return "color.r = color.r + color.r * (1.0 - color.r) * $Temperature;\n"
+        + "color.b = color.b - color.b * (1.0 - color.b) * $Temperature;\n"
+        + "if ($Temperature > 0.0) {\n"
+        + "  color.g = color.g + color.g * (1.0 - color.g) * $Temperature * 0.25;\n"
+        + "}\n"
+        + "float value = max(color.r, max(color.g, color.b));\n"
+        + "if (value > 1.0) color.rgb /= value;";
+  }
+
+  @Override
+  public void setColorUniforms(int[] locations) {
+    GLES20.glUniform1f(locations[0], temperature);
+  }
+
   @Override
   public void release() {
     GLES20.glDeleteProgram(program);
@@ -51,7 +51,8 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
   private int fps = 30;
   private int rotation = 0;
   private int imageFormat = ImageFormat.NV21;
-  private byte[] yuvBuffer;
+  private int previewBufferCount = 3;
+  private PreviewBufferRing previewBufferRing;
   private List<Camera.Size> previewSizeBack;
   private List<Camera.Size> previewSizeFront;
   private float distance;
@@ -130,7 +131,8 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
     if (!checkCanOpen()) {
       throw new CameraOpenException("This camera resolution cant be opened");
     }
-    yuvBuffer = new byte[width * height * 3 / 2];
+    previewBufferRing = new PreviewBufferRing(previewBufferCount, width * height * 3 / 2,
+        imageFormat);
     try {
       camera = Camera.open(cameraSelect);
       Camera.CameraInfo info = new Camera.CameraInfo();
@@ -158,11 +160,11 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
       camera.setDisplayOrientation(rotation);
       if (surfaceView != null) {
         camera.setPreviewDisplay(surfaceView.getHolder());
-        camera.addCallbackBuffer(yuvBuffer);
+        previewBufferRing.attach(camera);
         camera.setPreviewCallbackWithBuffer(this);
       } else if (textureView != null) {
         camera.setPreviewTexture(textureView.getSurfaceTexture());
-        camera.addCallbackBuffer(yuvBuffer);
+        previewBufferRing.attach(camera);
         camera.setPreviewCallbackWithBuffer(this);
       } else {
         camera.setPreviewTexture(surfaceTexture);
@@ -238,6 +240,8 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
       camera.stopPreview();
       camera.setPreviewCallback(null);
       camera.setPreviewCallbackWithBuffer(null);
+      // frames still queued in the encoder must not give buffers to a released camera
+      if (previewBufferRing != null) previewBufferRing.detach();
       camera.release();
       camera = null;
     }
@@ -248,6 +252,14 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
     return running;
   }
 
+  /**
+   * Number of preview buffers shared with the camera, applied in the next start. More buffers let
+   * the camera keep capturing while the encoder is busy with previous frames. 3 by default.
+   */
+  public void setPreviewBufferCount(int previewBufferCount) {
+    this.previewBufferCount = Math.max(1, previewBufferCount);
+  }
+
   private int[] adaptFpsRange(int expectedFps, List<int[]> fpsRanges) {
     expectedFps *= 1000;
     int[] closestRange = fpsRanges.get(0);
@@ -266,8 +278,13 @@ public class Camera1ApiManager implements Camera.PreviewCallback, Camera.FaceDet
 
   @Override
   public void onPreviewFrame(byte[] data, Camera camera) {
-    getCameraData.inputYUVData(new Frame(data, rotation, isFrontCamera && isPortrait, imageFormat));
-    camera.addCallbackBuffer(yuvBuffer);
+    Frame frame = previewBufferRing.obtain(data);
+    if (frame == null) return;
+    frame.setOrientation(rotation);
+    frame.setFlip(isFrontCamera && isPortrait);
+    frame.setFormat(imageFormat);
+    // the buffer goes back to the camera when the frame is released
+    getCameraData.inputYUVData(frame);
   }
 
   /**
@@ -0,0 +1,162 @@
+package com.pedro.encoder.input.video;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decide which frames of a mostly static source (screen capture of slides or apps) are encoded.
+ * Each frame is given as a small signature (a downscaled image, any byte layout) and it is only
+ * encoded if the signature changed from the last encoded frame, so the next changed frame is
+ * encoded without delay.
+ *
+ * While content doesn't change a frame is encoded each keep alive interval (1 second by
+ * default), so players and servers keep receiving video. shouldRepeat tells when the last frame
+ * must be encoded again if the source stops giving frames.
+ *
+ * The reference signature is only updated with changed frames, so slow changes under the
+ * threshold are accumulated until they are detected.
+ */
+public class ContentChangeDetector {
+
+  private static final long SECOND_NS = 1000000000L;
+
+  private byte[] reference = new byte[0];
+  private int referenceSize = -1;
+  private int threshold = 0;
+  private long keepAliveNs = SECOND_NS;
+  private boolean encoded = false;
+  private long lastEncodedNs;
+  //stats
+  private long encodedFrames;
+  private long skippedFrames;
+  private long windowStartNs = -1;
+  private int windowFrames;
+  private float effectiveFps;
+
+  /**
+   * @param threshold difference of a signature byte ignored, 0 detects any change of the
+   * signature.
+   */
+  public synchronized void setThreshold(int threshold) {
+    this.threshold = threshold;
+  }
+
+  /**
+   * @param intervalNs max time between encoded frames while content doesn't change, 0 or less
+   * disable keep alive frames.
+   */
+  public synchronized void setKeepAliveInterval(long intervalNs) {
+    this.keepAliveNs = intervalNs;
+  }
+
+  /**
+   * Forget the last frame, the next one is always encoded, and clear stats.
+   */
+  public synchronized void reset() {
+    referenceSize = -1;
+    encoded = false;
+    encodedFrames = 0;
+    skippedFrames = 0;
+    windowStartNs = -1;
+    windowFrames = 0;
+    effectiveFps = 0;
+  }
+
+  /**
+   * Called with each frame of the source.
+   *
+   * @param signature from position to limit, not modified.
+   * @param timeNs capture time of the frame.
+   * @return true if the frame must be encoded.
+   */
+  public synchronized boolean shouldEncode(ByteBuffer signature, long timeNs) {
+    updateWindow(timeNs);
+    if (hasChanged(signature) || isKeepAliveTime(timeNs)) {
+      onEncoded(timeNs);
+      return true;
+    }
+    skippedFrames++;
+    return false;
+  }
+
+  /**
+   * Called while the source gives no frames.
+   *
+   * @return true if the last frame must be encoded again to keep the stream alive.
+   */
+  public synchronized boolean shouldRepeat(long timeNs) {
+    updateWindow(timeNs);
+    if (!encoded || !isKeepAliveTime(timeNs)) return false;
+    onEncoded(timeNs);
+    return true;
+  }
+
+  private boolean hasChanged(ByteBuffer signature) {
+    int position = signature.position();
+    int size = signature.remaining();
+    boolean changed = size != referenceSize;
+    for (int i = 0; i < size && !changed; i++) {
+      int difference = (signature.get(position + i) & 0xFF) - (reference[i] & 0xFF);
+      changed = difference > threshold || -difference > threshold;
+    }
+    if (changed) {
+      if (reference.length < size) reference = new byte[size];
+      for (int i = 0; i < size; i++) {
+        reference[i] = signature.get(position + i);
+      }
+      referenceSize = size;
+    }
+    return changed;
+  }
+
+  private boolean isKeepAliveTime(long timeNs) {
+    return encoded && keepAliveNs > 0 && timeNs - lastEncodedNs >= keepAliveNs;
+  }
+
+  private void onEncoded(long timeNs) {
+    encoded = true;
+    lastEncodedNs = timeNs;
+    encodedFrames++;
+    windowFrames++;
+  }
+
+  private void updateWindow(long timeNs) {
+    if (windowStartNs == -1) {
+      windowStartNs = timeNs;
+    } else if (timeNs - windowStartNs >= SECOND_NS) {
+      effectiveFps = windowFrames * (float) SECOND_NS / (timeNs - windowStartNs);
+      windowStartNs = timeNs;
+      windowFrames = 0;
+    }
+  }
+
+  /**
+   * @return fps of encoded frames in the last second, 0 during the first second.
+   */
+  public synchronized float getEffectiveFps() {
+    return effectiveFps;
+  }
+
+  /**
+   * @return frames encoded, changed and keep alive.
+   */
+  public synchronized long getEncodedFrames() {
+    return encodedFrames;
+  }
+
+  /**
+   * @return frames not encoded because content didn't change.
+   */
+  public synchronized long getSkippedFrames() {
+    return skippedFrames;
+  }
+
+  /**
+   * @param bitrate of the encoder in bits per second.
+   * @param fps of the encoder.
+   * @return bytes saved by skipped frames, estimated as the average frame size of the encoder.
+   */
+  public synchronized long getEstimatedBytesSaved(int bitrate, int fps) {
+    if (fps <= 0) return 0;
+    return skippedFrames * bitrate / 8 / fps;
+  }
+}
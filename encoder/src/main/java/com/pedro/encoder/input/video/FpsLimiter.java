@@ -2,26 +2,20 @@ package com.pedro.encoder.input.video;
 
 /**
  * Created by pedro on 11/10/18.
+ *
+ * Replaced by FramePacer, kept for compatibility.
  */
-
-public class FpsLimiter {
-
-  private long startTS = System.currentTimeMillis();
-  private long ratioF = 1000 / 30;
-  private long ratio = 1000 / 30;
+@Deprecated
+public class FpsLimiter extends FramePacer {
 
   public void setFPS(int fps) {
-    startTS = System.currentTimeMillis();
-    ratioF = 1000 / fps;
-    ratio = 1000 / fps;
+    setFps(fps);
   }
 
+  /**
+   * @return true if the frame must be discarded.
+   */
   public boolean limitFPS() {
-    long lastFrameTimestamp = System.currentTimeMillis() - startTS;
-    if (ratio < lastFrameTimestamp) {
-      ratio += ratioF;
-      return false;
-    }
-    return true;
+    return shouldDrop();
   }
 }
@@ -0,0 +1,167 @@
+package com.pedro.encoder.input.video;
+
+/**
+ * Decide which frames of a source are kept to get a target fps, call shouldDrop when each frame
+ * is captured so dropped frames don't waste conversion or GPU work.
+ *
+ * Frame times are in nanoseconds of a monotonic clock (System.nanoTime by default, wall clock
+ * changes don't affect it). Each kept frame moves the deadline of the next one by exactly
+ * 1 / fps, without rounding to milliseconds, so 24, 30 or 60 fps don't drift. A frame is kept
+ * if it arrives a quarter of interval before its deadline at most, to tolerate the jitter of
+ * sources with the same fps as the target. After a stall the deadline is moved to the current
+ * frame instead of keeping a burst of frames to catch up.
+ *
+ * Frames are never duplicated when the source is slower than the target, encoders use the
+ * capture timestamps so the result is a stream with the fps of the source.
+ *
+ * Kept frames are measured to get the achieved fps and the jitter of frame intervals.
+ */
+public class FramePacer {
+
+  public interface Clock {
+    long nanoTime();
+  }
+
+  private static final Clock SYSTEM_CLOCK = new Clock() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+  };
+  private static final long SECOND_NS = 1000000000L;
+  private static final float STATS_ALPHA = 0.1f;
+
+  private final Clock clock;
+  private float fps = 30;
+  private long intervalNs = SECOND_NS / 30;
+  private long toleranceNs = intervalNs / 4;
+  //fractional accounting: kept frames since start, next deadline = start + kept / fps
+  private long startNs;
+  private long keptFrames;
+  private boolean started = false;
+  //stats
+  private long lastKeptNs;
+  private double meanIntervalNs;
+  private double jitterNs;
+  private long totalKept;
+  private long totalDropped;
+
+  public FramePacer() {
+    this(SYSTEM_CLOCK);
+  }
+
+  /**
+   * @param clock source of frame times, used to test with a fake clock.
+   */
+  public FramePacer(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Set target fps and start again, 0 or less keep all frames.
+   */
+  public synchronized void setFps(float fps) {
+    this.fps = fps;
+    if (fps > 0) {
+      intervalNs = (long) (SECOND_NS / fps);
+      toleranceNs = intervalNs / 4;
+    }
+    reset();
+  }
+
+  public synchronized float getFps() {
+    return fps;
+  }
+
+  /**
+   * Start pacing again from the next frame and clear stats.
+   */
+  public synchronized void reset() {
+    started = false;
+    keptFrames = 0;
+    lastKeptNs = 0;
+    meanIntervalNs = 0;
+    jitterNs = 0;
+    totalKept = 0;
+    totalDropped = 0;
+  }
+
+  /**
+   * Called when a frame is captured.
+   *
+   * @return true if the frame must be discarded.
+   */
+  public boolean shouldDrop() {
+    return shouldDrop(clock.nanoTime());
+  }
+
+  /**
+   * @param timeNs capture time of the frame.
+   * @return true if the frame must be discarded.
+   */
+  public synchronized boolean shouldDrop(long timeNs) {
+    if (fps <= 0) {
+      onKept(timeNs);
+      return false;
+    }
+    if (!started) {
+      started = true;
+      startNs = timeNs;
+      keptFrames = 0;
+    }
+    long deadline = deadline(keptFrames);
+    if (timeNs < deadline - toleranceNs) {
+      totalDropped++;
+      return true;
+    }
+    if (timeNs - deadline > intervalNs) {
+      //stalled more than a frame, start from this frame instead of keeping a burst
+      startNs = timeNs;
+      keptFrames = 0;
+    }
+    keptFrames++;
+    onKept(timeNs);
+    return false;
+  }
+
+  private long deadline(long frames) {
+    return startNs + (long) (frames * (double) SECOND_NS / fps);
+  }
+
+  private void onKept(long timeNs) {
+    totalKept++;
+    if (lastKeptNs != 0) {
+      long interval = timeNs - lastKeptNs;
+      if (meanIntervalNs == 0) {
+        meanIntervalNs = interval;
+      } else {
+        double deviation = Math.abs(interval - meanIntervalNs);
+        meanIntervalNs += STATS_ALPHA * (interval - meanIntervalNs);
+        jitterNs += STATS_ALPHA * (deviation - jitterNs);
+      }
+    }
+    lastKeptNs = timeNs;
+  }
+
+  /**
+   * @return fps of kept frames (moving average), 0 until 2 frames are kept.
+   */
+  public synchronized float getAchievedFps() {
+    return meanIntervalNs > 0 ? (float) (SECOND_NS / meanIntervalNs) : 0;
+  }
+
+  /**
+   * @return mean deviation of kept frame intervals from their average in ms (moving average).
+   */
+  public synchronized float getJitterMs() {
+    return (float) (jitterNs / 1000000);
+  }
+
+  public synchronized long getKeptFrames() {
+    return totalKept;
+  }
+
+  public synchronized long getDroppedFrames() {
+    return totalDropped;
+  }
+}
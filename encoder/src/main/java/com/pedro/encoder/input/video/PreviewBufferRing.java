@@ -0,0 +1,79 @@
+package com.pedro.encoder.input.video;
+
+import android.hardware.Camera;
+import android.util.Log;
+import com.pedro.encoder.Frame;
+
+/**
+ * Preview buffers given to Camera1 with addCallbackBuffer, each one wrapped in a Frame that is
+ * reused. A buffer is given back to the camera when its frame is released by the encoder, so a
+ * frame is never overwritten while it is queued and the camera has other buffers to keep
+ * capturing meanwhile. If all buffers are in use the camera skips frames instead of waiting.
+ */
+class PreviewBufferRing implements Frame.ReleaseListener {
+
+  private static final String TAG = "PreviewBufferRing";
+
+  private final Frame[] frames;
+  private final boolean[] inUse;
+  private Camera camera;
+
+  PreviewBufferRing(int count, int bufferSize, int imageFormat) {
+    frames = new Frame[count];
+    inUse = new boolean[count];
+    for (int i = 0; i < count; i++) {
+      frames[i] = new Frame(new byte[bufferSize], 0, false, imageFormat);
+      frames[i].setReleaseListener(this);
+    }
+  }
+
+  /**
+   * Give all buffers to the camera.
+   */
+  synchronized void attach(Camera camera) {
+    this.camera = camera;
+    for (int i = 0; i < frames.length; i++) {
+      inUse[i] = false;
+      camera.addCallbackBuffer(frames[i].getBuffer());
+    }
+  }
+
+  /**
+   * Called before releasing the camera, frames released after this are ignored.
+   */
+  synchronized void detach() {
+    camera = null;
+  }
+
+  /**
+   * @return frame of a buffer filled by the camera, null if it isn't from this ring.
+   */
+  synchronized Frame obtain(byte[] data) {
+    for (int i = 0; i < frames.length; i++) {
+      if (frames[i].getBuffer() == data) {
+        inUse[i] = true;
+        return frames[i];
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized void onFrameReleased(Frame frame) {
+    for (int i = 0; i < frames.length; i++) {
+      if (frames[i] == frame) {
+        // released twice, the buffer is already in the camera
+        if (!inUse[i]) return;
+        inUse[i] = false;
+        if (camera != null) {
+          try {
+            camera.addCallbackBuffer(frame.getBuffer());
+          } catch (RuntimeException e) {
+            Log.e(TAG, "Error returning buffer to camera", e);
+          }
+        }
+        return;
+      }
+    }
+  }
+}
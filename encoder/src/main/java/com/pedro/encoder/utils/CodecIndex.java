@@ -0,0 +1,290 @@
+package com.pedro.encoder.utils;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Capabilities of the device codecs read once per process. MediaCodecList and
+ * getCapabilitiesForType are slow (they ask the media server) and codecs can't change while the
+ * app is running, so the index is built the first time it is needed and then every prepare,
+ * reconnect or resolution change only does map lookups.
+ *
+ * Lists keep the order of MediaCodecList so encoder selection is the same in every prepare.
+ * An index with fake codecs can be set with setInstance.
+ */
+public class CodecIndex {
+
+  private static final String TAG = "CodecIndex";
+
+  private static volatile CodecIndex instance;
+
+  /**
+   * Capabilities of a codec for one mime.
+   */
+  public static class Codec {
+
+    private final String name;
+    private final String mime;
+    private final boolean encoder;
+    private final boolean hardwareAccelerated;
+    private final boolean softwareOnly;
+    private final int[] colorFormats;
+    //profileLevels[i][0] profile, profileLevels[i][1] max level
+    private final int[][] profileLevels;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final int maxFps;
+    private final MediaCodecInfo codecInfo;
+
+    /**
+     * @param maxWidth 0 if unknown, same for maxHeight and maxFps.
+     * @param codecInfo null in fake codecs.
+     */
+    public Codec(String name, String mime, boolean encoder, boolean hardwareAccelerated,
+        boolean softwareOnly, int[] colorFormats, int[][] profileLevels, int maxWidth,
+        int maxHeight, int maxFps, MediaCodecInfo codecInfo) {
+      this.name = name;
+      this.mime = mime;
+      this.encoder = encoder;
+      this.hardwareAccelerated = hardwareAccelerated;
+      this.softwareOnly = softwareOnly;
+      this.colorFormats = colorFormats != null ? colorFormats : new int[0];
+      this.profileLevels = profileLevels != null ? profileLevels : new int[0][];
+      this.maxWidth = maxWidth;
+      this.maxHeight = maxHeight;
+      this.maxFps = maxFps;
+      this.codecInfo = codecInfo;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getMime() {
+      return mime;
+    }
+
+    public boolean isEncoder() {
+      return encoder;
+    }
+
+    public boolean isHardwareAccelerated() {
+      return hardwareAccelerated;
+    }
+
+    public boolean isSoftwareOnly() {
+      return softwareOnly;
+    }
+
+    public int[] getColorFormats() {
+      return colorFormats.clone();
+    }
+
+    public boolean supportsColorFormat(int colorFormat) {
+      for (int color : colorFormats) {
+        if (color == colorFormat) return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return true if the codec reports the profile with this level or higher.
+     */
+    public boolean supportsProfileLevel(int profile, int level) {
+      for (int[] profileLevel : profileLevels) {
+        if (profileLevel[0] == profile && profileLevel[1] >= level) return true;
+      }
+      return false;
+    }
+
+    public int getMaxWidth() {
+      return maxWidth;
+    }
+
+    public int getMaxHeight() {
+      return maxHeight;
+    }
+
+    public int getMaxFps() {
+      return maxFps;
+    }
+
+    public MediaCodecInfo getCodecInfo() {
+      return codecInfo;
+    }
+
+    private static Codec from(MediaCodecInfo info, String mime) {
+      MediaCodecInfo.CodecCapabilities capabilities = info.getCapabilitiesForType(mime);
+      int[][] profileLevels = new int[0][];
+      if (capabilities.profileLevels != null) {
+        profileLevels = new int[capabilities.profileLevels.length][];
+        for (int i = 0; i < profileLevels.length; i++) {
+          MediaCodecInfo.CodecProfileLevel profileLevel = capabilities.profileLevels[i];
+          profileLevels[i] = new int[] { profileLevel.profile, profileLevel.level };
+        }
+      }
+      int maxWidth = 0, maxHeight = 0, maxFps = 0;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
+        if (videoCapabilities != null) {
+          maxWidth = videoCapabilities.getSupportedWidths().getUpper();
+          maxHeight = videoCapabilities.getSupportedHeights().getUpper();
+          maxFps = videoCapabilities.getSupportedFrameRates().getUpper();
+        }
+      }
+      return new Codec(info.getName(), mime, info.isEncoder(),
+          CodecUtil.isHardwareAccelerated(info), CodecUtil.isSoftwareOnly(info),
+          capabilities.colorFormats, profileLevels, maxWidth, maxHeight, maxFps, info);
+    }
+  }
+
+  private final List<MediaCodecInfo> codecInfos;
+  private final Map<String, List<Codec>> encoders = new HashMap<>();
+  private final Map<String, List<Codec>> hardwareEncoders = new HashMap<>();
+  private final Map<String, List<Codec>> softwareEncoders = new HashMap<>();
+  private final Map<String, List<Codec>> decoders = new HashMap<>();
+  private final Map<String, List<Codec>> hardwareDecoders = new HashMap<>();
+  private final Map<String, List<Codec>> softwareDecoders = new HashMap<>();
+  private final Map<String, Codec> byName = new HashMap<>();
+
+  /**
+   * Index of fake codecs, in the order they should be selected.
+   */
+  public CodecIndex(List<Codec> codecs) {
+    this(codecs, new ArrayList<MediaCodecInfo>());
+  }
+
+  private CodecIndex(List<Codec> codecs, List<MediaCodecInfo> codecInfos) {
+    this.codecInfos = Collections.unmodifiableList(codecInfos);
+    for (Codec codec : codecs) {
+      String mime = key(codec.mime);
+      //in API 29+ a codec can be neither hardware accelerated nor software only
+      if (codec.encoder) {
+        add(encoders, mime, codec);
+        if (codec.hardwareAccelerated) add(hardwareEncoders, mime, codec);
+        if (codec.softwareOnly) add(softwareEncoders, mime, codec);
+      } else {
+        add(decoders, mime, codec);
+        if (codec.hardwareAccelerated) add(hardwareDecoders, mime, codec);
+        if (codec.softwareOnly) add(softwareDecoders, mime, codec);
+      }
+      byName.put(codec.name + "/" + mime, codec);
+    }
+  }
+
+  /**
+   * @return index of the device codecs, built in the first call.
+   */
+  public static CodecIndex getInstance() {
+    CodecIndex index = instance;
+    if (index == null) {
+      synchronized (CodecIndex.class) {
+        index = instance;
+        if (index == null) {
+          index = fromDevice();
+          instance = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Replace the index used by encoders and CodecUtil, null to read the device codecs again.
+   */
+  public static void setInstance(CodecIndex index) {
+    instance = index;
+  }
+
+  private static CodecIndex fromDevice() {
+    long start = System.nanoTime();
+    List<MediaCodecInfo> codecInfos = new ArrayList<>();
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      MediaCodecList mediaCodecList = new MediaCodecList(MediaCodecList.ALL_CODECS);
+      Collections.addAll(codecInfos, mediaCodecList.getCodecInfos());
+    } else {
+      int count = MediaCodecList.getCodecCount();
+      for (int i = 0; i < count; i++) {
+        codecInfos.add(MediaCodecList.getCodecInfoAt(i));
+      }
+    }
+    List<Codec> codecs = new ArrayList<>();
+    for (MediaCodecInfo info : codecInfos) {
+      if (!CodecUtil.isValid(info.getName())) continue;
+      for (String type : info.getSupportedTypes()) {
+        try {
+          codecs.add(Codec.from(info, type));
+        } catch (IllegalArgumentException e) {
+          Log.e(TAG, "Capabilities not available: " + info.getName() + ", " + type, e);
+        }
+      }
+    }
+    Log.i(TAG, codecs.size() + " codecs indexed in " + (System.nanoTime() - start) / 1000000
+        + "ms");
+    return new CodecIndex(codecs, codecInfos);
+  }
+
+  private static String key(String mime) {
+    return mime.toLowerCase(Locale.US);
+  }
+
+  private static void add(Map<String, List<Codec>> map, String mime, Codec codec) {
+    List<Codec> list = map.get(mime);
+    if (list == null) {
+      list = new ArrayList<>();
+      map.put(mime, list);
+    }
+    list.add(codec);
+  }
+
+  private static List<Codec> get(Map<String, List<Codec>> map, String mime) {
+    List<Codec> list = map.get(key(mime));
+    return list != null ? Collections.unmodifiableList(list) : Collections.<Codec>emptyList();
+  }
+
+  /**
+   * @return all codecs of the device, broken codecs included. Empty in an index of fake codecs.
+   */
+  public List<MediaCodecInfo> getCodecInfos() {
+    return codecInfos;
+  }
+
+  public List<Codec> getEncoders(String mime) {
+    return get(encoders, mime);
+  }
+
+  public List<Codec> getHardwareEncoders(String mime) {
+    return get(hardwareEncoders, mime);
+  }
+
+  public List<Codec> getSoftwareEncoders(String mime) {
+    return get(softwareEncoders, mime);
+  }
+
+  public List<Codec> getDecoders(String mime) {
+    return get(decoders, mime);
+  }
+
+  public List<Codec> getHardwareDecoders(String mime) {
+    return get(hardwareDecoders, mime);
+  }
+
+  public List<Codec> getSoftwareDecoders(String mime) {
+    return get(softwareDecoders, mime);
+  }
+
+  /**
+   * @return capabilities of the codec for the mime, null if not found.
+   */
+  public Codec getCodec(String name, String mime) {
+    return byName.get(name + "/" + key(mime));
+  }
+}
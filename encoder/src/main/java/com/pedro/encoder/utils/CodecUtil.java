@@ -1,10 +1,8 @@
 package com.pedro.encoder.utils;
 
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.os.Build;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -136,101 +134,46 @@ public class CodecUtil {
   }
 
   public static List<MediaCodecInfo> getAllCodecs(boolean filterBroken) {
-    List<MediaCodecInfo> mediaCodecInfoList = new ArrayList<>();
-    if (Build.VERSION.SDK_INT >= 21) {
-      MediaCodecList mediaCodecList = new MediaCodecList(MediaCodecList.ALL_CODECS);
-      MediaCodecInfo[] mediaCodecInfos = mediaCodecList.getCodecInfos();
-      mediaCodecInfoList.addAll(Arrays.asList(mediaCodecInfos));
-    } else {
-      int count = MediaCodecList.getCodecCount();
-      for (int i = 0; i < count; i++) {
-        MediaCodecInfo mci = MediaCodecList.getCodecInfoAt(i);
-        mediaCodecInfoList.add(mci);
-      }
-    }
+    List<MediaCodecInfo> mediaCodecInfoList =
+        new ArrayList<>(CodecIndex.getInstance().getCodecInfos());
     return filterBroken ? filterBrokenCodecs(mediaCodecInfoList) : mediaCodecInfoList;
   }
 
   public static List<MediaCodecInfo> getAllHardwareEncoders(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList = getAllEncoders(mime);
-    List<MediaCodecInfo> mediaCodecInfoHardware = new ArrayList<>();
-    for (MediaCodecInfo mediaCodecInfo : mediaCodecInfoList) {
-      if (isHardwareAccelerated(mediaCodecInfo)) {
-        mediaCodecInfoHardware.add(mediaCodecInfo);
-      }
-    }
-    return mediaCodecInfoHardware;
+    return toCodecInfos(CodecIndex.getInstance().getHardwareEncoders(mime));
   }
 
   public static List<MediaCodecInfo> getAllHardwareDecoders(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList = getAllDecoders(mime);
-    List<MediaCodecInfo> mediaCodecInfoHardware = new ArrayList<>();
-    for (MediaCodecInfo mediaCodecInfo : mediaCodecInfoList) {
-      if (isHardwareAccelerated(mediaCodecInfo)) {
-        mediaCodecInfoHardware.add(mediaCodecInfo);
-      }
-    }
-    return mediaCodecInfoHardware;
+    return toCodecInfos(CodecIndex.getInstance().getHardwareDecoders(mime));
   }
 
   public static List<MediaCodecInfo> getAllSoftwareEncoders(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList = getAllEncoders(mime);
-    List<MediaCodecInfo> mediaCodecInfoSoftware = new ArrayList<>();
-    for (MediaCodecInfo mediaCodecInfo : mediaCodecInfoList) {
-      if (isSoftwareOnly(mediaCodecInfo)) {
-        mediaCodecInfoSoftware.add(mediaCodecInfo);
-      }
-    }
-    return mediaCodecInfoSoftware;
+    return toCodecInfos(CodecIndex.getInstance().getSoftwareEncoders(mime));
   }
 
   public static List<MediaCodecInfo> getAllSoftwareDecoders(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList = getAllDecoders(mime);
-    List<MediaCodecInfo> mediaCodecInfoSoftware = new ArrayList<>();
-    for (MediaCodecInfo mediaCodecInfo : mediaCodecInfoList) {
-      if (isSoftwareOnly(mediaCodecInfo)) {
-        mediaCodecInfoSoftware.add(mediaCodecInfo);
-      }
-    }
-    return mediaCodecInfoSoftware;
+    return toCodecInfos(CodecIndex.getInstance().getSoftwareDecoders(mime));
   }
 
   /**
    * choose the video encoder by mime.
    */
   public static List<MediaCodecInfo> getAllEncoders(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList = new ArrayList<>();
-    List<MediaCodecInfo> mediaCodecInfos = getAllCodecs(true);
-    for (MediaCodecInfo mci : mediaCodecInfos) {
-      if (!mci.isEncoder()) {
-        continue;
-      }
-      String[] types = mci.getSupportedTypes();
-      for (String type : types) {
-        if (type.equalsIgnoreCase(mime)) {
-          mediaCodecInfoList.add(mci);
-        }
-      }
-    }
-    return mediaCodecInfoList;
+    return toCodecInfos(CodecIndex.getInstance().getEncoders(mime));
   }
 
   /**
    * choose the video encoder by mime.
    */
   public static List<MediaCodecInfo> getAllDecoders(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList = new ArrayList<>();
-    List<MediaCodecInfo> mediaCodecInfos = getAllCodecs(true);
-    for (MediaCodecInfo mci : mediaCodecInfos) {
-      if (mci.isEncoder()) {
-        continue;
-      }
-      String[] types = mci.getSupportedTypes();
-      for (String type : types) {
-        if (type.equalsIgnoreCase(mime)) {
-          mediaCodecInfoList.add(mci);
-        }
-      }
+    return toCodecInfos(CodecIndex.getInstance().getDecoders(mime));
+  }
+
+  //only for apps using MediaCodecInfo, encoders choose with CodecIndex.Codec
+  private static List<MediaCodecInfo> toCodecInfos(List<CodecIndex.Codec> codecs) {
+    List<MediaCodecInfo> mediaCodecInfoList = new ArrayList<>(codecs.size());
+    for (CodecIndex.Codec codec : codecs) {
+      if (codec.getCodecInfo() != null) mediaCodecInfoList.add(codec.getCodecInfo());
     }
     return mediaCodecInfoList;
   }
@@ -238,7 +181,7 @@ public class CodecUtil {
   /* Adapted from google/ExoPlayer
    * https://github.com/google/ExoPlayer/commit/48555550d7fcf6953f2382466818c74092b26355
    */
-  private static boolean isHardwareAccelerated(MediaCodecInfo codecInfo) {
+  static boolean isHardwareAccelerated(MediaCodecInfo codecInfo) {
     if (Build.VERSION.SDK_INT >= 29) {
       return codecInfo.isHardwareAccelerated();
     }
@@ -250,7 +193,7 @@ public class CodecUtil {
   /* Adapted from google/ExoPlayer
    * https://github.com/google/ExoPlayer/commit/48555550d7fcf6953f2382466818c74092b26355
    */
-  private static boolean isSoftwareOnly(MediaCodecInfo mediaCodecInfo) {
+  static boolean isSoftwareOnly(MediaCodecInfo mediaCodecInfo) {
     if (Build.VERSION.SDK_INT >= 29) {
       return mediaCodecInfo.isSoftwareOnly();
     }
@@ -290,7 +233,7 @@ public class CodecUtil {
   /**
    * For now, none broken codec reported.
    */
-  private static boolean isValid(String name) {
+  static boolean isValid(String name) {
     return true;
   }
 }
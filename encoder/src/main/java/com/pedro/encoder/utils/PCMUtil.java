@@ -2,61 +2,145 @@ package com.pedro.encoder.utils;
 
 /**
  * Created by pedro on 3/07/17.
+ *
+ * Helpers for 16 bits little endian PCM. To mix sources in real time use AudioMixer.
  */
 public class PCMUtil {
 
-  //no tested
-  //see https://stackoverflow.com/questions/15652432/how-to-mix-overlay-two-mp3-audio-file-into-one-mp3-file-not-concatenate/33255658#33255658
-  public static byte[] mixPCM(byte[] pcm1, byte[] pcm2) {
-    int len1 = pcm1.length;
-    int len2 = pcm2.length;
-    byte[] pcmL;
-    byte[] pcmS;
-    int lenL; // length of the longest
-    int lenS; // length of the shortest
-    if (len2 > len1) {
-      lenL = len1;
-      pcmL = pcm1;
-      lenS = len2;
-      pcmS = pcm2;
-    } else {
-      lenL = len2;
-      pcmL = pcm2;
-      lenS = len1;
-      pcmS = pcm1;
-    }
-    for (int idx = 0; idx < lenL; idx++) {
-      int sample;
-      if (idx >= lenS) {
-        sample = pcmL[idx];
-      } else {
-        sample = pcmL[idx] + pcmS[idx];
+  //left and right weight of each channel in the default Android order of each channel count:
+  //FL, FR, FC, LFE, BL, BR, BC or SL, SR. LFE is discarded.
+  private static final float C = 0.7071f;
+  private static final float[][][] DOWNMIX_WEIGHTS = {
+      {}, {}, {},
+      { { 1, 0 }, { 0, 1 }, { C, C } },
+      { { 1, 0 }, { 0, 1 }, { C, 0 }, { 0, C } },
+      { { 1, 0 }, { 0, 1 }, { C, C }, { C, 0 }, { 0, C } },
+      { { 1, 0 }, { 0, 1 }, { C, C }, { 0, 0 }, { C, 0 }, { 0, C } },
+      { { 1, 0 }, { 0, 1 }, { C, C }, { 0, 0 }, { C, 0 }, { 0, C }, { 0.5f, 0.5f } },
+      { { 1, 0 }, { 0, 1 }, { C, C }, { 0, 0 }, { C, 0 }, { 0, C }, { C, 0 }, { 0, C } }
+  };
+  //same weights in Q14, normalized so the sum of a side is 1 and the result never clips
+  private static final int[][][] DOWNMIX_Q14 = new int[DOWNMIX_WEIGHTS.length][][];
+
+  static {
+    for (int channels = 0; channels < DOWNMIX_WEIGHTS.length; channels++) {
+      float[][] weights = DOWNMIX_WEIGHTS[channels];
+      float sum = 0;
+      for (float[] weight : weights) {
+        sum += weight[0];
+      }
+      DOWNMIX_Q14[channels] = new int[weights.length][2];
+      for (int i = 0; i < weights.length; i++) {
+        DOWNMIX_Q14[channels][i][0] = Math.round(weights[i][0] / sum * 16384);
+        DOWNMIX_Q14[channels][i][1] = Math.round(weights[i][1] / sum * 16384);
       }
-      sample = (int) (sample * .71);
-      if (sample > 127) sample = 127;
-      if (sample < -128) sample = -128;
-      pcmL[idx] = (byte) sample;
     }
-    return pcmL;
   }
 
-  private static final byte[] pcmBufferStereo = new byte[4096];
+  /**
+   * Mix two PCM buffers sample by sample. The result has the length of the longest one and the
+   * inputs are not modified.
+   */
+  public static byte[] mixPCM(byte[] pcm1, byte[] pcm2) {
+    byte[] output = new byte[Math.max(pcm1.length, pcm2.length)];
+    mixPCM(pcm1, pcm1.length, pcm2, pcm2.length, output);
+    return output;
+  }
+
+  /**
+   * Mix two PCM buffers sample by sample to output, without allocations. Output can be one of
+   * the inputs.
+   *
+   * @return bytes written, the size of the longest input.
+   */
+  public static int mixPCM(byte[] pcm1, int size1, byte[] pcm2, int size2, byte[] output) {
+    int size = Math.max(size1, size2) & ~1;
+    for (int i = 0; i < size; i += 2) {
+      int sample = 0;
+      if (i + 1 < size1) sample += (short) ((pcm1[i] & 0xFF) | (pcm1[i + 1] << 8));
+      if (i + 1 < size2) sample += (short) ((pcm2[i] & 0xFF) | (pcm2[i + 1] << 8));
+      if (sample > Short.MAX_VALUE) sample = Short.MAX_VALUE;
+      if (sample < Short.MIN_VALUE) sample = Short.MIN_VALUE;
+      output[i] = (byte) sample;
+      output[i + 1] = (byte) (sample >> 8);
+    }
+    return size;
+  }
 
   /**
-   * Experimental method to downgrade pcm with 3 channels or more to stereo.
+   * Downgrade pcm with 3 channels or more to stereo keeping the first two channels.
    *
    * @return pcm buffer in stereo (2 channels)
    */
   public static byte[] pcmToStereo(byte[] pcm, int channels) {
+    byte[] output = new byte[pcm.length / channels * 2];
+    pcmToStereo(pcm, pcm.length, channels, output);
+    return output;
+  }
+
+  /**
+   * Same as {@link #pcmToStereo(byte[], int)} to output, without allocations.
+   *
+   * @param output buffer of size / channels * 2 bytes at least.
+   * @return bytes written.
+   */
+  public static int pcmToStereo(byte[] pcm, int size, int channels, byte[] output) {
+    int frameSize = channels * 2;
     int cont = 0;
-    for (int i = 0; i < pcm.length; i += channels) {
-      byte channel1 = pcm[i];
-      byte channel2 = pcm[i + 1];
+    for (int i = 0; i + frameSize <= size; i += frameSize) {
+      output[cont] = pcm[i];
+      output[cont + 1] = pcm[i + 1];
+      output[cont + 2] = pcm[i + 2];
+      output[cont + 3] = pcm[i + 3];
+      cont += 4;
+    }
+    return cont;
+  }
 
-      pcmBufferStereo[cont] = channel1;
-      pcmBufferStereo[cont + 1] = channel2;
-      cont += 2;
+  /**
+   * Mix pcm of any channel count to mono or stereo, without allocations. Surround layouts (3 to
+   * 8 channels) are mixed with the usual -3dB weights for center and surround channels, other
+   * counts keep the first two channels.
+   *
+   * @param outChannels 1 or 2.
+   * @param output buffer of size / inChannels * outChannels bytes at least, can't be pcm.
+   * @return bytes written.
+   */
+  public static int downmix(byte[] pcm, int offset, int size, int inChannels, int outChannels,
+      byte[] output) {
+    int frameSize = inChannels * 2;
+    int[][] weights = inChannels < DOWNMIX_Q14.length ? DOWNMIX_Q14[inChannels] : null;
+    if (weights != null && weights.length == 0) weights = null;
+    int cont = 0;
+    for (int i = offset; i + frameSize <= offset + size; i += frameSize) {
+      int left;
+      int right;
+      if (weights != null) {
+        left = 0;
+        right = 0;
+        for (int c = 0; c < inChannels; c++) {
+          int sample = (short) ((pcm[i + c * 2] & 0xFF) | (pcm[i + c * 2 + 1] << 8));
+          left += sample * weights[c][0];
+          right += sample * weights[c][1];
+        }
+        //rounding of the weights could exceed the limit by one
+        left = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, left >> 14));
+        right = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, right >> 14));
+      } else {
+        left = (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8));
+        right = inChannels > 1 ? (short) ((pcm[i + 2] & 0xFF) | (pcm[i + 3] << 8)) : left;
+      }
+      if (outChannels == 1) {
+        int mono = (left + right) >> 1;
+        output[cont++] = (byte) mono;
+        output[cont++] = (byte) (mono >> 8);
+      } else {
+        output[cont++] = (byte) left;
+        output[cont++] = (byte) (left >> 8);
+        output[cont++] = (byte) right;
+        output[cont++] = (byte) (right >> 8);
+      }
     }
-    return pcmBufferStereo;
+    return cont;
   }
 }
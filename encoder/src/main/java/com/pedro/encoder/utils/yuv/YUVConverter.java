@@ -0,0 +1,361 @@
+package com.pedro.encoder.utils.yuv;
+
+import android.graphics.ImageFormat;
+import com.pedro.encoder.video.FormatVideoEncoder;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Rotate and convert NV21 or YV12 frames to I420 or NV12 in one pass over each plane, the
+ * equivalent of YUVUtil.rotateNV21/rotateYV12 followed by NV21toYUV420byColor/YV12toYUV420byColor
+ * without the intermediate buffer.
+ *
+ * Each output row is produced reading the input with a fixed step, so rows are independent and
+ * can be split between threads. The result is written to a byte array or directly to a codec
+ * input buffer.
+ *
+ * Rotation is clockwise like Camera orientation. Width and height are the input size, the output
+ * is height x width with 90 and 270. Frames are converted one at a time, convert must not be
+ * called from several threads at once.
+ */
+public class YUVConverter {
+
+  //smaller frames are faster in the caller thread than waking up workers
+  private static final int MIN_PIXELS_TO_SPLIT = 640 * 360;
+
+  private final int threads;
+  private final ExecutorService executor;
+  private final Slice[] slices;
+  private final Object lock = new Object();
+  private int pendingSlices = 0;
+  private RuntimeException sliceError;
+  //current frame, written before workers start and read after they finish
+  private byte[] input;
+  private boolean inputNV21;
+  private boolean outputPlanar;
+  private int width;
+  private int height;
+  private int rotation;
+  private byte[] outputArray;
+  private int outputOffset;
+  private ByteBuffer outputBuffer;
+
+  public YUVConverter() {
+    this(1);
+  }
+
+  /**
+   * @param threads threads used to convert a frame, the caller thread is one of them.
+   */
+  public YUVConverter(int threads) {
+    this.threads = Math.max(1, threads);
+    slices = new Slice[this.threads];
+    for (int i = 0; i < slices.length; i++) {
+      slices[i] = new Slice();
+    }
+    if (this.threads > 1) {
+      executor = Executors.newFixedThreadPool(this.threads - 1, new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "YUVConverter-" + count++);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    } else {
+      executor = null;
+    }
+  }
+
+  /**
+   * @return 2 threads in devices with 4 or more cores, 1 in others.
+   */
+  public static int getDefaultThreads() {
+    return Runtime.getRuntime().availableProcessors() >= 4 ? 2 : 1;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Stop the worker threads. Frames converted after this are done only in the caller thread.
+   */
+  public void release() {
+    if (executor != null) executor.shutdown();
+  }
+
+  /**
+   * @param imageFormat ImageFormat.NV21 or ImageFormat.YV12
+   * @param rotation 0, 90, 180 or 270
+   * @param formatVideoEncoder YUV420PLANAR (I420) or YUV420SEMIPLANAR (NV12), packed variants
+   * have the same layout.
+   * @param output buffer of width * height * 3 / 2 bytes at least, written from its position.
+   * The position is not modified.
+   * @return bytes written.
+   */
+  public int convert(byte[] input, int imageFormat, int width, int height, int rotation,
+      FormatVideoEncoder formatVideoEncoder, ByteBuffer output) {
+    if (output.hasArray()) {
+      return convert(input, imageFormat, width, height, rotation, formatVideoEncoder,
+          output.array(), output.arrayOffset() + output.position());
+    }
+    return convert(input, imageFormat, width, height, rotation, formatVideoEncoder, null, 0,
+        output);
+  }
+
+  /**
+   * Same as {@link #convert(byte[], int, int, int, int, FormatVideoEncoder, ByteBuffer)} to an
+   * array from offset.
+   */
+  public int convert(byte[] input, int imageFormat, int width, int height, int rotation,
+      FormatVideoEncoder formatVideoEncoder, byte[] output, int offset) {
+    return convert(input, imageFormat, width, height, rotation, formatVideoEncoder, output, offset,
+        null);
+  }
+
+  private int convert(byte[] input, int imageFormat, int width, int height, int rotation,
+      FormatVideoEncoder formatVideoEncoder, byte[] outputArray, int outputOffset,
+      ByteBuffer outputBuffer) {
+    if (imageFormat != ImageFormat.NV21 && imageFormat != ImageFormat.YV12) {
+      throw new IllegalArgumentException("Unsupported image format: " + imageFormat);
+    }
+    if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+      throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+    }
+    switch (formatVideoEncoder) {
+      case YUV420PLANAR:
+      case YUV420PACKEDPLANAR:
+        outputPlanar = true;
+        break;
+      case YUV420SEMIPLANAR:
+      case YUV420PACKEDSEMIPLANAR:
+        outputPlanar = false;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported color format: " + formatVideoEncoder);
+    }
+    this.input = input;
+    this.inputNV21 = imageFormat == ImageFormat.NV21;
+    this.width = width;
+    this.height = height;
+    this.rotation = rotation;
+    this.outputArray = outputArray;
+    this.outputOffset = outputOffset;
+    this.outputBuffer = outputBuffer;
+    try {
+      //slices are made of row pairs so each one has whole chroma rows
+      int outputHeight = rotation == 90 || rotation == 270 ? width : height;
+      int rowPairs = outputHeight / 2;
+      int used = width * height >= MIN_PIXELS_TO_SPLIT ? Math.min(threads, rowPairs) : 1;
+      if (used <= 1) {
+        slices[0].set(0, outputHeight);
+        slices[0].run();
+      } else {
+        synchronized (lock) {
+          pendingSlices = used - 1;
+          sliceError = null;
+        }
+        int start = 0;
+        for (int i = 0; i < used; i++) {
+          int end = i == used - 1 ? outputHeight : start + (rowPairs / used) * 2;
+          slices[i].set(start, end);
+          start = end;
+        }
+        for (int i = 1; i < used; i++) {
+          try {
+            executor.execute(slices[i]);
+          } catch (RejectedExecutionException e) {
+            //released
+            slices[i].run();
+          }
+        }
+        try {
+          slices[0].run();
+        } finally {
+          awaitSlices();
+        }
+      }
+    } finally {
+      this.input = null;
+      this.outputArray = null;
+      this.outputBuffer = null;
+    }
+    return width * height * 3 / 2;
+  }
+
+  private void awaitSlices() {
+    boolean interrupted = false;
+    synchronized (lock) {
+      while (pendingSlices > 0) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          //workers are writing the output, it must not be released before they end
+          interrupted = true;
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      if (sliceError != null) throw sliceError;
+    }
+  }
+
+  private void onSliceFinished(Slice slice, RuntimeException error) {
+    if (slice == slices[0]) {
+      if (error != null) throw error;
+      return;
+    }
+    synchronized (lock) {
+      if (error != null) sliceError = error;
+      pendingSlices--;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Output rows from start to end, and their chroma rows.
+   */
+  private class Slice implements Runnable {
+
+    private int start;
+    private int end;
+    //used to write rows to a direct buffer with a bulk put
+    private byte[] row;
+
+    void set(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public void run() {
+      RuntimeException error = null;
+      try {
+        convertRows();
+      } catch (RuntimeException e) {
+        error = e;
+      }
+      onSliceFinished(this, error);
+    }
+
+    private void convertRows() {
+      final int frameSize = width * height;
+      final int qFrameSize = frameSize / 4;
+      final boolean swap = rotation == 90 || rotation == 270;
+      final int outputWidth = swap ? height : width;
+      final int chromaWidth = width / 2;
+      final int chromaHeight = height / 2;
+      final int outputChromaWidth = outputWidth / 2;
+      ByteBuffer buffer = null;
+      byte[] dst = outputArray;
+      int dstOffset = outputOffset;
+      if (dst == null) {
+        if (row == null || row.length < outputWidth) row = new byte[outputWidth];
+        buffer = outputBuffer.duplicate();
+        dst = row;
+      }
+      final int bufferStart = buffer != null ? buffer.position() : 0;
+
+      // Y
+      for (int y = start; y < end; y++) {
+        int rowOffset = y * outputWidth;
+        int d = buffer != null ? 0 : dstOffset + rowOffset;
+        int s = sourceStart(y, width, height);
+        int step = sourceStep(width);
+        for (int x = 0; x < outputWidth; x++) {
+          dst[d++] = input[s];
+          s += step;
+        }
+        if (buffer != null) {
+          buffer.position(bufferStart + rowOffset);
+          buffer.put(row, 0, outputWidth);
+        }
+      }
+
+      // U and V, in chroma samples. NV21 has VU pairs, YV12 a V plane and then a U plane.
+      final int pixelStride = inputNV21 ? 2 : 1;
+      final int vOffset = frameSize;
+      final int uOffset = inputNV21 ? frameSize + 1 : frameSize + qFrameSize;
+      final int chromaStep = sourceStep(chromaWidth) * pixelStride;
+      for (int y = start / 2; y < end / 2; y++) {
+        int s = sourceStart(y, chromaWidth, chromaHeight) * pixelStride;
+        if (outputPlanar) {
+          //I420, U plane and then V plane
+          int rowOffset = y * outputChromaWidth;
+          int uDst = frameSize + rowOffset;
+          int vDst = frameSize + qFrameSize + rowOffset;
+          int d = buffer != null ? 0 : dstOffset + uDst;
+          int ss = s;
+          for (int x = 0; x < outputChromaWidth; x++) {
+            dst[d++] = input[uOffset + ss];
+            ss += chromaStep;
+          }
+          if (buffer != null) {
+            buffer.position(bufferStart + uDst);
+            buffer.put(row, 0, outputChromaWidth);
+          }
+          d = buffer != null ? 0 : dstOffset + vDst;
+          ss = s;
+          for (int x = 0; x < outputChromaWidth; x++) {
+            dst[d++] = input[vOffset + ss];
+            ss += chromaStep;
+          }
+          if (buffer != null) {
+            buffer.position(bufferStart + vDst);
+            buffer.put(row, 0, outputChromaWidth);
+          }
+        } else {
+          //NV12, UV pairs
+          int uvDst = frameSize + y * outputWidth;
+          int d = buffer != null ? 0 : dstOffset + uvDst;
+          for (int x = 0; x < outputChromaWidth; x++) {
+            dst[d++] = input[uOffset + s];
+            dst[d++] = input[vOffset + s];
+            s += chromaStep;
+          }
+          if (buffer != null) {
+            buffer.position(bufferStart + uvDst);
+            buffer.put(row, 0, outputChromaWidth * 2);
+          }
+        }
+      }
+    }
+
+    /**
+     * @return index in a plane of w x h of the first sample of output row y.
+     */
+    private int sourceStart(int y, int w, int h) {
+      switch (rotation) {
+        case 90:
+          return (h - 1) * w + y;
+        case 180:
+          return (h - 1 - y) * w + w - 1;
+        case 270:
+          return w - 1 - y;
+        default:
+          return y * w;
+      }
+    }
+
+    /**
+     * @return distance in a plane of width w between two consecutive samples of an output row.
+     */
+    private int sourceStep(int w) {
+      switch (rotation) {
+        case 90:
+          return -w;
+        case 180:
+          return -1;
+        case 270:
+          return w;
+        default:
+          return 1;
+      }
+    }
+  }
+}
@@ -1,13 +1,10 @@
 package com.pedro.encoder.video;
 
-import android.graphics.ImageFormat;
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.util.Log;
 import android.util.Pair;
 import android.view.Surface;
@@ -15,13 +12,15 @@ import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import com.pedro.encoder.BaseEncoder;
 import com.pedro.encoder.Frame;
-import com.pedro.encoder.input.video.FpsLimiter;
+import com.pedro.encoder.input.video.FramePacer;
 import com.pedro.encoder.input.video.GetCameraData;
+import com.pedro.encoder.utils.CodecIndex;
 import com.pedro.encoder.utils.CodecUtil;
-import com.pedro.encoder.utils.yuv.YUVUtil;
+import com.pedro.encoder.utils.yuv.YUVConverter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -48,16 +47,19 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
   private int rotation = 90;
   private int iFrameInterval = 2;
   //for disable video
-  private FpsLimiter fpsLimiter = new FpsLimiter();
+  private FramePacer framePacer = new FramePacer();
   private String type = CodecUtil.H264_MIME;
   private FormatVideoEncoder formatVideoEncoder = FormatVideoEncoder.YUV420Dynamical;
   private int avcProfile = -1;
   private int avcProfileLevel = -1;
-  private HandlerThread handlerThread;
   private BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(80);
+  private int yuvConverterThreads = YUVConverter.getDefaultThreads();
+  private YUVConverter yuvConverter;
 
   public VideoEncoder(GetVideoData getVideoData) {
     this.getVideoData = getVideoData;
+    //input frames are queued so callbacks were always used when available
+    asyncMode = true;
   }
 
   public boolean prepareVideoEncoder(int width, int height, int fps, int bitRate, int rotation,
@@ -82,7 +84,7 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     this.avcProfile = avcProfile;
     this.avcProfileLevel = avcProfileLevel;
     isBufferMode = true;
-    MediaCodecInfo encoder = chooseEncoder(type);
+    CodecIndex.Codec encoder = chooseEncoder(type);
     try {
       if (encoder != null) {
         codec = MediaCodec.createByCodecName(encoder.getName());
@@ -120,6 +122,10 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
       }
 
       if (this.avcProfile > 0 && this.avcProfileLevel > 0) {
+        if (!encoder.supportsProfileLevel(avcProfile, avcProfileLevel)) {
+          Log.w(TAG, "Profile " + avcProfile + " level " + avcProfileLevel
+              + " not reported by " + encoder.getName());
+        }
         // MediaFormat.KEY_PROFILE, API > 21
         videoFormat.setInteger("profile", this.avcProfile);
         // MediaFormat.KEY_LEVEL, API > 23
@@ -136,6 +142,11 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
       return true;
     } catch (IOException | IllegalStateException e) {
       Log.e(TAG, "Create VideoEncoder failed.", e);
+      //created but not configured (size or profile not supported), don't keep it allocated
+      if (codec != null) {
+        codec.release();
+        codec = null;
+      }
       return false;
     }
   }
@@ -145,20 +156,15 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     spsPpsSetted = false;
     if (resetTs) {
       presentTimeUs = System.nanoTime() / 1000;
-      fpsLimiter.setFPS(fps);
+      framePacer.setFps(fps);
     }
     if (formatVideoEncoder != FormatVideoEncoder.SURFACE) {
-      YUVUtil.preAllocateBuffers(width * height * 3 / 2);
+      yuvConverter = new YUVConverter(yuvConverterThreads);
     }
-    handlerThread = new HandlerThread(TAG);
-    handlerThread.start();
-    Handler handler = new Handler(handlerThread.getLooper());
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-      createAsyncCallback();
-      codec.setCallback(callback, handler);
-      codec.start();
-    } else {
-      codec.start();
+    //before the polling loop starts
+    running = true;
+    startCodec(TAG, true);
+    if (!isAsyncMode()) {
       handler.post(new Runnable() {
         @Override
         public void run() {
@@ -172,34 +178,67 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
         }
       });
     }
-    running = true;
     Log.i(TAG, "started");
   }
 
   @Override
   protected void stopImp() {
-    if (handlerThread != null) {
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-        handlerThread.quitSafely();
-      } else {
-        handlerThread.quit();
-      }
-    }
-    queue.clear();
+    clearQueue();
     spsPpsSetted = false;
     inputSurface = null;
+    //not removed, a frame in progress can still use it
+    if (yuvConverter != null) yuvConverter.release();
     Log.i(TAG, "stopped");
   }
 
-  public void reset() {
+  private void clearQueue() {
+    Frame frame;
+    while ((frame = queue.poll()) != null) {
+      frame.release();
+    }
+  }
+
+  /**
+   * @return false if the encoder can't be prepared again, it is stopped.
+   */
+  public boolean reset() {
     stop();
-    prepareVideoEncoder(width, height, fps, bitRate, rotation, hardwareRotation, iFrameInterval,
-        formatVideoEncoder, avcProfile, avcProfileLevel);
-    start(false);
+    boolean prepared = prepareVideoEncoder(width, height, fps, bitRate, rotation,
+        hardwareRotation, iFrameInterval, formatVideoEncoder, avcProfile, avcProfileLevel);
+    if (prepared) start(false);
+    return prepared;
+  }
+
+  /**
+   * Restart the encoder with other resolution, fps and bitrate keeping the rest of parameters.
+   * Timestamps continue from the previous encoder and new sps/pps are sent in formatChanged.
+   * Surface mode get a new input surface that must replace the previous one.
+   *
+   * @return false if the encoder doesn't support the new values, it is restarted with the
+   * previous ones (check isRunning, it is stopped if that fails too).
+   */
+  public boolean reset(int width, int height, int fps, int bitRate) {
+    int previousWidth = this.width;
+    int previousHeight = this.height;
+    int previousFps = this.fps;
+    int previousBitRate = this.bitRate;
+    this.width = width;
+    this.height = height;
+    this.bitRate = bitRate;
+    setFps(fps);
+    if (reset()) return true;
+    Log.e(TAG, "Reset to " + width + "x" + height + " " + fps + "fps failed, restoring "
+        + previousWidth + "x" + previousHeight + " " + previousFps + "fps");
+    this.width = previousWidth;
+    this.height = previousHeight;
+    this.bitRate = previousBitRate;
+    setFps(previousFps);
+    if (!reset()) Log.e(TAG, "Restore previous encoder failed");
+    return false;
   }
 
-  private FormatVideoEncoder chooseColorDynamically(MediaCodecInfo mediaCodecInfo) {
-    for (int color : mediaCodecInfo.getCapabilitiesForType(type).colorFormats) {
+  static FormatVideoEncoder chooseColorDynamically(CodecIndex.Codec codec) {
+    for (int color : codec.getColorFormats()) {
       if (color == FormatVideoEncoder.YUV420PLANAR.getFormatCodec()) {
         return FormatVideoEncoder.YUV420PLANAR;
       } else if (color == FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec()) {
@@ -270,12 +309,20 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
 
   public void setFps(int fps) {
     this.fps = fps;
+    framePacer.setFps(fps);
   }
 
   public int getFps() {
     return fps;
   }
 
+  /**
+   * @return pacer of frames given with inputYUVData, to read achieved fps and jitter.
+   */
+  public FramePacer getFramePacer() {
+    return framePacer;
+  }
+
   public int getBitRate() {
     return bitRate;
   }
@@ -288,10 +335,25 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     this.type = type;
   }
 
+  /**
+   * Threads used to rotate and convert frames in buffer mode, applied in the next start.
+   * By default 2 in devices with 4 or more cores, 1 in others.
+   */
+  public void setYuvConverterThreads(int threads) {
+    this.yuvConverterThreads = Math.max(1, threads);
+  }
+
   @Override
   public void inputYUVData(Frame frame) {
-    if (running && !queue.offer(frame)) {
+    //decided on capture so discarded frames are given back to the source without queue them
+    if (!running || framePacer.shouldDrop()) {
+      frame.release();
+    } else if (!queue.offer(frame)) {
       Log.i(TAG, "frame discarded");
+      frame.release();
+    } else if (isAsyncMode()) {
+      Handler handler = this.handler;
+      if (handler != null) handler.post(drainInputTask);
     }
   }
 
@@ -311,32 +373,42 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
    * choose the video encoder by mime.
    */
   @Override
-  protected MediaCodecInfo chooseEncoder(String mime) {
-    List<MediaCodecInfo> mediaCodecInfoList;
+  protected CodecIndex.Codec chooseEncoder(String mime) {
+    CodecIndex codecIndex = CodecIndex.getInstance();
+    List<CodecIndex.Codec> codecs;
     if (force == CodecUtil.Force.HARDWARE) {
-      mediaCodecInfoList = CodecUtil.getAllHardwareEncoders(mime);
+      codecs = codecIndex.getHardwareEncoders(mime);
     } else if (force == CodecUtil.Force.SOFTWARE) {
-      mediaCodecInfoList = CodecUtil.getAllSoftwareEncoders(mime);
+      codecs = codecIndex.getSoftwareEncoders(mime);
     } else {
-      mediaCodecInfoList = CodecUtil.getAllEncoders(mime);
+      codecs = codecIndex.getEncoders(mime);
     }
-    for (MediaCodecInfo mci : mediaCodecInfoList) {
-      Log.i(TAG, String.format("VideoEncoder %s", mci.getName()));
-      MediaCodecInfo.CodecCapabilities codecCapabilities = mci.getCapabilitiesForType(mime);
-      for (int color : codecCapabilities.colorFormats) {
-        Log.i(TAG, "Color supported: " + color);
-        if (formatVideoEncoder == FormatVideoEncoder.SURFACE) {
-          if (color == FormatVideoEncoder.SURFACE.getFormatCodec()) return mci;
-        } else {
-          //check if encoder support any yuv420 color
-          if (color == FormatVideoEncoder.YUV420PLANAR.getFormatCodec()
-              || color == FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec()) {
-            return mci;
-          }
-        }
+    return chooseEncoder(codecs, formatVideoEncoder, avcProfile, avcProfileLevel);
+  }
+
+  /**
+   * @return first codec with the color format needed, one that also reports the profile and
+   * level is preferred. Null if none can be used.
+   */
+  static CodecIndex.Codec chooseEncoder(List<CodecIndex.Codec> codecs,
+      FormatVideoEncoder formatVideoEncoder, int profile, int level) {
+    CodecIndex.Codec compatible = null;
+    for (CodecIndex.Codec codec : codecs) {
+      Log.i(TAG, String.format("VideoEncoder %s", codec.getName()));
+      Log.i(TAG, "Color supported: " + Arrays.toString(codec.getColorFormats()));
+      boolean supported;
+      if (formatVideoEncoder == FormatVideoEncoder.SURFACE) {
+        supported = codec.supportsColorFormat(FormatVideoEncoder.SURFACE.getFormatCodec());
+      } else {
+        //check if encoder support any yuv420 color
+        supported = codec.supportsColorFormat(FormatVideoEncoder.YUV420PLANAR.getFormatCodec())
+            || codec.supportsColorFormat(FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec());
       }
+      if (!supported) continue;
+      if (profile <= 0 || level <= 0 || codec.supportsProfileLevel(profile, level)) return codec;
+      if (compatible == null) compatible = codec;
     }
-    return null;
+    return compatible;
   }
 
   /**
@@ -420,22 +492,39 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     return byteBufferList;
   }
 
+  private final Runnable drainInputTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        drainInputAsync();
+      } catch (IllegalStateException e) {
+        Log.i(TAG, "Encoding error", e);
+      }
+    }
+  };
+
+  @Override
+  protected Frame pollInputFrame() {
+    return queue.poll();
+  }
+
   @Override
   protected Frame getInputFrame() throws InterruptedException {
-    Frame frame = queue.take();
-    if (fpsLimiter.limitFPS()) return getInputFrame();
-    byte[] buffer = frame.getBuffer();
-    boolean isYV12 = frame.getFormat() == ImageFormat.YV12;
+    return queue.take();
+  }
+
+  /**
+   * Rotate and convert the camera frame directly to the codec input buffer.
+   */
+  @Override
+  protected int fillInputBuffer(@NonNull ByteBuffer byteBuffer, @NonNull Frame frame) {
+    int orientation = 0;
     if (!hardwareRotation) {
-      int orientation = frame.isFlip() ? frame.getOrientation() + 180 : frame.getOrientation();
+      orientation = frame.isFlip() ? frame.getOrientation() + 180 : frame.getOrientation();
       if (orientation >= 360) orientation -= 360;
-      buffer = isYV12 ? YUVUtil.rotateYV12(buffer, width, height, orientation)
-          : YUVUtil.rotateNV21(buffer, width, height, orientation);
     }
-    buffer = isYV12 ? YUVUtil.YV12toYUV420byColor(buffer, width, height, formatVideoEncoder)
-        : YUVUtil.NV21toYUV420byColor(buffer, width, height, formatVideoEncoder);
-    frame.setBuffer(buffer);
-    return frame;
+    return yuvConverter.convert(frame.getBuffer(), frame.getFormat(), width, height, orientation,
+        formatVideoEncoder, byteBuffer);
   }
 
   @Override
@@ -466,41 +555,4 @@ public class VideoEncoder extends BaseEncoder implements GetCameraData {
     bufferInfo.presentationTimeUs = System.nanoTime() / 1000 - presentTimeUs;
     getVideoData.getVideoData(byteBuffer, bufferInfo);
   }
-
-  private MediaCodec.Callback callback;
-
-  @RequiresApi(api = Build.VERSION_CODES.M)
-  private void createAsyncCallback() {
-    callback = new MediaCodec.Callback() {
-      @Override
-      public void onInputBufferAvailable(@NonNull MediaCodec mediaCodec, int inBufferIndex) {
-        try {
-          inputAvailable(mediaCodec, inBufferIndex, null);
-        } catch (IllegalStateException e) {
-          Log.i(TAG, "Encoding error", e);
-        }
-      }
-
-      @Override
-      public void onOutputBufferAvailable(@NonNull MediaCodec mediaCodec, int outBufferIndex,
-          @NonNull MediaCodec.BufferInfo bufferInfo) {
-        try {
-          outputAvailable(mediaCodec, outBufferIndex, bufferInfo);
-        } catch (IllegalStateException e) {
-          Log.i(TAG, "Encoding error", e);
-        }
-      }
-
-      @Override
-      public void onError(@NonNull MediaCodec mediaCodec, @NonNull MediaCodec.CodecException e) {
-        Log.e(TAG, "Error", e);
-      }
-
-      @Override
-      public void onOutputFormatChanged(@NonNull MediaCodec mediaCodec,
-          @NonNull MediaFormat mediaFormat) {
-        formatChanged(mediaCodec, mediaFormat);
-      }
-    };
-  }
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+#ifdef GL_FRAGMENT_PRECISION_HIGH
+precision highp float;
+#else
+precision mediump float;
+#endif
+
+uniform sampler2D uSampler;
+uniform vec2 uTexelSize;
+
+varying vec2 vTextureCoord;
+
+//average of the 4x4 source pixels of each pixel
+void main() {
+  vec4 color = vec4(0.0);
+  for (int x = 0; x < 4; x++) {
+    for (int y = 0; y < 4; y++) {
+      vec2 offset = vec2(float(x) - 1.5, float(y) - 1.5) * uTexelSize;
+      color += texture2D(uSampler, vTextureCoord + offset);
+    }
+  }
+  gl_FragColor = color / 16.0;
+}
@@ -0,0 +1,66 @@
+package com.pedro.encoder.audio;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import com.pedro.encoder.utils.CodecIndex;
+import com.pedro.encoder.utils.CodecUtil;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AudioEncoderTest {
+
+  private static final CodecIndex.Codec SOFTWARE = codec("c2.android.aac.encoder", false);
+  private static final CodecIndex.Codec HARDWARE = codec("omx.vendor.aac.encoder", true);
+
+  @After
+  public void tearDown() {
+    CodecIndex.setInstance(null);
+  }
+
+  @Test
+  public void hardwareIsPreferred() {
+    CodecIndex.setInstance(new CodecIndex(Arrays.asList(SOFTWARE, HARDWARE)));
+    AudioEncoder audioEncoder = new AudioEncoder(new FakeAacData());
+    assertEquals(HARDWARE, audioEncoder.chooseEncoder(CodecUtil.AAC_MIME));
+    audioEncoder.setForce(CodecUtil.Force.SOFTWARE);
+    assertEquals(SOFTWARE, audioEncoder.chooseEncoder(CodecUtil.AAC_MIME));
+    audioEncoder.setForce(CodecUtil.Force.HARDWARE);
+    assertEquals(HARDWARE, audioEncoder.chooseEncoder(CodecUtil.AAC_MIME));
+  }
+
+  @Test
+  public void softwareIsUsedIfAlone() {
+    CodecIndex.setInstance(new CodecIndex(Collections.singletonList(SOFTWARE)));
+    AudioEncoder audioEncoder = new AudioEncoder(new FakeAacData());
+    assertEquals(SOFTWARE, audioEncoder.chooseEncoder(CodecUtil.AAC_MIME));
+    audioEncoder.setForce(CodecUtil.Force.HARDWARE);
+    assertNull(audioEncoder.chooseEncoder(CodecUtil.AAC_MIME));
+  }
+
+  @Test
+  public void emptyListHasNoEncoder() {
+    assertNull(AudioEncoder.chooseEncoder(Collections.<CodecIndex.Codec>emptyList(), true));
+  }
+
+  private static CodecIndex.Codec codec(String name, boolean hardware) {
+    return new CodecIndex.Codec(name, CodecUtil.AAC_MIME, true, hardware, !hardware, null, null,
+        0, 0, 0, null);
+  }
+
+  private static class FakeAacData implements GetAacData {
+
+    @Override
+    public void getAacData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
+    }
+
+    @Override
+    public void onAudioFormat(MediaFormat mediaFormat) {
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.pedro.encoder.input.audio;
+
+import com.pedro.encoder.Frame;
+import com.pedro.encoder.utils.PCMUtil;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 10 ms chunks of 48 kHz stereo: a mix of microphone, internal audio at 44.1 kHz mono and a
+ * file, and the PCMUtil helpers on the same chunk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AudioMixerBenchmark {
+
+  private byte[] master;
+  private byte[] resampled;
+  private byte[] secondary;
+  private byte[] surround;
+  private byte[] output;
+  private AudioMixer.Input masterInput;
+  private AudioMixer.Input resampledInput;
+  private AudioMixer.Input secondaryInput;
+  private long checksum;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(1);
+    master = new byte[480 * 4];
+    resampled = new byte[441 * 2];
+    secondary = new byte[480 * 4];
+    surround = new byte[480 * 12];
+    output = new byte[480 * 4];
+    random.nextBytes(master);
+    random.nextBytes(resampled);
+    random.nextBytes(secondary);
+    random.nextBytes(surround);
+    AudioMixer audioMixer = new AudioMixer(new GetMicrophoneData() {
+      @Override
+      public void inputPCMData(Frame frame) {
+        checksum += frame.getBuffer()[frame.getSize() / 2];
+      }
+    }, 48000, true);
+    masterInput = audioMixer.addInput(48000, true, 1f);
+    resampledInput = audioMixer.addInput(44100, false, 0.8f);
+    secondaryInput = audioMixer.addInput(48000, true, 0.5f);
+  }
+
+  @Benchmark
+  public long mixThreeInputs() {
+    resampledInput.write(resampled, 0, resampled.length);
+    secondaryInput.write(secondary, 0, secondary.length);
+    masterInput.write(master, 0, master.length);
+    return checksum;
+  }
+
+  @Benchmark
+  public byte[] mixPCM() {
+    PCMUtil.mixPCM(master, master.length, secondary, secondary.length, output);
+    return output;
+  }
+
+  @Benchmark
+  public byte[] downmixSurround() {
+    PCMUtil.downmix(surround, 0, surround.length, 6, 2, output);
+    return output;
+  }
+
+  @Benchmark
+  public byte[] pcmToStereo() {
+    PCMUtil.pcmToStereo(surround, surround.length, 6, output);
+    return output;
+  }
+}
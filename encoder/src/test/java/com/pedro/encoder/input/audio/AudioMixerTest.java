@@ -0,0 +1,215 @@
+package com.pedro.encoder.input.audio;
+
+import com.pedro.encoder.Frame;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioMixerTest {
+
+  //1 frame per ms: target latency 40 frames, max latency 200 frames and rings of 1000 frames
+  private static final int RATE = 1000;
+
+  @Test
+  public void masterIsPassedThrough() {
+    Capture capture = new Capture();
+    AudioMixer audioMixer = new AudioMixer(capture, RATE, false, 40, 200);
+    AudioMixer.Input master = audioMixer.addInput(RATE, false, 1f);
+    master.write(frame(100, -200, 300));
+    assertArrayEquals(shorts(100, -200, 300), capture.samples());
+  }
+
+  @Test
+  public void channelsAreConverted() {
+    Capture stereoOutput = new Capture();
+    AudioMixer stereoMixer = new AudioMixer(stereoOutput, RATE, true, 40, 200);
+    stereoMixer.addInput(RATE, false, 1f).write(frame(100, 200));
+    assertArrayEquals(shorts(100, 100, 200, 200), stereoOutput.samples());
+
+    Capture monoOutput = new Capture();
+    AudioMixer monoMixer = new AudioMixer(monoOutput, RATE, false, 40, 200);
+    monoMixer.addInput(RATE, true, 1f).write(frame(100, 300, -100, -300));
+    assertArrayEquals(shorts(200, -200), monoOutput.samples());
+  }
+
+  @Test
+  public void gainIsApplied() {
+    Capture capture = new Capture();
+    AudioMixer audioMixer = new AudioMixer(capture, RATE, false, 40, 200);
+    audioMixer.addInput(RATE, false, 0.5f).write(frame(1000, -1000));
+    assertArrayEquals(shorts(500, -500), capture.samples());
+  }
+
+  @Test
+  public void softClipIsLinearUnderThresholdAndNeverWraps() {
+    assertEquals(1000, AudioMixer.softClip(1000));
+    assertEquals(-24000, AudioMixer.softClip(-24000));
+    int last = AudioMixer.softClip(0);
+    for (int i = 1; i <= 4 * Short.MAX_VALUE; i += 7) {
+      short positive = AudioMixer.softClip(i);
+      assertTrue(positive >= last);
+      assertEquals(-positive, AudioMixer.softClip(-i));
+      last = positive;
+    }
+    short loud = AudioMixer.softClip(2 * Short.MAX_VALUE);
+    assertTrue(loud > 0.75f * Short.MAX_VALUE && loud <= Short.MAX_VALUE);
+  }
+
+  @Test
+  public void loudSumIsSoftClipped() {
+    Capture capture = new Capture();
+    AudioMixer audioMixer = new AudioMixer(capture, RATE, false, 1, 200);
+    AudioMixer.Input master = audioMixer.addInput(RATE, false, 1f);
+    AudioMixer.Input secondary = audioMixer.addInput(RATE, false, 1f);
+    secondary.write(frame(30000, -30000));
+    master.write(frame(30000, -30000));
+    short[] samples = capture.samples();
+    assertTrue(samples[0] > 30000);
+    assertTrue(samples[1] < -30000);
+  }
+
+  @Test
+  public void secondaryWaitsForTargetLatency() {
+    Capture capture = new Capture();
+    AudioMixer audioMixer = new AudioMixer(capture, RATE, false, 40, 200);
+    AudioMixer.Input master = audioMixer.addInput(RATE, false, 1f);
+    AudioMixer.Input secondary = audioMixer.addInput(RATE, false, 1f);
+
+    secondary.write(frame(constant(39, 5)));
+    master.write(frame(constant(10, 100)));
+    assertArrayEquals(constant(10, 100), capture.samples());
+
+    capture.clear();
+    secondary.write(frame(5));
+    master.write(frame(constant(10, 100)));
+    assertArrayEquals(constant(10, 105), capture.samples());
+    assertEquals(0, secondary.getUnderruns());
+  }
+
+  @Test
+  public void underrunMixesSilenceAndBuffersAgain() {
+    Capture capture = new Capture();
+    AudioMixer audioMixer = new AudioMixer(capture, RATE, false, 40, 200);
+    AudioMixer.Input master = audioMixer.addInput(RATE, false, 1f);
+    AudioMixer.Input secondary = audioMixer.addInput(RATE, false, 1f);
+    secondary.write(frame(constant(40, 5)));
+
+    master.write(frame(constant(30, 100)));
+    master.write(frame(constant(30, 100)));
+    short[] samples = capture.samples();
+    //30 mixed, then the 10 left and silence
+    for (int i = 0; i < 60; i++) {
+      assertEquals("sample " + i, i < 40 ? 105 : 100, samples[i]);
+    }
+    assertEquals(1, secondary.getUnderruns());
+
+    //buffering again, a few samples are not enough
+    capture.clear();
+    secondary.write(frame(constant(10, 5)));
+    master.write(frame(constant(10, 100)));
+    assertArrayEquals(constant(10, 100), capture.samples());
+  }
+
+  @Test
+  public void overrunDiscardsWhatDoesNotFit() {
+    AudioMixer audioMixer = new AudioMixer(new Capture(), RATE, false, 40, 200);
+    audioMixer.addInput(RATE, false, 1f);
+    AudioMixer.Input secondary = audioMixer.addInput(RATE, false, 1f);
+    secondary.write(frame(new short[1200]));
+    assertEquals(200, secondary.getOverruns());
+  }
+
+  @Test
+  public void delayOverMaxLatencyIsSkipped() {
+    Capture capture = new Capture();
+    AudioMixer audioMixer = new AudioMixer(capture, RATE, false, 40, 200);
+    AudioMixer.Input master = audioMixer.addInput(RATE, false, 1f);
+    AudioMixer.Input secondary = audioMixer.addInput(RATE, false, 1f);
+    short[] ramp = new short[300];
+    for (int i = 0; i < ramp.length; i++) {
+      ramp[i] = (short) i;
+    }
+    secondary.write(frame(ramp));
+    master.write(frame(new short[10]));
+    //back to the target latency, the oldest 260 samples are skipped
+    assertArrayEquals(Arrays.copyOfRange(ramp, 260, 270), capture.samples());
+  }
+
+  @Test
+  public void resamplingKeepsDurationAndInterpolates() {
+    Capture capture = new Capture();
+    AudioMixer audioMixer = new AudioMixer(capture, 48000, false);
+    AudioMixer.Input master = audioMixer.addInput(44100, false, 1f);
+    //a ramp is rebuilt exactly by linear interpolation, also between chunks
+    int chunks = 10;
+    int chunkFrames = 441;
+    for (int c = 0; c < chunks; c++) {
+      short[] chunk = new short[chunkFrames];
+      for (int i = 0; i < chunkFrames; i++) {
+        chunk[i] = (short) (c * chunkFrames + i);
+      }
+      master.write(frame(chunk));
+    }
+    short[] samples = capture.samples();
+    assertEquals(4800, samples.length, 2);
+    double step = 44100.0 / 48000;
+    for (int j = 0; j < samples.length; j++) {
+      assertEquals("sample " + j, j * step, samples[j], 1);
+    }
+  }
+
+  private static Frame frame(short... samples) {
+    byte[] pcm = new byte[samples.length * 2];
+    for (int i = 0; i < samples.length; i++) {
+      pcm[i * 2] = (byte) samples[i];
+      pcm[i * 2 + 1] = (byte) (samples[i] >> 8);
+    }
+    return new Frame(pcm, 0, pcm.length);
+  }
+
+  private static Frame frame(int... samples) {
+    return frame(shorts(samples));
+  }
+
+  private static short[] shorts(int... values) {
+    short[] result = new short[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (short) values[i];
+    }
+    return result;
+  }
+
+  private static short[] constant(int length, int value) {
+    short[] result = new short[length];
+    Arrays.fill(result, (short) value);
+    return result;
+  }
+
+  private static class Capture implements GetMicrophoneData {
+
+    private short[] samples = new short[0];
+
+    @Override
+    public void inputPCMData(Frame frame) {
+      int count = frame.getSize() / 2;
+      short[] result = Arrays.copyOf(samples, samples.length + count);
+      byte[] buffer = frame.getBuffer();
+      for (int i = 0; i < count; i++) {
+        int p = frame.getOffset() + i * 2;
+        result[samples.length + i] = (short) ((buffer[p] & 0xFF) | (buffer[p + 1] << 8));
+      }
+      samples = result;
+    }
+
+    short[] samples() {
+      return samples;
+    }
+
+    void clear() {
+      samples = new short[0];
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.pedro.encoder.input.audio;
+
+import com.pedro.encoder.Frame;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PcmRingTest {
+
+  @Test
+  public void chunksAreCopiedInOrder() {
+    PcmRing pcmRing = new PcmRing(2, 4);
+    byte[] data = { 1, 2, 3, 4 };
+    assertTrue(pcmRing.write(data, 0, 4));
+    data[0] = 9;
+    assertTrue(pcmRing.write(data, 2, 2));
+
+    Frame first = pcmRing.peek();
+    assertEquals(4, first.getSize());
+    assertEquals(1, first.getBuffer()[0]);
+    //same frame until released
+    assertSame(first, pcmRing.peek());
+    first.release();
+
+    Frame second = pcmRing.peek();
+    assertEquals(2, second.getSize());
+    assertEquals(3, second.getBuffer()[0]);
+    second.release();
+    assertEquals(0, pcmRing.getQueuedChunks());
+  }
+
+  @Test
+  public void slotKeepsTimeOfWrite() throws InterruptedException {
+    PcmRing pcmRing = new PcmRing(4, 4);
+    long before = System.nanoTime() / 1000;
+    pcmRing.write(new byte[4], 0, 4);
+    long between = System.nanoTime() / 1000;
+    Thread.sleep(20);
+    pcmRing.write(new byte[4], 0, 4);
+    Thread.sleep(20);
+
+    Frame first = pcmRing.peek();
+    long firstTime = first.getTimeStamp();
+    assertTrue(firstTime >= before && firstTime <= between);
+    first.release();
+    //read later, the time is the one of the write
+    long secondTime = pcmRing.peek().getTimeStamp();
+    assertTrue(secondTime - firstTime >= 20000);
+    assertTrue(secondTime < System.nanoTime() / 1000 - 20000);
+  }
+
+  @Test
+  public void overrunsAndUnderrunsAreCounted() {
+    PcmRing pcmRing = new PcmRing(2, 4);
+    assertNull(pcmRing.peek());
+    assertEquals(1, pcmRing.getUnderruns());
+
+    assertTrue(pcmRing.write(new byte[4], 0, 4));
+    assertTrue(pcmRing.write(new byte[4], 0, 4));
+    assertFalse(pcmRing.write(new byte[4], 0, 4));
+    assertEquals(1, pcmRing.getOverruns());
+    assertEquals(2, pcmRing.getQueuedChunks());
+
+    pcmRing.clear();
+    assertEquals(0, pcmRing.getQueuedChunks());
+    assertEquals(0, pcmRing.getOverruns());
+    assertEquals(0, pcmRing.getUnderruns());
+  }
+
+  @Test
+  public void biggerChunkGrowsSlot() {
+    PcmRing pcmRing = new PcmRing(1, 2);
+    assertTrue(pcmRing.write(new byte[] { 1, 2, 3, 4, 5 }, 0, 5));
+    Frame frame = pcmRing.peek();
+    assertEquals(5, frame.getSize());
+    assertEquals(5, frame.getBuffer()[4]);
+  }
+}
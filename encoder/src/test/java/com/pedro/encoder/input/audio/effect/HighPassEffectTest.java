@@ -0,0 +1,81 @@
+package com.pedro.encoder.input.audio.effect;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HighPassEffectTest {
+
+  @Test
+  public void constantLevelIsRemoved() {
+    HighPassEffect highPassEffect = new HighPassEffect(80);
+    highPassEffect.configure(32000, 1);
+    short[] samples = new short[32000];
+    Arrays.fill(samples, (short) 10000);
+    highPassEffect.process(samples, 0, samples.length);
+    assertEquals(0, samples[samples.length - 1], 1);
+  }
+
+  @Test
+  public void toneOverCutoffIsKept() {
+    HighPassEffect highPassEffect = new HighPassEffect(80);
+    highPassEffect.configure(32000, 1);
+    short[] samples = sine(32000, 1000, 32000, 1);
+    highPassEffect.process(samples, 0, samples.length);
+    //after the transient, 1 kHz is more than 12 times over the cutoff: less than 0.1 dB lost
+    assertEquals(10000, peak(samples, 16000, samples.length), 150);
+  }
+
+  @Test
+  public void formatChangeBetweenBuffersIsApplied() {
+    HighPassEffect highPassEffect = new HighPassEffect(80);
+    highPassEffect.configure(32000, 1);
+    highPassEffect.process(new short[1024], 0, 1024);
+    //other thread while the audio thread is between buffers, no buffer sees half of it
+    highPassEffect.configure(48000, 4);
+    short[] samples = sine(48000, 1000, 48000, 4);
+    highPassEffect.process(samples, 0, samples.length);
+    for (int c = 0; c < 4; c++) {
+      int max = 0;
+      for (int i = 24000 * 4 + c; i < samples.length; i += 4) {
+        max = Math.max(max, Math.abs(samples[i]));
+      }
+      assertEquals("channel " + c, 10000, max, 150);
+    }
+  }
+
+  @Test
+  public void cutoffChangeKeepsHistory() {
+    HighPassEffect highPassEffect = new HighPassEffect(80);
+    highPassEffect.configure(32000, 1);
+    short[] samples = new short[32000];
+    Arrays.fill(samples, (short) 10000);
+    highPassEffect.process(samples, 0, samples.length);
+    highPassEffect.setCutoff(100);
+    Arrays.fill(samples, (short) 10000);
+    highPassEffect.process(samples, 0, 64);
+    //a filter at rest would output the step of the constant level, a click
+    assertTrue(peak(samples, 0, 64) < 100);
+  }
+
+  private static short[] sine(int sampleRate, int frequency, int frames, int channels) {
+    short[] samples = new short[frames * channels];
+    for (int i = 0; i < frames; i++) {
+      short value = (short) (10000 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+      for (int c = 0; c < channels; c++) {
+        samples[i * channels + c] = value;
+      }
+    }
+    return samples;
+  }
+
+  private static int peak(short[] samples, int from, int to) {
+    int max = 0;
+    for (int i = from; i < to; i++) {
+      max = Math.max(max, Math.abs(samples[i]));
+    }
+    return max;
+  }
+}
@@ -0,0 +1,91 @@
+package com.pedro.encoder.input.decoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MediaClock uses System.nanoTime, waits are kept short and checked with a margin for slow
+ * machines.
+ */
+public class MediaClockTest {
+
+  private static final long MS = 1000;
+  //scheduling margin
+  private static final long MARGIN_US = 200 * MS;
+
+  private final MediaClock mediaClock = new MediaClock();
+
+  @Test
+  public void firstSampleStartsClock() {
+    assertEquals(0, mediaClock.getTimeUs());
+    assertEquals(0, mediaClock.waitFor(true, 1000 * MS), MARGIN_US);
+    long timeUs = mediaClock.getTimeUs();
+    assertTrue(timeUs >= 1000 * MS && timeUs < 1000 * MS + MARGIN_US);
+  }
+
+  @Test
+  public void samplesBeforeSeekTimeAreLate() {
+    mediaClock.seekTo(10000 * MS);
+    long startNs = System.nanoTime();
+    long late = mediaClock.waitFor(true, 9000 * MS);
+    assertTrue((System.nanoTime() - startNs) / 1000 < MARGIN_US);
+    assertTrue(late >= 1000 * MS && late < 1000 * MS + MARGIN_US);
+  }
+
+  @Test
+  public void samplesAfterSeekTimeWait() {
+    mediaClock.seekTo(10000 * MS);
+    long startNs = System.nanoTime();
+    long late = mediaClock.waitFor(false, 10030 * MS);
+    assertTrue((System.nanoTime() - startNs) / 1000 >= 30 * MS);
+    assertEquals(0, late, MARGIN_US);
+  }
+
+  @Test
+  public void loopMovesOnlyThatStream() {
+    mediaClock.setLoopDuration(30 * MS);
+    mediaClock.waitFor(true, 0);
+    mediaClock.onLoop(true);
+    long startNs = System.nanoTime();
+    mediaClock.waitFor(false, 0);
+    assertTrue((System.nanoTime() - startNs) / 1000 < 30 * MS);
+    mediaClock.waitFor(true, 0);
+    assertTrue((System.nanoTime() - startNs) / 1000 >= 30 * MS);
+  }
+
+  @Test
+  public void seekClearsLoopOffsets() {
+    mediaClock.setLoopDuration(60000 * MS);
+    mediaClock.waitFor(true, 0);
+    mediaClock.onLoop(true);
+    mediaClock.seekTo(5000 * MS);
+    assertEquals(0, mediaClock.waitFor(true, 5000 * MS), MARGIN_US);
+  }
+
+  @Test
+  public void interruptedWaitKeepsInterruptedState() {
+    mediaClock.seekTo(0);
+    Thread.currentThread().interrupt();
+    assertEquals(-1, mediaClock.waitFor(true, 60000 * MS));
+    assertTrue(Thread.interrupted());
+  }
+
+  @Test
+  public void lateVideoGivesPositiveAvOffset() {
+    mediaClock.seekTo(1000 * MS);
+    for (int i = 0; i < 10; i++) {
+      mediaClock.waitFor(false, 0);
+      mediaClock.waitFor(true, 0);
+    }
+    assertEquals(0, mediaClock.getAvOffsetUs(), MARGIN_US);
+    //video samples delivered 500ms after their time, audio on time
+    mediaClock.seekTo(1000 * MS);
+    for (int i = 0; i < 50; i++) {
+      mediaClock.waitFor(false, 1000 * MS);
+      mediaClock.waitFor(true, 500 * MS);
+    }
+    assertTrue(mediaClock.getAvOffsetUs() > 300 * MS);
+  }
+}
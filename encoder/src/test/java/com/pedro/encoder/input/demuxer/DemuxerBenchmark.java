@@ -0,0 +1,149 @@
+package com.pedro.encoder.input.demuxer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The sample video of the app as MP4 and as FLV with the same samples: open (sample table
+ * build), copy of every video sample to Annex-B and seeks to random times.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DemuxerBenchmark {
+
+  @Param({ "mp4", "flv" })
+  public String format;
+
+  private File file;
+  private Demuxer demuxer;
+  private MediaTrack video;
+  private ByteBuffer annexB;
+  private long[] seekTimes;
+  private int seekIndex;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    File mp4 = Fixtures.bigBuckBunny();
+    if (mp4 == null) throw new IOException("big_bunny_240p.mp4 not found");
+    if (format.equals("mp4")) {
+      file = mp4;
+    } else {
+      file = File.createTempFile("demuxer", ".flv");
+      file.deleteOnExit();
+      Demuxer source = Demuxer.open(mp4);
+      try {
+        writeFlv(source.getTrack(MediaTrack.Type.VIDEO), file);
+      } finally {
+        source.close();
+      }
+    }
+    demuxer = Demuxer.open(file);
+    video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    annexB = ByteBuffer.allocate(video.getMaxSampleSize() * 2);
+    Random random = new Random(1);
+    seekTimes = new long[1024];
+    for (int i = 0; i < seekTimes.length; i++) {
+      seekTimes[i] = (long) (random.nextDouble() * video.getDurationUs());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    demuxer.close();
+  }
+
+  @Benchmark
+  public int open() throws IOException {
+    Demuxer opened = Demuxer.open(file);
+    try {
+      return opened.getTrack(MediaTrack.Type.VIDEO).getSampleCount();
+    } finally {
+      opened.close();
+    }
+  }
+
+  @Benchmark
+  public int copyAllAnnexB() {
+    int total = 0;
+    for (int i = 0; i < video.getSampleCount(); i++) {
+      annexB.clear();
+      total += video.copyAnnexB(i, annexB);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int seek() {
+    seekIndex = (seekIndex + 1) & (seekTimes.length - 1);
+    return video.getSyncSampleBefore(seekTimes[seekIndex]);
+  }
+
+  /**
+   * Video only FLV: AVC sequence header and one tag per sample with its composition time.
+   */
+  private static void writeFlv(MediaTrack video, File file) throws IOException {
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.write(new byte[] { 'F', 'L', 'V', 1, 1 });
+      out.writeInt(9);
+      out.writeInt(0);
+      byte[] sps = withoutStartCode(video.getSps());
+      byte[] pps = withoutStartCode(video.getPps());
+      byte[] lengthSize = { (byte) (0xFC | (video.getNalLengthSize() - 1)), (byte) 0xE1 };
+      byte[] avcConfig = Fixtures.concat(new byte[] { 1, sps[1], sps[2], sps[3] }, lengthSize,
+          Fixtures.int16(sps.length), sps, new byte[] { 1 }, Fixtures.int16(pps.length), pps);
+      writeTag(out, 0, new byte[] { 0x17, 0, 0, 0, 0 }, avcConfig);
+      for (int i = 0; i < video.getSampleCount(); i++) {
+        int timeMs = (int) (video.getDtsUs(i) / 1000);
+        int ctsMs = (int) ((video.getPtsUs(i) - video.getDtsUs(i)) / 1000);
+        byte[] header = { (byte) (video.isSync(i) ? 0x17 : 0x27), 1, (byte) (ctsMs >> 16),
+            (byte) (ctsMs >> 8), (byte) ctsMs };
+        writeTag(out, timeMs, header, Fixtures.bytes(video.getSample(i)));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeTag(DataOutputStream out, int timeMs, byte[] header, byte[] sample)
+      throws IOException {
+    int size = header.length + sample.length;
+    out.writeInt((9 << 24) | size);
+    out.writeInt(((timeMs & 0xFFFFFF) << 8) | (timeMs >>> 24));
+    out.write(new byte[3]);
+    out.write(header);
+    out.write(sample);
+    out.writeInt(11 + size);
+  }
+
+  private static byte[] withoutStartCode(ByteBuffer nal) {
+    byte[] bytes = Fixtures.bytes(nal);
+    byte[] result = new byte[bytes.length - 4];
+    System.arraycopy(bytes, 4, result, 0, result.length);
+    return result;
+  }
+}
@@ -0,0 +1,93 @@
+package com.pedro.encoder.input.demuxer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Codec config, samples and files used by demuxer tests and benchmarks.
+ */
+class Fixtures {
+
+  static final byte[] SPS = { 0x67, 0x42, (byte) 0xC0, 0x1E };
+  static final byte[] PPS = { 0x68, (byte) 0xCE, 0x3C, (byte) 0x80 };
+  //AAC LC, 48000 Hz, mono
+  static final byte[] AUDIO_CONFIG = { 0x11, (byte) 0x88 };
+  //sample 0 of videoSample
+  static final byte[] ANNEX_B_SAMPLE = { 0, 0, 0, 1, 0x06, 0x05, 0, 0, 0, 1, 0x65, 0, 0 };
+
+  private static final String BIG_BUCK_BUNNY = "app/src/main/res/raw/big_bunny_240p.mp4";
+
+  private Fixtures() {
+  }
+
+  /**
+   * @return sample video of the app, null if not found from the working directory (the module
+   * in gradle or the root project).
+   */
+  static File bigBuckBunny() {
+    File file = new File("../" + BIG_BUCK_BUNNY);
+    if (file.isFile()) return file;
+    file = new File(BIG_BUCK_BUNNY);
+    return file.isFile() ? file : null;
+  }
+
+  static File write(TemporaryFolder folder, byte[] content) throws IOException {
+    File file = folder.newFile();
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(content);
+    } finally {
+      outputStream.close();
+    }
+    return file;
+  }
+
+  /**
+   * @return AVCDecoderConfigurationRecord with SPS and PPS, 4 bytes NAL lengths.
+   */
+  static byte[] avcConfig() throws IOException {
+    return concat(new byte[] { 1, 0x42, (byte) 0xC0, 0x1E, (byte) 0xFF, (byte) 0xE1 },
+        int16(SPS.length), SPS, new byte[] { 1 }, int16(PPS.length), PPS);
+  }
+
+  /**
+   * @return length prefixed H264 sample, SEI and IDR in sample 0, IDR in 3 and slices in others.
+   */
+  static byte[] videoSample(int index) throws IOException {
+    if (index == 0) {
+      return concat(int32(2), new byte[] { 0x06, 0x05 }, int32(3), new byte[] { 0x65, 0, 0 });
+    }
+    byte type = (byte) (index == 3 ? 0x65 : 0x41);
+    return concat(int32(3), new byte[] { type, (byte) index, 0 });
+  }
+
+  static byte[] concat(byte[]... arrays) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    for (byte[] array : arrays) {
+      outputStream.write(array);
+    }
+    return outputStream.toByteArray();
+  }
+
+  static byte[] int32(int value) {
+    return ByteBuffer.allocate(4).putInt(value).array();
+  }
+
+  static byte[] int16(int value) {
+    return ByteBuffer.allocate(2).putShort((short) value).array();
+  }
+
+  static byte[] withStartCode(byte[] nal) throws IOException {
+    return concat(new byte[] { 0, 0, 0, 1 }, nal);
+  }
+
+  static byte[] bytes(ByteBuffer buffer) {
+    byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
+  }
+}
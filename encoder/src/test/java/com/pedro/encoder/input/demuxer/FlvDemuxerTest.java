@@ -0,0 +1,225 @@
+package com.pedro.encoder.input.demuxer;
+
+import com.pedro.encoder.utils.CodecUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.pedro.encoder.input.demuxer.Fixtures.ANNEX_B_SAMPLE;
+import static com.pedro.encoder.input.demuxer.Fixtures.AUDIO_CONFIG;
+import static com.pedro.encoder.input.demuxer.Fixtures.PPS;
+import static com.pedro.encoder.input.demuxer.Fixtures.SPS;
+import static com.pedro.encoder.input.demuxer.Fixtures.bytes;
+import static com.pedro.encoder.input.demuxer.Fixtures.concat;
+import static com.pedro.encoder.input.demuxer.Fixtures.int32;
+import static com.pedro.encoder.input.demuxer.Fixtures.videoSample;
+import static com.pedro.encoder.input.demuxer.Fixtures.withStartCode;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlvDemuxerTest {
+
+  private static final int TAG_HEADER_SIZE = 11;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  private Demuxer demuxer;
+
+  @After
+  public void tearDown() throws IOException {
+    if (demuxer != null) demuxer.close();
+  }
+
+  @Test
+  public void sampleTableIsBuiltFromTags() throws IOException {
+    Flv flv = defaultFlv();
+    demuxer = Demuxer.open(Fixtures.write(folder, flv.toByteArray()));
+    assertTrue(demuxer instanceof FlvDemuxer);
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    assertEquals(CodecUtil.H264_MIME, video.getMime());
+    assertEquals(4, video.getSampleCount());
+    long[] dts = { 0, 40000, 80000, 120000 };
+    long[] pts = { 0, 80000, 80000, 120000 };
+    boolean[] sync = { true, false, false, true };
+    for (int i = 0; i < 4; i++) {
+      assertEquals("sample " + i, flv.videoOffsets[i], video.getSampleOffset(i));
+      assertArrayEquals(videoSample(i), bytes(video.getSample(i)));
+      assertEquals(dts[i], video.getDtsUs(i));
+      assertEquals(pts[i], video.getPtsUs(i));
+      assertEquals(sync[i], video.isSync(i));
+    }
+    assertEquals(160000, video.getDurationUs());
+
+    MediaTrack audio = demuxer.getTrack(MediaTrack.Type.AUDIO);
+    assertEquals(3, audio.getSampleCount());
+    assertEquals(flv.audioOffsets[1], audio.getSampleOffset(1));
+    assertArrayEquals(new byte[] { 0x21, 1 }, bytes(audio.getSample(1)));
+    assertEquals(23000, audio.getDtsUs(1));
+  }
+
+  @Test
+  public void seekFindsSyncSampleBefore() throws IOException {
+    demuxer = Demuxer.open(Fixtures.write(folder, defaultFlv().toByteArray()));
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    assertEquals(2, video.getSampleBefore(119999));
+    assertEquals(0, video.getSyncSampleBefore(119999));
+    assertEquals(3, video.getSyncSampleBefore(120000));
+  }
+
+  @Test
+  public void samplesAreConvertedToAnnexB() throws IOException {
+    demuxer = Demuxer.open(Fixtures.write(folder, defaultFlv().toByteArray()));
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    ByteBuffer dst = ByteBuffer.allocate(32);
+    assertEquals(videoSample(0).length, video.copyAnnexB(0, dst));
+    byte[] result = new byte[dst.position()];
+    dst.flip();
+    dst.get(result);
+    assertArrayEquals(ANNEX_B_SAMPLE, result);
+  }
+
+  @Test
+  public void configAndMetadataAreRead() throws IOException {
+    demuxer = Demuxer.open(Fixtures.write(folder, defaultFlv().toByteArray()));
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    assertEquals(320, video.getWidth());
+    assertEquals(240, video.getHeight());
+    assertArrayEquals(withStartCode(SPS), bytes(video.getSps()));
+    assertArrayEquals(withStartCode(PPS), bytes(video.getPps()));
+    MediaTrack audio = demuxer.getTrack(MediaTrack.Type.AUDIO);
+    //sequence header replaces the 44100 Hz stereo of the tag header
+    assertArrayEquals(AUDIO_CONFIG, bytes(audio.getAudioConfig()));
+    assertEquals(48000, audio.getSampleRate());
+    assertEquals(1, audio.getChannels());
+  }
+
+  @Test
+  public void truncatedTagAndOtherCodecsAreIgnored() throws IOException {
+    Flv flv = new Flv();
+    //enhanced rtmp header and VP6 video, MP3 audio
+    flv.tag(9, 0, new byte[] { (byte) 0x90, 0, 0, 0, 0, 0 });
+    flv.tag(9, 0, new byte[] { 0x14, 1, 0, 0, 0, 0 });
+    flv.tag(8, 0, new byte[] { 0x2F, 1, 0 });
+    flv.audio(0, new byte[] { 0x21, 0 });
+    byte[] complete = flv.toByteArray();
+    flv.audio(23, new byte[] { 0x21, 1 });
+    byte[] content = flv.toByteArray();
+    byte[] truncated = new byte[complete.length + 8];
+    System.arraycopy(content, 0, truncated, 0, truncated.length);
+    demuxer = Demuxer.open(Fixtures.write(folder, truncated));
+    assertNull(demuxer.getTrack(MediaTrack.Type.VIDEO));
+    assertEquals(1, demuxer.getTrack(MediaTrack.Type.AUDIO).getSampleCount());
+    assertFalse(demuxer.getTracks().isEmpty());
+  }
+
+  @Test
+  public void fileWithoutSupportedTagsIsRejected() throws IOException {
+    Flv flv = new Flv();
+    flv.tag(8, 0, new byte[] { 0x2F, 1, 0 });
+    try {
+      demuxer = Demuxer.open(Fixtures.write(folder, flv.toByteArray()));
+      fail("file without tracks opened");
+    } catch (IOException e) {
+      //expected
+    }
+  }
+
+  private static Flv defaultFlv() throws IOException {
+    Flv flv = new Flv();
+    flv.metadata(320, 240);
+    byte[] avcC = Fixtures.avcConfig();
+    flv.tag(9, 0, concat(new byte[] { 0x17, 0, 0, 0, 0 }, avcC));
+    flv.tag(8, 0, concat(new byte[] { (byte) 0xAF, 0 }, AUDIO_CONFIG));
+    int[] cts = { 0, 40, 0, 0 };
+    int audioSample = 0;
+    for (int i = 0; i < 4; i++) {
+      if (i == 1 || i == 2) {
+        flv.audio(audioSample * 23, new byte[] { 0x21, (byte) audioSample });
+        audioSample++;
+      }
+      flv.video(i * 40, i == 0 || i == 3, cts[i], videoSample(i));
+    }
+    flv.audio(audioSample * 23, new byte[] { 0x21, (byte) audioSample });
+    return flv;
+  }
+
+  private static class Flv {
+
+    private final ByteArrayOutputStream flv = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(flv);
+    private final long[] videoOffsets = new long[4];
+    private final long[] audioOffsets = new long[4];
+    private int videoCount = 0;
+    private int audioCount = 0;
+
+    Flv() throws IOException {
+      out.write(new byte[] { 'F', 'L', 'V', 1, 5 });
+      out.writeInt(9);
+      out.writeInt(0);
+    }
+
+    void tag(int type, int timeMs, byte[] payload) throws IOException {
+      out.writeByte(type);
+      writeUInt24(payload.length);
+      writeUInt24(timeMs & 0xFFFFFF);
+      out.writeByte(timeMs >>> 24);
+      writeUInt24(0);
+      out.write(payload);
+      out.writeInt(TAG_HEADER_SIZE + payload.length);
+    }
+
+    void video(int timeMs, boolean sync, int ctsMs, byte[] sample) throws IOException {
+      videoOffsets[videoCount++] = flv.size() + TAG_HEADER_SIZE + 5;
+      byte[] header = { (byte) (sync ? 0x17 : 0x27), 1, (byte) (ctsMs >> 16),
+          (byte) (ctsMs >> 8), (byte) ctsMs };
+      tag(9, timeMs, concat(header, sample));
+    }
+
+    void audio(int timeMs, byte[] sample) throws IOException {
+      audioOffsets[audioCount++] = flv.size() + TAG_HEADER_SIZE + 2;
+      tag(8, timeMs, concat(new byte[] { (byte) 0xAF, 1 }, sample));
+    }
+
+    /**
+     * onMetaData with an ECMA array of width, height and a string value.
+     */
+    void metadata(int width, int height) throws IOException {
+      ByteArrayOutputStream amf = new ByteArrayOutputStream();
+      DataOutputStream amfOut = new DataOutputStream(amf);
+      amfOut.writeByte(2);
+      amfOut.writeUTF("onMetaData");
+      amfOut.writeByte(8);
+      amfOut.writeInt(3);
+      amfOut.writeUTF("encoder");
+      amfOut.writeByte(2);
+      amfOut.writeUTF("test");
+      amfOut.writeUTF("width");
+      amfOut.writeByte(0);
+      amfOut.writeDouble(width);
+      amfOut.writeUTF("height");
+      amfOut.writeByte(0);
+      amfOut.writeDouble(height);
+      amfOut.write(new byte[] { 0, 0, 9 });
+      tag(18, 0, amf.toByteArray());
+    }
+
+    private void writeUInt24(int value) throws IOException {
+      out.writeByte(value >> 16);
+      out.writeByte(value >> 8);
+      out.writeByte(value);
+    }
+
+    byte[] toByteArray() {
+      return flv.toByteArray();
+    }
+  }
+}
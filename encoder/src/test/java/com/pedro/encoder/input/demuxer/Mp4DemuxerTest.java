@@ -0,0 +1,338 @@
+package com.pedro.encoder.input.demuxer;
+
+import com.pedro.encoder.utils.CodecUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.pedro.encoder.input.demuxer.Fixtures.ANNEX_B_SAMPLE;
+import static com.pedro.encoder.input.demuxer.Fixtures.AUDIO_CONFIG;
+import static com.pedro.encoder.input.demuxer.Fixtures.PPS;
+import static com.pedro.encoder.input.demuxer.Fixtures.SPS;
+import static com.pedro.encoder.input.demuxer.Fixtures.bytes;
+import static com.pedro.encoder.input.demuxer.Fixtures.concat;
+import static com.pedro.encoder.input.demuxer.Fixtures.int32;
+import static com.pedro.encoder.input.demuxer.Fixtures.videoSample;
+import static com.pedro.encoder.input.demuxer.Fixtures.withStartCode;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Mp4DemuxerTest {
+
+  //ftyp and mdat header
+  private static final int DATA_OFFSET = 16 + 8;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  private Demuxer demuxer;
+
+  @After
+  public void tearDown() throws IOException {
+    if (demuxer != null) demuxer.close();
+  }
+
+  @Test
+  public void sampleTableFollowsRunLengthTables() throws IOException {
+    demuxer = Demuxer.open(Fixtures.write(folder, mp4(audioEntry(0))));
+    assertTrue(demuxer instanceof Mp4Demuxer);
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    assertEquals(CodecUtil.H264_MIME, video.getMime());
+    assertEquals(5, video.getSampleCount());
+    //two chunks of 3 and 2 samples with the audio chunk between them
+    int audioChunk = 3 * 2;
+    long offset = DATA_OFFSET;
+    for (int i = 0; i < 5; i++) {
+      if (i == 3) offset += audioChunk;
+      assertEquals("sample " + i, offset, video.getSampleOffset(i));
+      assertEquals(videoSample(i).length, video.getSampleSize(i));
+      assertArrayEquals(videoSample(i), bytes(video.getSample(i)));
+      offset += video.getSampleSize(i);
+    }
+    //stts 3 x 40 ms and 2 x 20 ms, ctts 2 x 40 ms and 3 x 0
+    long[] dts = { 0, 40000, 80000, 120000, 140000 };
+    long[] pts = { 40000, 80000, 80000, 120000, 140000 };
+    for (int i = 0; i < 5; i++) {
+      assertEquals(dts[i], video.getDtsUs(i));
+      assertEquals(pts[i], video.getPtsUs(i));
+    }
+    assertEquals(160000, video.getDurationUs());
+    assertFalse(video.hasReorderedSamples());
+    assertEquals(videoSample(0).length, video.getMaxSampleSize());
+  }
+
+  @Test
+  public void syncSamplesAreReadFromStss() throws IOException {
+    demuxer = Demuxer.open(Fixtures.write(folder, mp4(audioEntry(0))));
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    boolean[] sync = { true, false, false, true, false };
+    for (int i = 0; i < 5; i++) {
+      assertEquals("sample " + i, sync[i], video.isSync(i));
+    }
+    //without stss every audio sample is sync
+    MediaTrack audio = demuxer.getTrack(MediaTrack.Type.AUDIO);
+    for (int i = 0; i < audio.getSampleCount(); i++) {
+      assertTrue(audio.isSync(i));
+    }
+  }
+
+  @Test
+  public void seekFindsSampleAndSyncSampleBefore() throws IOException {
+    demuxer = Demuxer.open(Fixtures.write(folder, mp4(audioEntry(0))));
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    assertEquals(-1, video.getSampleBefore(-1));
+    assertEquals(0, video.getSampleBefore(0));
+    assertEquals(1, video.getSampleBefore(79999));
+    assertEquals(2, video.getSampleBefore(80000));
+    assertEquals(4, video.getSampleBefore(Long.MAX_VALUE));
+    assertEquals(0, video.getSyncSampleBefore(119999));
+    assertEquals(3, video.getSyncSampleBefore(120000));
+    assertEquals(3, video.getSyncSampleBefore(200000));
+    assertEquals(0, video.getSyncSampleBefore(-1));
+  }
+
+  @Test
+  public void samplesAreConvertedToAnnexB() throws IOException {
+    demuxer = Demuxer.open(Fixtures.write(folder, mp4(audioEntry(0))));
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    ByteBuffer dst = ByteBuffer.allocate(64);
+    dst.put((byte) 9);
+    int length = video.copyAnnexB(0, dst);
+    assertEquals(videoSample(0).length, length);
+    assertArrayEquals(ANNEX_B_SAMPLE, Arrays.copyOfRange(dst.array(), 1, 1 + length));
+
+    ByteBuffer small = ByteBuffer.allocate(8);
+    small.put((byte) 9);
+    assertEquals(-1, video.copyAnnexB(0, small));
+    assertEquals(1, small.position());
+  }
+
+  @Test
+  public void codecConfigIsRead() throws IOException {
+    demuxer = Demuxer.open(Fixtures.write(folder, mp4(audioEntry(0))));
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    assertEquals(320, video.getWidth());
+    assertEquals(240, video.getHeight());
+    assertEquals(4, video.getNalLengthSize());
+    assertArrayEquals(withStartCode(SPS), bytes(video.getCsd0()));
+    assertArrayEquals(withStartCode(PPS), bytes(video.getCsd1()));
+    assertNull(video.getVps());
+
+    MediaTrack audio = demuxer.getTrack(MediaTrack.Type.AUDIO);
+    assertEquals(CodecUtil.AAC_MIME, audio.getMime());
+    assertArrayEquals(AUDIO_CONFIG, bytes(audio.getCsd0()));
+    assertNull(audio.getCsd1());
+    assertEquals(48000, audio.getSampleRate());
+    assertEquals(1, audio.getChannels());
+    assertEquals(3, audio.getSampleCount());
+    assertEquals(46000, audio.getDtsUs(2));
+    assertEquals(160000, demuxer.getDurationUs());
+  }
+
+  @Test
+  public void quickTimeAudioEntriesAreRead() throws IOException {
+    for (int version = 1; version <= 2; version++) {
+      demuxer = Demuxer.open(Fixtures.write(folder, mp4(audioEntry(version))));
+      MediaTrack audio = demuxer.getTrack(MediaTrack.Type.AUDIO);
+      assertArrayEquals("version " + version, AUDIO_CONFIG, bytes(audio.getAudioConfig()));
+      assertEquals(48000, audio.getSampleRate());
+      assertEquals(1, audio.getChannels());
+      demuxer.close();
+    }
+    //without esds the values of the version 2 entry are used
+    demuxer = Demuxer.open(Fixtures.write(folder, mp4(box("mp4a", audioEntryFields(2)))));
+    MediaTrack audio = demuxer.getTrack(MediaTrack.Type.AUDIO);
+    assertNull(audio.getAudioConfig());
+    assertEquals(22050, audio.getSampleRate());
+    assertEquals(2, audio.getChannels());
+  }
+
+  @Test
+  public void esdsInWaveBoxIsRead() throws IOException {
+    byte[] wave = box("wave", box("frma", "mp4a".getBytes("US-ASCII")), esds());
+    demuxer = Demuxer.open(Fixtures.write(folder, mp4(box("mp4a", audioEntryFields(1), wave))));
+    assertArrayEquals(AUDIO_CONFIG,
+        bytes(demuxer.getTrack(MediaTrack.Type.AUDIO).getAudioConfig()));
+  }
+
+  @Test
+  public void fragmentedAndUnknownFilesAreRejected() throws IOException {
+    byte[] fragmented = concat(ftyp(), box("moov", box("mvex")));
+    try {
+      demuxer = Demuxer.open(Fixtures.write(folder, fragmented));
+      fail("fragmented file opened");
+    } catch (IOException e) {
+      //expected
+    }
+    try {
+      demuxer = Demuxer.open(Fixtures.write(folder, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+      fail("unknown file opened");
+    } catch (IOException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void bigBuckBunnyIsDemuxed() throws IOException {
+    File file = Fixtures.bigBuckBunny();
+    Assume.assumeTrue(file != null);
+    demuxer = Demuxer.open(file);
+    MediaTrack video = demuxer.getTrack(MediaTrack.Type.VIDEO);
+    assertNotNull(video);
+    assertEquals(CodecUtil.H264_MIME, video.getMime());
+    assertTrue(video.getWidth() > 0 && video.getHeight() > 0);
+    assertTrue(video.isSync(0));
+    ByteBuffer dst = ByteBuffer.allocate(video.getMaxSampleSize());
+    for (int i = 0; i < video.getSampleCount(); i++) {
+      if (i > 0) assertTrue(video.getDtsUs(i) > video.getDtsUs(i - 1));
+      dst.clear();
+      //4 bytes lengths are replaced by start codes of the same size
+      assertEquals(video.getSampleSize(i), video.copyAnnexB(i, dst));
+      if (video.isSync(i)) assertTrue("sample " + i, hasIdr(dst.array(), dst.position()));
+    }
+    assertTrue(demuxer.getDurationUs() > 0);
+  }
+
+  private static boolean hasIdr(byte[] annexB, int length) {
+    for (int i = 0; i + 4 < length; i++) {
+      if (annexB[i] == 0 && annexB[i + 1] == 0 && annexB[i + 2] == 0 && annexB[i + 3] == 1
+          && (annexB[i + 4] & 0x1F) == 5) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static byte[] audioSample(int index) {
+    return new byte[] { 0x21, (byte) index };
+  }
+
+  /**
+   * ftyp, mdat with video chunk 1 (samples 0-2), the audio chunk and video chunk 2 (3-4), moov.
+   */
+  private static byte[] mp4(byte[] audioEntry) throws IOException {
+    ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+    int[] videoSizes = new int[5];
+    for (int i = 0; i < 5; i++) {
+      videoSizes[i] = videoSample(i).length;
+    }
+    int chunk1 = DATA_OFFSET;
+    for (int i = 0; i < 3; i++) {
+      mdat.write(videoSample(i));
+    }
+    int audioChunk = DATA_OFFSET + mdat.size();
+    for (int i = 0; i < 3; i++) {
+      mdat.write(audioSample(i));
+    }
+    int chunk2 = DATA_OFFSET + mdat.size();
+    for (int i = 3; i < 5; i++) {
+      mdat.write(videoSample(i));
+    }
+
+    byte[] avcC = Fixtures.avcConfig();
+    byte[] visualEntry = new byte[78];
+    ByteBuffer.wrap(visualEntry).putShort(24, (short) 320).putShort(26, (short) 240);
+    byte[] videoStbl = box("stbl",
+        fullBox("stsd", int32(1), box("avc1", visualEntry, box("avcC", avcC))),
+        fullBox("stts", int32(2), int32(3), int32(40), int32(2), int32(20)),
+        fullBox("ctts", int32(2), int32(2), int32(40), int32(3), int32(0)),
+        fullBox("stss", int32(2), int32(1), int32(4)),
+        fullBox("stsc", int32(2), int32(1), int32(3), int32(1), int32(2), int32(2), int32(1)),
+        fullBox("stsz", int32(0), int32(5), int32(videoSizes[0]), int32(videoSizes[1]),
+            int32(videoSizes[2]), int32(videoSizes[3]), int32(videoSizes[4])),
+        fullBox("stco", int32(2), int32(chunk1), int32(chunk2)));
+    byte[] audioStbl = box("stbl",
+        fullBox("stsd", int32(1), audioEntry),
+        fullBox("stts", int32(1), int32(3), int32(23)),
+        fullBox("stsc", int32(1), int32(1), int32(3), int32(1)),
+        fullBox("stsz", int32(2), int32(3)),
+        fullBox("stco", int32(1), int32(audioChunk)));
+    byte[] moov = box("moov", track(videoStbl), track(audioStbl));
+    return concat(ftyp(), int32(8 + mdat.size()), "mdat".getBytes("US-ASCII"),
+        mdat.toByteArray(), moov);
+  }
+
+  private static byte[] ftyp() throws IOException {
+    return box("ftyp", "isom".getBytes("US-ASCII"), int32(0));
+  }
+
+  private static byte[] track(byte[] stbl) throws IOException {
+    //timescale of 1000, times in ms
+    byte[] mdhd = fullBox("mdhd", int32(0), int32(0), int32(1000), int32(0), int32(0));
+    return box("trak", box("mdia", mdhd, box("minf", stbl)));
+  }
+
+  private static byte[] audioEntry(int version) throws IOException {
+    return box("mp4a", audioEntryFields(version), esds());
+  }
+
+  /**
+   * Sound sample description fields, values that don't match the esds config.
+   */
+  private static byte[] audioEntryFields(int version) throws IOException {
+    ByteArrayOutputStream entry = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(entry);
+    out.write(new byte[6]);
+    out.writeShort(1);
+    out.writeShort(version);
+    out.write(new byte[6]);
+    if (version == 2) {
+      out.writeShort(3);
+      out.writeShort(16);
+      out.writeShort(-2);
+      out.writeShort(0);
+      out.writeInt(0x10000);
+      out.writeInt(72);
+      out.writeDouble(22050);
+      out.writeInt(2);
+      out.writeInt(0x7F000000);
+      out.writeInt(16);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeInt(1024);
+    } else {
+      out.writeShort(2);
+      out.writeShort(16);
+      out.writeInt(0);
+      out.writeInt(22050 << 16);
+      if (version == 1) {
+        out.writeInt(1024);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(2);
+      }
+    }
+    return entry.toByteArray();
+  }
+
+  private static byte[] esds() throws IOException {
+    byte[] decoderSpecificInfo = concat(new byte[] { 5, (byte) AUDIO_CONFIG.length },
+        AUDIO_CONFIG);
+    byte[] decoderConfig = concat(new byte[] { 4, (byte) (13 + decoderSpecificInfo.length),
+        0x40, 0x15 }, new byte[11], decoderSpecificInfo);
+    byte[] esDescriptor = concat(new byte[] { 3, (byte) (3 + decoderConfig.length), 0, 1, 0 },
+        decoderConfig);
+    return fullBox("esds", esDescriptor);
+  }
+
+  private static byte[] box(String type, byte[]... children) throws IOException {
+    byte[] content = concat(children);
+    return concat(int32(8 + content.length), type.getBytes("US-ASCII"), content);
+  }
+
+  private static byte[] fullBox(String type, byte[]... children) throws IOException {
+    return box(type, concat(int32(0), concat(children)));
+  }
+}
@@ -0,0 +1,86 @@
+package com.pedro.encoder.input.gl.render;
+
+import android.content.Context;
+import com.pedro.encoder.input.gl.render.filters.BaseFilterRender;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Positions of the filters without GL, filters aren't initialized or linked until initGl.
+ */
+public class ManagerRenderTest {
+
+  private static class FakeFilterRender extends BaseFilterRender {
+
+    boolean released = false;
+
+    @Override
+    protected void initGlFilter(Context context) {
+    }
+
+    @Override
+    protected void drawFilter() {
+    }
+
+    @Override
+    public void release() {
+      released = true;
+    }
+  }
+
+  private final ManagerRender managerRender = new ManagerRender(0);
+
+  @Test
+  public void addFilterInsertsInPosition() {
+    FakeFilterRender first = new FakeFilterRender();
+    FakeFilterRender second = new FakeFilterRender();
+    FakeFilterRender inserted = new FakeFilterRender();
+    managerRender.addFilter(first);
+    managerRender.addFilter(second);
+    managerRender.addFilter(1, inserted);
+    assertEquals(3, managerRender.filtersCount());
+    managerRender.removeFilter(1);
+    assertTrue(inserted.released);
+    assertFalse(first.released);
+    assertFalse(second.released);
+  }
+
+  @Test
+  public void addFilterOverCountCreatesEmptyPositions() {
+    FakeFilterRender filter = new FakeFilterRender();
+    managerRender.addFilter(3, filter);
+    assertEquals(4, managerRender.filtersCount());
+    managerRender.removeFilter(filter);
+    assertTrue(filter.released);
+    assertEquals(3, managerRender.filtersCount());
+  }
+
+  @Test
+  public void invalidPositionsAreIgnored() {
+    FakeFilterRender filter = new FakeFilterRender();
+    managerRender.addFilter(-1, filter);
+    managerRender.setFilter(-1, filter);
+    assertEquals(0, managerRender.filtersCount());
+
+    managerRender.addFilter(filter);
+    managerRender.removeFilter(1);
+    managerRender.removeFilter(-1);
+    assertEquals(1, managerRender.filtersCount());
+    assertFalse(filter.released);
+    managerRender.removeFilter(0);
+    assertEquals(0, managerRender.filtersCount());
+    assertTrue(filter.released);
+  }
+
+  @Test
+  public void removeFilterNotAddedIsIgnored() {
+    FakeFilterRender filter = new FakeFilterRender();
+    managerRender.addFilter(filter);
+    managerRender.removeFilter(new FakeFilterRender());
+    assertEquals(1, managerRender.filtersCount());
+    assertFalse(filter.released);
+  }
+}
@@ -0,0 +1,164 @@
+package com.pedro.encoder.input.gl.render.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ColorFilterFusionTest {
+
+  private static final String CLAMP = "color = clamp(color, 0.0, 1.0);";
+
+  private static class FakeColorFilter implements FusibleColorFilter {
+
+    @Override
+    public String[] getColorUniforms() {
+      return new String[] { "float $Value", "vec3 $Weights" };
+    }
+
+    @Override
+    public String getColorCode() {
+      return "float local = $Value;\ncolor.rgb = color.rgb * $Weights + vec3(local);";
+    }
+
+    @Override
+    public void setColorUniforms(int[] locations) {
+    }
+  }
+
+  //any filter that needs its own pass
+  private static final Object OTHER = new Object();
+  private static final FusibleColorFilter FUSIBLE = new FakeColorFilter();
+
+  @Test
+  public void runsOfTwoOrMoreFusibleFilters() {
+    assertRuns(runs(FUSIBLE, FUSIBLE), 0, 1);
+    assertRuns(runs(FUSIBLE, FUSIBLE, FUSIBLE, OTHER), 0, 2);
+    assertRuns(runs(OTHER, FUSIBLE, FUSIBLE), 1, 2);
+    assertRuns(runs(OTHER, FUSIBLE, FUSIBLE, OTHER), 1, 2);
+    assertRuns(runs(FUSIBLE, FUSIBLE, OTHER, FUSIBLE, FUSIBLE, FUSIBLE), 0, 1, 3, 5);
+  }
+
+  @Test
+  public void singleFusibleFilterIsNotFused() {
+    assertRuns(runs());
+    assertRuns(runs(FUSIBLE));
+    assertRuns(runs(FUSIBLE, OTHER));
+    assertRuns(runs(OTHER, FUSIBLE, OTHER, FUSIBLE));
+    assertRuns(runs(FUSIBLE, OTHER, FUSIBLE, FUSIBLE, OTHER, FUSIBLE), 2, 3);
+  }
+
+  @Test
+  public void placeholderIsRenamedWithStage() {
+    List<FusibleColorFilter> filters = new ArrayList<>();
+    filters.add(new FakeColorFilter());
+    filters.add(new FakeColorFilter());
+    filters.add(new FakeColorFilter());
+    String shader = ColorFilterFusion.buildFragmentShader(filters);
+
+    assertFalse(shader.contains("$"));
+    for (int stage = 0; stage < 3; stage++) {
+      assertTrue(shader.contains("uniform float uF" + stage + "Value;\n"));
+      assertTrue(shader.contains("uniform vec3 uF" + stage + "Weights;\n"));
+      assertTrue(shader.contains("float local = uF" + stage + "Value;"));
+      assertTrue(shader.contains("color.rgb * uF" + stage + "Weights"));
+    }
+    assertEquals("uF0Value", ColorFilterFusion.getUniformName("float $Value", 0));
+    assertEquals("uF12Weights", ColorFilterFusion.getUniformName("vec3 $Weights", 12));
+  }
+
+  @Test
+  public void clampOnlyBetweenStages() {
+    List<FusibleColorFilter> filters = new ArrayList<>();
+    filters.add(new BrightnessFilterRender());
+    filters.add(new ContrastFilterRender());
+    filters.add(new GammaFilterRender());
+    String shader = ColorFilterFusion.buildFragmentShader(filters);
+
+    assertEquals(2, count(shader, CLAMP));
+    //before the second and third stage, not before the first one or after the last one
+    int first = shader.indexOf("//BrightnessFilterRender");
+    int second = shader.indexOf("//ContrastFilterRender");
+    int third = shader.indexOf("//GammaFilterRender");
+    assertTrue(first < second && second < third);
+    assertEquals(0, count(shader.substring(0, first), CLAMP));
+    assertEquals(1, count(shader.substring(first, second), CLAMP));
+    assertEquals(1, count(shader.substring(second, third), CLAMP));
+    assertEquals(0, count(shader.substring(third), CLAMP));
+    assertTrue(shader.endsWith("  gl_FragColor = color;\n}\n"));
+  }
+
+  @Test
+  public void stagesAreScopedInBlocks() {
+    List<FusibleColorFilter> filters = new ArrayList<>();
+    filters.add(new SaturationFilterRender());
+    filters.add(new TemperatureFilterRender());
+    filters.add(new SaturationFilterRender());
+    filters.add(new TemperatureFilterRender());
+    String shader = ColorFilterFusion.buildFragmentShader(filters);
+
+    //locals declared by each filter are in a different block inside main
+    assertLocalsInOwnBlocks(shader, "float kv = ", 2);
+    assertLocalsInOwnBlocks(shader, "float value = ", 2);
+    //every block is closed
+    assertEquals(0, depthAt(shader, shader.length()));
+  }
+
+  private static List<int[]> runs(Object... filters) {
+    return ColorFilterFusion.findRuns(Arrays.asList(filters));
+  }
+
+  private static void assertRuns(List<int[]> runs, int... expected) {
+    assertEquals(expected.length / 2, runs.size());
+    for (int i = 0; i < runs.size(); i++) {
+      assertArrayEquals(new int[] { expected[i * 2], expected[i * 2 + 1] }, runs.get(i));
+    }
+  }
+
+  private static void assertLocalsInOwnBlocks(String shader, String declaration, int expected) {
+    assertEquals(expected, count(shader, declaration));
+    int previous = -1;
+    int index = -1;
+    while ((index = shader.indexOf(declaration, index + 1)) != -1) {
+      //main and the block of the stage
+      assertEquals(2, depthAt(shader, index));
+      if (previous != -1) {
+        //the block of the previous declaration is closed before this one
+        int depth = 2;
+        int lowest = depth;
+        for (int i = previous; i < index; i++) {
+          char c = shader.charAt(i);
+          if (c == '{') depth++;
+          if (c == '}') depth--;
+          lowest = Math.min(lowest, depth);
+        }
+        assertEquals(1, lowest);
+      }
+      previous = index;
+    }
+  }
+
+  private static int depthAt(String shader, int end) {
+    int depth = 0;
+    for (int i = 0; i < end; i++) {
+      char c = shader.charAt(i);
+      if (c == '{') depth++;
+      if (c == '}') depth--;
+    }
+    return depth;
+  }
+
+  private static int count(String text, String search) {
+    int count = 0;
+    int index = -1;
+    while ((index = text.indexOf(search, index + 1)) != -1) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,144 @@
+package com.pedro.encoder.input.video;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentChangeDetectorTest {
+
+  private static final long SECOND = 1000000000L;
+  private static final long FRAME_25FPS = SECOND / 25;
+
+  private final ContentChangeDetector detector = new ContentChangeDetector();
+
+  @Test
+  public void staticFramesAreSkipped() {
+    assertTrue(detector.shouldEncode(signature(10), 0));
+    for (int i = 1; i < 10; i++) {
+      assertFalse(detector.shouldEncode(signature(10), i * FRAME_25FPS));
+    }
+    assertEquals(1, detector.getEncodedFrames());
+    assertEquals(9, detector.getSkippedFrames());
+  }
+
+  @Test
+  public void changedFrameIsEncoded() {
+    detector.shouldEncode(signature(10), 0);
+    ByteBuffer changed = signature(10);
+    changed.put(100, (byte) 11);
+    assertTrue(detector.shouldEncode(changed, FRAME_25FPS));
+    //the changed frame is the new reference
+    assertFalse(detector.shouldEncode(changed, 2 * FRAME_25FPS));
+    assertTrue(detector.shouldEncode(signature(10), 3 * FRAME_25FPS));
+    //other signature size is always a change
+    assertTrue(detector.shouldEncode(ByteBuffer.allocate(64), 4 * FRAME_25FPS));
+  }
+
+  @Test
+  public void thresholdAccumulatesSlowChanges() {
+    detector.setThreshold(4);
+    detector.shouldEncode(signature(100), 0);
+    assertFalse(detector.shouldEncode(signature(102), FRAME_25FPS));
+    assertFalse(detector.shouldEncode(signature(96), 2 * FRAME_25FPS));
+    //skipped frames don't move the reference, 100 to 105 is over the threshold
+    assertTrue(detector.shouldEncode(signature(105), 3 * FRAME_25FPS));
+    assertFalse(detector.shouldEncode(signature(107), 4 * FRAME_25FPS));
+  }
+
+  @Test
+  public void signatureIsReadFromPositionAndNotModified() {
+    ByteBuffer buffer = ByteBuffer.allocate(300);
+    buffer.position(44);
+    detector.shouldEncode(buffer, 0);
+    assertEquals(44, buffer.position());
+    buffer.put(10, (byte) 1);
+    assertFalse(detector.shouldEncode(buffer, FRAME_25FPS));
+    buffer.put(50, (byte) 1);
+    assertTrue(detector.shouldEncode(buffer, 2 * FRAME_25FPS));
+    assertEquals(44, buffer.position());
+    assertEquals(300, buffer.limit());
+  }
+
+  @Test
+  public void staticFrameIsEncodedEachKeepAliveInterval() {
+    //3 seconds of a static 25 fps source, encoded at 0, 1, 2 and 3 seconds
+    for (int i = 0; i <= 75; i++) {
+      boolean encode = detector.shouldEncode(signature(10), i * FRAME_25FPS);
+      assertEquals("frame " + i, i % 25 == 0, encode);
+    }
+    assertEquals(4, detector.getEncodedFrames());
+    assertEquals(72, detector.getSkippedFrames());
+  }
+
+  @Test
+  public void keepAliveCanBeDisabled() {
+    detector.setKeepAliveInterval(0);
+    for (int i = 0; i <= 75; i++) {
+      detector.shouldEncode(signature(10), i * FRAME_25FPS);
+    }
+    assertEquals(1, detector.getEncodedFrames());
+    assertFalse(detector.shouldRepeat(10 * SECOND));
+  }
+
+  @Test
+  public void lastFrameIsRepeatedWhenSourceStops() {
+    assertFalse(detector.shouldRepeat(0));
+    detector.setKeepAliveInterval(500000000L);
+    detector.shouldEncode(signature(10), 0);
+    assertFalse(detector.shouldRepeat(SECOND / 4));
+    assertTrue(detector.shouldRepeat(SECOND / 2));
+    assertFalse(detector.shouldRepeat(SECOND / 2 + FRAME_25FPS));
+    assertTrue(detector.shouldRepeat(SECOND));
+    assertEquals(3, detector.getEncodedFrames());
+    //a repeat restarts the interval of the next static frame
+    assertFalse(detector.shouldEncode(signature(10), SECOND + FRAME_25FPS));
+  }
+
+  @Test
+  public void effectiveFpsOfChangingAndStaticContent() {
+    long time = 0;
+    //2 seconds changing each frame, the first window ends with frame 25
+    for (int i = 0; i < 50; i++, time += FRAME_25FPS) {
+      detector.shouldEncode(signature(i), time);
+      assertEquals("frame " + i, i < 25 ? 0 : 25, detector.getEffectiveFps(), 0.01);
+    }
+    //static, only keep alive frames
+    for (int i = 0; i < 100; i++, time += FRAME_25FPS) {
+      detector.shouldEncode(signature(0), time);
+    }
+    assertEquals(1, detector.getEffectiveFps(), 0.01);
+  }
+
+  @Test
+  public void bytesSavedFromSkippedFrames() {
+    for (int i = 0; i <= 75; i++) {
+      detector.shouldEncode(signature(10), i * FRAME_25FPS);
+    }
+    //72 frames of 1 Mbps at 25 fps, 5000 bytes each
+    assertEquals(72 * 5000, detector.getEstimatedBytesSaved(1000000, 25));
+    assertEquals(0, detector.getEstimatedBytesSaved(1000000, 0));
+  }
+
+  @Test
+  public void resetEncodesNextFrameAndClearsStats() {
+    detector.shouldEncode(signature(10), 0);
+    detector.shouldEncode(signature(10), FRAME_25FPS);
+    detector.reset();
+    assertEquals(0, detector.getEncodedFrames());
+    assertEquals(0, detector.getSkippedFrames());
+    assertEquals(0, detector.getEffectiveFps(), 0);
+    assertTrue(detector.shouldEncode(signature(10), 2 * FRAME_25FPS));
+  }
+
+  //like the signatures of SignatureRender, an average per block of the frame
+  private static ByteBuffer signature(int value) {
+    ByteBuffer signature = ByteBuffer.allocate(256);
+    for (int i = 0; i < signature.capacity(); i++) {
+      signature.put(i, (byte) value);
+    }
+    return signature;
+  }
+}
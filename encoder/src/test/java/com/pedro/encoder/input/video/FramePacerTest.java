@@ -0,0 +1,134 @@
+package com.pedro.encoder.input.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramePacerTest {
+
+  private static final long MS = 1000000L;
+  private static final long SECOND = 1000 * MS;
+
+  private static class FakeClock implements FramePacer.Clock {
+
+    private long timeNs = 5 * SECOND;
+
+    @Override
+    public long nanoTime() {
+      return timeNs;
+    }
+
+    void advance(long ns) {
+      timeNs += ns;
+    }
+  }
+
+  @Test
+  public void halfOfDoubleRateSourceIsKept() {
+    FakeClock clock = new FakeClock();
+    FramePacer framePacer = new FramePacer(clock);
+    framePacer.setFps(30);
+    for (int i = 0; i < 600; i++) {
+      boolean dropped = framePacer.shouldDrop();
+      assertEquals("frame " + i, i % 2 == 1, dropped);
+      clock.advance(SECOND / 60);
+    }
+    assertEquals(300, framePacer.getKeptFrames());
+    assertEquals(300, framePacer.getDroppedFrames());
+  }
+
+  @Test
+  public void fractionalIntervalDoesNotDrift() {
+    FakeClock clock = new FakeClock();
+    FramePacer framePacer = new FramePacer(clock);
+    framePacer.setFps(24);
+    //10 seconds of a 100 fps source, 24 fps is not a divisor
+    for (int i = 0; i < 1000; i++) {
+      framePacer.shouldDrop();
+      clock.advance(10 * MS);
+    }
+    assertEquals(240, framePacer.getKeptFrames(), 1);
+  }
+
+  @Test
+  public void earlyFrameIsKeptWithinQuarterOfInterval() {
+    FramePacer framePacer = new FramePacer(new FakeClock());
+    framePacer.setFps(25);
+    //interval 40 ms, tolerance 10 ms
+    assertFalse(framePacer.shouldDrop(0));
+    assertFalse(framePacer.shouldDrop(31 * MS));
+    //next deadline is 80 ms, not 31 + 40
+    assertTrue(framePacer.shouldDrop(69 * MS));
+    assertFalse(framePacer.shouldDrop(71 * MS));
+    assertEquals(3, framePacer.getKeptFrames());
+  }
+
+  @Test
+  public void stallStartsAgainWithoutBurst() {
+    FramePacer framePacer = new FramePacer(new FakeClock());
+    framePacer.setFps(30);
+    long time = 0;
+    for (int i = 0; i < 30; i++) {
+      assertFalse(framePacer.shouldDrop(time));
+      time += SECOND / 30;
+    }
+    //one second without frames, then a 60 fps source
+    time += SECOND;
+    int kept = 0;
+    for (int i = 0; i < 10; i++) {
+      boolean dropped = framePacer.shouldDrop(time);
+      if (!dropped) kept++;
+      //after the stall every other frame, never two in a row to catch up
+      assertEquals("frame " + i, i % 2 == 1, dropped);
+      time += SECOND / 60;
+    }
+    assertEquals(5, kept);
+  }
+
+  @Test
+  public void noTargetKeepsAll() {
+    FramePacer framePacer = new FramePacer(new FakeClock());
+    framePacer.setFps(0);
+    for (int i = 0; i < 10; i++) {
+      assertFalse(framePacer.shouldDrop(i * MS));
+    }
+    assertEquals(10, framePacer.getKeptFrames());
+  }
+
+  @Test
+  public void achievedFpsAndJitterFollowIntervals() {
+    FramePacer framePacer = new FramePacer(new FakeClock());
+    framePacer.setFps(0);
+    assertEquals(0, framePacer.getAchievedFps(), 0);
+    long time = 0;
+    for (int i = 0; i < 100; i++) {
+      framePacer.shouldDrop(time);
+      time += 40 * MS;
+    }
+    assertEquals(25, framePacer.getAchievedFps(), 0.01);
+    assertEquals(0, framePacer.getJitterMs(), 0.01);
+
+    //intervals of 30 and 50 ms: same mean, 10 ms from it
+    for (int i = 0; i < 200; i++) {
+      framePacer.shouldDrop(time);
+      time += (i % 2 == 0 ? 30 : 50) * MS;
+    }
+    assertEquals(25, framePacer.getAchievedFps(), 1);
+    assertEquals(10, framePacer.getJitterMs(), 1);
+  }
+
+  @Test
+  public void resetClearsStatsAndStartsAgain() {
+    FramePacer framePacer = new FramePacer(new FakeClock());
+    framePacer.setFps(30);
+    framePacer.shouldDrop(0);
+    framePacer.shouldDrop(MS);
+    framePacer.reset();
+    assertEquals(0, framePacer.getKeptFrames());
+    assertEquals(0, framePacer.getDroppedFrames());
+    //the first frame after reset is the new start
+    assertFalse(framePacer.shouldDrop(2 * MS));
+  }
+}
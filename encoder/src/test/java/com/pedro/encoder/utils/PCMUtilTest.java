@@ -0,0 +1,84 @@
+package com.pedro.encoder.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PCMUtilTest {
+
+  @Test
+  public void mixSumsAndSaturates() {
+    byte[] pcm1 = pcm(1000, 30000, -30000, 5);
+    byte[] pcm2 = pcm(-400, 10000, -10000);
+    assertArrayEquals(pcm(600, Short.MAX_VALUE, Short.MIN_VALUE, 5), PCMUtil.mixPCM(pcm1, pcm2));
+    //inputs are not modified
+    assertArrayEquals(pcm(1000, 30000, -30000, 5), pcm1);
+  }
+
+  @Test
+  public void mixInPlace() {
+    byte[] pcm1 = pcm(1, 2, 3);
+    int size = PCMUtil.mixPCM(pcm1, pcm1.length, pcm(10, 20), 4, pcm1);
+    assertEquals(6, size);
+    assertArrayEquals(pcm(11, 22, 3), pcm1);
+  }
+
+  @Test
+  public void toStereoKeepsFirstTwoChannels() {
+    byte[] quad = pcm(1, 2, 3, 4, 5, 6, 7, 8);
+    assertArrayEquals(pcm(1, 2, 5, 6), PCMUtil.pcmToStereo(quad, 4));
+    byte[] output = new byte[8];
+    //an incomplete frame at the end is ignored
+    assertEquals(4, PCMUtil.pcmToStereo(quad, 14, 4, output));
+  }
+
+  @Test
+  public void surroundIsDownmixedWithWeights() {
+    //5.1: FL, FR, FC, LFE, BL, BR. Only front left and center
+    byte[] pcm = pcm(10000, 0, 10000, 20000, 0, 0);
+    byte[] output = new byte[4];
+    assertEquals(4, PCMUtil.downmix(pcm, 0, pcm.length, 6, 2, output));
+    short[] stereo = shorts(output);
+    //left side weights 1 + 0.7071 + 0.7071 normalized to 1, LFE discarded
+    assertEquals((10000 + 7071) / 2.4142, stereo[0], 2);
+    assertEquals(7071 / 2.4142, stereo[1], 2);
+  }
+
+  @Test
+  public void downmixNeverClips() {
+    byte[] pcm = pcm(Short.MAX_VALUE, Short.MAX_VALUE, Short.MAX_VALUE, Short.MAX_VALUE,
+        Short.MAX_VALUE, Short.MAX_VALUE, Short.MIN_VALUE, Short.MIN_VALUE, Short.MIN_VALUE,
+        Short.MIN_VALUE, Short.MIN_VALUE, Short.MIN_VALUE);
+    byte[] output = new byte[8];
+    PCMUtil.downmix(pcm, 0, pcm.length, 6, 2, output);
+    short[] stereo = shorts(output);
+    assertEquals(Short.MAX_VALUE, stereo[0], 2);
+    assertEquals(Short.MIN_VALUE, stereo[2], 2);
+  }
+
+  @Test
+  public void downmixToMono() {
+    byte[] pcm = pcm(100, 300, -500, -700);
+    byte[] output = new byte[4];
+    assertEquals(4, PCMUtil.downmix(pcm, 0, pcm.length, 2, 1, output));
+    assertArrayEquals(pcm(200, -600), output);
+  }
+
+  private static byte[] pcm(int... samples) {
+    byte[] pcm = new byte[samples.length * 2];
+    for (int i = 0; i < samples.length; i++) {
+      pcm[i * 2] = (byte) samples[i];
+      pcm[i * 2 + 1] = (byte) (samples[i] >> 8);
+    }
+    return pcm;
+  }
+
+  private static short[] shorts(byte[] pcm) {
+    short[] samples = new short[pcm.length / 2];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (short) ((pcm[i * 2] & 0xFF) | (pcm[i * 2 + 1] << 8));
+    }
+    return samples;
+  }
+}
@@ -0,0 +1,90 @@
+package com.pedro.encoder.utils.yuv;
+
+import android.graphics.ImageFormat;
+import com.pedro.encoder.video.FormatVideoEncoder;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fused rotate and color convert of a 720p NV21 camera frame against the old two pass path,
+ * to a heap array and to a direct buffer like a codec input buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YUVConverterBenchmark {
+
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 720;
+
+  @Param({ "0", "90" })
+  public int rotation;
+
+  private byte[] frame;
+  private byte[] output;
+  private ByteBuffer direct;
+  private YUVConverter single;
+  private YUVConverter split;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    frame = new byte[WIDTH * HEIGHT * 3 / 2];
+    new Random(1).nextBytes(frame);
+    output = new byte[frame.length];
+    direct = ByteBuffer.allocateDirect(frame.length);
+    single = new YUVConverter(1);
+    split = new YUVConverter(2);
+    YUVUtil.preAllocateBuffers(frame.length);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    split.release();
+  }
+
+  @Benchmark
+  public byte[] twoPass() {
+    byte[] rotated = YUVUtil.rotateNV21(frame, WIDTH, HEIGHT, rotation);
+    boolean swap = rotation == 90 || rotation == 270;
+    return YUVUtil.NV21toYUV420byColor(rotated, swap ? HEIGHT : WIDTH, swap ? WIDTH : HEIGHT,
+        FormatVideoEncoder.YUV420PLANAR);
+  }
+
+  @Benchmark
+  public byte[] fusedArray() {
+    single.convert(frame, ImageFormat.NV21, WIDTH, HEIGHT, rotation,
+        FormatVideoEncoder.YUV420PLANAR, output, 0);
+    return output;
+  }
+
+  @Benchmark
+  public ByteBuffer fusedDirect() {
+    single.convert(frame, ImageFormat.NV21, WIDTH, HEIGHT, rotation,
+        FormatVideoEncoder.YUV420PLANAR, direct);
+    return direct;
+  }
+
+  @Benchmark
+  public byte[] fusedArrayTwoThreads() {
+    split.convert(frame, ImageFormat.NV21, WIDTH, HEIGHT, rotation,
+        FormatVideoEncoder.YUV420PLANAR, output, 0);
+    return output;
+  }
+}
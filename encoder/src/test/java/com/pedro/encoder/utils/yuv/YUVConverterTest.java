@@ -0,0 +1,170 @@
+package com.pedro.encoder.utils.yuv;
+
+import android.graphics.ImageFormat;
+import com.pedro.encoder.video.FormatVideoEncoder;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class YUVConverterTest {
+
+  private static final int[] ROTATIONS = { 0, 90, 180, 270 };
+  private static final FormatVideoEncoder[] FORMATS = {
+      FormatVideoEncoder.YUV420PLANAR, FormatVideoEncoder.YUV420SEMIPLANAR
+  };
+
+  //NV21 4x2: Y 0..7 and a VU pair for each 2x2 block
+  private static final byte[] NV21_4X2 = { 0, 1, 2, 3, 4, 5, 6, 7, 100, (byte) 200, 101,
+      (byte) 201 };
+
+  @Test
+  public void goldenNV21ToI420() {
+    assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 200, 201, 100, 101),
+        convert(NV21_4X2, ImageFormat.NV21, 0, FormatVideoEncoder.YUV420PLANAR));
+    //output is 2x4, clockwise: first row is the first column read from the bottom
+    assertArrayEquals(bytes(4, 0, 5, 1, 6, 2, 7, 3, 200, 201, 100, 101),
+        convert(NV21_4X2, ImageFormat.NV21, 90, FormatVideoEncoder.YUV420PLANAR));
+    assertArrayEquals(bytes(7, 6, 5, 4, 3, 2, 1, 0, 201, 200, 101, 100),
+        convert(NV21_4X2, ImageFormat.NV21, 180, FormatVideoEncoder.YUV420PLANAR));
+    assertArrayEquals(bytes(3, 7, 2, 6, 1, 5, 0, 4, 201, 200, 101, 100),
+        convert(NV21_4X2, ImageFormat.NV21, 270, FormatVideoEncoder.YUV420PLANAR));
+  }
+
+  @Test
+  public void goldenNV21ToNV12() {
+    assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 200, 100, 201, 101),
+        convert(NV21_4X2, ImageFormat.NV21, 0, FormatVideoEncoder.YUV420SEMIPLANAR));
+    assertArrayEquals(bytes(4, 0, 5, 1, 6, 2, 7, 3, 200, 100, 201, 101),
+        convert(NV21_4X2, ImageFormat.NV21, 90, FormatVideoEncoder.YUV420SEMIPLANAR));
+  }
+
+  @Test
+  public void goldenYV12ToI420() {
+    //YV12 4x2: Y, V plane and U plane
+    byte[] yv12 = bytes(0, 1, 2, 3, 4, 5, 6, 7, 100, 101, 200, 201);
+    assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 200, 201, 100, 101),
+        convert(yv12, ImageFormat.YV12, 0, FormatVideoEncoder.YUV420PLANAR));
+    assertArrayEquals(bytes(3, 7, 2, 6, 1, 5, 0, 4, 201, 200, 101, 100),
+        convert(yv12, ImageFormat.YV12, 270, FormatVideoEncoder.YUV420PLANAR));
+  }
+
+  @Test
+  public void sameResultAsRotateAndConvert() {
+    byte[] nv21 = randomFrame(64, 48);
+    byte[] yv12 = randomFrame(64, 48);
+    YUVConverter yuvConverter = new YUVConverter();
+    for (int rotation : ROTATIONS) {
+      for (FormatVideoEncoder format : FORMATS) {
+        String name = rotation + " " + format;
+        assertArrayEquals("NV21 " + name, legacyNV21(nv21, 64, 48, rotation, format),
+            convert(yuvConverter, nv21, 64, 48, ImageFormat.NV21, rotation, format));
+        assertArrayEquals("YV12 " + name, legacyYV12(yv12, 64, 48, rotation, format),
+            convert(yuvConverter, yv12, 64, 48, ImageFormat.YV12, rotation, format));
+      }
+    }
+  }
+
+  @Test
+  public void splitFrameIsEqualToOneThread() {
+    //big enough to be split between threads
+    int width = 640;
+    int height = 360;
+    byte[] nv21 = randomFrame(width, height);
+    YUVConverter single = new YUVConverter(1);
+    YUVConverter split = new YUVConverter(3);
+    try {
+      for (int rotation : ROTATIONS) {
+        for (FormatVideoEncoder format : FORMATS) {
+          assertArrayEquals(rotation + " " + format,
+              convert(single, nv21, width, height, ImageFormat.NV21, rotation, format),
+              convert(split, nv21, width, height, ImageFormat.NV21, rotation, format));
+        }
+      }
+    } finally {
+      split.release();
+    }
+  }
+
+  @Test
+  public void directBufferIsWrittenFromPosition() {
+    int size = NV21_4X2.length;
+    ByteBuffer direct = ByteBuffer.allocateDirect(size + 3);
+    direct.position(3);
+    int written = new YUVConverter().convert(NV21_4X2, ImageFormat.NV21, 4, 2, 90,
+        FormatVideoEncoder.YUV420SEMIPLANAR, direct);
+    assertEquals(size, written);
+    assertEquals(3, direct.position());
+    byte[] result = new byte[size];
+    direct.get(result);
+    assertArrayEquals(bytes(4, 0, 5, 1, 6, 2, 7, 3, 200, 100, 201, 101), result);
+  }
+
+  @Test
+  public void arrayIsWrittenFromOffset() {
+    byte[] output = new byte[NV21_4X2.length + 2];
+    Arrays.fill(output, (byte) 55);
+    new YUVConverter().convert(NV21_4X2, ImageFormat.NV21, 4, 2, 0,
+        FormatVideoEncoder.YUV420PLANAR, output, 2);
+    assertArrayEquals(bytes(55, 55, 0, 1, 2, 3, 4, 5, 6, 7, 200, 201, 100, 101), output);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unsupportedRotation() {
+    new YUVConverter().convert(NV21_4X2, ImageFormat.NV21, 4, 2, 45,
+        FormatVideoEncoder.YUV420PLANAR, new byte[NV21_4X2.length], 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unsupportedImageFormat() {
+    new YUVConverter().convert(NV21_4X2, ImageFormat.YUV_420_888, 4, 2, 0,
+        FormatVideoEncoder.YUV420PLANAR, new byte[NV21_4X2.length], 0);
+  }
+
+  private static byte[] convert(byte[] input, int imageFormat, int rotation,
+      FormatVideoEncoder format) {
+    return convert(new YUVConverter(), input, 4, 2, imageFormat, rotation, format);
+  }
+
+  private static byte[] convert(YUVConverter yuvConverter, byte[] input, int width, int height,
+      int imageFormat, int rotation, FormatVideoEncoder format) {
+    byte[] output = new byte[width * height * 3 / 2];
+    yuvConverter.convert(input, imageFormat, width, height, rotation, format, output, 0);
+    return output;
+  }
+
+  private static byte[] legacyNV21(byte[] input, int width, int height, int rotation,
+      FormatVideoEncoder format) {
+    YUVUtil.preAllocateBuffers(input.length);
+    byte[] rotated = YUVUtil.rotateNV21(input, width, height, rotation);
+    boolean swap = rotation == 90 || rotation == 270;
+    return YUVUtil.NV21toYUV420byColor(rotated, swap ? height : width, swap ? width : height,
+        format).clone();
+  }
+
+  private static byte[] legacyYV12(byte[] input, int width, int height, int rotation,
+      FormatVideoEncoder format) {
+    YUVUtil.preAllocateBuffers(input.length);
+    byte[] rotated = YUVUtil.rotateYV12(input, width, height, rotation);
+    boolean swap = rotation == 90 || rotation == 270;
+    return YUVUtil.YV12toYUV420byColor(rotated, swap ? height : width, swap ? width : height,
+        format).clone();
+  }
+
+  private static byte[] randomFrame(int width, int height) {
+    byte[] frame = new byte[width * height * 3 / 2];
+    new Random(width * 31 + height).nextBytes(frame);
+    return frame;
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (byte) values[i];
+    }
+    return result;
+  }
+}
@@ -0,0 +1,114 @@
+package com.pedro.encoder.video;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo.CodecProfileLevel;
+import android.media.MediaFormat;
+import com.pedro.encoder.utils.CodecIndex;
+import com.pedro.encoder.utils.CodecUtil;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VideoEncoderTest {
+
+  private static final int SURFACE = FormatVideoEncoder.SURFACE.getFormatCodec();
+  private static final int PLANAR = FormatVideoEncoder.YUV420PLANAR.getFormatCodec();
+  private static final int SEMIPLANAR = FormatVideoEncoder.YUV420SEMIPLANAR.getFormatCodec();
+  private static final int PACKED = FormatVideoEncoder.YUV420PACKEDPLANAR.getFormatCodec();
+
+  private static final CodecIndex.Codec HARDWARE_SURFACE =
+      codec("c2.vendor.avc.encoder", true, new int[] { SURFACE, SEMIPLANAR },
+          new int[] { CodecProfileLevel.AVCProfileBaseline, CodecProfileLevel.AVCLevel41 });
+  private static final CodecIndex.Codec HARDWARE_HIGH =
+      codec("omx.vendor.avc.encoder", true, new int[] { SURFACE, PLANAR },
+          new int[] { CodecProfileLevel.AVCProfileHigh, CodecProfileLevel.AVCLevel4 });
+  private static final CodecIndex.Codec SOFTWARE =
+      codec("c2.android.avc.encoder", false, new int[] { PACKED, PLANAR },
+          new int[] { CodecProfileLevel.AVCProfileBaseline, CodecProfileLevel.AVCLevel31 });
+
+  @After
+  public void tearDown() {
+    CodecIndex.setInstance(null);
+  }
+
+  @Test
+  public void forceSelectsListOfIndex() {
+    CodecIndex.setInstance(new CodecIndex(Arrays.asList(SOFTWARE, HARDWARE_SURFACE)));
+    VideoEncoder videoEncoder = new VideoEncoder(new FakeVideoData());
+    assertEquals(SOFTWARE, videoEncoder.chooseEncoder(CodecUtil.H264_MIME));
+    videoEncoder.setForce(CodecUtil.Force.HARDWARE);
+    assertEquals(HARDWARE_SURFACE, videoEncoder.chooseEncoder(CodecUtil.H264_MIME));
+    videoEncoder.setForce(CodecUtil.Force.SOFTWARE);
+    assertEquals(SOFTWARE, videoEncoder.chooseEncoder(CodecUtil.H264_MIME));
+    assertNull(videoEncoder.chooseEncoder(CodecUtil.H265_MIME));
+  }
+
+  @Test
+  public void surfaceNeedsSurfaceColor() {
+    assertEquals(HARDWARE_SURFACE, VideoEncoder.chooseEncoder(
+        Arrays.asList(SOFTWARE, HARDWARE_SURFACE), FormatVideoEncoder.SURFACE, -1, -1));
+    assertNull(VideoEncoder.chooseEncoder(Collections.singletonList(SOFTWARE),
+        FormatVideoEncoder.SURFACE, -1, -1));
+  }
+
+  @Test
+  public void bufferNeedsPlanarOrSemiPlanar() {
+    CodecIndex.Codec packedOnly = codec("omx.vendor.packed", true, new int[] { PACKED }, null);
+    assertEquals(HARDWARE_SURFACE, VideoEncoder.chooseEncoder(
+        Arrays.asList(packedOnly, HARDWARE_SURFACE), FormatVideoEncoder.YUV420Dynamical, -1,
+        -1));
+    assertNull(VideoEncoder.chooseEncoder(Collections.singletonList(packedOnly),
+        FormatVideoEncoder.YUV420Dynamical, -1, -1));
+  }
+
+  @Test
+  public void codecWithProfileIsPreferred() {
+    assertEquals(HARDWARE_HIGH, VideoEncoder.chooseEncoder(
+        Arrays.asList(HARDWARE_SURFACE, HARDWARE_HIGH), FormatVideoEncoder.SURFACE,
+        CodecProfileLevel.AVCProfileHigh, CodecProfileLevel.AVCLevel31));
+    //level over the max reported, the first compatible codec is used
+    assertEquals(HARDWARE_SURFACE, VideoEncoder.chooseEncoder(
+        Arrays.asList(HARDWARE_SURFACE, HARDWARE_HIGH), FormatVideoEncoder.SURFACE,
+        CodecProfileLevel.AVCProfileHigh, CodecProfileLevel.AVCLevel51));
+  }
+
+  @Test
+  public void colorIsChosenFromCodec() {
+    assertEquals(FormatVideoEncoder.YUV420SEMIPLANAR,
+        VideoEncoder.chooseColorDynamically(HARDWARE_SURFACE));
+    assertEquals(FormatVideoEncoder.YUV420PLANAR, VideoEncoder.chooseColorDynamically(SOFTWARE));
+    assertNull(VideoEncoder.chooseColorDynamically(
+        codec("omx.vendor.surface", true, new int[] { SURFACE }, null)));
+  }
+
+  private static CodecIndex.Codec codec(String name, boolean hardware, int[] colorFormats,
+      int[] profileLevel) {
+    int[][] profileLevels = profileLevel != null ? new int[][] { profileLevel } : null;
+    return new CodecIndex.Codec(name, CodecUtil.H264_MIME, true, hardware, !hardware,
+        colorFormats, profileLevels, 1920, 1080, 60, null);
+  }
+
+  private static class FakeVideoData implements GetVideoData {
+
+    @Override
+    public void onSpsPps(ByteBuffer sps, ByteBuffer pps) {
+    }
+
+    @Override
+    public void onSpsPpsVps(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
+    }
+
+    @Override
+    public void getVideoData(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
+    }
+
+    @Override
+    public void onVideoFormat(MediaFormat mediaFormat) {
+    }
+  }
+}
@@ -1,7 +1,11 @@
 package com.github.faucamp.simplertmp;
 
 import com.github.faucamp.simplertmp.io.RtmpConnection;
+import com.github.faucamp.simplertmp.io.RtmpEventLoop;
 import net.ossrs.rtmp.ConnectCheckerRtmp;
+import net.ossrs.rtmp.ConnectTiming;
+import net.ossrs.rtmp.RttEstimator;
+import net.ossrs.rtmp.UplinkEstimator;
 
 /**
  * Srs implementation of an RTMP publisher
@@ -16,6 +20,30 @@ public class DefaultRtmpPublisher implements RtmpPublisher {
     rtmpConnection = new RtmpConnection(connectCheckerRtmp);
   }
 
+  public UplinkEstimator getUplinkEstimator() {
+    return rtmpConnection.getUplinkEstimator();
+  }
+
+  public ConnectTiming getConnectTiming() {
+    return rtmpConnection.getConnectTiming();
+  }
+
+  public void setFastStart(boolean enabled) {
+    rtmpConnection.setFastStart(enabled);
+  }
+
+  public void setEventLoop(RtmpEventLoop eventLoop) {
+    rtmpConnection.setEventLoop(eventLoop);
+  }
+
+  public RttEstimator getRttEstimator() {
+    return rtmpConnection.getRttEstimator();
+  }
+
+  public void setRttProbeInterval(long interval) {
+    rtmpConnection.setRttProbeInterval(interval);
+  }
+
   @Override
   public boolean connect(String url) {
     return rtmpConnection.connect(url);
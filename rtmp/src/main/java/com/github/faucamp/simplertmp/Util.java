@@ -95,11 +95,16 @@ public class Util {
    * Reads bytes from the specified inputstream into the specified target buffer until it is filled up
    */
   public static void readBytesUntilFull(InputStream in, byte[] targetBuffer) throws IOException {
+    readBytesUntilFull(in, targetBuffer, 0, targetBuffer.length);
+  }
+
+  public static void readBytesUntilFull(InputStream in, byte[] targetBuffer, int offset,
+      int length) throws IOException {
     int totalBytesRead = 0;
     int read;
-    final int targetBytes = targetBuffer.length;
+    final int targetBytes = length;
     do {
-      read = in.read(targetBuffer, totalBytesRead, (targetBytes - totalBytesRead));
+      read = in.read(targetBuffer, offset + totalBytesRead, (targetBytes - totalBytesRead));
       if (read != -1) {
         totalBytesRead += read;
       } else {
@@ -1,9 +1,9 @@
 package com.github.faucamp.simplertmp.io;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import com.github.faucamp.simplertmp.Util;
 import com.github.faucamp.simplertmp.packets.RtmpHeader;
@@ -25,7 +25,10 @@ public class ChunkStreamInfo {
   private RtmpHeader prevHeaderTx;
   private static long sessionBeginTimestamp;
   private long realLastTimestamp = System.nanoTime() / 1000000;  // Do not use wall time!
-  private ByteArrayOutputStream baos = new ByteArrayOutputStream(1024 * 128);
+  // reassembly buffer, reused across messages and only grown when a bigger message arrives
+  private byte[] packetBuffer = new byte[0];
+  private int storedBytes = 0;
+  private final PacketBufferInputStream packetInputStream = new PacketBufferInputStream();
 
   /** @return the previous header that was received on this channel, or <code>null</code> if no previous header was received */
   public RtmpHeader prevHeaderRx() {
@@ -71,21 +74,34 @@ public class ChunkStreamInfo {
 
   /** @return <code>true</code> if all packet data has been stored, or <code>false</code> if not */
   public boolean storePacketChunk(InputStream in, int chunkSize) throws IOException {
-    final int remainingBytes = prevHeaderRx.getPacketLength() - baos.size();
-    byte[] chunk = new byte[Math.min(remainingBytes, chunkSize)];
-    Util.readBytesUntilFull(in, chunk);
-    baos.write(chunk);
-    return (baos.size() == prevHeaderRx.getPacketLength());
+    final int packetLength = prevHeaderRx.getPacketLength();
+    if (packetBuffer.length < packetLength) {
+      packetBuffer = Arrays.copyOf(packetBuffer, Math.max(packetLength, packetBuffer.length * 2));
+    }
+    final int remainingBytes = packetLength - storedBytes;
+    final int chunkLength = Math.min(remainingBytes, chunkSize);
+    Util.readBytesUntilFull(in, packetBuffer, storedBytes, chunkLength);
+    storedBytes += chunkLength;
+    return (storedBytes == packetLength);
   }
 
+  /**
+   * @return a view of the stored packet, it is not a copy so it must be consumed before the next
+   * chunk of this chunk stream is stored
+   */
   public ByteArrayInputStream getStoredPacketInputStream() {
-    ByteArrayInputStream bis = new ByteArrayInputStream(baos.toByteArray());
-    baos.reset();
-    return bis;
+    packetInputStream.wrap(packetBuffer, storedBytes);
+    storedBytes = 0;
+    return packetInputStream;
+  }
+
+  /** @return bytes of the current packet already stored */
+  int getStoredBytes() {
+    return storedBytes;
   }
 
   /** Clears all currently-stored packet chunks (used when an ABORT packet is received) */
   public void clearStoredChunks() {
-    baos.reset();
+    storedBytes = 0;
   }
 }
@@ -0,0 +1,33 @@
+package com.github.faucamp.simplertmp.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Count the bytes really handed to the socket, including chunk headers.
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+  private long count = 0;
+
+  CountingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    count++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    count += len;
+  }
+}
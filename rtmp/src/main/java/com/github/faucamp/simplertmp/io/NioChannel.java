@@ -0,0 +1,439 @@
+package com.github.faucamp.simplertmp.io;
+
+import android.util.Log;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * Socket of a RTMP connection driven by a RtmpEventLoop, with optional TLS using SSLEngine.
+ *
+ * Connect, TLS and RTMP handshakes are done in blocking mode in the caller thread. After that the
+ * channel is registered in the event loop: reads are done in a worker when the selector reports
+ * data and writes are done in the caller thread, that only waits for the selector when the socket
+ * send buffer is full. So writes keep blocking like a socket and the publisher backpressure and
+ * UplinkEstimator keep working.
+ */
+class NioChannel {
+
+  private static final String TAG = "NioChannel";
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  interface Listener {
+    /**
+     * Called in a worker, never at the same time, with the data received. Consume only complete
+     * packets, the remaining data is given again with the next data. Never write here, a full
+     * send buffer would block the worker and every channel using it.
+     */
+    void onData(ByteBuffer data) throws IOException;
+
+    /**
+     * Called if the connection was closed by the server (error null) or failed. Not called after
+     * close().
+     */
+    void onClosed(IOException error);
+  }
+
+  private final RtmpEventLoop eventLoop;
+  private SocketChannel channel;
+  private SSLEngine sslEngine;
+  private Listener listener;
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  //touched only in the selector thread
+  private SelectionKey selectionKey;
+  private int interestOps = 0;
+  //received bytes in write mode, appIn is netIn without TLS
+  private ByteBuffer netIn = ByteBuffer.allocate(BUFFER_SIZE);
+  private ByteBuffer appIn = netIn;
+  //TLS records to send
+  private ByteBuffer netOut;
+  private final Object writeLock = new Object();
+  private boolean writable = false;
+  private byte[] lastWriteArray;
+  private ByteBuffer lastWriteBuffer;
+  private final InputStream inputStream = new ChannelInputStream();
+  private final OutputStream outputStream = new ChannelOutputStream();
+
+  NioChannel(RtmpEventLoop eventLoop) {
+    this.eventLoop = eventLoop;
+  }
+
+  void connect(InetAddress address, int port, int timeout) throws IOException {
+    channel = SocketChannel.open();
+    try {
+      channel.configureBlocking(true);
+      channel.socket().connect(new InetSocketAddress(address, port), timeout);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * TLS handshake in blocking mode, with the same protocols as TLSSocketFactory.
+   */
+  void startTls(String host, int port) throws IOException {
+    try {
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(null, null, null);
+      sslEngine = context.createSSLEngine(host, port);
+      sslEngine.setUseClientMode(true);
+      sslEngine.setEnabledProtocols(new String[] { "TLSv1.1", "TLSv1.2" });
+      netIn = ByteBuffer.allocate(
+          Math.max(BUFFER_SIZE, sslEngine.getSession().getPacketBufferSize()));
+      appIn = ByteBuffer.allocate(
+          Math.max(BUFFER_SIZE, sslEngine.getSession().getApplicationBufferSize()));
+      netOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+      sslEngine.beginHandshake();
+      SSLEngineResult.HandshakeStatus status = sslEngine.getHandshakeStatus();
+      while (status != SSLEngineResult.HandshakeStatus.FINISHED
+          && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+        switch (status) {
+          case NEED_WRAP:
+            writeTls(EMPTY);
+            break;
+          case NEED_UNWRAP:
+            if (unwrap() == 0 && readNet() < 0) {
+              throw new EOFException("Closed during TLS handshake");
+            }
+            break;
+          case NEED_TASK:
+            runDelegatedTasks();
+            break;
+          default:
+            break;
+        }
+        status = sslEngine.getHandshakeStatus();
+      }
+    } catch (NoSuchAlgorithmException | KeyManagementException | IllegalArgumentException e) {
+      close();
+      throw new SSLException("TLS not available", e);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * @return socket of the channel, for socket options only.
+   */
+  Socket socket() {
+    return channel.socket();
+  }
+
+  /**
+   * Blocking stream until register is called. It is not buffered so no data is lost when switching
+   * to the event loop.
+   */
+  InputStream getInputStream() {
+    return inputStream;
+  }
+
+  /**
+   * Blocking stream. Writes are done in the caller thread, waiting for the selector only if the
+   * socket send buffer is full.
+   */
+  OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  /**
+   * Switch to non blocking mode and receive data in the listener. Data already received with the
+   * handshake is given first.
+   */
+  void register(Listener listener) throws IOException {
+    this.listener = listener;
+    channel.configureBlocking(false);
+    // registered without interest so this read task is the only one running
+    eventLoop.register(this);
+    eventLoop.execute(readTask);
+  }
+
+  void close() {
+    if (closed.getAndSet(true)) {
+      return;
+    }
+    try {
+      if (channel != null) channel.close();
+    } catch (IOException e) {
+      Log.e(TAG, "close error", e);
+    }
+    synchronized (writeLock) {
+      writeLock.notifyAll();
+    }
+  }
+
+  boolean isClosed() {
+    return closed.get();
+  }
+
+  // selector thread
+
+  void onRegistered(SelectionKey selectionKey) {
+    this.selectionKey = selectionKey;
+    selectionKey.interestOps(interestOps);
+  }
+
+  void addInterestInSelector(int ops) {
+    interestOps |= ops;
+    if (selectionKey != null && selectionKey.isValid()) {
+      selectionKey.interestOps(interestOps);
+    }
+  }
+
+  void onReady(SelectionKey key, int readyOps) {
+    interestOps &= ~readyOps;
+    key.interestOps(interestOps);
+    if ((readyOps & SelectionKey.OP_READ) != 0) {
+      eventLoop.execute(readTask);
+    }
+    if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+      synchronized (writeLock) {
+        writable = true;
+        writeLock.notifyAll();
+      }
+    }
+  }
+
+  // workers
+
+  private final Runnable readTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        int read;
+        do {
+          read = channel.read(netIn);
+        } while (read > 0 && netIn.hasRemaining());
+        // handshake data requested by the engine is sent with the next write
+        if (sslEngine != null) unwrap();
+        appIn.flip();
+        try {
+          listener.onData(appIn);
+        } finally {
+          appIn.compact();
+        }
+        if (read < 0) {
+          onClosed(null);
+          return;
+        }
+        // a packet bigger than the buffer, the listener can't consume anything until it grows
+        if (!netIn.hasRemaining()) netIn = grow(netIn, netIn.capacity());
+        if (sslEngine == null) {
+          appIn = netIn;
+        } else if (!appIn.hasRemaining()) {
+          appIn = grow(appIn, appIn.capacity());
+        }
+        if (!closed.get()) eventLoop.addInterest(NioChannel.this, SelectionKey.OP_READ);
+      } catch (IOException e) {
+        onClosed(e);
+      } catch (RuntimeException e) {
+        onClosed(new IOException(e.getMessage()));
+      }
+    }
+  };
+
+  private void onClosed(IOException error) {
+    if (closed.get()) {
+      return;
+    }
+    close();
+    listener.onClosed(error);
+  }
+
+  // TLS, unwrap is called by one thread at a time (caller during handshake, then read task) and
+  // wrap with the write lock, SSLEngine allows both at the same time.
+
+  /**
+   * @return bytes of netIn consumed
+   */
+  private int unwrap() throws IOException {
+    int consumed = 0;
+    netIn.flip();
+    try {
+      while (netIn.hasRemaining()) {
+        SSLEngineResult result = sslEngine.unwrap(netIn, appIn);
+        consumed += result.bytesConsumed();
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+          runDelegatedTasks();
+        }
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+          appIn = grow(appIn, sslEngine.getSession().getApplicationBufferSize());
+        } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+          break;
+        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+          throw new EOFException("TLS closed");
+        } else if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+          break;
+        }
+      }
+    } finally {
+      netIn.compact();
+    }
+    return consumed;
+  }
+
+  private void writeTls(ByteBuffer src) throws IOException {
+    synchronized (writeLock) {
+      do {
+        netOut.clear();
+        SSLEngineResult result = sslEngine.wrap(src, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+          netOut = ByteBuffer.allocate(netOut.capacity() + sslEngine.getSession()
+              .getPacketBufferSize());
+          continue;
+        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+          throw new SocketException("TLS closed");
+        }
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+          runDelegatedTasks();
+        }
+        if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+          // the engine is waiting for data of the server (renegotiation), unwrapped by reads
+          waitWriteLock(10);
+          continue;
+        }
+        netOut.flip();
+        writeNet(netOut);
+      } while (src.hasRemaining());
+    }
+  }
+
+  private void runDelegatedTasks() {
+    Runnable task;
+    while ((task = sslEngine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+  private static ByteBuffer grow(ByteBuffer buffer, int increment) {
+    ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() + increment);
+    buffer.flip();
+    newBuffer.put(buffer);
+    return newBuffer;
+  }
+
+  // blocking I/O
+
+  private int readNet() throws IOException {
+    if (!netIn.hasRemaining()) {
+      netIn = grow(netIn, netIn.capacity());
+      if (sslEngine == null) appIn = netIn;
+    }
+    return channel.read(netIn);
+  }
+
+  private void writeNet(ByteBuffer buffer) throws IOException {
+    boolean interrupted = false;
+    synchronized (writeLock) {
+      while (buffer.hasRemaining()) {
+        if (closed.get()) {
+          throw new SocketException("Socket closed");
+        }
+        if (channel.write(buffer) == 0) {
+          // send buffer full, wait for the selector like a blocking socket would
+          writable = false;
+          eventLoop.addInterest(this, SelectionKey.OP_WRITE);
+          while (!writable && !closed.get()) {
+            interrupted |= waitWriteLock(100);
+          }
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return true if interrupted, the interruption is delayed until the write ends like a socket.
+   */
+  private boolean waitWriteLock(long timeout) {
+    try {
+      writeLock.wait(timeout);
+      return false;
+    } catch (InterruptedException e) {
+      return true;
+    }
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    if (sslEngine != null) {
+      writeTls(buffer);
+    } else {
+      writeNet(buffer);
+    }
+  }
+
+  private class ChannelInputStream extends InputStream {
+
+    private final byte[] single = new byte[1];
+
+    @Override
+    public int read() throws IOException {
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (appIn.position() == 0) {
+        if (readNet() < 0) {
+          return -1;
+        }
+        if (sslEngine != null) unwrap();
+      }
+      appIn.flip();
+      int length = Math.min(len, appIn.remaining());
+      appIn.get(b, off, length);
+      appIn.compact();
+      return length;
+    }
+  }
+
+  private class ChannelOutputStream extends OutputStream {
+
+    private final byte[] single = new byte[1];
+
+    @Override
+    public void write(int b) throws IOException {
+      single[0] = (byte) b;
+      write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      synchronized (writeLock) {
+        // BufferedOutputStream always writes its own array, wrap it only once
+        if (b != lastWriteArray) {
+          lastWriteArray = b;
+          lastWriteBuffer = ByteBuffer.wrap(b);
+        }
+        lastWriteBuffer.limit(off + len).position(off);
+        NioChannel.this.write(lastWriteBuffer);
+      }
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package com.github.faucamp.simplertmp.io;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Reusable input stream over the reassembled bytes of a chunk stream.
+ * It doesn't copy the data so it is only valid until the next chunk of the same chunk stream is
+ * stored (or until the receive buffer of a NioChannel is compacted).
+ */
+class PacketBufferInputStream extends ByteArrayInputStream {
+
+  PacketBufferInputStream() {
+    super(new byte[0]);
+  }
+
+  /** Points this stream to the first <code>length</code> bytes of <code>data</code> */
+  void wrap(byte[] data, int length) {
+    buf = data;
+    pos = 0;
+    mark = 0;
+    count = length;
+  }
+
+  /** Points this stream to <code>length</code> bytes of <code>data</code> from <code>offset</code> */
+  void wrap(byte[] data, int offset, int length) {
+    buf = data;
+    pos = offset;
+    mark = offset;
+    count = offset + length;
+  }
+}
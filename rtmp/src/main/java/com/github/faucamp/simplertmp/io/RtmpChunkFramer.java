@@ -0,0 +1,64 @@
+package com.github.faucamp.simplertmp.io;
+
+import com.github.faucamp.simplertmp.packets.RtmpHeader;
+import java.io.IOException;
+
+/**
+ * Find if the next RTMP chunk is complete in a receive buffer without consuming it, so the
+ * blocking RtmpDecoder can be used from a NioChannel without waiting for more data in the middle
+ * of a chunk. It follows the same rules as RtmpHeader.readHeader and RtmpDecoder.
+ */
+final class RtmpChunkFramer {
+
+  // message header size of chunk types 0, 1, 2 and 3
+  private static final int[] MESSAGE_HEADER_SIZE = { 11, 7, 3, 0 };
+
+  private RtmpChunkFramer() {
+  }
+
+  /**
+   * @return length of the next chunk or -1 if it is not complete in data.
+   */
+  static int nextChunkLength(byte[] data, int offset, int length, RtmpSessionInfo rtmpSessionInfo)
+      throws IOException {
+    if (length < 1) {
+      return -1;
+    }
+    int basicHeader = data[offset] & 0xff;
+    int chunkType = basicHeader >>> 6;
+    int chunkStreamId = basicHeader & 0x3F;
+    int headerLength = 1 + MESSAGE_HEADER_SIZE[chunkType];
+    if (length < headerLength) {
+      return -1;
+    }
+    ChunkStreamInfo chunkStreamInfo = rtmpSessionInfo.getChunkStreamInfo(chunkStreamId);
+    RtmpHeader prevHeader = chunkStreamInfo.prevHeaderRx();
+    int packetLength;
+    boolean extendedTimestamp;
+    if (chunkType == 0 || chunkType == 1) {
+      extendedTimestamp = readUnsignedInt24(data, offset + 1) >= 0xffffff;
+      packetLength = readUnsignedInt24(data, offset + 4);
+    } else if (prevHeader == null) {
+      throw new IOException("Chunk type " + chunkType + " without previous header");
+    } else if (chunkType == 2) {
+      extendedTimestamp = readUnsignedInt24(data, offset + 1) >= 0xffffff;
+      packetLength = prevHeader.getPacketLength();
+    } else {
+      extendedTimestamp = prevHeader.getTimestampDelta() >= 0xffffff;
+      packetLength = prevHeader.getPacketLength();
+    }
+    if (extendedTimestamp) {
+      headerLength += 4;
+    }
+    int chunkSize = rtmpSessionInfo.getRxChunkSize();
+    int payloadLength = packetLength > chunkSize ? Math.min(
+        packetLength - chunkStreamInfo.getStoredBytes(), chunkSize) : packetLength;
+    int chunkLength = headerLength + payloadLength;
+    return chunkLength <= length ? chunkLength : -1;
+  }
+
+  private static int readUnsignedInt24(byte[] data, int offset) {
+    return ((data[offset] & 0xff) << 16) | ((data[offset + 1] & 0xff) << 8) | (data[offset + 2]
+        & 0xff);
+  }
+}
@@ -10,6 +10,7 @@ import com.github.faucamp.simplertmp.amf.AmfNumber;
 import com.github.faucamp.simplertmp.amf.AmfObject;
 import com.github.faucamp.simplertmp.amf.AmfString;
 import com.github.faucamp.simplertmp.packets.Abort;
+import com.github.faucamp.simplertmp.packets.Acknowledgement;
 import com.github.faucamp.simplertmp.packets.Audio;
 import com.github.faucamp.simplertmp.packets.Command;
 import com.github.faucamp.simplertmp.packets.Data;
@@ -25,16 +26,22 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import net.ossrs.rtmp.BitrateManager;
 import net.ossrs.rtmp.ConnectCheckerRtmp;
+import net.ossrs.rtmp.ConnectTiming;
 import net.ossrs.rtmp.CreateSSLSocket;
+import net.ossrs.rtmp.RttEstimator;
+import net.ossrs.rtmp.UplinkEstimator;
 
 /**
  * Main RTMP connection implementation class
@@ -46,26 +53,43 @@ public class RtmpConnection implements RtmpPublisher {
   private static final String TAG = "RtmpConnection";
   private static final Pattern rtmpUrlPattern =
       Pattern.compile("^rtmps?://([^/:]+)(?::(\\d+))*/([^/]+)/?([^*]*)$");
+  //rtt probes, ping is tried first, then a command, then only the connect sample is used
+  private static final int PROBE_PING = 0;
+  private static final int PROBE_COMMAND = 1;
+  private static final int PROBE_DISABLED = 2;
+  private static final int PROBE_MAX_UNANSWERED = 3;
+  private static final long PROBE_TIMEOUT_NS = 5000000000L;
+  private static final long MIN_PROBE_INTERVAL_MS = 500;
+  private static final long MAX_PROBE_INTERVAL_MS = 60000;
 
   private int port;
   private String host;
   private String appName;
   private String streamName;
-  private String publishType;
+  private volatile String publishType;
   private String swfUrl;
   private String tcUrl;
   private String pageUrl;
   private Socket socket;
   private RtmpSessionInfo rtmpSessionInfo;
   private RtmpDecoder rtmpDecoder;
-  private BufferedInputStream inputStream;
+  private InputStream inputStream;
   private BufferedOutputStream outputStream;
+  private CountingOutputStream socketOutputStream;
   private Thread rxPacketHandler;
+  //null to use a blocking socket with its own rx thread
+  private RtmpEventLoop eventLoop;
+  private NioChannel nioChannel;
+  private final PacketBufferInputStream chunkInputStream = new PacketBufferInputStream();
   private volatile boolean connected = false;
   private volatile boolean publishPermitted = false;
   private final Object connectingLock = new Object();
   private final Object publishLock = new Object();
-  private int currentStreamId = 0;
+  private volatile boolean connectFinished = false;
+  // work of the rx path that writes or connects. With an event loop it is run by the publisher
+  // thread (connect, publish and media calls) so a full socket never blocks a shared worker.
+  private final ConcurrentLinkedQueue<Runnable> callerTasks = new ConcurrentLinkedQueue<>();
+  private volatile int currentStreamId = 0;
   private int transactionIdCounter = 0;
   private int videoWidth;
   private int videoHeight;
@@ -81,12 +105,81 @@ public class RtmpConnection implements RtmpPublisher {
   private boolean onAuth = false;
   private String netConnectionDescription;
   private BitrateManager bitrateManager;
+  private UplinkEstimator uplinkEstimator = new UplinkEstimator();
+  private ConnectTiming connectTiming = new ConnectTiming();
+  //for fast start
+  private boolean fastStart = false;
+  private boolean fastStartRejected = false;
+  private volatile boolean pipelined = false;
+  private volatile boolean pipelineRejected = false;
+  private final AtomicBoolean publishSent = new AtomicBoolean(false);
+  //for rtt
+  private RttEstimator rttEstimator = new RttEstimator();
+  private long rttProbeIntervalNs = 2000000000L;
+  private long connectSentTime;
+  private long lastProbeTime;
+  private int probeMode = PROBE_PING;
+  private int unansweredProbes;
+  private volatile boolean probeOutstanding = false;
+  private volatile int probeValue;
+  private volatile long probeSentTime;
 
   public RtmpConnection(ConnectCheckerRtmp connectCheckerRtmp) {
     this.connectCheckerRtmp = connectCheckerRtmp;
     bitrateManager = new BitrateManager(connectCheckerRtmp);
   }
 
+  /**
+   * @return socket level estimation of the uplink of this connection.
+   */
+  public UplinkEstimator getUplinkEstimator() {
+    return uplinkEstimator;
+  }
+
+  /**
+   * @return duration of each phase of the last connection.
+   */
+  public ConnectTiming getConnectTiming() {
+    return connectTiming;
+  }
+
+  /**
+   * Send connect, releaseStream, FCPublish and createStream without waiting for each result and
+   * publish as soon as the stream id is received. It saves a round trip on every connection.
+   * If the server doesn't accept it, the sequential flow is used for that and the next
+   * connections. Ignored with authorization because adobe auth needs the connect reply.
+   */
+  public void setFastStart(boolean enabled) {
+    fastStart = enabled;
+    fastStartRejected = false;
+  }
+
+  /**
+   * Use an event loop shared with other connections instead of a blocking socket with a rx thread
+   * per connection. Applied in the next connect. Null to use a blocking socket (default).
+   */
+  public void setEventLoop(RtmpEventLoop eventLoop) {
+    this.eventLoop = eventLoop;
+  }
+
+  /**
+   * @return smoothed round trip time and variance of this connection.
+   */
+  public RttEstimator getRttEstimator() {
+    return rttEstimator;
+  }
+
+  /**
+   * Set how often the round trip time is measured while publishing. Each probe is a ping of less
+   * than 20 bytes (or a small command if the server doesn't answer pings).
+   *
+   * @param interval in ms, bounded to 500-60000. 2000 by default.
+   */
+  public void setRttProbeInterval(long interval) {
+    interval = Math.max(MIN_PROBE_INTERVAL_MS, Math.min(MAX_PROBE_INTERVAL_MS, interval));
+    rttProbeIntervalNs = interval * 1000000;
+  }
+
   private void handshake(InputStream in, OutputStream out) throws IOException {
     Handshake handshake = new Handshake();
     handshake.writeC0(out);
@@ -146,37 +239,86 @@ public class RtmpConnection implements RtmpPublisher {
         + streamName);
     rtmpSessionInfo = new RtmpSessionInfo();
     rtmpDecoder = new RtmpDecoder(rtmpSessionInfo);
+    connectTiming.reset();
+    rttEstimator.reset();
+    probeMode = PROBE_PING;
+    unansweredProbes = 0;
+    probeOutstanding = false;
+    lastProbeTime = System.nanoTime();
     try {
-      if (!tlsEnabled) {
-        socket = new Socket();
-        SocketAddress socketAddress = new InetSocketAddress(host, port);
-        socket.connect(socketAddress, 5000);
-      } else {
-        socket = CreateSSLSocket.createSSlSocket(host, port);
-        if (socket == null) throw new IOException("Socket creation failed");
-      }
-      inputStream = new BufferedInputStream(socket.getInputStream());
-      outputStream = new BufferedOutputStream(socket.getOutputStream());
-      Log.d(TAG, "connect(): socket connection established, doing handhake...");
-      handshake(inputStream, outputStream);
-      Log.d(TAG, "connect(): handshake done");
+      openConnection();
+      // the handshake bytes are acknowledged by the server too
+      uplinkEstimator.reset(socketOutputStream.getCount());
+      startRx();
     } catch (IOException e) {
       Log.e(TAG, "Error", e);
+      shutdown(false);
       connectCheckerRtmp.onConnectionFailedRtmp("Connect error, " + e.getMessage());
       return false;
     }
+    return rtmpConnect();
+  }
 
-    // Start the "main" handling thread
-    rxPacketHandler = new Thread(new Runnable() {
-
-      @Override
-      public void run() {
-        Log.d(TAG, "starting main rx handler loop");
-        handleRxPacketLoop();
+  /**
+   * Socket connection, TLS and RTMP handshake, done in the caller thread in both modes.
+   */
+  private void openConnection() throws IOException {
+    InetAddress address = InetAddress.getByName(host);
+    connectTiming.onDnsResolved();
+    if (eventLoop == null) {
+      socket = new Socket();
+      // pipelined commands would wait for the ack of the previous segment with Nagle
+      socket.setTcpNoDelay(fastStart);
+      socket.connect(new InetSocketAddress(address, port), 5000);
+      connectTiming.onTcpConnected();
+      if (tlsEnabled) {
+        Socket sslSocket = CreateSSLSocket.createSSlSocket(socket, host, port);
+        if (sslSocket == null) {
+          socket.close();
+          throw new IOException("Socket creation failed");
+        }
+        socket = sslSocket;
+        connectTiming.onTlsDone();
       }
-    });
-    rxPacketHandler.start();
-    return rtmpConnect();
+      inputStream = new BufferedInputStream(socket.getInputStream());
+      socketOutputStream = new CountingOutputStream(socket.getOutputStream());
+    } else {
+      nioChannel = new NioChannel(eventLoop);
+      nioChannel.connect(address, port, 5000);
+      socket = nioChannel.socket();
+      socket.setTcpNoDelay(fastStart);
+      connectTiming.onTcpConnected();
+      if (tlsEnabled) {
+        nioChannel.startTls(host, port);
+        connectTiming.onTlsDone();
+      }
+      // not buffered, bytes read after the handshake would be lost for the event loop
+      inputStream = nioChannel.getInputStream();
+      socketOutputStream = new CountingOutputStream(nioChannel.getOutputStream());
+    }
+    outputStream = new BufferedOutputStream(socketOutputStream);
+    Log.d(TAG, "connect(): socket connection established, doing handhake...");
+    handshake(inputStream, outputStream);
+    connectTiming.onHandshakeDone();
+    Log.d(TAG, "connect(): handshake done");
+  }
+
+  private void startRx() throws IOException {
+    if (nioChannel != null) {
+      Log.d(TAG, "registering connection in event loop");
+      nioChannel.register(new RxListener(nioChannel));
+    } else {
+      // Start the "main" handling thread
+      rxPacketHandler = new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          Log.d(TAG, "starting main rx handler loop");
+          handleRxPacketLoop();
+        }
+      });
+      rxPacketHandler.start();
+    }
   }
 
   private boolean rtmpConnect() {
@@ -185,19 +327,39 @@ public class RtmpConnection implements RtmpPublisher {
       return false;
     }
 
+    pipelined = fastStart && !fastStartRejected && user == null;
+    pipelineRejected = false;
+    connectFinished = false;
+    publishSent.set(false);
+    connectTiming.setPipelined(pipelined);
     if (user != null && password != null) {
       sendConnect("?authmod=adobe&user=" + user);
     } else {
       sendConnect("");
     }
-    synchronized (connectingLock) {
+    if (pipelined) {
+      // same round trip as connect, publish type is not needed until the stream id is received
+      sendCreateStream();
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!connectFinished) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) break;
       try {
-        connectingLock.wait(5000);
+        synchronized (connectingLock) {
+          if (!connectFinished && callerTasks.isEmpty()) connectingLock.wait(remaining);
+        }
       } catch (InterruptedException ex) {
-        // do nothing
+        break;
       }
+      runCallerTasks();
     }
     if (!connected) {
+      if (pipelined) {
+        // maybe the server closed the connection because of the pipelined commands
+        Log.w(TAG, "rtmpConnect(): pipelined connect failed, next connections will be sequential");
+        fastStartRejected = true;
+      }
       shutdown(true);
       connectCheckerRtmp.onConnectionFailedRtmp("Fail to connect, time out");
     }
@@ -224,6 +386,7 @@ public class RtmpConnection implements RtmpPublisher {
     args.setProperty("pageUrl", pageUrl);
     args.setProperty("objectEncoding", 0);
     invoke.addData(args);
+    connectSentTime = System.nanoTime();
     sendRtmpPacket(invoke);
   }
 
@@ -252,6 +415,9 @@ public class RtmpConnection implements RtmpPublisher {
       return false;
     }
     publishType = type;
+    if (pipelined) {
+      return pipelinedPublish();
+    }
     return createStream();
   }
 
@@ -261,6 +427,55 @@ public class RtmpConnection implements RtmpPublisher {
           "Create stream failed, connected= " + connected + ", StreamId= " + currentStreamId);
       return false;
     }
+    sendCreateStream();
+    return waitPublishPermitted();
+  }
+
+  /**
+   * createStream was sent with connect. Wait for the stream id and fallback to the sequential
+   * flow if the server rejected or ignored it.
+   */
+  private boolean pipelinedPublish() {
+    if (!connected) {
+      connectCheckerRtmp.onConnectionFailedRtmp("Create stream failed, connected= false");
+      return false;
+    }
+    // the stream id could be received before the publish type was known
+    tryPublish();
+    // the server answers in order so createStream result should be right after connect result
+    long timeout = Math.max(1000, 3 * connectTiming.getConnectMs());
+    long deadline = System.currentTimeMillis() + timeout;
+    while (isStreamCreatePending()) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) break;
+      try {
+        synchronized (publishLock) {
+          if (isStreamCreatePending() && callerTasks.isEmpty()) publishLock.wait(remaining);
+        }
+      } catch (InterruptedException ex) {
+        break;
+      }
+      runCallerTasks();
+    }
+    if (currentStreamId == 0 && netConnectionDescription == null) {
+      Log.w(TAG, "pipelinedPublish(): createStream not accepted, fallback to sequential flow");
+      fastStartRejected = true;
+      pipelined = false;
+      connectTiming.setPipelined(false);
+      return createStream();
+    }
+    return waitPublishPermitted();
+  }
+
+  private boolean isStreamCreatePending() {
+    return currentStreamId == 0 && !pipelineRejected && netConnectionDescription == null;
+  }
+
+  private boolean isPublishPending() {
+    return !publishPermitted && netConnectionDescription == null;
+  }
+
+  private void sendCreateStream() {
     netConnectionDescription = null;
 
     Log.d(TAG, "createStream(): Sending releaseStream command...");
@@ -286,15 +501,25 @@ public class RtmpConnection implements RtmpPublisher {
     Command createStream = new Command("createStream", ++transactionIdCounter, chunkStreamInfo);
     createStream.addData(new AmfNull());  // command object: null for "createStream"
     sendRtmpPacket(createStream);
+  }
 
+  private boolean waitPublishPermitted() {
     // Waiting for "NetStream.Publish.Start" response.
-    synchronized (publishLock) {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (isPublishPending()) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) break;
       try {
-        publishLock.wait(5000);
+        synchronized (publishLock) {
+          if (isPublishPending() && callerTasks.isEmpty()) publishLock.wait(remaining);
+        }
       } catch (InterruptedException ex) {
-        // do nothing
+        break;
       }
+      runCallerTasks();
     }
+    // onMetaData is queued before publish is permitted, send it before the first media
+    runCallerTasks();
     if (!publishPermitted) {
       shutdown(true);
       if (netConnectionDescription != null && !netConnectionDescription.isEmpty()) {
@@ -307,6 +532,18 @@ public class RtmpConnection implements RtmpPublisher {
     return publishPermitted;
   }
 
+  /**
+   * Publish once both the stream id and the publish type are known, whatever comes first.
+   */
+  private void tryPublish() {
+    if (streamName != null
+        && publishType != null
+        && currentStreamId != 0
+        && publishSent.compareAndSet(false, true)) {
+      fmlePublish();
+    }
+  }
+
   private void fmlePublish() {
     if (!connected || currentStreamId == 0) {
       Log.e(TAG, "fmlePublish failed");
@@ -377,7 +614,12 @@ public class RtmpConnection implements RtmpPublisher {
   }
 
   private synchronized void shutdown(boolean r) {
-    if (socket != null) {
+    if (nioChannel != null) {
+      // no rx thread, the event loop stops reading a closed channel
+      nioChannel.close();
+      nioChannel = null;
+      Log.d(TAG, "channel closed");
+    } else if (socket != null) {
       try {
         // It will raise EOFException in handleRxPacketThread
         socket.shutdownInput();
@@ -424,7 +666,12 @@ public class RtmpConnection implements RtmpPublisher {
     publishType = null;
     currentStreamId = 0;
     transactionIdCounter = 0;
+    pipelined = false;
+    pipelineRejected = false;
+    publishSent.set(false);
+    callerTasks.clear();
     socket = null;
+    nioChannel = null;
     rtmpSessionInfo = null;
     user = null;
     password = null;
@@ -435,6 +682,7 @@ public class RtmpConnection implements RtmpPublisher {
 
   @Override
   public void publishAudioData(byte[] data, int size, int dts) {
+    runCallerTasks();
     if (data == null
         || data.length == 0
         || dts < 0
@@ -450,10 +698,12 @@ public class RtmpConnection implements RtmpPublisher {
     sendRtmpPacket(audio);
     //bytes to bits
     bitrateManager.calculateBitrate(size * 8);
+    probeRtt();
   }
 
   @Override
   public void publishVideoData(byte[] data, int size, int dts) {
+    runCallerTasks();
     if (data == null
         || data.length == 0
         || dts < 0
@@ -469,6 +719,61 @@ public class RtmpConnection implements RtmpPublisher {
     sendRtmpPacket(video);
     //bytes to bits
     bitrateManager.calculateBitrate(size * 8);
+    probeRtt();
+  }
+
+  /**
+   * Called from the publishing thread after each media packet, so no thread or timer is needed
+   * and no probe is sent while not publishing. Only one probe is outstanding at a time.
+   */
+  private void probeRtt() {
+    long now = System.nanoTime();
+    if (probeMode == PROBE_DISABLED || now - lastProbeTime < rttProbeIntervalNs) {
+      return;
+    }
+    lastProbeTime = now;
+    if (probeOutstanding) {
+      if (now - probeSentTime < PROBE_TIMEOUT_NS) {
+        return;
+      }
+      probeOutstanding = false;
+      if (++unansweredProbes >= PROBE_MAX_UNANSWERED) {
+        probeMode++;
+        unansweredProbes = 0;
+        Log.w(TAG, "probeRtt(): no answer to probes, mode changed to " + probeMode);
+        if (probeMode == PROBE_DISABLED) return;
+      }
+    }
+    if (probeMode == PROBE_PING) {
+      ChunkStreamInfo channelInfo =
+          rtmpSessionInfo.getChunkStreamInfo(ChunkStreamInfo.RTMP_CID_PROTOCOL_CONTROL);
+      UserControl ping = new UserControl(UserControl.Type.PING_REQUEST, channelInfo);
+      probeValue = (int) (now / 1000000);
+      ping.setEventData(probeValue);
+      probeSentTime = now;
+      probeOutstanding = true;
+      sendRtmpPacket(ping);
+    } else {
+      // answered with _result or _error depending of the server, both are fine
+      Command checkBw = new Command("_checkbw", ++transactionIdCounter);
+      checkBw.addData(new AmfNull());
+      probeValue = checkBw.getTransactionId();
+      probeSentTime = now;
+      probeOutstanding = true;
+      sendRtmpPacket(checkBw);
+    }
+  }
+
+  private void onProbeAnswered() {
+    probeOutstanding = false;
+    unansweredProbes = 0;
+    onRttSample(System.nanoTime() - probeSentTime);
+  }
+
+  private void onRttSample(long elapsedNs) {
+    rttEstimator.onRttSample(elapsedNs / 1000000.0);
+    connectCheckerRtmp.onNewRttRtmp(rttEstimator.getSmoothedRtt(),
+        rttEstimator.getRttVariance());
   }
 
   private void sendRtmpPacket(RtmpPacket rtmpPacket) {
@@ -480,6 +785,8 @@ public class RtmpConnection implements RtmpPublisher {
         rtmpPacket.getHeader()
             .setAbsoluteTimestamp((int) chunkStreamInfo.markAbsoluteTimestampTx());
       }
+      long writtenBytes = socketOutputStream.getCount();
+      long writeStart = System.nanoTime();
       rtmpPacket.writeTo(outputStream, rtmpSessionInfo.getTxChunkSize(), chunkStreamInfo);
       Log.d(TAG,
           "wrote packet: " + rtmpPacket + ", size: " + rtmpPacket.getHeader().getPacketLength());
@@ -488,6 +795,9 @@ public class RtmpConnection implements RtmpPublisher {
             ((Command) rtmpPacket).getCommandName());
       }
       outputStream.flush();
+      // time blocked in the socket and bytes that really reached it
+      uplinkEstimator.onBytesWritten(socketOutputStream.getCount() - writtenBytes,
+          System.nanoTime() - writeStart);
     } catch (IOException ioe) {
       connectCheckerRtmp.onConnectionFailedRtmp("Error send packet: " + ioe.getMessage());
       Log.e(TAG, "Caught IOException during write loop, shutting down: " + ioe.getMessage());
@@ -495,6 +805,40 @@ public class RtmpConnection implements RtmpPublisher {
     }
   }
 
+  /**
+   * Run work of the rx path that writes to the socket or connects. The blocking socket has its
+   * own rx thread so it is run there. With an event loop it is queued for the publisher thread,
+   * a reply waiting for a full send buffer would stop the reads of every connection of the
+   * worker.
+   */
+  private void runInCaller(Runnable task) {
+    if (nioChannel == null) {
+      task.run();
+      return;
+    }
+    callerTasks.add(task);
+    synchronized (connectingLock) {
+      connectingLock.notifyAll();
+    }
+    synchronized (publishLock) {
+      publishLock.notifyAll();
+    }
+  }
+
+  private void runCallerTasks() {
+    Runnable task;
+    while ((task = callerTasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  private void notifyConnectFinished() {
+    connectFinished = true;
+    synchronized (connectingLock) {
+      connectingLock.notifyAll();
+    }
+  }
+
   private void handleRxPacketLoop() {
     // Handle all queued received RTMP packets
     while (!Thread.interrupted()) {
@@ -502,57 +846,7 @@ public class RtmpConnection implements RtmpPublisher {
         // It will be blocked when no data in input stream buffer
         RtmpPacket rtmpPacket = rtmpDecoder.readPacket(inputStream);
         if (rtmpPacket != null) {
-          //Log.d(TAG, "handleRxPacketLoop(): RTMP rx packet message type: " + rtmpPacket.getHeader().getMessageType());
-          switch (rtmpPacket.getHeader().getMessageType()) {
-            case ABORT:
-              rtmpSessionInfo.getChunkStreamInfo(((Abort) rtmpPacket).getChunkStreamId())
-                  .clearStoredChunks();
-              break;
-            case USER_CONTROL_MESSAGE:
-              UserControl user = (UserControl) rtmpPacket;
-              switch (user.getType()) {
-                case STREAM_BEGIN:
-                  break;
-                case PING_REQUEST:
-                  ChunkStreamInfo channelInfo =
-                      rtmpSessionInfo.getChunkStreamInfo(ChunkStreamInfo.RTMP_CID_PROTOCOL_CONTROL);
-                  Log.d(TAG, "handleRxPacketLoop(): Sending PONG reply..");
-                  UserControl pong = new UserControl(user, channelInfo);
-                  sendRtmpPacket(pong);
-                  break;
-                case STREAM_EOF:
-                  Log.i(TAG, "handleRxPacketLoop(): Stream EOF reached, closing RTMP writer...");
-                  break;
-                default:
-                  // Ignore...
-                  break;
-              }
-              break;
-            case WINDOW_ACKNOWLEDGEMENT_SIZE:
-              WindowAckSize windowAckSize = (WindowAckSize) rtmpPacket;
-              int size = windowAckSize.getAcknowledgementWindowSize();
-              Log.d(TAG, "handleRxPacketLoop(): Setting acknowledgement window size: " + size);
-              rtmpSessionInfo.setAcknowledgmentWindowSize(size);
-              break;
-            case SET_PEER_BANDWIDTH:
-              rtmpSessionInfo.setAcknowledgmentWindowSize(socket.getSendBufferSize());
-              int acknowledgementWindowsize = rtmpSessionInfo.getAcknowledgementWindowSize();
-              ChunkStreamInfo chunkStreamInfo =
-                  rtmpSessionInfo.getChunkStreamInfo(ChunkStreamInfo.RTMP_CID_PROTOCOL_CONTROL);
-              Log.d(TAG, "handleRxPacketLoop(): Send acknowledgement window size: "
-                  + acknowledgementWindowsize);
-              sendRtmpPacket(new WindowAckSize(acknowledgementWindowsize, chunkStreamInfo));
-              // Set socket option. This line could produce bps calculation problems.
-              socket.setSendBufferSize(acknowledgementWindowsize);
-              break;
-            case COMMAND_AMF0:
-              handleRxInvoke((Command) rtmpPacket);
-              break;
-            default:
-              Log.w(TAG, "handleRxPacketLoop(): Not handling unimplemented/unknown packet of type: "
-                  + rtmpPacket.getHeader().getMessageType());
-              break;
-          }
+          handleRxPacket(rtmpPacket);
         }
       } catch (EOFException eof) {
         Thread.currentThread().interrupt();
@@ -565,10 +859,152 @@ public class RtmpConnection implements RtmpPublisher {
     }
   }
 
+  private void handleRxPacket(RtmpPacket rtmpPacket) throws IOException {
+    //Log.d(TAG, "handleRxPacketLoop(): RTMP rx packet message type: " + rtmpPacket.getHeader().getMessageType());
+    switch (rtmpPacket.getHeader().getMessageType()) {
+      case ABORT:
+        rtmpSessionInfo.getChunkStreamInfo(((Abort) rtmpPacket).getChunkStreamId())
+            .clearStoredChunks();
+        break;
+      case USER_CONTROL_MESSAGE:
+        UserControl user = (UserControl) rtmpPacket;
+        switch (user.getType()) {
+          case STREAM_BEGIN:
+            break;
+          case PING_REQUEST:
+            ChunkStreamInfo channelInfo =
+                rtmpSessionInfo.getChunkStreamInfo(ChunkStreamInfo.RTMP_CID_PROTOCOL_CONTROL);
+            Log.d(TAG, "handleRxPacketLoop(): Sending PONG reply..");
+            final UserControl pong = new UserControl(user, channelInfo);
+            runInCaller(new Runnable() {
+              @Override
+              public void run() {
+                sendRtmpPacket(pong);
+              }
+            });
+            break;
+          case PONG_REPLY:
+            if (probeMode == PROBE_PING
+                && probeOutstanding
+                && user.getFirstEventData() == probeValue) {
+              onProbeAnswered();
+            }
+            break;
+          case STREAM_EOF:
+            Log.i(TAG, "handleRxPacketLoop(): Stream EOF reached, closing RTMP writer...");
+            break;
+          default:
+            // Ignore...
+            break;
+        }
+        break;
+      case WINDOW_ACKNOWLEDGEMENT_SIZE:
+        WindowAckSize windowAckSize = (WindowAckSize) rtmpPacket;
+        int size = windowAckSize.getAcknowledgementWindowSize();
+        Log.d(TAG, "handleRxPacketLoop(): Setting acknowledgement window size: " + size);
+        rtmpSessionInfo.setAcknowledgmentWindowSize(size);
+        break;
+      case SET_PEER_BANDWIDTH:
+        rtmpSessionInfo.setAcknowledgmentWindowSize(socket.getSendBufferSize());
+        int acknowledgementWindowsize = rtmpSessionInfo.getAcknowledgementWindowSize();
+        ChunkStreamInfo chunkStreamInfo =
+            rtmpSessionInfo.getChunkStreamInfo(ChunkStreamInfo.RTMP_CID_PROTOCOL_CONTROL);
+        Log.d(TAG, "handleRxPacketLoop(): Send acknowledgement window size: "
+            + acknowledgementWindowsize);
+        final WindowAckSize windowAck =
+            new WindowAckSize(acknowledgementWindowsize, chunkStreamInfo);
+        runInCaller(new Runnable() {
+          @Override
+          public void run() {
+            sendRtmpPacket(windowAck);
+          }
+        });
+        // Set socket option. This line could produce bps calculation problems.
+        socket.setSendBufferSize(acknowledgementWindowsize);
+        break;
+      case ACKNOWLEDGEMENT:
+        uplinkEstimator.onAcknowledgement(((Acknowledgement) rtmpPacket).getSequenceNumber());
+        break;
+      case COMMAND_AMF0:
+        handleRxInvoke((Command) rtmpPacket);
+        break;
+      default:
+        Log.w(TAG, "handleRxPacketLoop(): Not handling unimplemented/unknown packet of type: "
+            + rtmpPacket.getHeader().getMessageType());
+        break;
+    }
+  }
+
+  /**
+   * Receive packets in the event loop. Only complete chunks are given to the decoder so it never
+   * blocks a worker waiting for data. Replies are sent with runInCaller.
+   */
+  private class RxListener implements NioChannel.Listener {
+
+    private final NioChannel channel;
+
+    RxListener(NioChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void onData(ByteBuffer data) throws IOException {
+      byte[] array = data.array();
+      // the channel is replaced on reconnection (auth), the old one could still have data
+      while (channel == nioChannel && data.hasRemaining()) {
+        int offset = data.arrayOffset() + data.position();
+        int length =
+            RtmpChunkFramer.nextChunkLength(array, offset, data.remaining(), rtmpSessionInfo);
+        if (length < 0) {
+          return;
+        }
+        chunkInputStream.wrap(array, offset, length);
+        RtmpPacket rtmpPacket = rtmpDecoder.readPacket(chunkInputStream);
+        data.position(data.position() + length);
+        if (rtmpPacket != null) {
+          handleRxPacket(rtmpPacket);
+        }
+      }
+    }
+
+    @Override
+    public void onClosed(IOException error) {
+      if (error != null && channel == nioChannel) {
+        connectCheckerRtmp.onConnectionFailedRtmp("Error reading packet: " + error.getMessage());
+        Log.e(TAG, "Caught exception while reading/decoding packet, shutting down: "
+            + error.getMessage());
+      }
+    }
+  }
+
   private void handleRxInvoke(Command invoke) {
     String commandName = invoke.getCommandName();
+    if (("_result".equals(commandName) || "_error".equals(commandName))
+        && "_checkbw".equals(rtmpSessionInfo.getInvokedCommand(invoke.getTransactionId()))) {
+      // answer of a rtt probe, servers without _checkbw answer _error and it is not a failure.
+      // Late answers of timed out probes are discarded too.
+      rtmpSessionInfo.takeInvokedCommand(invoke.getTransactionId());
+      if (probeOutstanding && invoke.getTransactionId() == probeValue) {
+        onProbeAnswered();
+      }
+      return;
+    }
     switch (commandName) {
       case "_error":
+        if (pipelined) {
+          // connect errors are handled as usual, auth is never pipelined
+          String method = rtmpSessionInfo.takeInvokedCommand(invoke.getTransactionId());
+          if (!"connect".equals(method)) {
+            Log.w(TAG, "handleRxInvoke(): pipelined '" + method + "' rejected");
+            if ("createStream".equals(method)) {
+              pipelineRejected = true;
+              synchronized (publishLock) {
+                publishLock.notifyAll();
+              }
+            }
+            break;
+          }
+        }
         try {
           String description = ((AmfString) ((AmfObject) invoke.getData().get(1)).getProperty(
               "description")).getValue();
@@ -576,61 +1012,35 @@ public class RtmpConnection implements RtmpPublisher {
           if (description.contains("reason=authfailed")) {
             connectCheckerRtmp.onAuthErrorRtmp();
             connected = false;
-            synchronized (connectingLock) {
-              connectingLock.notifyAll();
-            }
+            notifyConnectFinished();
           } else if (user != null
               && password != null
               && description.contains("challenge=")
               && description.contains("salt=")) {
             onAuth = true;
-            try {
-              shutdown(false);
-            } catch (Exception e) {
-              e.printStackTrace();
-            }
-            rtmpSessionInfo = new RtmpSessionInfo();
-            rtmpDecoder = new RtmpDecoder(rtmpSessionInfo);
-            if (!tlsEnabled) {
-              socket = new Socket(host, port);
-            } else {
-              socket = CreateSSLSocket.createSSlSocket(host, port);
-              if (socket == null) throw new IOException("Socket creation failed");
-            }
-            inputStream = new BufferedInputStream(socket.getInputStream());
-            outputStream = new BufferedOutputStream(socket.getOutputStream());
-            Log.d(TAG, "connect(): socket connection established, doing handshake...");
             salt = Util.getSalt(description);
             challenge = Util.getChallenge(description);
             opaque = Util.getOpaque(description);
-            handshake(inputStream, outputStream);
-            rxPacketHandler = new Thread(new Runnable() {
+            // a new socket, TLS and handshake, never in the rx path of an event loop
+            runInCaller(new Runnable() {
               @Override
               public void run() {
-                handleRxPacketLoop();
+                authReconnect();
               }
             });
-            rxPacketHandler.start();
-            sendConnect(getAuthUserResult(user, password, salt, challenge, opaque));
           } else if (description.contains("code=403") && user == null || password == null) {
             connectCheckerRtmp.onAuthErrorRtmp();
             connected = false;
-            synchronized (connectingLock) {
-              connectingLock.notifyAll();
-            }
+            notifyConnectFinished();
           } else {
             connectCheckerRtmp.onConnectionFailedRtmp(description);
             connected = false;
-            synchronized (connectingLock) {
-              connectingLock.notifyAll();
-            }
+            notifyConnectFinished();
           }
         } catch (Exception e) {
           connectCheckerRtmp.onConnectionFailedRtmp(e.getMessage());
           connected = false;
-          synchronized (connectingLock) {
-            connectingLock.notifyAll();
-          }
+          notifyConnectFinished();
         }
         break;
       case "_result":
@@ -645,16 +1055,26 @@ public class RtmpConnection implements RtmpPublisher {
           }
           // Capture server ip/pid/id information if any
           // We can now send createStream commands
+          connectTiming.onConnected();
+          // first rtt sample, it includes the time processing connect in server
+          onRttSample(System.nanoTime() - connectSentTime);
           connected = true;
-          synchronized (connectingLock) {
-            connectingLock.notifyAll();
-          }
+          notifyConnectFinished();
         } else if ("createStream".contains(method)) {
           // Get stream id
           currentStreamId = (int) ((AmfNumber) invoke.getData().get(1)).getValue();
+          connectTiming.onStreamCreated();
           Log.d(TAG, "handleRxInvoke(): Stream ID to publish: " + currentStreamId);
-          if (streamName != null && publishType != null) {
-            fmlePublish();
+          runInCaller(new Runnable() {
+            @Override
+            public void run() {
+              tryPublish();
+            }
+          });
+          if (pipelined) {
+            synchronized (publishLock) {
+              publishLock.notifyAll();
+            }
           }
         } else if ("releaseStream".contains(method)) {
           Log.d(TAG, "handleRxInvoke(): 'releaseStream'");
@@ -675,7 +1095,14 @@ public class RtmpConnection implements RtmpPublisher {
             ((AmfString) ((AmfObject) invoke.getData().get(1)).getProperty("code")).getValue();
         Log.d(TAG, "handleRxInvoke(): onStatus " + code);
         if (code.equals("NetStream.Publish.Start")) {
-          onMetaData();
+          connectTiming.onPublishStarted();
+          Log.i(TAG, "handleRxInvoke(): " + connectTiming);
+          runInCaller(new Runnable() {
+            @Override
+            public void run() {
+              onMetaData();
+            }
+          });
           // We can now publish AV data
           publishPermitted = true;
           synchronized (publishLock) {
@@ -696,6 +1123,28 @@ public class RtmpConnection implements RtmpPublisher {
     }
   }
 
+  /**
+   * Connect again with the credentials answering the challenge of the server.
+   */
+  private void authReconnect() {
+    try {
+      shutdown(false);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    try {
+      rtmpSessionInfo = new RtmpSessionInfo();
+      rtmpDecoder = new RtmpDecoder(rtmpSessionInfo);
+      openConnection();
+      startRx();
+      sendConnect(getAuthUserResult(user, password, salt, challenge, opaque));
+    } catch (Exception e) {
+      connectCheckerRtmp.onConnectionFailedRtmp(e.getMessage());
+      connected = false;
+      notifyConnectFinished();
+    }
+  }
+
   @Override
   public void setVideoResolution(int width, int height) {
     videoWidth = width;
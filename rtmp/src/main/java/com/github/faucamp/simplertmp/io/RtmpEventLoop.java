@@ -0,0 +1,165 @@
+package com.github.faucamp.simplertmp.io;
+
+import android.util.Log;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One selector thread and a small worker pool shared by many RTMP connections, used instead of a
+ * receive thread per connection. See {@link RtmpConnection#setEventLoop(RtmpEventLoop)}.
+ *
+ * The selector thread only waits for readiness, reads and decoding are done in the worker pool
+ * and writes in the publishing thread of each connection.
+ */
+public class RtmpEventLoop {
+
+  private static final String TAG = "RtmpEventLoop";
+
+  private static RtmpEventLoop defaultEventLoop;
+
+  private final int workers;
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+  private volatile Selector selector;
+  private Thread selectorThread;
+  private volatile ExecutorService workerPool;
+  private volatile boolean running = false;
+
+  /**
+   * @return event loop shared by the whole app, with 2 workers. Its threads are daemon and never
+   * stopped, an idle loop only waits in the selector.
+   */
+  public static synchronized RtmpEventLoop getDefault() {
+    if (defaultEventLoop == null) {
+      defaultEventLoop = new RtmpEventLoop(2);
+    }
+    return defaultEventLoop;
+  }
+
+  /**
+   * @param workers threads used to read and decode, 1 or 2 is enough for many connections.
+   */
+  public RtmpEventLoop(int workers) {
+    this.workers = Math.max(1, workers);
+  }
+
+  private synchronized void ensureStarted() throws IOException {
+    if (running) {
+      return;
+    }
+    selector = Selector.open();
+    final AtomicInteger threadCount = new AtomicInteger();
+    workerPool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, TAG + "-worker-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    running = true;
+    selectorThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, TAG);
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+  /**
+   * Stop the threads. Connections registered are not closed. It is started again if a new
+   * connection is registered.
+   */
+  public synchronized void shutdown() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    selector.wakeup();
+    workerPool.shutdown();
+    selectorThread = null;
+  }
+
+  private void loop() {
+    Selector selector = this.selector;
+    while (running) {
+      try {
+        selector.select();
+      } catch (IOException e) {
+        Log.e(TAG, "select error", e);
+        break;
+      }
+      Runnable task;
+      while ((task = pendingTasks.poll()) != null) {
+        task.run();
+      }
+      Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+      while (iterator.hasNext()) {
+        SelectionKey key = iterator.next();
+        iterator.remove();
+        try {
+          if (key.isValid()) {
+            ((NioChannel) key.attachment()).onReady(key, key.readyOps());
+          }
+        } catch (CancelledKeyException ignored) {
+          // closed by other thread meanwhile
+        }
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      Log.e(TAG, "close selector error", e);
+    }
+    Log.i(TAG, "event loop stopped");
+  }
+
+  private void runInSelector(Runnable task) {
+    pendingTasks.offer(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Register a channel, already in non blocking mode, without interest ops.
+   */
+  void register(final NioChannel nioChannel) throws IOException {
+    ensureStarted();
+    runInSelector(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          nioChannel.onRegistered(nioChannel.getChannel().register(selector, 0, nioChannel));
+        } catch (ClosedChannelException e) {
+          Log.w(TAG, "channel closed before register");
+        }
+      }
+    });
+  }
+
+  /**
+   * Add interest in a selection operation, removed by the channel once it is ready.
+   */
+  void addInterest(final NioChannel nioChannel, final int ops) {
+    runInSelector(new Runnable() {
+      @Override
+      public void run() {
+        nioChannel.addInterestInSelector(ops);
+      }
+    });
+  }
+
+  void execute(Runnable task) {
+    workerPool.execute(task);
+  }
+}
@@ -37,6 +37,10 @@ public class RtmpSessionInfo {
     return invokedMethods.remove(transactionId);
   }
 
+  public String getInvokedCommand(int transactionId) {
+    return invokedMethods.get(transactionId);
+  }
+
   public String addInvokedCommand(int transactionId, String commandName) {
     return invokedMethods.put(transactionId, commandName);
   }
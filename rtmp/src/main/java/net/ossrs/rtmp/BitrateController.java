@@ -0,0 +1,13 @@
+package net.ossrs.rtmp;
+
+/**
+ * Receive the uplink estimation of a RTMP connection to decide the encoder bitrate.
+ */
+public interface BitrateController {
+
+  /**
+   * Called about once per second from the RTMP threads. Read the values you need inside the
+   * callback, don't keep the estimator for later.
+   */
+  void onUplinkEstimation(UplinkEstimator uplinkEstimator);
+}
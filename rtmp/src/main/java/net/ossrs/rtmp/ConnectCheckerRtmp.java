@@ -14,6 +14,14 @@ public interface ConnectCheckerRtmp {
 
   void onNewBitrateRtmp(long bitrate);
 
+  /**
+   * Called with a new round trip time sample while publishing, every 2 seconds by default.
+   *
+   * @param rtt smoothed round trip time in ms.
+   * @param rttVariance round trip time variance in ms.
+   */
+  void onNewRttRtmp(long rtt, long rttVariance);
+
   void onDisconnectRtmp();
 
   void onAuthErrorRtmp();
@@ -0,0 +1,132 @@
+package net.ossrs.rtmp;
+
+/**
+ * Duration of each phase of the last RTMP connection, in milliseconds. Each phase is measured
+ * from the end of the previous one so the total is the time from connect to publish start.
+ * A phase that doesn't apply or wasn't reached is -1 (TLS with rtmp:// urls, for example).
+ */
+public class ConnectTiming {
+
+  private long startTime;
+  private long phaseStartTime;
+  private volatile long dns = -1;
+  private volatile long tcp = -1;
+  private volatile long tls = -1;
+  private volatile long handshake = -1;
+  private volatile long connect = -1;
+  private volatile long createStream = -1;
+  private volatile long publish = -1;
+  private volatile long total = -1;
+  private volatile boolean pipelined = false;
+
+  public synchronized void reset() {
+    startTime = System.nanoTime();
+    phaseStartTime = startTime;
+    dns = -1;
+    tcp = -1;
+    tls = -1;
+    handshake = -1;
+    connect = -1;
+    createStream = -1;
+    publish = -1;
+    total = -1;
+    pipelined = false;
+  }
+
+  private long endPhase() {
+    long now = System.nanoTime();
+    long elapsed = (now - phaseStartTime) / 1000000;
+    phaseStartTime = now;
+    return elapsed;
+  }
+
+  public synchronized void onDnsResolved() {
+    dns = endPhase();
+  }
+
+  public synchronized void onTcpConnected() {
+    tcp = endPhase();
+  }
+
+  public synchronized void onTlsDone() {
+    tls = endPhase();
+  }
+
+  public synchronized void onHandshakeDone() {
+    handshake = endPhase();
+  }
+
+  public synchronized void onConnected() {
+    connect = endPhase();
+  }
+
+  public synchronized void onStreamCreated() {
+    createStream = endPhase();
+  }
+
+  public synchronized void onPublishStarted() {
+    publish = endPhase();
+    total = (System.nanoTime() - startTime) / 1000000;
+  }
+
+  public void setPipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+  public long getDnsMs() {
+    return dns;
+  }
+
+  public long getTcpMs() {
+    return tcp;
+  }
+
+  public long getTlsMs() {
+    return tls;
+  }
+
+  public long getHandshakeMs() {
+    return handshake;
+  }
+
+  public long getConnectMs() {
+    return connect;
+  }
+
+  public long getCreateStreamMs() {
+    return createStream;
+  }
+
+  public long getPublishMs() {
+    return publish;
+  }
+
+  /**
+   * @return time from connect to publish start or -1 if publish didn't start.
+   */
+  public long getTotalMs() {
+    return total;
+  }
+
+  /**
+   * @return true if commands were sent without waiting for the previous result (fast start).
+   */
+  public boolean isPipelined() {
+    return pipelined;
+  }
+
+  @Override
+  public String toString() {
+    return "ConnectTiming{"
+        + "dns=" + dns
+        + ", tcp=" + tcp
+        + ", tls=" + tls
+        + ", handshake=" + handshake
+        + ", connect=" + connect
+        + ", createStream=" + createStream
+        + ", publish=" + publish
+        + ", total=" + total
+        + ", pipelined=" + pipelined
+        + '}';
+  }
+}
@@ -3,6 +3,7 @@ package net.ossrs.rtmp;
 import android.util.Log;
 import java.io.IOException;
 import java.net.Socket;
+import javax.net.ssl.SSLSocket;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 
@@ -28,4 +29,24 @@ public class CreateSSLSocket {
       return null;
     }
   }
+
+  /**
+   * Do the TLS handshake over an already connected socket, so TCP connect and TLS can be timed
+   * separately.
+   *
+   * @param socket connected plain socket, closed with the returned one
+   * @param host variable from RtmpConnection
+   * @param port variable from RtmpConnection
+   */
+  public static Socket createSSlSocket(Socket socket, String host, int port) {
+    try {
+      TLSSocketFactory socketFactory = new TLSSocketFactory();
+      SSLSocket sslSocket = (SSLSocket) socketFactory.createSocket(socket, host, port, true);
+      sslSocket.startHandshake();
+      return sslSocket;
+    } catch (NoSuchAlgorithmException | KeyManagementException | IOException e) {
+      Log.e("CreateSSLSocket", "Error", e);
+      return null;
+    }
+  }
 }
@@ -0,0 +1,15 @@
+package net.ossrs.rtmp;
+
+/**
+ * What a RtmpDestination (or a queued subscription of EncodedFrameBus in rtplibrary) does with a
+ * new frame when its cache is full.
+ */
+public enum DropPolicy {
+  //discard the new frame, default behaviour
+  DROP_NEWEST,
+  //discard the oldest cached frame to make room for the new one, RtmpDestination caches audio and
+  //video apart so it is the oldest of the same type
+  DROP_OLDEST,
+  //discard the new frame and, if it is video, every video frame until next keyframe
+  DROP_UNTIL_KEYFRAME
+}
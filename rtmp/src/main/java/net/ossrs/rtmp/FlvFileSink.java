@@ -0,0 +1,336 @@
+package net.ossrs.rtmp;
+
+import android.os.Process;
+import android.util.Log;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record to a FLV file the same tags muxed for RTMP. Tags are shared with the destinations of a
+ * SrsFlvMuxer so the only work is copying each tag to a buffer that is written to a FileChannel
+ * in its own thread.
+ *
+ * FLV needs no index so the file is playable until the last complete tag if the app dies.
+ * Complete tags are written to the file at least every FLUSH_INTERVAL_MS.
+ * The file can be split in segments by size or duration, every segment start with a keyframe,
+ * the sequence headers and timestamps from 0.
+ */
+public class FlvFileSink {
+
+  private static final String TAG = "FlvFileSink";
+
+  private static final int FLV_HEADER_SIZE = 9;
+  private static final int TAG_HEADER_SIZE = 11;
+  private static final int PREVIOUS_TAG_SIZE = 4;
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final long FLUSH_INTERVAL_MS = 1000;
+  private static final long POLL_TIMEOUT_MS = 100;
+
+  public interface Listener {
+    void onSegmentFinished(String path);
+
+    void onError(String error);
+  }
+
+  private final SrsFlvMuxer muxer;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private volatile BlockingQueue<SrsFlvFrame> cache = new ArrayBlockingQueue<>(120);
+  private volatile boolean running = false;
+  private volatile boolean needToFindKeyFrame = true;
+  private Thread worker;
+  private Listener listener;
+  private String path;
+  private long maxSegmentSize = 0;
+  private long maxSegmentDuration = 0;
+  //current segment
+  private FileChannel fileChannel;
+  private String segmentPath;
+  private int segmentIndex;
+  private long segmentSize;
+  private int segmentStartDts;
+  private boolean segmentHasFrames;
+  private boolean hasVideo;
+  private long lastFlushTime;
+
+  private volatile long writtenFrames = 0;
+  private volatile long droppedFrames = 0;
+
+  FlvFileSink(SrsFlvMuxer muxer) {
+    this.muxer = muxer;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Start a new segment at the next keyframe after this size. 0 to disable (default).
+   *
+   * @param maxSegmentSize in bytes
+   */
+  public void setMaxSegmentSize(long maxSegmentSize) {
+    this.maxSegmentSize = maxSegmentSize;
+  }
+
+  /**
+   * Start a new segment at the next keyframe after this duration. 0 to disable (default).
+   *
+   * @param maxSegmentDuration in ms
+   */
+  public void setMaxSegmentDuration(long maxSegmentDuration) {
+    this.maxSegmentDuration = maxSegmentDuration;
+  }
+
+  public void resizeFlvTagCache(int newSize) {
+    BlockingQueue<SrsFlvFrame> newCache = new ArrayBlockingQueue<>(newSize);
+    BlockingQueue<SrsFlvFrame> oldCache = cache;
+    cache = newCache;
+    clearFlvTagCache(oldCache);
+    needToFindKeyFrame = true;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public long getWrittenFrames() {
+    return writtenFrames;
+  }
+
+  public long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /**
+   * Called by the muxer on the encoder thread for each new tag. A reference is taken if the frame
+   * is cached.
+   */
+  void offer(SrsFlvFrame frame) {
+    if (!running) {
+      return;
+    }
+    if (frame.is_video() && needToFindKeyFrame && !frame.is_sequenceHeader()) {
+      if (!frame.is_keyframe()) {
+        return;
+      }
+      needToFindKeyFrame = false;
+    }
+    frame.retain();
+    if (!cache.offer(frame)) {
+      Log.i(TAG, "frame discarded");
+      droppedFrames++;
+      frame.release();
+      // a video frame lost breaks decoding until next keyframe
+      needToFindKeyFrame = true;
+    }
+  }
+
+  /**
+   * Start recording. With segments enabled, the segment index is added before the extension:
+   * /sdcard/record.flv is recorded as /sdcard/record_0.flv, /sdcard/record_1.flv...
+   *
+   * @param path file path with .flv extension.
+   */
+  public void start(String path) {
+    this.path = path;
+    segmentIndex = 0;
+    hasVideo = false;
+    writtenFrames = 0;
+    droppedFrames = 0;
+    clearFlvTagCache(cache);
+    needToFindKeyFrame = true;
+    running = true;
+    worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+          openSegment();
+          // never interrupted, an interrupt in the middle of a write closes the FileChannel
+          while (running) {
+            try {
+              SrsFlvFrame frame = cache.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+              if (frame != null) {
+                writeFrame(frame);
+              }
+              if (System.currentTimeMillis() - lastFlushTime >= FLUSH_INTERVAL_MS) {
+                flush();
+              }
+            } catch (InterruptedException e) {
+              break;
+            }
+          }
+          SrsFlvFrame frame;
+          while ((frame = cache.poll()) != null) {
+            writeFrame(frame);
+          }
+        } catch (IOException e) {
+          Log.e(TAG, "Error", e);
+          running = false;
+          if (listener != null) listener.onError("Write error, " + e.getMessage());
+        } finally {
+          closeSegment();
+          clearFlvTagCache(cache);
+        }
+      }
+    }, TAG);
+    worker.start();
+  }
+
+  /**
+   * Stop recording, tags cached are written before closing the file.
+   */
+  public void stop() {
+    running = false;
+    if (worker != null) {
+      try {
+        worker.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      worker = null;
+    }
+    Log.i(TAG, "FlvFileSink closed");
+  }
+
+  private void writeFrame(SrsFlvFrame frame) throws IOException {
+    try {
+      if (frame.is_video()) {
+        hasVideo = true;
+      }
+      boolean segmentStart = frame.is_keyframe() || (!hasVideo && frame.is_audio());
+      if (segmentStart && segmentHasFrames && isSegmentFull(frame.dts)) {
+        closeSegment();
+        segmentIndex++;
+        openSegment();
+      }
+      if (!segmentHasFrames && !frame.is_sequenceHeader()) {
+        segmentStartDts = frame.dts;
+        segmentHasFrames = true;
+      }
+      writeTag(frame.type, Math.max(0, frame.dts - segmentStartDts), frame.flvTag.array(),
+          frame.flvTag.size());
+      writtenFrames++;
+    } finally {
+      frame.release();
+    }
+  }
+
+  private boolean isSegmentFull(int dts) {
+    return (maxSegmentSize > 0 && segmentSize >= maxSegmentSize) || (maxSegmentDuration > 0
+        && dts - segmentStartDts >= maxSegmentDuration);
+  }
+
+  private String getSegmentPath() {
+    if (maxSegmentSize <= 0 && maxSegmentDuration <= 0) {
+      return path;
+    }
+    int extension = path.lastIndexOf('.');
+    if (extension <= path.lastIndexOf('/')) {
+      return path + "_" + segmentIndex;
+    }
+    return path.substring(0, extension) + "_" + segmentIndex + path.substring(extension);
+  }
+
+  private void openSegment() throws IOException {
+    segmentPath = getSegmentPath();
+    fileChannel = new FileOutputStream(segmentPath).getChannel();
+    segmentSize = 0;
+    segmentStartDts = 0;
+    segmentHasFrames = false;
+    buffer.clear();
+    SrsFlvFrame videoHeader = muxer.retainSequenceHeader(SrsFlvFrame.TYPE_VIDEO);
+    SrsFlvFrame audioHeader = muxer.retainSequenceHeader(SrsFlvFrame.TYPE_AUDIO);
+    try {
+      // E.2 The FLV header
+      int flags = 0;
+      if (audioHeader != null) flags |= 0x04;
+      if (videoHeader != null) flags |= 0x01;
+      buffer.put((byte) 'F').put((byte) 'L').put((byte) 'V').put((byte) 0x01);
+      buffer.put((byte) (flags == 0 ? 0x05 : flags));
+      buffer.putInt(FLV_HEADER_SIZE);
+      // PreviousTagSize0
+      buffer.putInt(0);
+      segmentSize += FLV_HEADER_SIZE + PREVIOUS_TAG_SIZE;
+      if (videoHeader != null) {
+        writeTag(videoHeader.type, 0, videoHeader.flvTag.array(), videoHeader.flvTag.size());
+      }
+      if (audioHeader != null) {
+        writeTag(audioHeader.type, 0, audioHeader.flvTag.array(), audioHeader.flvTag.size());
+      }
+    } finally {
+      if (videoHeader != null) videoHeader.release();
+      if (audioHeader != null) audioHeader.release();
+    }
+    flush();
+    Log.i(TAG, "segment started: " + segmentPath);
+  }
+
+  private void closeSegment() {
+    if (fileChannel == null) {
+      return;
+    }
+    try {
+      flush();
+      fileChannel.force(false);
+    } catch (IOException e) {
+      Log.e(TAG, "Error", e);
+    }
+    try {
+      fileChannel.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Error", e);
+    }
+    fileChannel = null;
+    Log.i(TAG, "segment finished: " + segmentPath);
+    if (listener != null) listener.onSegmentFinished(segmentPath);
+  }
+
+  // E.4.1 FLV Tag
+  private void writeTag(int type, int timestamp, byte[] data, int size) throws IOException {
+    if (buffer.remaining() < TAG_HEADER_SIZE + PREVIOUS_TAG_SIZE + size) {
+      flush();
+    }
+    buffer.put((byte) type);
+    buffer.put((byte) (size >> 16)).put((byte) (size >> 8)).put((byte) size);
+    buffer.put((byte) (timestamp >> 16)).put((byte) (timestamp >> 8)).put((byte) timestamp);
+    // TimestampExtended
+    buffer.put((byte) (timestamp >> 24));
+    // StreamID, always 0
+    buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+    if (buffer.remaining() < size + PREVIOUS_TAG_SIZE) {
+      // bigger than the buffer, avoid the copy
+      flush();
+      writeFully(ByteBuffer.wrap(data, 0, size));
+    } else {
+      buffer.put(data, 0, size);
+    }
+    buffer.putInt(TAG_HEADER_SIZE + size);
+    segmentSize += TAG_HEADER_SIZE + size + PREVIOUS_TAG_SIZE;
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    writeFully(buffer);
+    buffer.clear();
+    lastFlushTime = System.currentTimeMillis();
+  }
+
+  private void writeFully(ByteBuffer byteBuffer) throws IOException {
+    while (byteBuffer.hasRemaining()) {
+      fileChannel.write(byteBuffer);
+    }
+  }
+
+  private void clearFlvTagCache(BlockingQueue<SrsFlvFrame> cache) {
+    SrsFlvFrame frame;
+    while ((frame = cache.poll()) != null) {
+      frame.release();
+    }
+  }
+}
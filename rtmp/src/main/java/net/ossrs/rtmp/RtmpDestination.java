@@ -0,0 +1,444 @@
+package net.ossrs.rtmp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import com.github.faucamp.simplertmp.DefaultRtmpPublisher;
+import com.github.faucamp.simplertmp.RtmpPublisher;
+import com.github.faucamp.simplertmp.io.RtmpConnection;
+import com.github.faucamp.simplertmp.io.RtmpEventLoop;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One RTMP endpoint fed by a SrsFlvMuxer. Tags are muxed once by the muxer and shared with every
+ * destination, each destination has its own connection, worker thread, bounded cache, drop
+ * policy, reconnect state and stats so a stalled endpoint never produces drops on the others.
+ */
+public class RtmpDestination {
+
+  private static final String TAG = "RtmpDestination";
+
+  private final SrsFlvMuxer muxer;
+  private final RtmpPublisher publisher;
+  private final ConnectCheckerRtmp connectCheckerRtmp;
+  //null if the publisher doesn't provide it
+  private final UplinkEstimator uplinkEstimator;
+  private final ConnectTiming connectTiming;
+  private final RttEstimator rttEstimator;
+  private volatile boolean connected = false;
+  private volatile boolean running = false;
+  private Thread worker;
+  //guards running and the caches between offer and start, stop or resize
+  private final Object cacheLock = new Object();
+  private volatile BlockingQueue<SrsFlvFrame> mFlvVideoTagCache = new ArrayBlockingQueue<>(30);
+  private volatile BlockingQueue<SrsFlvFrame> mFlvAudioTagCache = new ArrayBlockingQueue<>(30);
+  private volatile int cacheCapacity = 30;
+  private volatile boolean needToFindKeyFrame = true;
+  private DropPolicy dropPolicy = DropPolicy.DROP_NEWEST;
+  private String url;
+  //re connection
+  private int numRetry;
+  private int reTries;
+  private Handler handler;
+  private Runnable runnable;
+  private volatile boolean akamaiTs = false;
+  private long startTs = 0;
+
+  private long mAudioFramesSent = 0;
+  private long mVideoFramesSent = 0;
+  private long mDroppedAudioFrames = 0;
+  private long mDroppedVideoFrames = 0;
+
+  RtmpDestination(SrsFlvMuxer muxer, ConnectCheckerRtmp connectCheckerRtmp,
+      RtmpPublisher publisher) {
+    this.muxer = muxer;
+    this.connectCheckerRtmp = connectCheckerRtmp;
+    this.publisher = publisher;
+    if (publisher instanceof DefaultRtmpPublisher) {
+      uplinkEstimator = ((DefaultRtmpPublisher) publisher).getUplinkEstimator();
+      connectTiming = ((DefaultRtmpPublisher) publisher).getConnectTiming();
+      rttEstimator = ((DefaultRtmpPublisher) publisher).getRttEstimator();
+    } else if (publisher instanceof RtmpConnection) {
+      uplinkEstimator = ((RtmpConnection) publisher).getUplinkEstimator();
+      connectTiming = ((RtmpConnection) publisher).getConnectTiming();
+      rttEstimator = ((RtmpConnection) publisher).getRttEstimator();
+    } else {
+      uplinkEstimator = null;
+      connectTiming = null;
+      rttEstimator = null;
+    }
+    handler = new Handler(Looper.getMainLooper());
+  }
+
+  RtmpDestination(SrsFlvMuxer muxer, ConnectCheckerRtmp connectCheckerRtmp) {
+    this(muxer, connectCheckerRtmp, new DefaultRtmpPublisher(connectCheckerRtmp));
+  }
+
+  /**
+   * @return socket level estimation of the uplink, or null if the publisher doesn't provide it.
+   */
+  public UplinkEstimator getUplinkEstimator() {
+    return uplinkEstimator;
+  }
+
+  /**
+   * Receive the uplink estimation about once per second while connected.
+   */
+  public void setBitrateController(BitrateController bitrateController) {
+    if (uplinkEstimator != null) {
+      uplinkEstimator.setBitrateController(bitrateController);
+    }
+  }
+
+  /**
+   * @return duration of each phase of the last connection, or null if the publisher doesn't
+   * provide it.
+   */
+  public ConnectTiming getConnectTiming() {
+    return connectTiming;
+  }
+
+  /**
+   * @return round trip time of the connection, or null if the publisher doesn't provide it.
+   */
+  public RttEstimator getRttEstimator() {
+    return rttEstimator;
+  }
+
+  /**
+   * Pipeline connect and createStream commands to start the stream a round trip earlier.
+   * Fallback to the sequential flow if the server doesn't accept it.
+   */
+  public void setFastStart(boolean enabled) {
+    if (publisher instanceof DefaultRtmpPublisher) {
+      ((DefaultRtmpPublisher) publisher).setFastStart(enabled);
+    } else if (publisher instanceof RtmpConnection) {
+      ((RtmpConnection) publisher).setFastStart(enabled);
+    }
+  }
+
+  /**
+   * Share the connection socket with other destinations in an event loop instead of using a rx
+   * thread. Null to use a blocking socket (default). Applied in the next connect.
+   */
+  public void setEventLoop(RtmpEventLoop eventLoop) {
+    if (publisher instanceof DefaultRtmpPublisher) {
+      ((DefaultRtmpPublisher) publisher).setEventLoop(eventLoop);
+    } else if (publisher instanceof RtmpConnection) {
+      ((RtmpConnection) publisher).setEventLoop(eventLoop);
+    }
+  }
+
+  public void setDropPolicy(DropPolicy dropPolicy) {
+    this.dropPolicy = dropPolicy;
+  }
+
+  public DropPolicy getDropPolicy() {
+    return dropPolicy;
+  }
+
+  public void forceAkamaiTs(boolean enabled) {
+    akamaiTs = enabled;
+  }
+
+  public void setAuthorization(String user, String password) {
+    publisher.setAuthorization(user, password);
+  }
+
+  public void setVideoResolution(int width, int height) {
+    publisher.setVideoResolution(width, height);
+  }
+
+  public boolean isConnected() {
+    return connected;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public void resizeFlvTagCache(int newSize) {
+    synchronized (cacheLock) {
+      mFlvAudioTagCache = resizeFlvTagCacheInternal(mFlvAudioTagCache, newSize);
+      mFlvVideoTagCache = resizeFlvTagCacheInternal(mFlvVideoTagCache, newSize);
+      cacheCapacity = newSize;
+    }
+  }
+
+  private BlockingQueue<SrsFlvFrame> resizeFlvTagCacheInternal(BlockingQueue<SrsFlvFrame> cache,
+      int newSize) {
+    if (newSize < cache.size() - cache.remainingCapacity()) {
+      throw new RuntimeException("Can't fit current cache inside new cache size");
+    }
+
+    BlockingQueue<SrsFlvFrame> newQueue = new ArrayBlockingQueue<>(newSize);
+    cache.drainTo(newQueue);
+    return newQueue;
+  }
+
+  public int getFlvTagCacheSize() {
+    return mFlvVideoTagCache.size() + mFlvAudioTagCache.size();
+  }
+
+  public long getSentAudioFrames() {
+    return mAudioFramesSent;
+  }
+
+  public long getSentVideoFrames() {
+    return mVideoFramesSent;
+  }
+
+  public long getDroppedAudioFrames() {
+    return mDroppedAudioFrames;
+  }
+
+  public long getDroppedVideoFrames() {
+    return mDroppedVideoFrames;
+  }
+
+  public void resetSentAudioFrames() {
+    mAudioFramesSent = 0;
+  }
+
+  public void resetSentVideoFrames() {
+    mVideoFramesSent = 0;
+  }
+
+  public void resetDroppedAudioFrames() {
+    mDroppedAudioFrames = 0;
+  }
+
+  public void resetDroppedVideoFrames() {
+    mDroppedVideoFrames = 0;
+  }
+
+  public void setReTries(int reTries) {
+    numRetry = reTries;
+    this.reTries = reTries;
+  }
+
+  public boolean shouldRetry(String reason) {
+    boolean validReason = !reason.contains("Endpoint malformed");
+    return validReason && reTries > 0;
+  }
+
+  public void reConnect(final long delay) {
+    reTries--;
+    stop(null);
+    runnable = new Runnable() {
+      @Override
+      public void run() {
+        start(url);
+      }
+    };
+    handler.postDelayed(runnable, delay);
+  }
+
+  /**
+   * Called by the muxer on the encoder thread for each new tag. The destination takes its own
+   * reference if the frame is cached.
+   */
+  void offer(SrsFlvFrame frame) {
+    synchronized (cacheLock) {
+      if (!running) {
+        return;
+      }
+      boolean isVideo = frame.is_video();
+      if (isVideo && needToFindKeyFrame && !frame.is_sequenceHeader()) {
+        if (!frame.is_keyframe()) {
+          return;
+        }
+        needToFindKeyFrame = false;
+      }
+      BlockingQueue<SrsFlvFrame> cache = isVideo ? mFlvVideoTagCache : mFlvAudioTagCache;
+      frame.retain();
+      if (cache.offer(frame)) {
+        return;
+      }
+      if (dropPolicy == DropPolicy.DROP_OLDEST) {
+        SrsFlvFrame oldest = cache.poll();
+        if (oldest != null) {
+          onFrameDropped(oldest);
+        }
+        if (cache.offer(frame)) {
+          return;
+        }
+      }
+      onFrameDropped(frame);
+      if (isVideo && dropPolicy == DropPolicy.DROP_UNTIL_KEYFRAME) {
+        needToFindKeyFrame = true;
+      }
+    }
+  }
+
+  private void onFrameDropped(SrsFlvFrame frame) {
+    Log.i(TAG, "frame discarded");
+    if (frame.is_video()) {
+      mDroppedVideoFrames++;
+    } else {
+      mDroppedAudioFrames++;
+    }
+    frame.release();
+  }
+
+  private boolean connect(String url) {
+    this.url = url;
+    if (!connected) {
+      Log.i(TAG, String.format("worker: connecting to RTMP server by url=%s\n", url));
+      if (publisher.connect(url)) {
+        connected = publisher.publish("live");
+      }
+    }
+    return connected;
+  }
+
+  private void disconnect(ConnectCheckerRtmp connectChecker) {
+    try {
+      publisher.close();
+    } catch (IllegalStateException e) {
+      // Ignore illegal state.
+    }
+    connected = false;
+
+    if (connectChecker != null) {
+      reTries = 0;
+      connectChecker.onDisconnectRtmp();
+    }
+
+    resetSentAudioFrames();
+    resetSentVideoFrames();
+    resetDroppedAudioFrames();
+    resetDroppedVideoFrames();
+
+    Log.i(TAG, "worker: disconnect ok.");
+  }
+
+  private void sendFlvTag(SrsFlvFrame frame) {
+    if (frame == null) {
+      return;
+    } else if (!connected) {
+      frame.release();
+      return;
+    }
+
+    int dts = akamaiTs ? (int) ((System.nanoTime() / 1000 - startTs) / 1000) : frame.dts;
+    if (frame.is_video()) {
+      if (frame.is_keyframe()) {
+        Log.i(TAG,
+            String.format("worker: send frame type=%d, dts=%d, size=%dB", frame.type, dts,
+                frame.flvTag.array().length));
+      }
+      publisher.publishVideoData(frame.flvTag.array(), frame.flvTag.size(), dts);
+      mVideoFramesSent++;
+    } else if (frame.is_audio()) {
+      publisher.publishAudioData(frame.flvTag.array(), frame.flvTag.size(), dts);
+      mAudioFramesSent++;
+    }
+    frame.release();
+  }
+
+  /**
+   * A destination may connect after the sequence headers were muxed (added later or
+   * reconnecting) so the last ones are always sent first.
+   */
+  private void sendSequenceHeaders() {
+    sendFlvTag(muxer.retainSequenceHeader(SrsFlvFrame.TYPE_VIDEO));
+    sendFlvTag(muxer.retainSequenceHeader(SrsFlvFrame.TYPE_AUDIO));
+  }
+
+  private void clearFlvTagCache(BlockingQueue<SrsFlvFrame> cache) {
+    SrsFlvFrame frame;
+    while ((frame = cache.poll()) != null) {
+      frame.release();
+    }
+  }
+
+  /**
+   * start to the remote SRS for remux.
+   */
+  public void start(final String rtmpUrl) {
+    url = rtmpUrl;
+    startTs = System.nanoTime() / 1000;
+    synchronized (cacheLock) {
+      clearFlvTagCache(mFlvAudioTagCache);
+      clearFlvTagCache(mFlvVideoTagCache);
+      needToFindKeyFrame = true;
+      running = true;
+    }
+    worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        if (!connect(rtmpUrl)) {
+          return;
+        }
+        reTries = numRetry;
+        connectCheckerRtmp.onConnectionSuccessRtmp();
+        sendSequenceHeaders();
+        while (!Thread.interrupted()) {
+          try {
+            SrsFlvFrame frame = mFlvAudioTagCache.poll(1, TimeUnit.MILLISECONDS);
+            if (frame != null) {
+              sendFlvTag(frame);
+            }
+
+            frame = mFlvVideoTagCache.poll(1, TimeUnit.MILLISECONDS);
+            if (frame != null) {
+              sendFlvTag(frame);
+            }
+            if (uplinkEstimator != null) {
+              uplinkEstimator.onQueueSize(getFlvTagCacheSize(), cacheCapacity * 2);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    });
+    worker.start();
+  }
+
+  public void stop() {
+    stop(connectCheckerRtmp);
+  }
+
+  /**
+   * stop the worker, disconnect RTMP connection.
+   */
+  private void stop(final ConnectCheckerRtmp connectCheckerRtmp) {
+    synchronized (cacheLock) {
+      running = false;
+    }
+    startTs = 0;
+    handler.removeCallbacks(runnable);
+    if (worker != null) {
+      worker.interrupt();
+      try {
+        worker.join(100);
+      } catch (InterruptedException e) {
+        worker.interrupt();
+      }
+      worker = null;
+    }
+    synchronized (cacheLock) {
+      clearFlvTagCache(mFlvAudioTagCache);
+      clearFlvTagCache(mFlvVideoTagCache);
+      needToFindKeyFrame = true;
+    }
+    Log.i(TAG, "RtmpDestination closed");
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        disconnect(connectCheckerRtmp);
+      }
+    }).start();
+  }
+}
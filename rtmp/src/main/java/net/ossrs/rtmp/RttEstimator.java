@@ -0,0 +1,79 @@
+package net.ossrs.rtmp;
+
+/**
+ * Smoothed round trip time and variance of a RTMP connection like TCP does (RFC 6298).
+ * Samples are probes sent with the media so they include the time waiting behind the media in
+ * the socket buffer, that is the latency that matters for buffer sizing and bitrate decisions.
+ * The state is kept in double and only rounded in the getters, truncating each update makes the
+ * average drift below the real value.
+ */
+public class RttEstimator {
+
+  private static final float ALPHA = 0.125f;
+  private static final float BETA = 0.25f;
+
+  private double smoothedRtt;
+  private double rttVariance;
+  private double lastRtt;
+  private double minRtt;
+  private int samples;
+
+  public RttEstimator() {
+    reset();
+  }
+
+  public synchronized void reset() {
+    smoothedRtt = 0;
+    rttVariance = 0;
+    lastRtt = 0;
+    minRtt = 0;
+    samples = 0;
+  }
+
+  /**
+   * @param rtt round trip time of a probe in ms, with the fraction.
+   */
+  public synchronized void onRttSample(double rtt) {
+    if (rtt < 0) return;
+    lastRtt = rtt;
+    if (samples == 0) {
+      smoothedRtt = rtt;
+      rttVariance = rtt / 2;
+      minRtt = rtt;
+    } else {
+      rttVariance = (1 - BETA) * rttVariance + BETA * Math.abs(smoothedRtt - rtt);
+      smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rtt;
+      minRtt = Math.min(minRtt, rtt);
+    }
+    samples++;
+  }
+
+  /**
+   * @return smoothed round trip time in ms, 0 without samples.
+   */
+  public synchronized long getSmoothedRtt() {
+    return Math.round(smoothedRtt);
+  }
+
+  /**
+   * @return round trip time variance (mean deviation) in ms.
+   */
+  public synchronized long getRttVariance() {
+    return Math.round(rttVariance);
+  }
+
+  public synchronized long getLastRtt() {
+    return Math.round(lastRtt);
+  }
+
+  /**
+   * @return lowest sample in ms, close to the propagation delay without queues.
+   */
+  public synchronized long getMinRtt() {
+    return Math.round(minRtt);
+  }
+
+  public synchronized int getSamples() {
+    return samples;
+  }
+}
@@ -88,7 +88,8 @@ public final class SrsAllocator {
 
   public synchronized Allocation allocate(int size) {
     for (int i = 0; i < availableSentinel; i++) {
-      if (availableAllocations[i].size() >= size) {
+      // compare against the capacity, released allocations are always cleared.
+      if (availableAllocations[i] != null && availableAllocations[i].array().length >= size) {
         Allocation ret = availableAllocations[i];
         availableAllocations[i] = null;
         return ret;
@@ -102,7 +103,7 @@ public final class SrsAllocator {
     allocation.clear();
 
     for (int i = 0; i < availableSentinel; i++) {
-      if (availableAllocations[i].size() == 0) {
+      if (availableAllocations[i] == null) {
         availableAllocations[i] = allocation;
         return;
       }
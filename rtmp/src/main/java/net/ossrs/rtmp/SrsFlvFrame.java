@@ -0,0 +1,78 @@
+package net.ossrs.rtmp;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the muxed flv frame.
+ *
+ * A frame is shared by all destinations of a SrsFlvMuxer without copying the tag bytes, so it is
+ * reference counted. The tag goes back to its allocator and the frame to its pool when the last
+ * holder releases it.
+ */
+public class SrsFlvFrame {
+
+  // E.4.1 FLV Tag, page 75
+  // 8 = audio
+  public static final int TYPE_AUDIO = 8;
+  // 9 = video
+  public static final int TYPE_VIDEO = 9;
+  // E.4.3.1 VIDEODATA, 1 = key frame (for AVC, a seekable frame)
+  public static final int KEY_FRAME = 1;
+
+  // the tag bytes.
+  public SrsAllocator.Allocation flvTag;
+  // the codec type for audio/aac and video/avc for instance.
+  public int avc_aac_type;
+  // the frame type, keyframe or not.
+  public int frame_type;
+  // the tag type, audio, video or data.
+  public int type;
+  // the dts in ms, tbn is 1000.
+  public int dts;
+
+  private final AtomicInteger refCount = new AtomicInteger(0);
+  private SrsAllocator allocator;
+  private BlockingQueue<SrsFlvFrame> pool;
+
+  /**
+   * Set where this frame is returned once released. The caller owns the first reference.
+   */
+  void init(SrsAllocator allocator, BlockingQueue<SrsFlvFrame> pool) {
+    this.allocator = allocator;
+    this.pool = pool;
+    refCount.set(1);
+  }
+
+  public void retain() {
+    refCount.incrementAndGet();
+  }
+
+  public void release() {
+    if (refCount.decrementAndGet() == 0) {
+      if (allocator != null) {
+        allocator.release(flvTag);
+      }
+      flvTag = null;
+      if (pool != null) {
+        pool.offer(this);
+      }
+    }
+  }
+
+  public boolean is_keyframe() {
+    return is_video() && frame_type == KEY_FRAME;
+  }
+
+  public boolean is_sequenceHeader() {
+    return avc_aac_type == 0;
+  }
+
+  public boolean is_video() {
+    return type == TYPE_VIDEO;
+  }
+
+  public boolean is_audio() {
+    return type == TYPE_AUDIO;
+  }
+}
@@ -1,18 +1,15 @@
 package net.ossrs.rtmp;
 
 import android.media.MediaCodec;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Process;
 import android.util.Log;
 import com.github.faucamp.simplertmp.DefaultRtmpPublisher;
 import com.github.faucamp.simplertmp.RtmpPublisher;
 
+import com.github.faucamp.simplertmp.io.RtmpEventLoop;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Created by winlin on 5/2/15.
@@ -21,6 +18,8 @@ import java.util.concurrent.TimeUnit;
  * to POST the h.264/avc annexb frame over RTMP.
  * modified by Troy
  * to accept any RtmpPublisher implementation.
+ * modified by pedro
+ * to share the muxed tags with several RtmpDestination (simulcast), see addDestination.
  *
  * Usage:
  * muxer = new SrsRtmp("rtmp://ossrs.net/live/yasea");
@@ -56,46 +55,128 @@ public class SrsFlvMuxer {
 
   private static final int VIDEO_ALLOC_SIZE = 128 * 1024;
   private static final int AUDIO_ALLOC_SIZE = 4 * 1024;
-  private volatile boolean connected = false;
-  private RtmpPublisher publisher;
-  private Thread worker;
+  private static final int FRAME_POOL_SIZE = 64;
   private SrsFlv flv = new SrsFlv();
-  private boolean needToFindKeyFrame = true;
   private SrsAllocator mVideoAllocator = new SrsAllocator(VIDEO_ALLOC_SIZE);
   private SrsAllocator mAudioAllocator = new SrsAllocator(AUDIO_ALLOC_SIZE);
-  private volatile BlockingQueue<SrsFlvFrame> mFlvVideoTagCache = new LinkedBlockingQueue<>(30);
-  private volatile BlockingQueue<SrsFlvFrame> mFlvAudioTagCache = new LinkedBlockingQueue<>(30);
-  private ConnectCheckerRtmp connectCheckerRtmp;
+  //recycled frames, array based queues to avoid a node allocation per tag
+  private final BlockingQueue<SrsFlvFrame> mFlvFramePool =
+      new ArrayBlockingQueue<>(FRAME_POOL_SIZE);
+  //every tag is muxed once and shared by all destinations, the first one is the default
+  private final RtmpDestination destination;
+  private volatile RtmpDestination[] destinations;
+  private volatile FlvFileSink[] fileSinks = new FlvFileSink[0];
+  //last sequence headers, sent to destinations that connect after they were muxed
+  private SrsFlvFrame videoSequenceHeader;
+  private SrsFlvFrame audioSequenceHeader;
   private int sampleRate = 0;
   private boolean isPpsSpsSend = false;
   private byte profileIop = ProfileIop.BASELINE;
-  private String url;
-  //re connection
-  private int numRetry;
-  private int reTries;
-  private Handler handler;
-  private Runnable runnable;
   private boolean akamaiTs = false;
-
-  private long mAudioFramesSent = 0;
-  private long mVideoFramesSent = 0;
-  private long mDroppedAudioFrames = 0;
-  private long mDroppedVideoFrames = 0;
-  private long startTs = 0;
+  private int videoWidth;
+  private int videoHeight;
 
   /**
    * constructor.
    */
   public SrsFlvMuxer(ConnectCheckerRtmp connectCheckerRtmp, RtmpPublisher publisher) {
-    this.connectCheckerRtmp = connectCheckerRtmp;
-    this.publisher = publisher;
-    handler = new Handler(Looper.getMainLooper());
+    destination = new RtmpDestination(this, connectCheckerRtmp, publisher);
+    destinations = new RtmpDestination[] { destination };
   }
 
   public SrsFlvMuxer(ConnectCheckerRtmp connectCheckerRtmp) {
     this(connectCheckerRtmp, new DefaultRtmpPublisher(connectCheckerRtmp));
   }
 
+  /**
+   * Add other RTMP endpoint that receive the same tags. Start it with
+   * {@link RtmpDestination#start(String)}, it reports to its own ConnectCheckerRtmp.
+   */
+  public RtmpDestination addDestination(ConnectCheckerRtmp connectCheckerRtmp) {
+    return addDestination(connectCheckerRtmp, new DefaultRtmpPublisher(connectCheckerRtmp));
+  }
+
+  public synchronized RtmpDestination addDestination(ConnectCheckerRtmp connectCheckerRtmp,
+      RtmpPublisher publisher) {
+    RtmpDestination newDestination = new RtmpDestination(this, connectCheckerRtmp, publisher);
+    newDestination.forceAkamaiTs(akamaiTs);
+    if (videoWidth > 0 && videoHeight > 0) {
+      newDestination.setVideoResolution(videoWidth, videoHeight);
+    }
+    RtmpDestination[] newDestinations = Arrays.copyOf(destinations, destinations.length + 1);
+    newDestinations[destinations.length] = newDestination;
+    destinations = newDestinations;
+    return newDestination;
+  }
+
+  /**
+   * Stop and remove an endpoint added with addDestination. The default destination can't be
+   * removed.
+   */
+  public synchronized void removeDestination(RtmpDestination rtmpDestination) {
+    if (rtmpDestination == destination) {
+      return;
+    }
+    int index = -1;
+    for (int i = 0; i < destinations.length; i++) {
+      if (destinations[i] == rtmpDestination) {
+        index = i;
+        break;
+      }
+    }
+    if (index < 0) {
+      return;
+    }
+    RtmpDestination[] newDestinations = new RtmpDestination[destinations.length - 1];
+    System.arraycopy(destinations, 0, newDestinations, 0, index);
+    System.arraycopy(destinations, index + 1, newDestinations, index,
+        destinations.length - index - 1);
+    destinations = newDestinations;
+    if (rtmpDestination.isRunning()) {
+      rtmpDestination.stop();
+    }
+  }
+
+  /**
+   * Add a FLV file recorder that receive the same tags. Start it with
+   * {@link FlvFileSink#start(String)}.
+   */
+  public synchronized FlvFileSink addFileSink() {
+    FlvFileSink fileSink = new FlvFileSink(this);
+    FlvFileSink[] newFileSinks = Arrays.copyOf(fileSinks, fileSinks.length + 1);
+    newFileSinks[fileSinks.length] = fileSink;
+    fileSinks = newFileSinks;
+    return fileSink;
+  }
+
+  /**
+   * Stop and remove a recorder added with addFileSink.
+   */
+  public synchronized void removeFileSink(FlvFileSink fileSink) {
+    int index = Arrays.asList(fileSinks).indexOf(fileSink);
+    if (index < 0) {
+      return;
+    }
+    FlvFileSink[] newFileSinks = new FlvFileSink[fileSinks.length - 1];
+    System.arraycopy(fileSinks, 0, newFileSinks, 0, index);
+    System.arraycopy(fileSinks, index + 1, newFileSinks, index, fileSinks.length - index - 1);
+    fileSinks = newFileSinks;
+    if (fileSink.isRunning()) {
+      fileSink.stop();
+    }
+  }
+
+  /**
+   * @return the default destination, used by start, stop and reconnect methods of this class.
+   */
+  public RtmpDestination getDestination() {
+    return destination;
+  }
+
+  public RtmpDestination[] getDestinations() {
+    return destinations.clone();
+  }
+
   public void setProfileIop(byte profileIop) {
     this.profileIop = profileIop;
   }
@@ -113,71 +194,59 @@ public class SrsFlvMuxer {
     flv.setAchannel(channel);
   }
 
-  public void forceAkamaiTs(boolean enabled) {
+  public synchronized void forceAkamaiTs(boolean enabled) {
     akamaiTs = enabled;
+    for (RtmpDestination rtmpDestination : destinations) {
+      rtmpDestination.forceAkamaiTs(enabled);
+    }
   }
 
   public void setAuthorization(String user, String password) {
-    publisher.setAuthorization(user, password);
+    destination.setAuthorization(user, password);
   }
 
   public boolean isConnected() {
-    return connected;
+    return destination.isConnected();
   }
 
   public void resizeFlvTagCache(int newSize) {
-    synchronized (mFlvAudioTagCache) {
-      mFlvAudioTagCache = resizeFlvTagCacheInternal(mFlvAudioTagCache, newSize);
-    }
-    synchronized (mFlvVideoTagCache) {
-      mFlvVideoTagCache = resizeFlvTagCacheInternal(mFlvVideoTagCache, newSize);
-    }
-  }
-
-  private BlockingQueue<SrsFlvFrame> resizeFlvTagCacheInternal(BlockingQueue<SrsFlvFrame> cache, int newSize) {
-    if(newSize < cache.size() - cache.remainingCapacity()) {
-      throw new RuntimeException("Can't fit current cache inside new cache size");
-    }
-
-    BlockingQueue<SrsFlvFrame> newQueue = new LinkedBlockingQueue<>(newSize);
-    cache.drainTo(newQueue);
-    return newQueue;
+    destination.resizeFlvTagCache(newSize);
   }
 
   public int getFlvTagCacheSize() {
-    return mFlvVideoTagCache.size() + mFlvAudioTagCache.size();
+    return destination.getFlvTagCacheSize();
   }
 
   public long getSentAudioFrames() {
-    return mAudioFramesSent;
+    return destination.getSentAudioFrames();
   }
 
   public long getSentVideoFrames() {
-    return mVideoFramesSent;
+    return destination.getSentVideoFrames();
   }
 
   public long getDroppedAudioFrames() {
-    return mDroppedAudioFrames;
+    return destination.getDroppedAudioFrames();
   }
 
   public long getDroppedVideoFrames() {
-    return mDroppedVideoFrames;
+    return destination.getDroppedVideoFrames();
   }
 
   public void resetSentAudioFrames() {
-    mAudioFramesSent = 0;
+    destination.resetSentAudioFrames();
   }
 
   public void resetSentVideoFrames() {
-    mVideoFramesSent = 0;
+    destination.resetSentVideoFrames();
   }
 
   public void resetDroppedAudioFrames() {
-    mDroppedAudioFrames = 0;
+    destination.resetDroppedAudioFrames();
   }
 
   public void resetDroppedVideoFrames() {
-    mDroppedVideoFrames = 0;
+    destination.resetDroppedVideoFrames();
   }
 
   /**
@@ -186,151 +255,89 @@ public class SrsFlvMuxer {
    * @param width width
    * @param height height
    */
-  public void setVideoResolution(int width, int height) {
-    publisher.setVideoResolution(width, height);
-  }
-
-  private void disconnect(ConnectCheckerRtmp connectChecker) {
-    try {
-      publisher.close();
-    } catch (IllegalStateException e) {
-      // Ignore illegal state.
+  public synchronized void setVideoResolution(int width, int height) {
+    videoWidth = width;
+    videoHeight = height;
+    for (RtmpDestination rtmpDestination : destinations) {
+      rtmpDestination.setVideoResolution(width, height);
     }
-    connected = false;
+  }
 
-    if (connectChecker != null) {
-      reTries = 0;
-      connectChecker.onDisconnectRtmp();
-    }
+  /**
+   * Set who decides the bitrate from the socket level estimation of the default destination.
+   */
+  public void setBitrateController(BitrateController bitrateController) {
+    destination.setBitrateController(bitrateController);
+  }
 
-    resetSentAudioFrames();
-    resetSentVideoFrames();
-    resetDroppedAudioFrames();
-    resetDroppedVideoFrames();
+  public UplinkEstimator getUplinkEstimator() {
+    return destination.getUplinkEstimator();
+  }
 
-    Log.i(TAG, "worker: disconnect ok.");
+  /**
+   * Pipeline connect and createStream commands of the default destination to start the stream a
+   * round trip earlier. Other destinations are configured with their own setFastStart.
+   */
+  public void setFastStart(boolean enabled) {
+    destination.setFastStart(enabled);
   }
 
-  public void setReTries(int reTries) {
-    numRetry = reTries;
-    this.reTries = reTries;
+  /**
+   * Event loop used by the default destination, RtmpEventLoop.getDefault() to share threads with
+   * other connections. Other destinations are configured with their own setEventLoop.
+   */
+  public void setEventLoop(RtmpEventLoop eventLoop) {
+    destination.setEventLoop(eventLoop);
   }
 
-  public boolean shouldRetry(String reason) {
-    boolean validReason = !reason.contains("Endpoint malformed");
-    return validReason && reTries > 0;
+  public ConnectTiming getConnectTiming() {
+    return destination.getConnectTiming();
   }
 
-  public void reConnect(final long delay) {
-    reTries--;
-    stop(null);
-    runnable = new Runnable() {
-      @Override
-      public void run() {
-        start(url);
-      }
-    };
-    handler.postDelayed(runnable, delay);
+  public RttEstimator getRttEstimator() {
+    return destination.getRttEstimator();
   }
 
-  private boolean connect(String url) {
-    this.url = url;
-    if (!connected) {
-      Log.i(TAG, String.format("worker: connecting to RTMP server by url=%s\n", url));
-      if (publisher.connect(url)) {
-        connected = publisher.publish("live");
-      }
-    }
-    return connected;
+  public void setReTries(int reTries) {
+    destination.setReTries(reTries);
   }
 
-  private void sendFlvTag(SrsFlvFrame frame) {
-    if (!connected || frame == null) {
-      return;
-    }
+  public boolean shouldRetry(String reason) {
+    return destination.shouldRetry(reason);
+  }
 
-    int dts = akamaiTs ? (int)((System.nanoTime() / 1000 - startTs) / 1000) : frame.dts;
-    if (frame.is_video()) {
-      if (frame.is_keyframe()) {
-        Log.i(TAG,
-            String.format("worker: send frame type=%d, dts=%d, size=%dB", frame.type, dts,
-                frame.flvTag.array().length));
-      }
-      publisher.publishVideoData(frame.flvTag.array(), frame.flvTag.size(), dts);
-      mVideoAllocator.release(frame.flvTag);
-      mVideoFramesSent++;
-    } else if (frame.is_audio()) {
-      publisher.publishAudioData(frame.flvTag.array(), frame.flvTag.size(), dts);
-      mAudioAllocator.release(frame.flvTag);
-      mAudioFramesSent++;
-    }
+  /**
+   * Reconnect the default destination, the others keep streaming.
+   */
+  public void reConnect(final long delay) {
+    destination.reConnect(delay);
   }
 
   /**
    * start to the remote SRS for remux.
    */
   public void start(final String rtmpUrl) {
-    startTs = System.nanoTime() / 1000;
-    worker = new Thread(new Runnable() {
-      @Override
-      public void run() {
-        android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_MORE_FAVORABLE);
-        if (!connect(rtmpUrl)) {
-          return;
-        }
-        reTries = numRetry;
-        connectCheckerRtmp.onConnectionSuccessRtmp();
-        while (!Thread.interrupted()) {
-          try {
-            SrsFlvFrame frame = mFlvAudioTagCache.poll(1, TimeUnit.MILLISECONDS);
-            if (frame != null) {
-              sendFlvTag(frame);
-            }
-
-            frame = mFlvVideoTagCache.poll(1, TimeUnit.MILLISECONDS);
-            if (frame != null) {
-              sendFlvTag(frame);
-            }
-          } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-          }
-        }
-      }
-    });
-    worker.start();
-  }
-
-  public void stop() {
-    stop(connectCheckerRtmp);
+    destination.start(rtmpUrl);
   }
 
   /**
-   * stop the muxer, disconnect RTMP connection.
+   * stop the muxer, disconnect all RTMP connections and close all FLV files.
    */
-  private void stop(final ConnectCheckerRtmp connectCheckerRtmp) {
-    startTs = 0;
-    handler.removeCallbacks(runnable);
-    if (worker != null) {
-      worker.interrupt();
-      try {
-        worker.join(100);
-      } catch (InterruptedException e) {
-        worker.interrupt();
+  public void stop() {
+    RtmpDestination[] rtmpDestinations = destinations;
+    for (RtmpDestination rtmpDestination : rtmpDestinations) {
+      if (rtmpDestination.isRunning()) {
+        rtmpDestination.stop();
+      }
+    }
+    FlvFileSink[] flvFileSinks = fileSinks;
+    for (FlvFileSink fileSink : flvFileSinks) {
+      if (fileSink.isRunning()) {
+        fileSink.stop();
       }
-      worker = null;
     }
-    mFlvAudioTagCache.clear();
-    mFlvVideoTagCache.clear();
     flv.reset();
-    needToFindKeyFrame = true;
     Log.i(TAG, "SrsFlvMuxer closed");
-
-    new Thread(new Runnable() {
-      @Override
-      public void run() {
-        disconnect(connectCheckerRtmp);
-      }
-    }).start();
   }
 
   public void sendVideo(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
@@ -341,6 +348,43 @@ public class SrsFlvMuxer {
     flv.writeAudioSample(byteBuffer, bufferInfo);
   }
 
+  /**
+   * @return the last sequence header of the type with a reference owned by the caller, or null.
+   */
+  synchronized SrsFlvFrame retainSequenceHeader(int type) {
+    SrsFlvFrame frame = type == SrsFlvFrame.TYPE_VIDEO ? videoSequenceHeader : audioSequenceHeader;
+    if (frame != null) {
+      frame.retain();
+    }
+    return frame;
+  }
+
+  private synchronized void setSequenceHeader(SrsFlvFrame frame) {
+    frame.retain();
+    SrsFlvFrame old;
+    if (frame.is_video()) {
+      old = videoSequenceHeader;
+      videoSequenceHeader = frame;
+    } else {
+      old = audioSequenceHeader;
+      audioSequenceHeader = frame;
+    }
+    if (old != null) {
+      old.release();
+    }
+  }
+
+  private synchronized void clearSequenceHeaders() {
+    if (videoSequenceHeader != null) {
+      videoSequenceHeader.release();
+      videoSequenceHeader = null;
+    }
+    if (audioSequenceHeader != null) {
+      audioSequenceHeader.release();
+      audioSequenceHeader = null;
+    }
+  }
+
   // E.4.3.1 VIDEODATA
   // Frame Type UB [4]
   // Type of video frame. The following values are defined:
@@ -456,50 +500,110 @@ public class SrsFlvMuxer {
   }
 
   /**
-   * the search result for annexb.
+   * cursor over the annexb nalus of a buffer, it only keeps offsets into the source buffer
+   * so iterating a frame never creates objects.
    */
-  private class SrsAnnexbSearch {
-    public int nb_start_code = 0;
-    public boolean match = false;
-  }
+  private class SrsAnnexbCursor {
+    // the offset of the current nalu (after the start code) in the source buffer.
+    public int offset = 0;
+    // the size of the current nalu.
+    public int size = 0;
+    private ByteBuffer bb;
+    private int limit;
+    private int next;
+
+    public void reset(ByteBuffer bb, int limit) {
+      this.bb = bb;
+      this.limit = limit;
+      next = 0;
+      offset = 0;
+      size = 0;
+    }
+
+    /**
+     * move to the next nalu.
+     *
+     * @param untilEnd if true, the nalu is assumed to take the rest of the buffer so only the
+     * start code is searched.
+     * @return false if no more nalus.
+     */
+    public boolean next(boolean untilEnd) {
+      int start = searchStartcode(next);
+      if (start < 0) {
+        return false;
+      }
+      // skip N[00] 00 00 01, where N>=0
+      offset = start + 3;
+      if (untilEnd) {
+        size = limit - offset;
+        next = limit;
+        return true;
+      }
+      int end = searchStartcode(offset);
+      if (end < 0) {
+        end = limit;
+      } else if (end > offset && bb.get(end - 1) == 0x00) {
+        // the 4 bytes start code 00 00 00 01
+        end--;
+      }
+      size = end - offset;
+      next = end;
+      return true;
+    }
 
-  /**
-   * the demuxed tag frame.
-   */
-  private class SrsFlvFrameBytes {
-    public ByteBuffer data;
-    public int size;
+    /**
+     * @return the position of the 00 00 01 of a start code, or -1 if not found.
+     */
+    private int searchStartcode(int from) {
+      for (int i = from; i < limit - 3; i++) {
+        // not match.
+        if (bb.get(i) != 0x00 || bb.get(i + 1) != 0x00) {
+          continue;
+        }
+        // match N[00] 00 00 01, where N>=0
+        if (bb.get(i + 2) == 0x01) {
+          return i;
+        }
+      }
+      return -1;
+    }
   }
 
   /**
-   * the muxed flv frame.
+   * the cached sps or pps, only copied when the encoder changes it.
    */
-  private class SrsFlvFrame {
-    // the tag bytes.
-    public SrsAllocator.Allocation flvTag;
-    // the codec type for audio/aac and video/avc for instance.
-    public int avc_aac_type;
-    // the frame type, keyframe or not.
-    public int frame_type;
-    // the tag type, audio, video or data.
-    public int type;
-    // the dts in ms, tbn is 1000.
-    public int dts;
-
-    public boolean is_keyframe() {
-      return is_video() && frame_type == SrsCodecVideoAVCFrame.KeyFrame;
-    }
+  private class SrsParameterSet {
+    public byte[] data = new byte[64];
+    public int size = 0;
 
-    public boolean is_sequenceHeader() {
-      return avc_aac_type == 0;
+    public boolean isEmpty() {
+      return size == 0;
     }
 
-    public boolean is_video() {
-      return type == SrsCodecFlvTag.Video;
+    public void clear() {
+      size = 0;
     }
 
-    public boolean is_audio() {
-      return type == SrsCodecFlvTag.Audio;
+    /**
+     * @return true if the cached value changed.
+     */
+    public boolean update(ByteBuffer bb, int offset, int length) {
+      if (length == size) {
+        int i = 0;
+        while (i < length && data[i] == bb.get(offset + i)) {
+          i++;
+        }
+        if (i == length) {
+          return false;
+        }
+      }
+      if (length > data.length) {
+        data = new byte[length];
+      }
+      bb.position(offset);
+      bb.get(data, 0, length);
+      size = length;
+      return true;
     }
   }
 
@@ -509,45 +613,15 @@ public class SrsFlvMuxer {
   private class SrsRawH264Stream {
     private final static String TAG = "SrsFlvMuxer";
 
-    private SrsAnnexbSearch annexb = new SrsAnnexbSearch();
-    private SrsFlvFrameBytes nalu_header = new SrsFlvFrameBytes();
-    private SrsFlvFrameBytes seq_hdr = new SrsFlvFrameBytes();
-    private SrsFlvFrameBytes sps_hdr = new SrsFlvFrameBytes();
-    private SrsFlvFrameBytes sps_bb = new SrsFlvFrameBytes();
-    private SrsFlvFrameBytes pps_hdr = new SrsFlvFrameBytes();
-    private SrsFlvFrameBytes pps_bb = new SrsFlvFrameBytes();
-
-    public boolean isSps(SrsFlvFrameBytes frame) {
-      return frame.size >= 1 && (frame.data.get(0) & 0x1f) == SrsAvcNaluType.SPS;
-    }
+    private SrsAnnexbCursor nalu = new SrsAnnexbCursor();
 
-    public boolean isPps(SrsFlvFrameBytes frame) {
-      return frame.size >= 1 && (frame.data.get(0) & 0x1f) == SrsAvcNaluType.PPS;
+    public SrsAnnexbCursor demuxAnnexb(ByteBuffer bb, int size) {
+      nalu.reset(bb, size);
+      return nalu;
     }
 
-    public SrsFlvFrameBytes muxNaluHeader(SrsFlvFrameBytes frame) {
-      if (nalu_header.data == null) {
-        nalu_header.data = ByteBuffer.allocate(4);
-        nalu_header.size = 4;
-      }
-      nalu_header.data.rewind();
-
-      // 5.3.4.2.1 Syntax, H.264-AVC-ISO_IEC_14496-15.pdf, page 16
-      // lengthSizeMinusOne, or NAL_unit_length, always use 4bytes size
-      int NAL_unit_length = frame.size;
-
-      // mux the avc NALU in "ISO Base Media File Format"
-      // from H.264-AVC-ISO_IEC_14496-15.pdf, page 20
-      // NALUnitLength
-      nalu_header.data.putInt(NAL_unit_length);
-
-      // reset the buffer.
-      nalu_header.data.rewind();
-      return nalu_header;
-    }
-
-    public void muxSequenceHeader(ByteBuffer sps, ByteBuffer pps,
-        ArrayList<SrsFlvFrameBytes> frames) {
+    public SrsAllocator.Allocation muxSequenceHeader(SrsParameterSet sps, SrsParameterSet pps,
+        int frame_type, int avc_packet_type) {
       // 5bytes sps/pps header:
       //      configurationVersion, AVCProfileIndication, profile_compatibility,
       //      AVCLevelIndication, lengthSizeMinusOne
@@ -559,93 +633,86 @@ public class SrsFlvMuxer {
       //      numOfPictureParameterSets, pictureParameterSetLength
       // Nbytes of pps:
       //      pictureParameterSetNALUnit
+      SrsAllocator.Allocation allocation =
+          muxFlvTagHeader(5 + 3 + sps.size + 3 + pps.size, frame_type, avc_packet_type);
 
       // decode the SPS:
       // @see: 7.3.2.1.1, H.264-AVC-ISO_IEC_14496-10-2012.pdf, page 62
-      if (seq_hdr.data == null) {
-        seq_hdr.data = ByteBuffer.allocate(5);
-        seq_hdr.size = 5;
-      }
-      seq_hdr.data.rewind();
       // @see: Annex A Profiles and levels, H.264-AVC-ISO_IEC_14496-10.pdf, page 205
       //      Baseline profile profile_idc is 66(0x42).
       //      Main profile profile_idc is 77(0x4d).
       //      Extended profile profile_idc is 88(0x58).
-      byte profile_idc = sps.get(1);
+      byte profile_idc = sps.data[1];
       //u_int8_t constraint_set = frame[2];
-      byte level_idc = sps.get(3);
+      byte level_idc = sps.data[3];
 
       // generate the sps/pps header
       // 5.3.4.2.1 Syntax, H.264-AVC-ISO_IEC_14496-15.pdf, page 16
       // configurationVersion
-      seq_hdr.data.put((byte) 0x01);
+      allocation.put((byte) 0x01);
       // AVCProfileIndication
-      seq_hdr.data.put(profile_idc);
+      allocation.put(profile_idc);
       // profile_compatibility
-      seq_hdr.data.put(profileIop);
+      allocation.put(profileIop);
       // AVCLevelIndication
-      seq_hdr.data.put(level_idc);
+      allocation.put(level_idc);
       // lengthSizeMinusOne, or NAL_unit_length, always use 4bytes size,
       // so we always set it to 0x03.
-      seq_hdr.data.put((byte) 0x03);
-
-      // reset the buffer.
-      seq_hdr.data.rewind();
-      frames.add(seq_hdr);
+      allocation.put((byte) 0x03);
 
       // sps
-      if (sps_hdr.data == null) {
-        sps_hdr.data = ByteBuffer.allocate(3);
-        sps_hdr.size = 3;
-      }
-      sps_hdr.data.rewind();
       // 5.3.4.2.1 Syntax, H.264-AVC-ISO_IEC_14496-15.pdf, page 16
       // numOfSequenceParameterSets, always 1
-      sps_hdr.data.put((byte) 0x01);
+      allocation.put((byte) 0x01);
       // sequenceParameterSetLength
-      sps_hdr.data.putShort((short) sps.array().length);
-
-      sps_hdr.data.rewind();
-      frames.add(sps_hdr);
-
+      allocation.put((byte) (sps.size >> 8));
+      allocation.put((byte) sps.size);
       // sequenceParameterSetNALUnit
-      sps_bb.size = sps.array().length;
-      sps_bb.data = sps.duplicate();
-      frames.add(sps_bb);
+      System.arraycopy(sps.data, 0, allocation.array(), allocation.size(), sps.size);
+      allocation.appendOffset(sps.size);
 
       // pps
-      if (pps_hdr.data == null) {
-        pps_hdr.data = ByteBuffer.allocate(3);
-        pps_hdr.size = 3;
-      }
-      pps_hdr.data.rewind();
       // 5.3.4.2.1 Syntax, H.264-AVC-ISO_IEC_14496-15.pdf, page 16
       // numOfPictureParameterSets, always 1
-      pps_hdr.data.put((byte) 0x01);
+      allocation.put((byte) 0x01);
       // pictureParameterSetLength
-      pps_hdr.data.putShort((short) pps.array().length);
+      allocation.put((byte) (pps.size >> 8));
+      allocation.put((byte) pps.size);
+      // pictureParameterSetNALUnit
+      System.arraycopy(pps.data, 0, allocation.array(), allocation.size(), pps.size);
+      allocation.appendOffset(pps.size);
+      return allocation;
+    }
 
-      pps_hdr.data.rewind();
-      frames.add(pps_hdr);
+    public SrsAllocator.Allocation muxFlvTag(ByteBuffer bb, int offset, int size, int frame_type,
+        int avc_packet_type) {
+      SrsAllocator.Allocation allocation = muxFlvTagHeader(4 + size, frame_type, avc_packet_type);
 
-      // pictureParameterSetNALUnit
-      pps_bb.size = pps.array().length;
-      pps_bb.data = pps.duplicate();
-      frames.add(pps_bb);
+      // 5.3.4.2.1 Syntax, H.264-AVC-ISO_IEC_14496-15.pdf, page 16
+      // lengthSizeMinusOne, or NAL_unit_length, always use 4bytes size
+      // mux the avc NALU in "ISO Base Media File Format"
+      // from H.264-AVC-ISO_IEC_14496-15.pdf, page 20
+      // NALUnitLength
+      allocation.put((byte) (size >> 24));
+      allocation.put((byte) (size >> 16));
+      allocation.put((byte) (size >> 8));
+      allocation.put((byte) size);
+
+      // h.264 raw data.
+      bb.position(offset);
+      bb.get(allocation.array(), allocation.size(), size);
+      allocation.appendOffset(size);
+      return allocation;
     }
 
-    public SrsAllocator.Allocation muxFlvTag(ArrayList<SrsFlvFrameBytes> frames, int frame_type,
+    private SrsAllocator.Allocation muxFlvTagHeader(int size, int frame_type,
         int avc_packet_type) {
       // for h264 in RTMP video payload, there is 5bytes header:
       //      1bytes, FrameType | CodecID
       //      1bytes, AVCPacketType
       //      3bytes, CompositionTime, the cts.
       // @see: E.4.3 Video Tags, video_file_format_spec_v10_1.pdf, page 78
-      int size = 5;
-      for (int i = 0; i < frames.size(); i++) {
-        size += frames.get(i).size;
-      }
-      SrsAllocator.Allocation allocation = mVideoAllocator.allocate(size);
+      SrsAllocator.Allocation allocation = mVideoAllocator.allocate(5 + size);
 
       // @see: E.4.3 Video Tags, video_file_format_spec_v10_1.pdf, page 78
       // Frame Type, Type of video frame.
@@ -664,82 +731,8 @@ public class SrsFlvMuxer {
       allocation.put((byte) (cts >> 16));
       allocation.put((byte) (cts >> 8));
       allocation.put((byte) cts);
-
-      // h.264 raw data.
-      for (int i = 0; i < frames.size(); i++) {
-        SrsFlvFrameBytes frame = frames.get(i);
-        frame.data.rewind();
-        frame.data.get(allocation.array(), allocation.size(), frame.size);
-        allocation.appendOffset(frame.size);
-      }
-
       return allocation;
     }
-
-    private SrsAnnexbSearch searchStartcode(ByteBuffer bb, int size) {
-      annexb.match = false;
-      annexb.nb_start_code = 0;
-      if (size - 4 > 0) {
-        if (bb.get(0) == 0x00 && bb.get(1) == 0x00 && bb.get(2) == 0x00 && bb.get(3) == 0x01) {
-          // match N[00] 00 00 00 01, where N>=0
-          annexb.match = true;
-          annexb.nb_start_code = 4;
-        } else if (bb.get(0) == 0x00 && bb.get(1) == 0x00 && bb.get(2) == 0x01) {
-          // match N[00] 00 00 01, where N>=0
-          annexb.match = true;
-          annexb.nb_start_code = 3;
-        }
-      }
-      return annexb;
-    }
-
-    private SrsAnnexbSearch searchAnnexb(ByteBuffer bb, int size) {
-      annexb.match = false;
-      annexb.nb_start_code = 0;
-      for (int i = bb.position(); i < size - 4; i++) {
-        // not match.
-        if (bb.get(i) != 0x00 || bb.get(i + 1) != 0x00) {
-          continue;
-        }
-        // match N[00] 00 00 01, where N>=0
-        if (bb.get(i + 2) == 0x01) {
-          annexb.match = true;
-          annexb.nb_start_code = i + 3 - bb.position();
-          break;
-        }
-        // match N[00] 00 00 00 01, where N>=0
-        if (bb.get(i + 2) == 0x00 && bb.get(i + 3) == 0x01) {
-          annexb.match = true;
-          annexb.nb_start_code = i + 4 - bb.position();
-          break;
-        }
-      }
-      return annexb;
-    }
-
-    public SrsFlvFrameBytes demuxAnnexb(ByteBuffer bb, int size, boolean isOnlyChkHeader) {
-      SrsFlvFrameBytes tbb = new SrsFlvFrameBytes();
-      if (bb.position() < size - 4) {
-        // each frame must prefixed by annexb format.
-        // about annexb, @see H.264-AVC-ISO_IEC_14496-10.pdf, page 211.
-        SrsAnnexbSearch tbbsc =
-            isOnlyChkHeader ? searchStartcode(bb, size) : searchAnnexb(bb, size);
-        // tbbsc.nb_start_code always 4 , after 00 00 00 01
-        if (!tbbsc.match || tbbsc.nb_start_code < 3) {
-          Log.e(TAG, "annexb not match.");
-        } else {
-          // the start codes.
-          for (int i = 0; i < tbbsc.nb_start_code; i++) {
-            bb.get();
-          }
-
-          // find out the frame size.
-          tbb.data = bb.slice();
-          tbb.size = size - bb.position();
-        }
-      }
-      return tbb;
-    }
   }
 
   /**
@@ -747,11 +740,10 @@ public class SrsFlvMuxer {
    */
   private class SrsFlv {
     private SrsRawH264Stream avc = new SrsRawH264Stream();
-    private ArrayList<SrsFlvFrameBytes> ipbs = new ArrayList<>();
     private SrsAllocator.Allocation audio_tag;
     private SrsAllocator.Allocation video_tag;
-    private ByteBuffer Sps;
-    private ByteBuffer Pps;
+    private SrsParameterSet Sps = new SrsParameterSet();
+    private SrsParameterSet Pps = new SrsParameterSet();
     private boolean aac_specific_config_got;
     private int achannel;
 
@@ -764,10 +756,11 @@ public class SrsFlvMuxer {
     }
 
     public void reset() {
-      Sps = null;
-      Pps = null;
+      Sps.clear();
+      Pps.clear();
       isPpsSpsSend = false;
       aac_specific_config_got = false;
+      clearSequenceHeaders();
     }
 
     public void writeAudioSample(final ByteBuffer bb, MediaCodec.BufferInfo bi) {
@@ -925,121 +918,93 @@ public class SrsFlvMuxer {
       bb.rewind();  //Sometimes the position is not 0.
       int pts = (int) (bi.presentationTimeUs / 1000);
       int type = SrsCodecVideoAVCFrame.InterFrame;
-      SrsFlvFrameBytes frame = avc.demuxAnnexb(bb, bi.size, true);
-      int nal_unit_type = frame.data.get(0) & 0x1f;
+      // only the first nalu header is checked, slices take the rest of the buffer.
+      SrsAnnexbCursor frame = avc.demuxAnnexb(bb, bi.size);
+      if (!frame.next(true)) {
+        Log.e(TAG, "annexb not match.");
+        return;
+      }
+      int nal_unit_type = bb.get(frame.offset) & 0x1f;
       if (nal_unit_type == SrsAvcNaluType.IDR || bi.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
         type = SrsCodecVideoAVCFrame.KeyFrame;
       } else if (nal_unit_type == SrsAvcNaluType.SPS || nal_unit_type == SrsAvcNaluType.PPS) {
-        SrsFlvFrameBytes frame_pps = avc.demuxAnnexb(bb, bi.size, false);
-        frame.size = frame.size - frame_pps.size - 4;  // 4 ---> 00 00 00 01 pps
-        if (!frame.data.equals(Sps)) {
-          byte[] sps = new byte[frame.size];
-          frame.data.get(sps);
-          isPpsSpsSend = false;
-          Sps = ByteBuffer.wrap(sps);
-        }
-
-        SrsFlvFrameBytes frame_sei = avc.demuxAnnexb(bb, bi.size, false);
-        if (frame_sei.size > 0) {
-          if (SrsAvcNaluType.SEI == (frame_sei.data.get(0) & 0x1f)) {
-            frame_pps.size = frame_pps.size - frame_sei.size - 3;// 3 ---> 00 00 01 SEI
+        frame = avc.demuxAnnexb(bb, bi.size);
+        while (frame.next(false)) {
+          nal_unit_type = bb.get(frame.offset) & 0x1f;
+          if (nal_unit_type == SrsAvcNaluType.SPS) {
+            if (Sps.update(bb, frame.offset, frame.size)) isPpsSpsSend = false;
+          } else if (nal_unit_type == SrsAvcNaluType.PPS) {
+            if (Pps.update(bb, frame.offset, frame.size)) isPpsSpsSend = false;
           }
         }
-
-        if (frame_pps.size > 0 && !frame_pps.data.equals(Pps)) {
-          byte[] pps = new byte[frame_pps.size];
-          frame_pps.data.get(pps);
-          isPpsSpsSend = false;
-          Pps = ByteBuffer.wrap(pps);
-          writeH264SpsPps(pts);
-        }
+        writeH264SpsPps(pts);
         return;
       } else if (nal_unit_type != SrsAvcNaluType.NonIDR) {
         return;
       }
 
-      ipbs.add(avc.muxNaluHeader(frame));
-      ipbs.add(frame);
-
-      writeH264IpbFrame(ipbs, type, pts);
-      ipbs.clear();
+      writeH264IpbFrame(bb, frame.offset, frame.size, type, pts);
     }
 
     public void setSpsPPs(ByteBuffer sps, ByteBuffer pps) {
-      Sps = sps;
-      Pps = pps;
+      if (Sps.update(sps.duplicate(), 0, sps.capacity())) isPpsSpsSend = false;
+      if (Pps.update(pps.duplicate(), 0, pps.capacity())) isPpsSpsSend = false;
     }
 
     private void writeH264SpsPps(int pts) {
       // when not got sps/pps, wait.
-      if (Pps == null || Sps == null || isPpsSpsSend) {
+      if (Pps.isEmpty() || Sps.isEmpty() || isPpsSpsSend) {
         return;
       }
 
-      // h264 raw to h264 packet.
-      ArrayList<SrsFlvFrameBytes> frames = new ArrayList<>();
-      avc.muxSequenceHeader(Sps, Pps, frames);
-
-      // h264 packet to flv packet.
+      // h264 raw to h264 packet and flv packet.
       int frame_type = SrsCodecVideoAVCFrame.KeyFrame;
       int avc_packet_type = SrsCodecVideoAVCType.SequenceHeader;
-      video_tag = avc.muxFlvTag(frames, frame_type, avc_packet_type);
+      video_tag = avc.muxSequenceHeader(Sps, Pps, frame_type, avc_packet_type);
 
       isPpsSpsSend = true;
       // the timestamp in rtmp message header is dts.
       writeRtmpPacket(SrsCodecFlvTag.Video, pts, frame_type, avc_packet_type, video_tag);
-      Log.i(TAG, String.format("flv: h264 sps/pps sent, sps=%dB, pps=%dB", Sps.array().length,
-          Pps.array().length));
+      Log.i(TAG, String.format("flv: h264 sps/pps sent, sps=%dB, pps=%dB", Sps.size, Pps.size));
     }
 
-    private void writeH264IpbFrame(ArrayList<SrsFlvFrameBytes> frames, int frame_type, int dts) {
+    private void writeH264IpbFrame(ByteBuffer bb, int offset, int size, int frame_type, int dts) {
       // when sps or pps not sent, ignore the packet.
       // @see https://github.com/simple-rtmp-server/srs/issues/203
-      if (Pps == null || Sps == null) {
+      if (Pps.isEmpty() || Sps.isEmpty()) {
         return;
       }
-      video_tag = avc.muxFlvTag(frames, frame_type, SrsCodecVideoAVCType.NALU);
+      video_tag = avc.muxFlvTag(bb, offset, size, frame_type, SrsCodecVideoAVCType.NALU);
       // the timestamp in rtmp message header is dts.
       writeRtmpPacket(SrsCodecFlvTag.Video, dts, frame_type, SrsCodecVideoAVCType.NALU, video_tag);
     }
 
     private void writeRtmpPacket(int type, int dts, int frame_type, int avc_aac_type,
         SrsAllocator.Allocation tag) {
-      SrsFlvFrame frame = new SrsFlvFrame();
+      SrsFlvFrame frame = mFlvFramePool.poll();
+      if (frame == null) {
+        frame = new SrsFlvFrame();
+      }
+      frame.init(type == SrsCodecFlvTag.Video ? mVideoAllocator : mAudioAllocator,
+          mFlvFramePool);
       frame.flvTag = tag;
       frame.type = type;
       frame.dts = dts;
       frame.frame_type = frame_type;
       frame.avc_aac_type = avc_aac_type;
-      if (frame.is_video()) {
-        if (needToFindKeyFrame) {
-          if (frame.is_keyframe()) {
-            needToFindKeyFrame = false;
-            flvFrameCacheAdd(frame);
-          }
-        } else {
-          flvFrameCacheAdd(frame);
-        }
-      } else if (frame.is_audio()) {
-        flvFrameCacheAdd(frame);
+      if (frame.is_sequenceHeader()) {
+        setSequenceHeader(frame);
       }
-    }
-
-    private void flvFrameCacheAdd(SrsFlvFrame frame) {
-      try {
-        if(frame.is_video()) {
-          mFlvVideoTagCache.add(frame);
-        } else {
-          mFlvAudioTagCache.add(frame);
-        }
-      } catch (IllegalStateException e) {
-        Log.i(TAG, "frame discarded");
-        if (frame.is_video()) {
-          mDroppedVideoFrames++;
-        } else {
-          mDroppedAudioFrames++;
-        }
+      // every destination and file takes its own reference, then the muxer one is released.
+      RtmpDestination[] rtmpDestinations = destinations;
+      for (int i = 0; i < rtmpDestinations.length; i++) {
+        rtmpDestinations[i].offer(frame);
+      }
+      FlvFileSink[] flvFileSinks = fileSinks;
+      for (int i = 0; i < flvFileSinks.length; i++) {
+        flvFileSinks[i].offer(frame);
       }
+      frame.release();
     }
   }
 }
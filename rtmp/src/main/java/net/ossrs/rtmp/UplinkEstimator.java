@@ -0,0 +1,267 @@
+package net.ossrs.rtmp;
+
+/**
+ * Estimate the RTMP uplink from the socket instead of counting the bytes handed to the
+ * connection like BitrateManager does. Three signals are used:
+ * - Time blocked writing to the socket. Writes start blocking when the socket send buffer is full.
+ * - Growth of the tag cache of the destination.
+ * - Acknowledgement sequence numbers sent by the server, the bytes really received (goodput).
+ *
+ * The estimation is updated every second and given to the BitrateController, if any, outside of
+ * the lock of this class.
+ */
+public class UplinkEstimator {
+
+  private static final long INTERVAL_NS = 1000000000L;
+  //blocked more than this fraction of the interval writing to the socket
+  private static final float BLOCKED_RATIO_SATURATED = 0.5f;
+  //intervals with the cache growing before considering the uplink saturated
+  private static final int QUEUE_GROWTH_INTERVALS = 2;
+  //goodput below this fraction of the send bitrate
+  private static final float GOODPUT_RATIO_SATURATED = 0.8f;
+  private static final float SMOOTH_FACTOR = 0.3f;
+
+  private BitrateController bitrateController;
+
+  private long intervalStart;
+  //bytes written to the socket
+  private long bytesWritten;
+  private long intervalBytesWritten;
+  private long intervalBlockedNs;
+  private int intervalWrites;
+  //acknowledged by server, sequence number is an uint32 that can wrap. It counts every byte of the
+  //connection so the bytes written before reset (handshake, connect) are the baseline.
+  private boolean ackReceived;
+  private int lastSequenceNumber;
+  private long bytesAcked;
+  private long lastAckTime;
+  private long lastAckBytes;
+  //tag cache of the destination
+  private int queueSize;
+  private int queueCapacity;
+  private int intervalStartQueueSize;
+  private int queueGrowthIntervals;
+
+  //results
+  private long sendBitrate;
+  private long goodput = -1;
+  private float goodputTrend;
+  private float blockedRatio;
+  private long averageWriteTimeUs;
+  private int queueGrowth;
+  private long inFlightBytes;
+  private boolean saturated;
+
+  public UplinkEstimator() {
+    reset();
+  }
+
+  public synchronized void setBitrateController(BitrateController bitrateController) {
+    this.bitrateController = bitrateController;
+  }
+
+  public void reset() {
+    reset(0);
+  }
+
+  /**
+   * @param connectionBytes bytes already written in the connection, acknowledged by the server
+   * but not given to onBytesWritten.
+   */
+  public synchronized void reset(long connectionBytes) {
+    intervalStart = System.nanoTime();
+    bytesWritten = 0;
+    intervalBytesWritten = 0;
+    intervalBlockedNs = 0;
+    intervalWrites = 0;
+    ackReceived = false;
+    lastSequenceNumber = (int) connectionBytes;
+    bytesAcked = 0;
+    lastAckTime = 0;
+    lastAckBytes = 0;
+    queueSize = 0;
+    intervalStartQueueSize = 0;
+    queueGrowthIntervals = 0;
+    sendBitrate = 0;
+    goodput = -1;
+    goodputTrend = 0;
+    blockedRatio = 0;
+    averageWriteTimeUs = 0;
+    queueGrowth = 0;
+    inFlightBytes = 0;
+    saturated = false;
+  }
+
+  /**
+   * @param bytes written to the socket, including chunk headers.
+   * @param elapsedNs time blocked in the write and flush.
+   */
+  public void onBytesWritten(long bytes, long elapsedNs) {
+    boolean intervalDone;
+    synchronized (this) {
+      bytesWritten += bytes;
+      intervalBytesWritten += bytes;
+      intervalBlockedNs += elapsedNs;
+      intervalWrites++;
+      intervalDone = checkInterval();
+    }
+    if (intervalDone) notifyController();
+  }
+
+  /**
+   * @param sequenceNumber of an Acknowledgement from the server, bytes received so far.
+   */
+  public void onAcknowledgement(int sequenceNumber) {
+    boolean intervalDone;
+    synchronized (this) {
+      long now = System.nanoTime();
+      int delta = sequenceNumber - lastSequenceNumber;
+      if (ackReceived || delta >= 0) {
+        //unsigned difference handles the wrap of the sequence number
+        bytesAcked += delta & 0xffffffffL;
+      }
+      //else the server doesn't count the bytes before reset like us, the first ack is only the
+      //baseline of the next ones
+      ackReceived = true;
+      lastSequenceNumber = sequenceNumber;
+      if (lastAckTime != 0 && now > lastAckTime) {
+        long instantGoodput = (bytesAcked - lastAckBytes) * 8 * 1000000000L / (now - lastAckTime);
+        long previous = goodput;
+        goodput = previous < 0 ? instantGoodput
+            : (long) (previous + SMOOTH_FACTOR * (instantGoodput - previous));
+        if (previous > 0) {
+          goodputTrend = (goodput - previous) / (float) previous;
+        }
+      }
+      lastAckTime = now;
+      lastAckBytes = bytesAcked;
+      intervalDone = checkInterval();
+    }
+    if (intervalDone) notifyController();
+  }
+
+  /**
+   * @param size frames waiting in the tag cache of the destination.
+   * @param capacity max frames of the tag cache.
+   */
+  public void onQueueSize(int size, int capacity) {
+    boolean intervalDone;
+    synchronized (this) {
+      queueSize = size;
+      queueCapacity = capacity;
+      intervalDone = checkInterval();
+    }
+    if (intervalDone) notifyController();
+  }
+
+  /**
+   * Called without holding the lock so the controller can take its own locks (encoder) in any
+   * order.
+   */
+  private void notifyController() {
+    BitrateController controller;
+    synchronized (this) {
+      controller = bitrateController;
+    }
+    if (controller != null) {
+      controller.onUplinkEstimation(this);
+    }
+  }
+
+  /**
+   * @return true if a new estimation was calculated.
+   */
+  private boolean checkInterval() {
+    long now = System.nanoTime();
+    long elapsed = now - intervalStart;
+    if (elapsed < INTERVAL_NS) return false;
+
+    sendBitrate = intervalBytesWritten * 8 * 1000000000L / elapsed;
+    blockedRatio = Math.min(1f, intervalBlockedNs / (float) elapsed);
+    averageWriteTimeUs = intervalWrites > 0 ? intervalBlockedNs / intervalWrites / 1000 : 0;
+    queueGrowth = queueSize - intervalStartQueueSize;
+    if (queueGrowth > 0) {
+      queueGrowthIntervals++;
+    } else if (queueGrowth < 0 || queueSize == 0) {
+      queueGrowthIntervals = 0;
+    }
+    inFlightBytes = ackReceived ? Math.max(0, bytesWritten - bytesAcked) : 0;
+
+    boolean blocked = blockedRatio >= BLOCKED_RATIO_SATURATED;
+    boolean queueGrowing = queueGrowthIntervals >= QUEUE_GROWTH_INTERVALS
+        && queueSize > queueCapacity / 4;
+    boolean goodputLow = goodput >= 0 && sendBitrate > 0
+        && goodput < sendBitrate * GOODPUT_RATIO_SATURATED && goodputTrend < 0;
+    saturated = blocked || queueGrowing || goodputLow;
+
+    intervalStart = now;
+    intervalBytesWritten = 0;
+    intervalBlockedNs = 0;
+    intervalWrites = 0;
+    intervalStartQueueSize = queueSize;
+    return true;
+  }
+
+  /**
+   * @return bits per second written to the socket in the last interval.
+   */
+  public synchronized long getSendBitrate() {
+    return sendBitrate;
+  }
+
+  /**
+   * @return smoothed bits per second acknowledged by the server, -1 if the server doesn't send
+   * Acknowledgement.
+   */
+  public synchronized long getGoodput() {
+    return goodput;
+  }
+
+  /**
+   * @return relative change of the goodput between the last two acknowledgements.
+   */
+  public synchronized float getGoodputTrend() {
+    return goodputTrend;
+  }
+
+  /**
+   * @return fraction of the last interval blocked writing to the socket, from 0 to 1.
+   */
+  public synchronized float getBlockedRatio() {
+    return blockedRatio;
+  }
+
+  public synchronized long getAverageWriteTimeUs() {
+    return averageWriteTimeUs;
+  }
+
+  public synchronized int getQueueSize() {
+    return queueSize;
+  }
+
+  public synchronized int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * @return frames added to the tag cache in the last interval, negative if it is draining.
+   */
+  public synchronized int getQueueGrowth() {
+    return queueGrowth;
+  }
+
+  /**
+   * @return bytes written but not acknowledged by the server yet.
+   */
+  public synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+
+  /**
+   * @return true if the network is not accepting the bytes we produce. It is detected before the
+   * tag cache overflows.
+   */
+  public synchronized boolean isSaturated() {
+    return saturated;
+  }
+}
@@ -0,0 +1,228 @@
+package com.github.faucamp.simplertmp.io;
+
+import com.github.faucamp.simplertmp.packets.ContentData;
+import com.github.faucamp.simplertmp.packets.RtmpPacket;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Chunks are built by hand and given to the framer one byte at a time, like a slow socket would,
+ * to check it finds the same chunk boundaries that RtmpDecoder consumes.
+ */
+public class RtmpChunkFramerTest {
+
+  private static final int TYPE_AUDIO = 0x08;
+  private static final int TYPE_VIDEO = 0x09;
+  private static final int TYPE_SET_CHUNK_SIZE = 0x01;
+
+  private RtmpSessionInfo rtmpSessionInfo;
+  private RtmpDecoder rtmpDecoder;
+  private PacketBufferInputStream chunkInputStream;
+
+  @Before
+  public void setUp() {
+    rtmpSessionInfo = new RtmpSessionInfo();
+    rtmpDecoder = new RtmpDecoder(rtmpSessionInfo);
+    chunkInputStream = new PacketBufferInputStream();
+  }
+
+  @Test
+  public void singleChunk() throws IOException {
+    byte[] payload = payload(100);
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    type0(wire, 7, 1000, payload.length, TYPE_AUDIO);
+    wire.write(payload);
+
+    List<Integer> chunkLengths = new ArrayList<>();
+    List<RtmpPacket> packets = readAll(wire.toByteArray(), chunkLengths);
+    assertEquals(Arrays.asList(12 + 100), chunkLengths);
+    assertEquals(1, packets.size());
+    assertArrayEquals(payload, ((ContentData) packets.get(0)).getData());
+    assertEquals(1000, packets.get(0).getHeader().getAbsoluteTimestamp());
+  }
+
+  @Test
+  public void packetSplitInChunks() throws IOException {
+    byte[] payload = payload(300);
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    type0(wire, 6, 40, payload.length, TYPE_VIDEO);
+    wire.write(payload, 0, 128);
+    type3(wire, 6);
+    wire.write(payload, 128, 128);
+    type3(wire, 6);
+    wire.write(payload, 256, 44);
+
+    List<Integer> chunkLengths = new ArrayList<>();
+    List<RtmpPacket> packets = readAll(wire.toByteArray(), chunkLengths);
+    assertEquals(Arrays.asList(12 + 128, 1 + 128, 1 + 44), chunkLengths);
+    assertEquals(1, packets.size());
+    assertArrayEquals(payload, ((ContentData) packets.get(0)).getData());
+  }
+
+  @Test
+  public void interleavedChunkStreams() throws IOException {
+    byte[] video = payload(200);
+    byte[] audio = payload(20);
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    type0(wire, 6, 0, video.length, TYPE_VIDEO);
+    wire.write(video, 0, 128);
+    type0(wire, 7, 0, audio.length, TYPE_AUDIO);
+    wire.write(audio);
+    type3(wire, 6);
+    wire.write(video, 128, 72);
+
+    List<Integer> chunkLengths = new ArrayList<>();
+    List<RtmpPacket> packets = readAll(wire.toByteArray(), chunkLengths);
+    assertEquals(Arrays.asList(12 + 128, 12 + 20, 1 + 72), chunkLengths);
+    assertEquals(2, packets.size());
+    assertArrayEquals(audio, ((ContentData) packets.get(0)).getData());
+    assertArrayEquals(video, ((ContentData) packets.get(1)).getData());
+  }
+
+  @Test
+  public void chunkSizeChangeAppliesToNextChunks() throws IOException {
+    byte[] payload = payload(300);
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    type0(wire, 2, 0, 4, TYPE_SET_CHUNK_SIZE);
+    int32(wire, 256);
+    type0(wire, 6, 0, payload.length, TYPE_VIDEO);
+    wire.write(payload, 0, 256);
+    type3(wire, 6);
+    wire.write(payload, 256, 44);
+    // fits in a single chunk with the new size
+    type0(wire, 6, 33, 200, TYPE_VIDEO);
+    wire.write(payload, 0, 200);
+
+    List<Integer> chunkLengths = new ArrayList<>();
+    List<RtmpPacket> packets = readAll(wire.toByteArray(), chunkLengths);
+    assertEquals(Arrays.asList(12 + 4, 12 + 256, 1 + 44, 12 + 200), chunkLengths);
+    assertEquals(256, rtmpSessionInfo.getRxChunkSize());
+    assertEquals(2, packets.size());
+    assertArrayEquals(payload, ((ContentData) packets.get(0)).getData());
+    assertEquals(200, ((ContentData) packets.get(1)).getData().length);
+  }
+
+  @Test
+  public void extendedTimestampInFullHeader() throws IOException {
+    byte[] payload = payload(50);
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    type0(wire, 7, 0xffffff, payload.length, TYPE_AUDIO);
+    int32(wire, 0x12345678);
+    wire.write(payload);
+
+    List<Integer> chunkLengths = new ArrayList<>();
+    List<RtmpPacket> packets = readAll(wire.toByteArray(), chunkLengths);
+    assertEquals(Arrays.asList(12 + 4 + 50), chunkLengths);
+    assertEquals(0x12345678, packets.get(0).getHeader().getAbsoluteTimestamp());
+  }
+
+  @Test
+  public void extendedTimestampInContinuationChunks() throws IOException {
+    byte[] first = payload(10);
+    byte[] payload = payload(200);
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    type0(wire, 6, 0, first.length, TYPE_VIDEO);
+    wire.write(first);
+    // type 1 with an extended timestamp delta, its type 3 chunks repeat the extended field
+    wire.write((1 << 6) | 6);
+    int24(wire, 0xffffff);
+    int24(wire, payload.length);
+    wire.write(TYPE_VIDEO);
+    int32(wire, 0x01000000);
+    wire.write(payload, 0, 128);
+    type3(wire, 6);
+    int32(wire, 0x01000000);
+    wire.write(payload, 128, 72);
+
+    List<Integer> chunkLengths = new ArrayList<>();
+    List<RtmpPacket> packets = readAll(wire.toByteArray(), chunkLengths);
+    assertEquals(Arrays.asList(12 + 10, 8 + 4 + 128, 1 + 4 + 72), chunkLengths);
+    assertEquals(2, packets.size());
+    assertArrayEquals(payload, ((ContentData) packets.get(1)).getData());
+    assertEquals(0x01000000, packets.get(1).getHeader().getAbsoluteTimestamp());
+  }
+
+  @Test(expected = IOException.class)
+  public void continuationWithoutPreviousHeaderFails() throws IOException {
+    byte[] chunk = new byte[] { (byte) ((3 << 6) | 6), 0, 0 };
+    RtmpChunkFramer.nextChunkLength(chunk, 0, chunk.length, rtmpSessionInfo);
+  }
+
+  /**
+   * Same loop as RtmpConnection.RxListener but the received bytes grow one at a time. Every prefix
+   * shorter than a chunk must be reported as incomplete and the decoder must consume exactly the
+   * reported length.
+   */
+  private List<RtmpPacket> readAll(byte[] wire, List<Integer> chunkLengths) throws IOException {
+    List<RtmpPacket> packets = new ArrayList<>();
+    int offset = 0;
+    int received = 0;
+    while (offset < wire.length) {
+      received++;
+      int chunkLength =
+          RtmpChunkFramer.nextChunkLength(wire, offset, received - offset, rtmpSessionInfo);
+      if (chunkLength == -1) {
+        if (received == wire.length) {
+          throw new AssertionError("incomplete chunk at " + offset);
+        }
+        continue;
+      }
+      assertEquals("chunk at " + offset + " reported before it was complete", received - offset,
+          chunkLength);
+      chunkInputStream.wrap(wire, offset, chunkLength);
+      RtmpPacket rtmpPacket = rtmpDecoder.readPacket(chunkInputStream);
+      assertEquals("decoder didn't consume the chunk at " + offset, 0,
+          chunkInputStream.available());
+      if (rtmpPacket != null) {
+        packets.add(rtmpPacket);
+      }
+      chunkLengths.add(chunkLength);
+      offset += chunkLength;
+    }
+    return packets;
+  }
+
+  private static void type0(ByteArrayOutputStream out, int chunkStreamId, int timestamp,
+      int packetLength, int messageType) {
+    out.write(chunkStreamId);
+    int24(out, timestamp);
+    int24(out, packetLength);
+    out.write(messageType);
+    //message stream id, little endian
+    out.write(1);
+    out.write(0);
+    out.write(0);
+    out.write(0);
+  }
+
+  private static void type3(ByteArrayOutputStream out, int chunkStreamId) {
+    out.write((3 << 6) | chunkStreamId);
+  }
+
+  private static void int24(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static void int32(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    int24(out, value);
+  }
+
+  private static byte[] payload(int length) {
+    byte[] payload = new byte[length];
+    for (int i = 0; i < length; i++) {
+      payload[i] = (byte) (i * 7 + length);
+    }
+    return payload;
+  }
+}
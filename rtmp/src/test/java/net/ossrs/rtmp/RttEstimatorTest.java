@@ -0,0 +1,40 @@
+package net.ossrs.rtmp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RttEstimatorTest {
+
+  @Test
+  public void constantRttConvergesFromBelow() {
+    RttEstimator rttEstimator = new RttEstimator();
+    rttEstimator.onRttSample(5);
+    for (int i = 0; i < 200; i++) {
+      rttEstimator.onRttSample(20);
+    }
+    assertEquals(20, rttEstimator.getSmoothedRtt());
+    assertEquals(0, rttEstimator.getRttVariance());
+    assertEquals(5, rttEstimator.getMinRtt());
+  }
+
+  @Test
+  public void fractionOfMsIsNotLost() {
+    RttEstimator rttEstimator = new RttEstimator();
+    for (int i = 0; i < 200; i++) {
+      rttEstimator.onRttSample(i % 2 == 0 ? 0.6 : 0.8);
+    }
+    assertEquals(1, rttEstimator.getSmoothedRtt());
+    assertEquals(1, rttEstimator.getLastRtt());
+  }
+
+  @Test
+  public void varianceFollowsJitter() {
+    RttEstimator rttEstimator = new RttEstimator();
+    for (int i = 0; i < 200; i++) {
+      rttEstimator.onRttSample(i % 2 == 0 ? 10 : 30);
+    }
+    assertEquals(20, rttEstimator.getSmoothedRtt(), 2);
+    assertEquals(10, rttEstimator.getRttVariance(), 2);
+  }
+}
@@ -0,0 +1,167 @@
+package net.ossrs.rtmp;
+
+import android.media.MediaCodec;
+import com.github.faucamp.simplertmp.RtmpPublisher;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SrsFlvMuxerTest {
+
+  private static final int FRAMES = 2000;
+
+  private static final byte[] SPS_PPS = {
+      0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1e, (byte) 0xda, 0x02, (byte) 0x80,
+      0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80
+  };
+
+  @Test
+  public void muxingFramesDoesNotAllocate() {
+    com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+    Assume.assumeTrue(threadMXBean != null);
+    SrsFlvMuxer muxer = new SrsFlvMuxer(new FakeConnectChecker(), new FakePublisher());
+    muxer.setSampleRate(44100);
+    muxer.setIsStereo(true);
+    // the default destination is not started so offer returns early, the added one is started
+    // with a publisher that discards tags to also cover caching, dropping and releasing frames.
+    RtmpDestination destination = muxer.addDestination(new FakeConnectChecker(),
+        new FakePublisher());
+    destination.start("rtmp://localhost/live/test");
+    try {
+      muxFrames(muxer, threadMXBean);
+      assertTrue(destination.getSentVideoFrames() + destination.getDroppedVideoFrames() > 0);
+    } finally {
+      destination.stop();
+    }
+  }
+
+  private static void muxFrames(SrsFlvMuxer muxer,
+      com.sun.management.ThreadMXBean threadMXBean) {
+    ByteBuffer spsPps = ByteBuffer.wrap(SPS_PPS);
+    ByteBuffer keyFrame = nalu(5, 20 * 1024);
+    ByteBuffer interFrame = nalu(1, 4 * 1024);
+    ByteBuffer aac = ByteBuffer.allocate(512);
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    MediaCodec.BufferInfo audioInfo = new MediaCodec.BufferInfo();
+
+    info.size = SPS_PPS.length;
+    info.flags = MediaCodec.BUFFER_FLAG_CODEC_CONFIG;
+    muxer.sendVideo(spsPps, info);
+    audioInfo.size = 2;
+    audioInfo.flags = MediaCodec.BUFFER_FLAG_CODEC_CONFIG;
+    muxer.sendAudio(aac, audioInfo);
+    audioInfo.size = aac.capacity();
+    audioInfo.flags = 0;
+
+    // warm up the pools and let the JIT compile the path, interpreted code may allocate.
+    for (int i = 0; i < 10; i++) {
+      sendFrames(muxer, keyFrame, interFrame, aac, info, audioInfo, FRAMES);
+    }
+
+    long start = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    sendFrames(muxer, keyFrame, interFrame, aac, info, audioInfo, FRAMES);
+    long allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+
+    assertEquals("bytes allocated per frame, total " + allocated, 0, allocated / FRAMES);
+  }
+
+  private static void sendFrames(SrsFlvMuxer muxer, ByteBuffer keyFrame, ByteBuffer interFrame,
+      ByteBuffer aac, MediaCodec.BufferInfo info, MediaCodec.BufferInfo audioInfo, int frames) {
+    for (int i = 0; i < frames; i++) {
+      ByteBuffer frame = i % 30 == 0 ? keyFrame : interFrame;
+      info.size = frame.capacity();
+      info.flags = i % 30 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+      info.presentationTimeUs = i * 33333L;
+      muxer.sendVideo(frame, info);
+      aac.clear();
+      audioInfo.presentationTimeUs = i * 23220L;
+      muxer.sendAudio(aac, audioInfo);
+    }
+  }
+
+  private static ByteBuffer nalu(int type, int size) {
+    ByteBuffer nalu = ByteBuffer.allocate(size);
+    nalu.put(new byte[] { 0, 0, 0, 1, (byte) (0x60 | type) });
+    while (nalu.hasRemaining()) nalu.put((byte) 0x55);
+    nalu.clear();
+    return nalu;
+  }
+
+  private static com.sun.management.ThreadMXBean getThreadMXBean() {
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) return null;
+    com.sun.management.ThreadMXBean sunThreadMXBean =
+        (com.sun.management.ThreadMXBean) threadMXBean;
+    if (!sunThreadMXBean.isThreadAllocatedMemorySupported()) return null;
+    sunThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+    return sunThreadMXBean;
+  }
+
+  private static class FakePublisher implements RtmpPublisher {
+
+    @Override
+    public boolean connect(String url) {
+      return true;
+    }
+
+    @Override
+    public boolean publish(String publishType) {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void publishVideoData(byte[] data, int size, int dts) {
+    }
+
+    @Override
+    public void publishAudioData(byte[] data, int size, int dts) {
+    }
+
+    @Override
+    public void setVideoResolution(int width, int height) {
+    }
+
+    @Override
+    public void setAuthorization(String user, String password) {
+    }
+  }
+
+  private static class FakeConnectChecker implements ConnectCheckerRtmp {
+
+    @Override
+    public void onConnectionSuccessRtmp() {
+    }
+
+    @Override
+    public void onConnectionFailedRtmp(String reason) {
+    }
+
+    @Override
+    public void onNewBitrateRtmp(long bitrate) {
+    }
+
+    @Override
+    public void onNewRttRtmp(long rtt, long rttVariance) {
+    }
+
+    @Override
+    public void onDisconnectRtmp() {
+    }
+
+    @Override
+    public void onAuthErrorRtmp() {
+    }
+
+    @Override
+    public void onAuthSuccessRtmp() {
+    }
+  }
+}
@@ -25,6 +25,7 @@ import com.pedro.encoder.utils.CodecUtil;
 import com.pedro.encoder.video.FormatVideoEncoder;
 import com.pedro.encoder.video.GetVideoData;
 import com.pedro.encoder.video.VideoEncoder;
+import com.pedro.rtplibrary.util.EncodedFrameBus;
 import com.pedro.rtplibrary.util.FpsListener;
 import com.pedro.rtplibrary.util.RecordController;
 import com.pedro.rtplibrary.view.GlInterface;
@@ -34,6 +35,7 @@ import com.pedro.rtplibrary.view.OpenGlView;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import net.ossrs.rtmp.DropPolicy;
 
 /**
  * Wrapper to stream with camera1 api and microphone. Support stream with SurfaceView, TextureView
@@ -63,6 +65,8 @@ public abstract class Camera1Base
   private boolean videoEnabled = true;
   private boolean onPreview = false;
   private RecordController recordController;
+  private EncodedFrameBus encodedFrameBus;
+  private EncodedFrameBus.Subscription recordSubscription;
   private int previewWidth, previewHeight;
   private FpsListener fpsListener = new FpsListener();
 
@@ -110,12 +114,22 @@ public abstract class Camera1Base
     microphoneManager = new MicrophoneManager(this);
     audioEncoder = new AudioEncoder(this);
     recordController = new RecordController();
+    encodedFrameBus = new EncodedFrameBus();
+    encodedFrameBus.subscribe(streamSubscriber);
   }
 
   public void setCameraCallbacks(CameraCallbacks callbacks) {
     cameraManager.setCameraCallbacks(callbacks);
   }
 
+  /**
+   * Number of camera preview buffers used in buffer mode (without OpenGl), applied in the next
+   * preview start. Useful with high fps or slow encoders, 3 by default.
+   */
+  public void setPreviewBufferCount(int previewBufferCount) {
+    cameraManager.setPreviewBufferCount(previewBufferCount);
+  }
+
   /**
    * Set an audio effect modifying microphone's PCM buffer.
    */
@@ -271,6 +285,28 @@ public abstract class Camera1Base
     audioEncoder.setForce(forceAudio);
   }
 
+  /**
+   * @see com.pedro.encoder.BaseEncoder#setAsyncMode(boolean)
+   */
+  public void setAsyncMode(boolean asyncVideo, boolean asyncAudio) {
+    videoEncoder.setAsyncMode(asyncVideo);
+    audioEncoder.setAsyncMode(asyncAudio);
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getVideoEncodeLatencyUs() {
+    return videoEncoder.getEncodeLatencyUs();
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getAudioEncodeLatencyUs() {
+    return audioEncoder.getEncodeLatencyUs();
+  }
+
   /**
    * Start record a MP4 video. Need be called while stream.
    *
@@ -280,7 +316,11 @@ public abstract class Camera1Base
   @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
   public void startRecord(final String path, RecordController.Listener listener)
       throws IOException {
+    //called again while recording, the previous subscription would keep a thread delivering
+    encodedFrameBus.unsubscribe(recordSubscription);
     recordController.startRecord(path, listener);
+    recordSubscription = encodedFrameBus.subscribe(recordController, "RecordController", 240,
+        DropPolicy.DROP_UNTIL_KEYFRAME);
     if (!streaming) {
       startEncoders();
     } else if (videoEncoder.isRunning()) {
@@ -298,6 +338,9 @@ public abstract class Camera1Base
    */
   @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
   public void stopRecord() {
+    //pending frames are written before closing the file
+    encodedFrameBus.unsubscribe(recordSubscription);
+    recordSubscription = null;
     recordController.stopRecord();
     if (!streaming) stopStream();
   }
@@ -687,6 +730,52 @@ public abstract class Camera1Base
    */
   public void setLimitFPSOnFly(int fps) {
     videoEncoder.setFps(fps);
+    if (glInterface != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      glInterface.setFps(fps);
+    }
+  }
+
+  /**
+   * Change video resolution and fps while stream without reconnect. The encoder is restarted
+   * with the current bitrate and new sps/pps are sent to the server, the player could show a
+   * small cut. Same values as prepareVideo method (no rotation applied).
+   *
+   * Only available using an OpenGlView, LightOpenGlView or Context constructor (GL scales the
+   * camera image to the new size) and while not recording (mp4 tracks can't change resolution).
+   *
+   * @return true if changed, false if not supported now or by the encoder (the previous
+   * resolution and fps are kept).
+   */
+  public boolean setVideoResolutionOnFly(int width, int height, int fps) {
+    if (!videoEncoder.isRunning() || recordController.isRunning()) return false;
+    if (width == videoEncoder.getWidth() && height == videoEncoder.getHeight()) {
+      setLimitFPSOnFly(fps);
+      return true;
+    }
+    if (glInterface == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      return false;
+    }
+    int previousWidth = videoEncoder.getWidth();
+    int previousHeight = videoEncoder.getHeight();
+    int previousFps = videoEncoder.getFps();
+    glInterface.removeMediaCodecSurface();
+    setGlEncoderSize(width, height, fps);
+    boolean changed = videoEncoder.reset(width, height, fps, videoEncoder.getBitRate());
+    //not supported by the encoder, it was restarted with the previous values
+    if (!changed) setGlEncoderSize(previousWidth, previousHeight, previousFps);
+    if (videoEncoder.isRunning()) {
+      glInterface.addMediaCodecSurface(videoEncoder.getInputSurface());
+    }
+    return changed;
+  }
+
+  private void setGlEncoderSize(int width, int height, int fps) {
+    if (videoEncoder.getRotation() == 90 || videoEncoder.getRotation() == 270) {
+      glInterface.setEncoderSize(height, width);
+    } else {
+      glInterface.setEncoderSize(width, height);
+    }
+    glInterface.setFps(fps);
   }
 
   /**
@@ -728,14 +817,32 @@ public abstract class Camera1Base
     return recordController.getStatus();
   }
 
+  /**
+   * Bus with the encoded audio and video used to feed stream and record. Subscribe to it to add
+   * other sinks.
+   */
+  public EncodedFrameBus getEncodedFrameBus() {
+    return encodedFrameBus;
+  }
+
+  //stream senders queue the data internally so they are fed in the encoder thread
+  private final EncodedFrameBus.Subscriber streamSubscriber = new EncodedFrameBus.Subscriber() {
+    @Override
+    public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+      if (streaming) getH264DataRtp(videoBuffer, info);
+    }
+
+    @Override
+    public void onAudioFrame(ByteBuffer audioBuffer, MediaCodec.BufferInfo info) {
+      if (streaming) getAacDataRtp(audioBuffer, info);
+    }
+  };
+
   protected abstract void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info);
 
   @Override
   public void getAacData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-      recordController.recordAudio(aacBuffer, info);
-    }
-    if (streaming) getAacDataRtp(aacBuffer, info);
+    encodedFrameBus.publishAudio(aacBuffer, info);
   }
 
   protected abstract void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps);
@@ -755,10 +862,7 @@ public abstract class Camera1Base
   @Override
   public void getVideoData(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
     fpsListener.calculateFps();
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-      recordController.recordVideo(h264Buffer, info);
-    }
-    if (streaming) getH264DataRtp(h264Buffer, info);
+    encodedFrameBus.publishVideo(h264Buffer, info);
   }
 
   @Override
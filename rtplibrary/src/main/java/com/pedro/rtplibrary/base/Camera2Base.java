@@ -25,6 +25,7 @@ import com.pedro.encoder.utils.CodecUtil;
 import com.pedro.encoder.video.FormatVideoEncoder;
 import com.pedro.encoder.video.GetVideoData;
 import com.pedro.encoder.video.VideoEncoder;
+import com.pedro.rtplibrary.util.EncodedFrameBus;
 import com.pedro.rtplibrary.util.FpsListener;
 import com.pedro.rtplibrary.util.RecordController;
 import com.pedro.rtplibrary.view.GlInterface;
@@ -35,6 +36,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import net.ossrs.rtmp.DropPolicy;
 
 /**
  * Wrapper to stream with camera2 api and microphone. Support stream with SurfaceView, TextureView,
@@ -62,6 +64,8 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   private boolean onPreview = false;
   private boolean isBackground = false;
   private RecordController recordController;
+  private EncodedFrameBus encodedFrameBus;
+  private EncodedFrameBus.Subscription recordSubscription;
   private int previewWidth, previewHeight;
   private FpsListener fpsListener = new FpsListener();
 
@@ -107,6 +111,8 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
     microphoneManager = new MicrophoneManager(this);
     audioEncoder = new AudioEncoder(this);
     recordController = new RecordController();
+    encodedFrameBus = new EncodedFrameBus();
+    encodedFrameBus.subscribe(streamSubscriber);
   }
 
   public void setCameraCallbacks(CameraCallbacks callbacks) {
@@ -272,6 +278,28 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
     audioEncoder.setForce(forceAudio);
   }
 
+  /**
+   * @see com.pedro.encoder.BaseEncoder#setAsyncMode(boolean)
+   */
+  public void setAsyncMode(boolean asyncVideo, boolean asyncAudio) {
+    videoEncoder.setAsyncMode(asyncVideo);
+    audioEncoder.setAsyncMode(asyncAudio);
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getVideoEncodeLatencyUs() {
+    return videoEncoder.getEncodeLatencyUs();
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getAudioEncodeLatencyUs() {
+    return audioEncoder.getEncodeLatencyUs();
+  }
+
   /**
    * Start record a MP4 video. Need be called while stream.
    *
@@ -279,7 +307,11 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
    * @throws IOException If you init it before start stream.
    */
   public void startRecord(String path, RecordController.Listener listener) throws IOException {
+    //called again while recording, the previous subscription would keep a thread delivering
+    encodedFrameBus.unsubscribe(recordSubscription);
     recordController.startRecord(path, listener);
+    recordSubscription = encodedFrameBus.subscribe(recordController, "RecordController", 240,
+        DropPolicy.DROP_UNTIL_KEYFRAME);
     if (!streaming) {
       startEncoders();
     } else if (videoEncoder.isRunning()) {
@@ -295,6 +327,9 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
    * Stop record MP4 video started with @startRecord. If you don't call it file will be unreadable.
    */
   public void stopRecord() {
+    //pending frames are written before closing the file
+    encodedFrameBus.unsubscribe(recordSubscription);
+    recordSubscription = null;
     recordController.stopRecord();
     if (!streaming) stopStream();
   }
@@ -734,6 +769,48 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
    */
   public void setLimitFPSOnFly(int fps) {
     videoEncoder.setFps(fps);
+    if (glInterface != null) glInterface.setFps(fps);
+  }
+
+  /**
+   * Change video resolution and fps while stream without reconnect. The encoder is
+   * restarted with the current bitrate and new sps/pps are sent to the server, the player could
+   * show a small cut. Same values as prepareVideo method (no rotation applied).
+   *
+   * Only available using an OpenGlView, LightOpenGlView or Context constructor (GL scales the
+   * camera image to the new size) and while not recording (mp4 tracks can't change resolution).
+   *
+   * @return true if changed, false if not supported now or by the encoder (the previous
+   * resolution and fps are kept).
+   */
+  public boolean setVideoResolutionOnFly(int width, int height, int fps) {
+    if (!videoEncoder.isRunning() || recordController.isRunning()) return false;
+    if (width == videoEncoder.getWidth() && height == videoEncoder.getHeight()) {
+      setLimitFPSOnFly(fps);
+      return true;
+    }
+    if (glInterface == null) return false;
+    int previousWidth = videoEncoder.getWidth();
+    int previousHeight = videoEncoder.getHeight();
+    int previousFps = videoEncoder.getFps();
+    glInterface.removeMediaCodecSurface();
+    setGlEncoderSize(width, height, fps);
+    boolean changed = videoEncoder.reset(width, height, fps, videoEncoder.getBitRate());
+    //not supported by the encoder, it was restarted with the previous values
+    if (!changed) setGlEncoderSize(previousWidth, previousHeight, previousFps);
+    if (videoEncoder.isRunning()) {
+      glInterface.addMediaCodecSurface(videoEncoder.getInputSurface());
+    }
+    return changed;
+  }
+
+  private void setGlEncoderSize(int width, int height, int fps) {
+    if (videoEncoder.getRotation() == 90 || videoEncoder.getRotation() == 270) {
+      glInterface.setEncoderSize(height, width);
+    } else {
+      glInterface.setEncoderSize(width, height);
+    }
+    glInterface.setFps(fps);
   }
 
   /**
@@ -775,12 +852,32 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
     return onPreview;
   }
 
+  /**
+   * Bus with the encoded audio and video used to feed stream and record. Subscribe to it to add
+   * other sinks.
+   */
+  public EncodedFrameBus getEncodedFrameBus() {
+    return encodedFrameBus;
+  }
+
+  //stream senders queue the data internally so they are fed in the encoder thread
+  private final EncodedFrameBus.Subscriber streamSubscriber = new EncodedFrameBus.Subscriber() {
+    @Override
+    public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+      if (streaming) getH264DataRtp(videoBuffer, info);
+    }
+
+    @Override
+    public void onAudioFrame(ByteBuffer audioBuffer, MediaCodec.BufferInfo info) {
+      if (streaming) getAacDataRtp(audioBuffer, info);
+    }
+  };
+
   protected abstract void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info);
 
   @Override
   public void getAacData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    recordController.recordAudio(aacBuffer, info);
-    if (streaming) getAacDataRtp(aacBuffer, info);
+    encodedFrameBus.publishAudio(aacBuffer, info);
   }
 
   protected abstract void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps);
@@ -800,8 +897,7 @@ public abstract class Camera2Base implements GetAacData, GetVideoData, GetMicrop
   @Override
   public void getVideoData(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
     fpsListener.calculateFps();
-    recordController.recordVideo(h264Buffer, info);
-    if (streaming) getH264DataRtp(h264Buffer, info);
+    encodedFrameBus.publishVideo(h264Buffer, info);
   }
 
   @Override
@@ -16,6 +16,7 @@ import androidx.annotation.RequiresApi;
 import com.pedro.encoder.Frame;
 import com.pedro.encoder.audio.AudioEncoder;
 import com.pedro.encoder.audio.GetAacData;
+import com.pedro.encoder.input.audio.AudioMixer;
 import com.pedro.encoder.input.audio.CustomAudioEffect;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
 import com.pedro.encoder.input.audio.MicrophoneManager;
@@ -23,12 +24,14 @@ import com.pedro.encoder.utils.CodecUtil;
 import com.pedro.encoder.video.FormatVideoEncoder;
 import com.pedro.encoder.video.GetVideoData;
 import com.pedro.encoder.video.VideoEncoder;
+import com.pedro.rtplibrary.util.EncodedFrameBus;
 import com.pedro.rtplibrary.util.FpsListener;
 import com.pedro.rtplibrary.util.RecordController;
 import com.pedro.rtplibrary.view.GlInterface;
 import com.pedro.rtplibrary.view.OffScreenGlThread;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import net.ossrs.rtmp.DropPolicy;
 
 import static android.content.Context.MEDIA_PROJECTION_SERVICE;
 
@@ -50,6 +53,11 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
   private MediaProjectionManager mediaProjectionManager;
   protected VideoEncoder videoEncoder;
   private MicrophoneManager microphoneManager;
+  //mixed audio only, internal audio and its mixer input
+  private MicrophoneManager internalMicrophoneManager;
+  private AudioMixer.Input microphoneMixerInput;
+  private AudioMixer.Input internalMixerInput;
+  private AudioMixer audioMixer;
   private AudioEncoder audioEncoder;
   private boolean streaming = false;
   protected SurfaceView surfaceView;
@@ -59,7 +67,10 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
   private int resultCode = -1;
   private Intent data;
   private RecordController recordController;
+  private EncodedFrameBus encodedFrameBus;
+  private EncodedFrameBus.Subscription recordSubscription;
   private FpsListener fpsListener = new FpsListener();
+  private boolean skipStaticFrames = false;
 
   public DisplayBase(Context context, boolean useOpengl) {
     this.context = context;
@@ -74,6 +85,8 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     microphoneManager = new MicrophoneManager(this);
     audioEncoder = new AudioEncoder(this);
     recordController = new RecordController();
+    encodedFrameBus = new EncodedFrameBus();
+    encodedFrameBus.subscribe(streamSubscriber);
   }
 
   /**
@@ -147,6 +160,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
    */
   public boolean prepareAudio(int bitrate, int sampleRate, boolean isStereo, boolean echoCanceler,
       boolean noiseSuppressor) {
+    removeAudioMixer();
     microphoneManager.createMicrophone(sampleRate, isStereo, echoCanceler, noiseSuppressor);
     prepareAudioRtp(isStereo, sampleRate);
     return audioEncoder.prepareAudioEncoder(bitrate, sampleRate, isStereo,
@@ -164,20 +178,83 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
    */
   @RequiresApi(api = Build.VERSION_CODES.Q)
   public boolean prepareInternalAudio(int bitrate, int sampleRate, boolean isStereo) {
+    AudioPlaybackCaptureConfiguration config = createPlaybackCaptureConfig();
+    removeAudioMixer();
+    microphoneManager.createInternalMicrophone(config, sampleRate, isStereo);
+    prepareAudioRtp(isStereo, sampleRate);
+    return audioEncoder.prepareAudioEncoder(bitrate, sampleRate, isStereo,
+            microphoneManager.getMaxInputSize());
+  }
+
+  /**
+   * Call this method before use @startStream for streaming microphone and internal audio mixed.
+   * Microphone is the master of the mix, internal audio is buffered to absorb the jitter between
+   * both.
+   *
+   * @param bitrate AAC in kb.
+   * @param sampleRate of audio in hz. Can be 8000, 16000, 22500, 32000, 44100.
+   * @param isStereo true if you want Stereo audio (2 audio channels), false if you want Mono audio
+   * (1 audio channel).
+   * @param echoCanceler true enable echo canceler in microphone, false disable.
+   * @param noiseSuppressor true enable noise suppressor in microphone, false  disable.
+   * @param microphoneGain volume of microphone, 1 keep the volume.
+   * @param internalGain volume of internal audio, 1 keep the volume.
+   * @see AudioPlaybackCaptureConfiguration.Builder#Builder(MediaProjection)
+   */
+  @RequiresApi(api = Build.VERSION_CODES.Q)
+  public boolean prepareMixedAudio(int bitrate, int sampleRate, boolean isStereo,
+      boolean echoCanceler, boolean noiseSuppressor, float microphoneGain, float internalGain) {
+    AudioPlaybackCaptureConfiguration config = createPlaybackCaptureConfig();
+    removeAudioMixer();
+    audioMixer = new AudioMixer(audioEncoder, sampleRate, isStereo);
+    microphoneMixerInput = audioMixer.addInput(sampleRate, isStereo, microphoneGain);
+    internalMixerInput = audioMixer.addInput(sampleRate, isStereo, internalGain);
+    final AudioMixer.Input internalInput = internalMixerInput;
+    internalMicrophoneManager = new MicrophoneManager(new GetMicrophoneData() {
+      @Override
+      public void inputPCMData(Frame frame) {
+        internalInput.write(frame);
+      }
+    });
+    microphoneManager.createMicrophone(sampleRate, isStereo, echoCanceler, noiseSuppressor);
+    internalMicrophoneManager.createInternalMicrophone(config, sampleRate, isStereo);
+    prepareAudioRtp(isStereo, sampleRate);
+    return audioEncoder.prepareAudioEncoder(bitrate, sampleRate, isStereo,
+        audioMixer.getOutputSize(microphoneManager.getMaxInputSize()));
+  }
+
+  /**
+   * Change volume of microphone and internal audio while mixing, see prepareMixedAudio.
+   */
+  public void setMixedAudioGain(float microphoneGain, float internalGain) {
+    if (audioMixer != null) {
+      microphoneMixerInput.setGain(microphoneGain);
+      internalMixerInput.setGain(internalGain);
+    }
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.Q)
+  private AudioPlaybackCaptureConfiguration createPlaybackCaptureConfig() {
     if (mediaProjection == null) {
       mediaProjection = mediaProjectionManager.getMediaProjection(resultCode, data);
     }
 
-    AudioPlaybackCaptureConfiguration config = new AudioPlaybackCaptureConfiguration
+    return new AudioPlaybackCaptureConfiguration
             .Builder(mediaProjection)
             .addMatchingUsage(AudioAttributes.USAGE_MEDIA)
             .addMatchingUsage(AudioAttributes.USAGE_GAME)
             .addMatchingUsage(AudioAttributes.USAGE_UNKNOWN)
             .build();
-    microphoneManager.createInternalMicrophone(config, sampleRate, isStereo);
-    prepareAudioRtp(isStereo, sampleRate);
-    return audioEncoder.prepareAudioEncoder(bitrate, sampleRate, isStereo,
-            microphoneManager.getMaxInputSize());
+  }
+
+  private void removeAudioMixer() {
+    if (internalMicrophoneManager != null) {
+      internalMicrophoneManager.stop();
+      internalMicrophoneManager = null;
+    }
+    audioMixer = null;
+    microphoneMixerInput = null;
+    internalMixerInput = null;
   }
 
   /**
@@ -213,6 +290,28 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     audioEncoder.setForce(forceAudio);
   }
 
+  /**
+   * @see com.pedro.encoder.BaseEncoder#setAsyncMode(boolean)
+   */
+  public void setAsyncMode(boolean asyncVideo, boolean asyncAudio) {
+    videoEncoder.setAsyncMode(asyncVideo);
+    audioEncoder.setAsyncMode(asyncAudio);
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getVideoEncodeLatencyUs() {
+    return videoEncoder.getEncodeLatencyUs();
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getAudioEncodeLatencyUs() {
+    return audioEncoder.getEncodeLatencyUs();
+  }
+
   /**
    * Start record a MP4 video. Need be called while stream.
    *
@@ -220,7 +319,11 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
    * @throws IOException If you init it before start stream.
    */
   public void startRecord(String path, RecordController.Listener listener) throws IOException {
+    //called again while recording, the previous subscription would keep a thread delivering
+    encodedFrameBus.unsubscribe(recordSubscription);
     recordController.startRecord(path, listener);
+    recordSubscription = encodedFrameBus.subscribe(recordController, "RecordController", 240,
+        DropPolicy.DROP_UNTIL_KEYFRAME);
     if (!streaming) {
       startEncoders(resultCode, data);
     } else if (videoEncoder.isRunning()) {
@@ -236,6 +339,9 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
    * Stop record MP4 video started with @startRecord. If you don't call it file will be unreadable.
    */
   public void stopRecord() {
+    //pending frames are written before closing the file
+    encodedFrameBus.unsubscribe(recordSubscription);
+    recordSubscription = null;
     recordController.stopRecord();
     if (!streaming) stopStream();
   }
@@ -285,6 +391,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     audioEncoder.start();
     if (glInterface != null) {
       glInterface.setFps(videoEncoder.getFps());
+      glInterface.setSkipStaticFrames(skipStaticFrames);
       glInterface.start();
       glInterface.addMediaCodecSurface(videoEncoder.getInputSurface());
     }
@@ -295,7 +402,9 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     }
     virtualDisplay = mediaProjection.createVirtualDisplay("Stream Display", videoEncoder.getWidth(),
         videoEncoder.getHeight(), dpi, 0, surface, null, null);
+    if (audioMixer != null) audioMixer.reset();
     microphoneManager.start();
+    if (internalMicrophoneManager != null) internalMicrophoneManager.start();
   }
 
   private void resetVideoEncoder() {
@@ -323,6 +432,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     }
     if (!recordController.isRecording()) {
       microphoneManager.stop();
+      if (internalMicrophoneManager != null) internalMicrophoneManager.stop();
       if (mediaProjection != null) {
         mediaProjection.stop();
       }
@@ -398,6 +508,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
    */
   public void disableAudio() {
     microphoneManager.mute();
+    if (internalMicrophoneManager != null) internalMicrophoneManager.mute();
   }
 
   /**
@@ -405,6 +516,7 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
    */
   public void enableAudio() {
     microphoneManager.unMute();
+    if (internalMicrophoneManager != null) internalMicrophoneManager.unMute();
   }
 
   /**
@@ -458,6 +570,80 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
    */
   public void setLimitFPSOnFly(int fps) {
     videoEncoder.setFps(fps);
+    if (glInterface != null) glInterface.setFps(fps);
+  }
+
+  /**
+   * Change video resolution and fps while stream without reconnect. The encoder is restarted
+   * with the current bitrate and new sps/pps are sent to the server, the player could show a
+   * small cut. Not available while recording (mp4 tracks can't change resolution).
+   *
+   * @return true if changed, false if not supported now or by the encoder (the previous
+   * resolution and fps are kept).
+   */
+  public boolean setVideoResolutionOnFly(int width, int height, int fps) {
+    if (!videoEncoder.isRunning() || recordController.isRunning()) return false;
+    if (width == videoEncoder.getWidth() && height == videoEncoder.getHeight()) {
+      setLimitFPSOnFly(fps);
+      return true;
+    }
+    int previousWidth = videoEncoder.getWidth();
+    int previousHeight = videoEncoder.getHeight();
+    int previousFps = videoEncoder.getFps();
+    virtualDisplay.setSurface(null);
+    if (glInterface != null) glInterface.removeMediaCodecSurface();
+    setEncoderSize(width, height, fps);
+    boolean changed = videoEncoder.reset(width, height, fps, videoEncoder.getBitRate());
+    //not supported by the encoder, it was restarted with the previous values
+    if (!changed) setEncoderSize(previousWidth, previousHeight, previousFps);
+    Surface encoderSurface = videoEncoder.isRunning() ? videoEncoder.getInputSurface() : null;
+    if (glInterface != null) {
+      if (encoderSurface != null) glInterface.addMediaCodecSurface(encoderSurface);
+      virtualDisplay.setSurface(glInterface.getSurface());
+    } else {
+      virtualDisplay.setSurface(encoderSurface);
+    }
+    return changed;
+  }
+
+  private void setEncoderSize(int width, int height, int fps) {
+    if (glInterface != null) {
+      glInterface.setEncoderSize(width, height);
+      glInterface.setFps(fps);
+    } else {
+      virtualDisplay.resize(width, height, dpi);
+    }
+  }
+
+  /**
+   * @see com.pedro.rtplibrary.view.OffScreenGlThread#setSkipStaticFrames(boolean)
+   */
+  public void setSkipStaticFrames(boolean skipStaticFrames) {
+    this.skipStaticFrames = skipStaticFrames;
+  }
+
+  /**
+   * @return fps encoded in the last second with setSkipStaticFrames, fps of the encoder if
+   * disabled.
+   */
+  public float getEffectiveFps() {
+    if (glInterface == null || !skipStaticFrames) return videoEncoder.getFps();
+    return glInterface.getContentChangeDetector().getEffectiveFps();
+  }
+
+  /**
+   * @return frames not encoded because the screen didn't change.
+   */
+  public long getSkippedStaticFrames() {
+    return glInterface != null ? glInterface.getContentChangeDetector().getSkippedFrames() : 0;
+  }
+
+  /**
+   * @return bytes saved by skipped frames, estimated with the bitrate and fps of the encoder.
+   */
+  public long getEstimatedBytesSaved() {
+    return glInterface != null ? glInterface.getContentChangeDetector()
+        .getEstimatedBytesSaved(videoEncoder.getBitRate(), videoEncoder.getFps()) : 0;
   }
 
   /**
@@ -490,12 +676,32 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
     return recordController.getStatus();
   }
 
+  /**
+   * Bus with the encoded audio and video used to feed stream and record. Subscribe to it to add
+   * other sinks.
+   */
+  public EncodedFrameBus getEncodedFrameBus() {
+    return encodedFrameBus;
+  }
+
+  //stream senders queue the data internally so they are fed in the encoder thread
+  private final EncodedFrameBus.Subscriber streamSubscriber = new EncodedFrameBus.Subscriber() {
+    @Override
+    public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+      if (streaming) getH264DataRtp(videoBuffer, info);
+    }
+
+    @Override
+    public void onAudioFrame(ByteBuffer audioBuffer, MediaCodec.BufferInfo info) {
+      if (streaming) getAacDataRtp(audioBuffer, info);
+    }
+  };
+
   protected abstract void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info);
 
   @Override
   public void getAacData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    recordController.recordAudio(aacBuffer, info);
-    if (streaming) getAacDataRtp(aacBuffer, info);
+    encodedFrameBus.publishAudio(aacBuffer, info);
   }
 
   protected abstract void onSpsPpsVpsRtp(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps);
@@ -515,13 +721,17 @@ public abstract class DisplayBase implements GetAacData, GetVideoData, GetMicrop
   @Override
   public void getVideoData(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
     fpsListener.calculateFps();
-    recordController.recordVideo(h264Buffer, info);
-    if (streaming) getH264DataRtp(h264Buffer, info);
+    encodedFrameBus.publishVideo(h264Buffer, info);
   }
 
   @Override
   public void inputPCMData(Frame frame) {
-    audioEncoder.inputPCMData(frame);
+    AudioMixer.Input microphoneMixerInput = this.microphoneMixerInput;
+    if (microphoneMixerInput != null) {
+      microphoneMixerInput.write(frame);
+    } else {
+      audioEncoder.inputPCMData(frame);
+    }
   }
 
   @Override
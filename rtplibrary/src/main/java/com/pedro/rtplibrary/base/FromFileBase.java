@@ -15,13 +15,16 @@ import com.pedro.encoder.audio.GetAacData;
 import com.pedro.encoder.input.audio.GetMicrophoneData;
 import com.pedro.encoder.input.decoder.AudioDecoder;
 import com.pedro.encoder.input.decoder.AudioDecoderInterface;
+import com.pedro.encoder.input.decoder.FilePassthrough;
 import com.pedro.encoder.input.decoder.LoopFileInterface;
+import com.pedro.encoder.input.decoder.MediaClock;
 import com.pedro.encoder.input.decoder.VideoDecoder;
 import com.pedro.encoder.input.decoder.VideoDecoderInterface;
 import com.pedro.encoder.utils.CodecUtil;
 import com.pedro.encoder.video.FormatVideoEncoder;
 import com.pedro.encoder.video.GetVideoData;
 import com.pedro.encoder.video.VideoEncoder;
+import com.pedro.rtplibrary.util.EncodedFrameBus;
 import com.pedro.rtplibrary.util.FpsListener;
 import com.pedro.rtplibrary.util.RecordController;
 import com.pedro.rtplibrary.view.GlInterface;
@@ -30,6 +33,7 @@ import com.pedro.rtplibrary.view.OffScreenGlThread;
 import com.pedro.rtplibrary.view.OpenGlView;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import net.ossrs.rtmp.DropPolicy;
 
 /**
  * Wrapper to stream a MP4 file with H264 video codec. Only Video is streamed, no Audio.
@@ -54,10 +58,16 @@ public abstract class FromFileBase
   private boolean streaming = false;
   private boolean videoEnabled = true;
   private RecordController recordController;
+  private EncodedFrameBus encodedFrameBus;
+  private EncodedFrameBus.Subscription recordSubscription;
   private FpsListener fpsListener = new FpsListener();
 
   private VideoDecoder videoDecoder;
   private AudioDecoder audioDecoder;
+  //both decoders wait their frames in this clock to keep audio and video together
+  private final MediaClock mediaClock = new MediaClock();
+  //not null if the file is streamed without transcoding
+  private FilePassthrough filePassthrough;
 
   private VideoDecoderInterface videoDecoderInterface;
   private AudioDecoderInterface audioDecoderInterface;
@@ -105,6 +115,8 @@ public abstract class FromFileBase
     videoEncoder = new VideoEncoder(this);
     audioEncoder = new AudioEncoder(this);
     recordController = new RecordController();
+    encodedFrameBus = new EncodedFrameBus();
+    encodedFrameBus.subscribe(streamSubscriber);
   }
 
   /**
@@ -131,9 +143,11 @@ public abstract class FromFileBase
    */
   public boolean prepareVideo(String filePath, int bitRate, int rotation, int avcProfile,
       int avcProfileLevel) throws IOException {
+    filePassthrough = null;
     videoPath = filePath;
-    videoDecoder = new VideoDecoder(videoDecoderInterface, this);
+    videoDecoder = new VideoDecoder(videoDecoderInterface, this, mediaClock);
     if (!videoDecoder.initExtractor(filePath)) return false;
+    updateLoopDuration();
     boolean hardwareRotation = glInterface == null;
     return videoEncoder.prepareVideoEncoder(videoDecoder.getWidth(), videoDecoder.getHeight(), 30,
         bitRate, rotation, hardwareRotation, 2, FormatVideoEncoder.SURFACE, avcProfile,
@@ -157,8 +171,9 @@ public abstract class FromFileBase
    */
   public boolean prepareAudio(String filePath, int bitRate) throws IOException {
     audioPath = filePath;
-    audioDecoder = new AudioDecoder(this, audioDecoderInterface, this);
+    audioDecoder = new AudioDecoder(this, audioDecoderInterface, this, mediaClock);
     if (!audioDecoder.initExtractor(filePath)) return false;
+    updateLoopDuration();
     boolean result = audioEncoder.prepareAudioEncoder(bitRate, audioDecoder.getSampleRate(),
         audioDecoder.isStereo(), 0);
     prepareAudioRtp(audioDecoder.isStereo(), audioDecoder.getSampleRate());
@@ -179,8 +194,49 @@ public abstract class FromFileBase
     return prepareAudio(filePath, 64 * 1024);
   }
 
+  /**
+   * Stream the H264/H265 video and AAC audio of a MP4 or FLV file as they are, without decode
+   * and encode them, instead of prepareVideo and prepareAudio. Much cheaper but the stream has
+   * the resolution, fps and bitrate of the file and OpenGl filters, bitrate or resolution changes
+   * are not applied. The file is closed in stopStream, so call it again before the next start.
+   *
+   * @param filePath to video MP4 or FLV file.
+   * @return false if the file can't be streamed without transcoding (other codecs or video with
+   * B-frames), use prepareVideo and prepareAudio in that case.
+   * @throws IOException Normally file not found or other container.
+   */
+  public boolean preparePassthrough(String filePath) throws IOException {
+    filePassthrough = null;
+    FilePassthrough passthrough = new FilePassthrough(this, this, videoDecoderInterface);
+    if (!passthrough.initExtractor(filePath)) return false;
+    videoPath = filePath;
+    audioPath = filePath;
+    if (passthrough.hasAudio()) {
+      prepareAudioRtp(passthrough.isStereo(), passthrough.getSampleRate());
+    }
+    filePassthrough = passthrough;
+    return true;
+  }
+
+  /**
+   * @return true if prepared with preparePassthrough.
+   */
+  public boolean isPassthrough() {
+    return filePassthrough != null;
+  }
+
   protected abstract void prepareAudioRtp(boolean isStereo, int sampleRate);
 
+  /**
+   * Both files are started again after the longest one in loop mode, so the shortest waits.
+   */
+  private void updateLoopDuration() {
+    double duration = 0;
+    if (videoDecoder != null) duration = videoDecoder.getDuration();
+    if (audioDecoder != null) duration = Math.max(duration, audioDecoder.getDuration());
+    mediaClock.setLoopDuration((long) (duration * 1000000));
+  }
+
   /**
    * @param forceVideo force type codec used. FIRST_COMPATIBLE_FOUND, SOFTWARE, HARDWARE
    */
@@ -189,6 +245,28 @@ public abstract class FromFileBase
     audioEncoder.setForce(forceAudio);
   }
 
+  /**
+   * @see com.pedro.encoder.BaseEncoder#setAsyncMode(boolean)
+   */
+  public void setAsyncMode(boolean asyncVideo, boolean asyncAudio) {
+    videoEncoder.setAsyncMode(asyncVideo);
+    audioEncoder.setAsyncMode(asyncAudio);
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getVideoEncodeLatencyUs() {
+    return videoEncoder.getEncodeLatencyUs();
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getAudioEncodeLatencyUs() {
+    return audioEncoder.getEncodeLatencyUs();
+  }
+
   /**
    * Start record a MP4 video. Need be called while stream.
    *
@@ -196,7 +274,11 @@ public abstract class FromFileBase
    * @throws IOException If you init it before start stream.
    */
   public void startRecord(String path, RecordController.Listener listener) throws IOException {
+    //called again while recording, the previous subscription would keep a thread delivering
+    encodedFrameBus.unsubscribe(recordSubscription);
     recordController.startRecord(path, listener);
+    recordSubscription = encodedFrameBus.subscribe(recordController, "RecordController", 240,
+        DropPolicy.DROP_UNTIL_KEYFRAME);
     if (!streaming) {
       startEncoders();
     } else if (videoEncoder.isRunning()) {
@@ -212,6 +294,9 @@ public abstract class FromFileBase
    * Stop record MP4 video started with @startRecord. If you don't call it file will be unreadable.
    */
   public void stopRecord() {
+    //pending frames are written before closing the file
+    encodedFrameBus.unsubscribe(recordSubscription);
+    recordSubscription = null;
     recordController.stopRecord();
     if (!streaming) stopStream();
   }
@@ -240,10 +325,15 @@ public abstract class FromFileBase
   }
 
   private void startEncoders() {
+    if (filePassthrough != null) {
+      filePassthrough.start();
+      return;
+    }
     videoEncoder.start();
     if (audioTrackPlayer != null) audioTrackPlayer.play();
     audioEncoder.start();
     prepareGlView();
+    mediaClock.reset();
     videoDecoder.start();
     audioDecoder.start();
   }
@@ -272,6 +362,11 @@ public abstract class FromFileBase
   }
 
   private void resetVideoEncoder() {
+    //without encoder only the sps/pps are sent again, record waits for a key frame of the file
+    if (filePassthrough != null) {
+      filePassthrough.sendVideoConfig();
+      return;
+    }
     try {
       if (glInterface != null) {
         glInterface.removeMediaCodecSurface();
@@ -279,7 +374,7 @@ public abstract class FromFileBase
       }
       double time = videoDecoder.getTime();
       videoDecoder.stop();
-      videoDecoder = new VideoDecoder(videoDecoderInterface, this);
+      videoDecoder = new VideoDecoder(videoDecoderInterface, this, mediaClock);
       if (!videoDecoder.initExtractor(videoPath)) {
         throw new IOException("fail to reset video file");
       }
@@ -351,6 +446,12 @@ public abstract class FromFileBase
       stopStreamRtp();
     }
     if (!recordController.isRecording()) {
+      if (filePassthrough != null) {
+        filePassthrough.stop();
+        filePassthrough = null;
+        recordController.resetFormats();
+        return;
+      }
       if (glInterface != null) {
         glInterface.removeMediaCodecSurface();
         glInterface.stop();
@@ -375,11 +476,17 @@ public abstract class FromFileBase
    * @param loopMode true in loop, false stop stream when video finish.
    */
   public void setLoopMode(boolean loopMode) {
+    if (filePassthrough != null) {
+      filePassthrough.setLoopMode(loopMode);
+      return;
+    }
     videoDecoder.setLoopMode(loopMode);
     audioDecoder.setLoopMode(loopMode);
   }
 
   public void reSyncFile() {
+    //audio and video are read from the same extractor in passthrough
+    if (filePassthrough != null) return;
     if (isStreaming()) audioDecoder.moveTo(videoDecoder.getTime());
   }
 
@@ -400,11 +507,11 @@ public abstract class FromFileBase
   }
 
   public int getStreamWidth() {
-    return videoEncoder.getWidth();
+    return filePassthrough != null ? filePassthrough.getWidth() : videoEncoder.getWidth();
   }
 
   public int getStreamHeight() {
-    return videoEncoder.getHeight();
+    return filePassthrough != null ? filePassthrough.getHeight() : videoEncoder.getHeight();
   }
 
   /**
@@ -435,6 +542,48 @@ public abstract class FromFileBase
    */
   public void setLimitFPSOnFly(int fps) {
     videoEncoder.setFps(fps);
+    if (glInterface != null) glInterface.setFps(fps);
+  }
+
+  /**
+   * Change video resolution and fps while stream without reconnect. The encoder is restarted
+   * with the current bitrate and new sps/pps are sent to the server, the player could show a
+   * small cut.
+   *
+   * Only available using an OpenGlView, LightOpenGlView or Context constructor (GL scales the
+   * decoded image to the new size) and while not recording (mp4 tracks can't change resolution).
+   *
+   * @return true if changed, false if not supported now or by the encoder (the previous
+   * resolution and fps are kept).
+   */
+  public boolean setVideoResolutionOnFly(int width, int height, int fps) {
+    if (!videoEncoder.isRunning() || recordController.isRunning()) return false;
+    if (width == videoEncoder.getWidth() && height == videoEncoder.getHeight()) {
+      setLimitFPSOnFly(fps);
+      return true;
+    }
+    if (glInterface == null) return false;
+    int previousWidth = videoEncoder.getWidth();
+    int previousHeight = videoEncoder.getHeight();
+    int previousFps = videoEncoder.getFps();
+    glInterface.removeMediaCodecSurface();
+    setGlEncoderSize(width, height, fps);
+    boolean changed = videoEncoder.reset(width, height, fps, videoEncoder.getBitRate());
+    //not supported by the encoder, it was restarted with the previous values
+    if (!changed) setGlEncoderSize(previousWidth, previousHeight, previousFps);
+    if (videoEncoder.isRunning()) {
+      glInterface.addMediaCodecSurface(videoEncoder.getInputSurface());
+    }
+    return changed;
+  }
+
+  private void setGlEncoderSize(int width, int height, int fps) {
+    if (videoEncoder.getRotation() == 90 || videoEncoder.getRotation() == 270) {
+      glInterface.setEncoderSize(height, width);
+    } else {
+      glInterface.setEncoderSize(width, height);
+    }
+    glInterface.setFps(fps);
   }
 
   /**
@@ -471,6 +620,7 @@ public abstract class FromFileBase
    * @return return time in second. 0 if no streaming
    */
   public double getVideoTime() {
+    if (filePassthrough != null) return filePassthrough.getTime();
     return videoDecoder.getTime();
   }
 
@@ -478,13 +628,14 @@ public abstract class FromFileBase
    * @return return time in seconds. 0 if no streaming
    */
   public double getAudioTime() {
-    return videoDecoder.getTime();
+    return getVideoTime();
   }
 
   /**
    * @return return duration in seconds. 0 if no streaming
    */
   public double getVideoDuration() {
+    if (filePassthrough != null) return filePassthrough.getDuration();
     return videoDecoder.getDuration();
   }
 
@@ -492,6 +643,7 @@ public abstract class FromFileBase
    * @return return duration in seconds. 0 if no streaming
    */
   public double getAudioDuration() {
+    if (filePassthrough != null) return filePassthrough.getDuration();
     return audioDecoder.getDuration();
   }
 
@@ -501,10 +653,23 @@ public abstract class FromFileBase
    * @param time second to move.
    */
   public void moveTo(double time) {
+    if (filePassthrough != null) {
+      filePassthrough.moveTo(time);
+      return;
+    }
+    mediaClock.seekTo((long) (time * 1000000));
     videoDecoder.moveTo(time);
     audioDecoder.moveTo(time);
   }
 
+  /**
+   * @return microseconds video frames are given after audio frames of the same time (smoothed),
+   * negative if video is given before. 0 in passthrough, both are sent by the same thread.
+   */
+  public long getAVOffsetUs() {
+    return filePassthrough != null ? 0 : mediaClock.getAvOffsetUs();
+  }
+
   @Override
   public void onReset(boolean isVideo) {
     synchronized (sync) {
@@ -515,19 +680,21 @@ public abstract class FromFileBase
             glInterface.stop();
           }
           videoDecoder.stop();
-          videoDecoder = new VideoDecoder(videoDecoderInterface, this);
+          videoDecoder = new VideoDecoder(videoDecoderInterface, this, mediaClock);
           if (!videoDecoder.initExtractor(videoPath)) {
             throw new IOException("fail to reset video file");
           }
           prepareGlView();
+          mediaClock.onLoop(true);
           videoDecoder.start();
         } else {
           audioDecoder.stop();
-          audioDecoder = new AudioDecoder(this, audioDecoderInterface, this);
+          audioDecoder = new AudioDecoder(this, audioDecoderInterface, this, mediaClock);
           if (!audioDecoder.initExtractor(audioPath)) {
             throw new IOException("fail to reset audio file");
           }
           audioDecoder.prepareAudio();
+          mediaClock.onLoop(false);
           audioDecoder.start();
         }
       } catch (IOException e) {
@@ -558,8 +725,7 @@ public abstract class FromFileBase
   @Override
   public void getVideoData(ByteBuffer h264Buffer, MediaCodec.BufferInfo info) {
     fpsListener.calculateFps();
-    recordController.recordVideo(h264Buffer, info);
-    if (streaming) getH264DataRtp(h264Buffer, info);
+    encodedFrameBus.publishVideo(h264Buffer, info);
   }
 
   @Override
@@ -567,12 +733,32 @@ public abstract class FromFileBase
     recordController.setVideoFormat(mediaFormat);
   }
 
+  /**
+   * Bus with the encoded audio and video used to feed stream and record. Subscribe to it to add
+   * other sinks.
+   */
+  public EncodedFrameBus getEncodedFrameBus() {
+    return encodedFrameBus;
+  }
+
+  //stream senders queue the data internally so they are fed in the encoder thread
+  private final EncodedFrameBus.Subscriber streamSubscriber = new EncodedFrameBus.Subscriber() {
+    @Override
+    public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+      if (streaming) getH264DataRtp(videoBuffer, info);
+    }
+
+    @Override
+    public void onAudioFrame(ByteBuffer audioBuffer, MediaCodec.BufferInfo info) {
+      if (streaming) getAacDataRtp(audioBuffer, info);
+    }
+  };
+
   protected abstract void getAacDataRtp(ByteBuffer aacBuffer, MediaCodec.BufferInfo info);
 
   @Override
   public void getAacData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info) {
-    recordController.recordAudio(aacBuffer, info);
-    if (streaming) getAacDataRtp(aacBuffer, info);
+    encodedFrameBus.publishAudio(aacBuffer, info);
   }
 
   @Override
@@ -74,6 +74,20 @@ public abstract class OnlyAudioBase implements GetAacData, GetMicrophoneData {
     return prepareAudio(64 * 1024, 32000, true, false, false);
   }
 
+  /**
+   * @see com.pedro.encoder.BaseEncoder#setAsyncMode(boolean)
+   */
+  public void setAsyncMode(boolean asyncMode) {
+    audioEncoder.setAsyncMode(asyncMode);
+  }
+
+  /**
+   * @see com.pedro.encoder.BaseEncoder#getEncodeLatencyUs()
+   */
+  public long getAudioEncodeLatencyUs() {
+    return audioEncoder.getEncodeLatencyUs();
+  }
+
   protected abstract void startStreamRtp(String url);
 
   /**
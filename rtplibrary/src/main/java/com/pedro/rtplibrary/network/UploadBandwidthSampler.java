@@ -21,6 +21,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  * Class used to read from the file {@code /proc/net/xt_qtaguid/stats} periodically, in order to
  * determine a ConnectionClass.
+ *
+ * @deprecated that file was removed in modern Android versions. For RTMP use
+ * {@link net.ossrs.rtmp.UplinkEstimator}.
  */
 
 @Deprecated
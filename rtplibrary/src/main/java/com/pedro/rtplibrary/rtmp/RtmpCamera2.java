@@ -7,11 +7,16 @@ import androidx.annotation.RequiresApi;
 import android.view.SurfaceView;
 import android.view.TextureView;
 
+import com.github.faucamp.simplertmp.io.RtmpEventLoop;
 import com.pedro.rtplibrary.base.Camera2Base;
 
 import com.pedro.rtplibrary.view.LightOpenGlView;
 import com.pedro.rtplibrary.view.OpenGlView;
+import net.ossrs.rtmp.BitrateController;
 import net.ossrs.rtmp.ConnectCheckerRtmp;
+import net.ossrs.rtmp.ConnectTiming;
+import net.ossrs.rtmp.FlvFileSink;
+import net.ossrs.rtmp.RtmpDestination;
 import net.ossrs.rtmp.SrsFlvMuxer;
 
 import java.nio.ByteBuffer;
@@ -126,6 +131,68 @@ public class RtmpCamera2 extends Camera2Base {
     srsFlvMuxer.forceAkamaiTs(enabled);
   }
 
+  /**
+   * Stream the same FLV tags to other RTMP endpoint at the same time (simulcast).
+   * Tags are muxed once, the destination has its own connection, cache and reconnect state.
+   *
+   * @param connectChecker callbacks of this destination.
+   * @return destination to start with {@link RtmpDestination#start(String)} once streaming.
+   */
+  public RtmpDestination addDestination(ConnectCheckerRtmp connectChecker) {
+    return srsFlvMuxer.addDestination(connectChecker);
+  }
+
+  public void removeDestination(RtmpDestination rtmpDestination) {
+    srsFlvMuxer.removeDestination(rtmpDestination);
+  }
+
+  /**
+   * Record to a FLV file the same tags sent to the server without muxing them again.
+   * Only receive tags while streaming.
+   *
+   * @return recorder to start with {@link FlvFileSink#start(String)}.
+   */
+  public FlvFileSink addFileSink() {
+    return srsFlvMuxer.addFileSink();
+  }
+
+  public void removeFileSink(FlvFileSink fileSink) {
+    srsFlvMuxer.removeFileSink(fileSink);
+  }
+
+  /**
+   * Receive a socket level estimation of the uplink about once per second, for example
+   * {@link com.pedro.rtplibrary.util.UplinkBitrateController}.
+   */
+  public void setBitrateController(BitrateController bitrateController) {
+    srsFlvMuxer.setBitrateController(bitrateController);
+  }
+
+  /**
+   * Send connect and createStream commands without waiting for each result, the stream starts a
+   * round trip earlier. Fallback to the normal flow if the server doesn't accept it.
+   * Not used with setAuthorization.
+   */
+  public void setFastStart(boolean enabled) {
+    srsFlvMuxer.setFastStart(enabled);
+  }
+
+  /**
+   * Receive in a event loop shared with other connections, RtmpEventLoop.getDefault() for
+   * example, instead of a thread per connection. Null to use a blocking socket (default).
+   */
+  public void setEventLoop(RtmpEventLoop eventLoop) {
+    srsFlvMuxer.setEventLoop(eventLoop);
+  }
+
+  /**
+   * @return duration in ms of each phase of the last connection (DNS, TCP, TLS, handshake,
+   * connect, createStream and publish).
+   */
+  public ConnectTiming getConnectTiming() {
+    return srsFlvMuxer.getConnectTiming();
+  }
+
   @Override
   protected void prepareAudioRtp(boolean isStereo, int sampleRate) {
     srsFlvMuxer.setIsStereo(isStereo);
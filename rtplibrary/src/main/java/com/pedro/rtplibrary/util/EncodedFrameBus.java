@@ -0,0 +1,334 @@
+package com.pedro.rtplibrary.util;
+
+import android.media.MediaCodec;
+import android.util.Log;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import net.ossrs.rtmp.DropPolicy;
+
+/**
+ * Deliver encoded audio and video from the encoders to every sink (stream, record or any other
+ * added by the app).
+ *
+ * Inline subscribers receive the codec buffer itself in the encoder thread, use it only for sinks
+ * that never block (they copy or queue the data). Queued subscribers have their own thread and
+ * bounded queue, frames are copied once to a pooled buffer shared by all of them with a reference
+ * count, so a slow sink (MediaMuxer write stall) only drops its own frames instead of delaying
+ * the encoder and the other sinks.
+ */
+public class EncodedFrameBus {
+
+  private static final String TAG = "EncodedFrameBus";
+  private static final int MAX_POOL_SIZE = 64;
+  private static final long POLL_TIMEOUT_MS = 100;
+  private static final long STOP_TIMEOUT_MS = 2000;
+
+  public interface Subscriber {
+    void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info);
+
+    void onAudioFrame(ByteBuffer audioBuffer, MediaCodec.BufferInfo info);
+  }
+
+  private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+  private final ArrayDeque<EncodedFrame> pool = new ArrayDeque<>();
+
+  /**
+   * Receive frames in the encoder thread. The buffer is only valid during the call.
+   */
+  public Subscription subscribe(Subscriber subscriber) {
+    Subscription subscription = new Subscription(subscriber, null, 0, DropPolicy.DROP_NEWEST);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * Receive frames in a thread of the subscription.
+   *
+   * @param queueSize frames queued before applying the drop policy.
+   */
+  public Subscription subscribe(Subscriber subscriber, String name, int queueSize,
+      DropPolicy dropPolicy) {
+    Subscription subscription = new Subscription(subscriber, name, queueSize, dropPolicy);
+    subscription.start();
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * Stop delivering frames. A queued subscription delivers the frames already queued before its
+   * thread ends. Frames not delivered in 2 seconds are discarded, but it always waits for the
+   * frame being delivered, so the subscriber is never called after this and can be closed.
+   */
+  public void unsubscribe(Subscription subscription) {
+    if (subscription == null) return;
+    subscriptions.remove(subscription);
+    subscription.stop();
+  }
+
+  public void publishVideo(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+    publish(videoBuffer, info, true);
+  }
+
+  public void publishAudio(ByteBuffer audioBuffer, MediaCodec.BufferInfo info) {
+    publish(audioBuffer, info, false);
+  }
+
+  private void publish(ByteBuffer buffer, MediaCodec.BufferInfo info, boolean isVideo) {
+    EncodedFrame frame = null;
+    for (Subscription subscription : subscriptions) {
+      if (subscription.queue == null) {
+        // position and limit are restored for the next subscriber
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+          if (isVideo) {
+            subscription.subscriber.onVideoFrame(buffer, info);
+          } else {
+            subscription.subscriber.onAudioFrame(buffer, info);
+          }
+        } finally {
+          buffer.limit(limit);
+          buffer.position(position);
+        }
+      } else {
+        if (frame == null) frame = obtain(buffer, info, isVideo);
+        subscription.offer(frame);
+      }
+    }
+    if (frame != null) frame.release();
+  }
+
+  private EncodedFrame obtain(ByteBuffer buffer, MediaCodec.BufferInfo info, boolean isVideo) {
+    EncodedFrame frame;
+    synchronized (pool) {
+      frame = pool.poll();
+    }
+    if (frame == null) frame = new EncodedFrame();
+    frame.copy(buffer, info, isVideo);
+    return frame;
+  }
+
+  private void recycle(EncodedFrame frame) {
+    synchronized (pool) {
+      if (pool.size() < MAX_POOL_SIZE) pool.add(frame);
+    }
+  }
+
+  //frames released by every subscriber, used by tests
+  int getPooledFrames() {
+    synchronized (pool) {
+      return pool.size();
+    }
+  }
+
+  //same as BufferInfo.set, fields are written directly so it also works with android.jar stubs
+  private static void setInfo(MediaCodec.BufferInfo info, int offset, int size,
+      long presentationTimeUs, int flags) {
+    info.offset = offset;
+    info.size = size;
+    info.presentationTimeUs = presentationTimeUs;
+    info.flags = flags;
+  }
+
+  /**
+   * Copy of a codec output shared by queued subscriptions, back to the pool when the last one
+   * releases it. The publisher holds a reference while offering.
+   */
+  private class EncodedFrame {
+
+    private ByteBuffer data = ByteBuffer.allocate(0);
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private boolean isVideo;
+    private int references;
+
+    void copy(ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo, boolean isVideo) {
+      ByteBuffer source = buffer.duplicate();
+      source.position(bufferInfo.offset);
+      source.limit(bufferInfo.offset + bufferInfo.size);
+      if (data.capacity() < bufferInfo.size) {
+        data = ByteBuffer.allocate(bufferInfo.size);
+      }
+      data.clear();
+      data.put(source);
+      data.flip();
+      setInfo(info, 0, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+      this.isVideo = isVideo;
+      references = 1;
+    }
+
+    boolean isKeyFrame() {
+      return (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+    }
+
+    synchronized void retain() {
+      references++;
+    }
+
+    void release() {
+      boolean free;
+      synchronized (this) {
+        free = --references == 0;
+      }
+      if (free) recycle(this);
+    }
+  }
+
+  public class Subscription {
+
+    private final Subscriber subscriber;
+    private final String name;
+    private final BlockingQueue<EncodedFrame> queue;
+    private final DropPolicy dropPolicy;
+    //each subscriber can modify its info without affecting others
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    //offer and stop check running and change the queue under it, no frame is queued after stop
+    private final Object lock = new Object();
+    private volatile boolean running = false;
+    //stop timed out, frames still queued are released without delivering them
+    private volatile boolean discarding = false;
+    private boolean needToFindKeyFrame = false;
+    private Thread thread;
+    private volatile long droppedVideoFrames = 0;
+    private volatile long droppedAudioFrames = 0;
+
+    private Subscription(Subscriber subscriber, String name, int queueSize,
+        DropPolicy dropPolicy) {
+      this.subscriber = subscriber;
+      this.name = name;
+      this.queue = name == null ? null : new ArrayBlockingQueue<EncodedFrame>(queueSize);
+      this.dropPolicy = dropPolicy;
+    }
+
+    public boolean isQueued() {
+      return queue != null;
+    }
+
+    public int getQueuedFrames() {
+      return queue == null ? 0 : queue.size();
+    }
+
+    public long getDroppedVideoFrames() {
+      return droppedVideoFrames;
+    }
+
+    public long getDroppedAudioFrames() {
+      return droppedAudioFrames;
+    }
+
+    //encoder thread
+    private void offer(EncodedFrame frame) {
+      synchronized (lock) {
+        if (!running) return;
+        if (frame.isVideo && needToFindKeyFrame) {
+          if (!frame.isKeyFrame()) {
+            droppedVideoFrames++;
+            return;
+          }
+          needToFindKeyFrame = false;
+        }
+        frame.retain();
+        if (queue.offer(frame)) return;
+        if (dropPolicy == DropPolicy.DROP_OLDEST) {
+          EncodedFrame oldest = queue.poll();
+          if (oldest != null) onFrameDropped(oldest);
+          if (queue.offer(frame)) return;
+        }
+        onFrameDropped(frame);
+        if (frame.isVideo && dropPolicy == DropPolicy.DROP_UNTIL_KEYFRAME) {
+          needToFindKeyFrame = true;
+        }
+      }
+    }
+
+    private void onFrameDropped(EncodedFrame frame) {
+      Log.i(TAG, name + ": frame discarded");
+      if (frame.isVideo) {
+        droppedVideoFrames++;
+      } else {
+        droppedAudioFrames++;
+      }
+      frame.release();
+    }
+
+    private void start() {
+      running = true;
+      thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (running) {
+            try {
+              EncodedFrame frame = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+              if (frame != null) deliver(frame);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              break;
+            }
+          }
+          EncodedFrame frame;
+          while (!discarding && (frame = queue.poll()) != null) {
+            deliver(frame);
+          }
+        }
+      }, name);
+      thread.start();
+    }
+
+    private void deliver(EncodedFrame frame) {
+      try {
+        setInfo(info, frame.info.offset, frame.info.size, frame.info.presentationTimeUs,
+            frame.info.flags);
+        // a view per delivery, subscribers read with relative gets
+        ByteBuffer view = frame.data.duplicate();
+        if (frame.isVideo) {
+          subscriber.onVideoFrame(view, info);
+        } else {
+          subscriber.onAudioFrame(view, info);
+        }
+      } catch (RuntimeException e) {
+        Log.e(TAG, name + ": subscriber error", e);
+      } finally {
+        frame.release();
+      }
+    }
+
+    private void stop() {
+      if (thread == null) return;
+      synchronized (lock) {
+        running = false;
+      }
+      boolean interrupted = false;
+      try {
+        thread.join(STOP_TIMEOUT_MS);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+      if (thread.isAlive()) {
+        //the subscriber could be closed after stop so the frame being delivered must end first
+        Log.w(TAG, name + ": slow subscriber, waiting for the current frame");
+        discarding = true;
+        thread.interrupt();
+        while (thread.isAlive()) {
+          try {
+            thread.join();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      thread = null;
+      //not delivered in time, frames go back to the pool instead of staying referenced
+      EncodedFrame frame;
+      int discarded = 0;
+      while ((frame = queue.poll()) != null) {
+        frame.release();
+        discarded++;
+      }
+      if (discarded > 0) Log.w(TAG, name + ": " + discarded + " frames discarded on stop");
+    }
+  }
+}
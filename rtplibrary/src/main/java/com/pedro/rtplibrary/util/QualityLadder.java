@@ -0,0 +1,194 @@
+package com.pedro.rtplibrary.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Resolution and fps ladder for sustained congestion. Bitrate alone can't go very low without
+ * destroying the image, so when the bitrate decided by a bitrate controller stays under the
+ * minimum of the current rung the ladder steps down to a smaller resolution or fps. The encoder
+ * never goes over the max of the current rung, so the upper rung can't be measured directly:
+ * the ladder steps up when the controller keeps the current rung at its max during longer, and
+ * steps down again if the upper rung can't hold its min.
+ *
+ * Use it as listener of BitrateAdapter or UplinkBitrateController with the max bitrate of the
+ * top rung. Each report of the controller is an interval. Bitrate given to the listener is
+ * limited to the max of the current rung, it is only called when that changes, and rung changes
+ * should be applied with setVideoResolutionOnFly of the base classes:
+ *
+ * <pre>
+ *   QualityLadder ladder = new QualityLadder(new QualityLadder.Listener() {
+ *     public void onBitrateAdapted(int bitrate) {
+ *       rtmpCamera.setVideoBitrateOnFly(bitrate);
+ *     }
+ *     public void onRungChanged(QualityLadder.Rung rung) {
+ *       rtmpCamera.setVideoResolutionOnFly(rung.getWidth(), rung.getHeight(), rung.getFps());
+ *     }
+ *   });
+ *   ladder.addRung(1280, 720, 30, 1500 * 1024, 4000 * 1024);
+ *   ladder.addRung(854, 480, 30, 600 * 1024, 1500 * 1024);
+ *   ladder.addRung(640, 360, 24, 0, 800 * 1024);
+ * </pre>
+ */
+public class QualityLadder implements BitrateAdapter.Listener {
+
+  public interface Listener extends BitrateAdapter.Listener {
+    void onRungChanged(Rung rung);
+  }
+
+  public static class Rung {
+
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final int minBitrate;
+    private final int maxBitrate;
+
+    public Rung(int width, int height, int fps, int minBitrate, int maxBitrate) {
+      this.width = width;
+      this.height = height;
+      this.fps = fps;
+      this.minBitrate = minBitrate;
+      this.maxBitrate = maxBitrate;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public int getFps() {
+      return fps;
+    }
+
+    public int getMinBitrate() {
+      return minBitrate;
+    }
+
+    public int getMaxBitrate() {
+      return maxBitrate;
+    }
+  }
+
+  private final List<Rung> rungs = new ArrayList<>();
+  private final Listener listener;
+  //consecutive bitrate reports needed to change rung, up is slower to avoid oscillation
+  private int downIntervals = 3;
+  private int upIntervals = 10;
+  //part of the max of the current rung needed to step up
+  private float upThreshold = 0.95f;
+  private int index = 0;
+  private int belowCount = 0;
+  private int aboveCount = 0;
+  //last bitrate given to the listener, 0 if none since reset
+  private int lastBitrate = 0;
+
+  public QualityLadder(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Add a rung, order doesn't matter, rungs are sorted by max bitrate (higher first). The ladder
+   * start in the top rung.
+   *
+   * @param minBitrate bitrate under this during downIntervals step down.
+   * @param maxBitrate bitrate given to the listener is never over this.
+   */
+  public synchronized void addRung(int width, int height, int fps, int minBitrate,
+      int maxBitrate) {
+    rungs.add(new Rung(width, height, fps, minBitrate, maxBitrate));
+    Collections.sort(rungs, new Comparator<Rung>() {
+      @Override
+      public int compare(Rung rung1, Rung rung2) {
+        return rung2.maxBitrate < rung1.maxBitrate ? -1
+            : (rung2.maxBitrate == rung1.maxBitrate ? 0 : 1);
+      }
+    });
+    reset();
+  }
+
+  public synchronized void clearRungs() {
+    rungs.clear();
+    reset();
+  }
+
+  /**
+   * @param downIntervals consecutive bitrate reports under the min of the rung to step down.
+   * @param upIntervals consecutive bitrate reports at the max of the rung to step up.
+   */
+  public synchronized void setIntervals(int downIntervals, int upIntervals) {
+    this.downIntervals = Math.max(1, downIntervals);
+    this.upIntervals = Math.max(1, upIntervals);
+  }
+
+  /**
+   * @param upThreshold bitrate needed to step up relative to the max of the current rung, 0.95 by
+   * default. Controllers reach the max slowly (BitrateAdapter 10% over the measured bitrate), so
+   * values over 1 may never step up.
+   */
+  public synchronized void setUpThreshold(float upThreshold) {
+    this.upThreshold = Math.max(0.5f, Math.min(1f, upThreshold));
+  }
+
+  /**
+   * @return current rung or null if there aren't rungs.
+   */
+  public synchronized Rung getRung() {
+    return rungs.isEmpty() ? null : rungs.get(index);
+  }
+
+  /**
+   * Go back to the top rung without calling the listener, use it when the stream is started.
+   */
+  public synchronized void reset() {
+    index = 0;
+    belowCount = 0;
+    aboveCount = 0;
+    lastBitrate = 0;
+  }
+
+  @Override
+  public void onBitrateAdapted(int bitrate) {
+    Rung changed = null;
+    int limited;
+    synchronized (this) {
+      if (rungs.isEmpty()) {
+        limited = bitrate;
+      } else {
+        Rung rung = rungs.get(index);
+        if (index < rungs.size() - 1 && bitrate < rung.minBitrate) {
+          aboveCount = 0;
+          if (++belowCount >= downIntervals) {
+            index++;
+            belowCount = 0;
+            changed = rungs.get(index);
+          }
+        } else if (index > 0 && bitrate >= rung.maxBitrate * upThreshold) {
+          belowCount = 0;
+          if (++aboveCount >= upIntervals) {
+            index--;
+            aboveCount = 0;
+            changed = rungs.get(index);
+          }
+        } else {
+          belowCount = 0;
+          aboveCount = 0;
+        }
+        limited = Math.min(bitrate, rungs.get(index).maxBitrate);
+      }
+      //the encoder is restarted on rung change so the bitrate is given again
+      if (changed == null && limited == lastBitrate) return;
+      lastBitrate = limited;
+    }
+    if (listener != null) {
+      //new rung first so the bitrate is applied to the restarted encoder
+      if (changed != null) listener.onRungChanged(changed);
+      listener.onBitrateAdapted(limited);
+    }
+  }
+}
@@ -12,10 +12,12 @@ import java.nio.ByteBuffer;
  * Created by pedro on 08/03/19.
  *
  * Class to control video recording with MediaMuxer.
+ * Frames are received from an EncodedFrameBus queued subscription so muxer writes never block the
+ * encoders.
  */
-public class RecordController {
+public class RecordController implements EncodedFrameBus.Subscriber {
 
-  private Status status = Status.STOPPED;
+  private volatile Status status = Status.STOPPED;
   private MediaMuxer mediaMuxer;
   private MediaFormat videoFormat, audioFormat;
   private int videoTrack = -1;
@@ -126,6 +128,18 @@ public class RecordController {
     }
   }
 
+  @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+  @Override
+  public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+    recordVideo(videoBuffer, info);
+  }
+
+  @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+  @Override
+  public void onAudioFrame(ByteBuffer audioBuffer, MediaCodec.BufferInfo info) {
+    recordAudio(audioBuffer, info);
+  }
+
   public void setVideoFormat(MediaFormat videoFormat) {
     this.videoFormat = videoFormat;
   }
@@ -0,0 +1,60 @@
+package com.pedro.rtplibrary.util;
+
+import net.ossrs.rtmp.BitrateController;
+import net.ossrs.rtmp.UplinkEstimator;
+
+/**
+ * Bitrate controller for RTMP based on the socket level estimation of the uplink.
+ * Bitrate is reduced as soon as the uplink is saturated (before the cache overflows) and
+ * increased slowly while the socket and the cache are idle.
+ * Listener is called from the RTMP threads each interval, also if the bitrate didn't change, so
+ * listeners like QualityLadder can count intervals.
+ */
+public class UplinkBitrateController implements BitrateController {
+
+  //intervals (~1s) without congestion before increasing bitrate
+  private static final int STABLE_INTERVALS = 5;
+
+  private BitrateAdapter.Listener listener;
+  private int maxBitrate;
+  private int minBitrate = 100 * 1024;
+  private int bitrate;
+  private int stableIntervals;
+
+  public UplinkBitrateController(BitrateAdapter.Listener listener) {
+    this.listener = listener;
+  }
+
+  public void setMaxBitrate(int bitrate) {
+    this.maxBitrate = bitrate;
+    this.bitrate = bitrate;
+    stableIntervals = 0;
+  }
+
+  public void setMinBitrate(int bitrate) {
+    this.minBitrate = bitrate;
+  }
+
+  @Override
+  public void onUplinkEstimation(UplinkEstimator uplinkEstimator) {
+    if (maxBitrate == 0) return;
+    int newBitrate = bitrate;
+    if (uplinkEstimator.isSaturated()) {
+      stableIntervals = 0;
+      long goodput = uplinkEstimator.getGoodput();
+      //go below the real throughput to drain the socket buffer and the cache
+      newBitrate = goodput > 0 ? (int) Math.min(bitrate * 0.8f, goodput * 0.9f)
+          : (int) (bitrate * 0.8f);
+    } else if (uplinkEstimator.getQueueSize() == 0 && uplinkEstimator.getBlockedRatio() < 0.1f) {
+      stableIntervals++;
+      if (stableIntervals >= STABLE_INTERVALS) {
+        stableIntervals = 0;
+        newBitrate = (int) Math.min(maxBitrate, bitrate * 1.1f);
+      }
+    } else {
+      stableIntervals = 0;
+    }
+    bitrate = Math.max(minBitrate, newBitrate);
+    if (listener != null) listener.onBitrateAdapted(bitrate);
+  }
+}
@@ -1,5 +1,8 @@
 package com.pedro.rtplibrary.view;
 
+import android.os.Build;
+import androidx.annotation.RequiresApi;
+import com.pedro.encoder.input.gl.render.ManagerRender;
 import com.pedro.encoder.input.gl.render.filters.BaseFilterRender;
 
 /**
@@ -8,17 +11,59 @@ import com.pedro.encoder.input.gl.render.filters.BaseFilterRender;
 
 public class Filter {
 
+  public enum Action {
+    SET, ADD, ADD_INDEX, REMOVE, REMOVE_INDEX, CLEAR
+  }
+
+  private final Action action;
   private int position;
   private BaseFilterRender baseFilterRender;
 
   public Filter() {
+    this(Action.SET, 0, null);
   }
 
   public Filter(int position, BaseFilterRender baseFilterRender) {
+    this(Action.SET, position, baseFilterRender);
+  }
+
+  public Filter(Action action, int position, BaseFilterRender baseFilterRender) {
+    this.action = action;
     this.position = position;
     this.baseFilterRender = baseFilterRender;
   }
 
+  /**
+   * Apply the change to the filters of managerRender. Must be called in the Opengl thread.
+   */
+  @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+  public void apply(ManagerRender managerRender) {
+    switch (action) {
+      case SET:
+        managerRender.setFilter(position, baseFilterRender);
+        break;
+      case ADD:
+        managerRender.addFilter(baseFilterRender);
+        break;
+      case ADD_INDEX:
+        managerRender.addFilter(position, baseFilterRender);
+        break;
+      case REMOVE:
+        managerRender.removeFilter(baseFilterRender);
+        break;
+      case REMOVE_INDEX:
+        managerRender.removeFilter(position);
+        break;
+      case CLEAR:
+        managerRender.clearFilters();
+        break;
+    }
+  }
+
+  public Action getAction() {
+    return action;
+  }
+
   public int getPosition() {
     return position;
   }
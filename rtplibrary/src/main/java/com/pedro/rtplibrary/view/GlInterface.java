@@ -63,7 +63,37 @@ public interface GlInterface {
    * @param baseFilterRender filter to set. You can modify parameters to filter after set it to stream.
    */
   void setFilter(BaseFilterRender baseFilterRender);
-  
+
+  /**
+   * Add a filter after all others. Only filters added or set are drawn, so the cost of the
+   * filters doesn't depend of the number of positions.
+   * @param baseFilterRender filter to add. You can modify parameters to filter after add it.
+   */
+  void addFilter(BaseFilterRender baseFilterRender);
+
+  /**
+   * Insert a filter in position moving the filters after it. Positions over the number of
+   * filters are created empty, like setFilter, and negative positions are ignored.
+   * @param baseFilterRender filter to add. You can modify parameters to filter after add it.
+   */
+  void addFilter(int filterPosition, BaseFilterRender baseFilterRender);
+
+  /**
+   * Remove a filter set or added before, moving the filters after it.
+   */
+  void removeFilter(BaseFilterRender baseFilterRender);
+
+  /**
+   * Remove the filter in position moving the filters after it. Positions without filter are
+   * ignored.
+   */
+  void removeFilter(int filterPosition);
+
+  /**
+   * Remove all filters.
+   */
+  void clearFilters();
+
   /**
    * Enable or disable Anti aliasing (This method use FXAA).
    *
@@ -96,7 +96,7 @@ public class LightOpenGlView extends OpenGlViewBase {
         surfaceManager.swapBuffer();
 
         synchronized (sync) {
-          if (surfaceManagerEncoder != null && !fpsLimiter.limitFPS()) {
+          if (surfaceManagerEncoder != null && !framePacer.shouldDrop(frameTimeNs)) {
             surfaceManagerEncoder.makeCurrent();
             if (muteVideo) {
               simpleCameraRender.drawFrame(0, 0, false, aspectRatioMode, streamRotation, false,
@@ -134,6 +134,31 @@ public class LightOpenGlView extends OpenGlViewBase {
     setFilter(0, baseFilterRender);
   }
 
+  @Override
+  public void addFilter(BaseFilterRender baseFilterRender) {
+
+  }
+
+  @Override
+  public void addFilter(int filterPosition, BaseFilterRender baseFilterRender) {
+
+  }
+
+  @Override
+  public void removeFilter(BaseFilterRender baseFilterRender) {
+
+  }
+
+  @Override
+  public void removeFilter(int filterPosition) {
+
+  }
+
+  @Override
+  public void clearFilters() {
+
+  }
+
   @Override
   public void enableAA(boolean AAEnabled) {
 
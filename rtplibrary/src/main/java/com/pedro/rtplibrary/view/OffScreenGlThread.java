@@ -7,8 +7,10 @@ import androidx.annotation.RequiresApi;
 import android.view.Surface;
 import com.pedro.encoder.input.gl.SurfaceManager;
 import com.pedro.encoder.input.gl.render.ManagerRender;
+import com.pedro.encoder.input.gl.render.SignatureRender;
 import com.pedro.encoder.input.gl.render.filters.BaseFilterRender;
-import com.pedro.encoder.input.video.FpsLimiter;
+import com.pedro.encoder.input.video.ContentChangeDetector;
+import com.pedro.encoder.input.video.FramePacer;
 import com.pedro.encoder.utils.gl.GlUtil;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -44,7 +46,13 @@ public class OffScreenGlThread
   private boolean isStreamVerticalFlip = false;
 
   private boolean AAEnabled = false;
-  private FpsLimiter fpsLimiter = new FpsLimiter();
+  private FramePacer framePacer = new FramePacer();
+  //capture time of the last frame available
+  private long frameTimeNs;
+  //static content frame skipping
+  private volatile boolean skipStaticFrames = false;
+  private final ContentChangeDetector contentChangeDetector = new ContentChangeDetector();
+  private SignatureRender signatureRender;
   //used with camera
   private TakePhotoCallback takePhotoCallback;
 
@@ -82,7 +90,31 @@ public class OffScreenGlThread
 
   @Override
   public void setFps(int fps) {
-    fpsLimiter.setFPS(fps);
+    framePacer.setFps(fps);
+  }
+
+  /**
+   * @return pacer of frames drawn to the encoder, to read achieved fps and jitter.
+   */
+  public FramePacer getFramePacer() {
+    return framePacer;
+  }
+
+  /**
+   * Only encode frames that changed from the previous one (and a keep alive frame each second),
+   * for screen capture of mostly static content. Each frame is downscaled and read to compare
+   * it, that costs a bit of GPU but saves encoder work and bitrate while nothing changes.
+   * Changed frames are encoded without delay. Applied in the next start.
+   */
+  public void setSkipStaticFrames(boolean skipStaticFrames) {
+    this.skipStaticFrames = skipStaticFrames;
+  }
+
+  /**
+   * @return detector of static frames, to read effective fps and skipped frames or configure it.
+   */
+  public ContentChangeDetector getContentChangeDetector() {
+    return contentChangeDetector;
   }
 
   @Override
@@ -127,6 +159,31 @@ public class OffScreenGlThread
     setFilter(0, baseFilterRender);
   }
 
+  @Override
+  public void addFilter(BaseFilterRender baseFilterRender) {
+    filterQueue.add(new Filter(Filter.Action.ADD, 0, baseFilterRender));
+  }
+
+  @Override
+  public void addFilter(int filterPosition, BaseFilterRender baseFilterRender) {
+    filterQueue.add(new Filter(Filter.Action.ADD_INDEX, filterPosition, baseFilterRender));
+  }
+
+  @Override
+  public void removeFilter(BaseFilterRender baseFilterRender) {
+    filterQueue.add(new Filter(Filter.Action.REMOVE, 0, baseFilterRender));
+  }
+
+  @Override
+  public void removeFilter(int filterPosition) {
+    filterQueue.add(new Filter(Filter.Action.REMOVE_INDEX, filterPosition, null));
+  }
+
+  @Override
+  public void clearFilters() {
+    filterQueue.add(new Filter(Filter.Action.CLEAR, 0, null));
+  }
+
   @Override
   public void enableAA(boolean AAEnabled) {
     this.AAEnabled = AAEnabled;
@@ -198,6 +255,12 @@ public class OffScreenGlThread
     surfaceManager.makeCurrent();
     textureManager.initGl(context, encoderWidth, encoderHeight, encoderWidth, encoderHeight);
     textureManager.getSurfaceTexture().setOnFrameAvailableListener(this);
+    boolean skipStatic = skipStaticFrames;
+    if (skipStatic) {
+      contentChangeDetector.reset();
+      signatureRender = new SignatureRender();
+      signatureRender.initGl(encoderWidth, encoderHeight, context, encoderWidth, encoderHeight);
+    }
     semaphore.release();
     try {
       while (running) {
@@ -205,49 +268,75 @@ public class OffScreenGlThread
           frameAvailable = false;
           surfaceManager.makeCurrent();
           textureManager.updateFrame();
-          textureManager.drawOffScreen();
-          textureManager.drawScreen(encoderWidth, encoderHeight, false, 0, 0, true, false, false);
-          surfaceManager.swapBuffer();
-
+          boolean encode;
           synchronized (sync) {
-            if (surfaceManagerEncoder != null && !fpsLimiter.limitFPS()) {
-              surfaceManagerEncoder.makeCurrent();
-              if (muteVideo) {
-                textureManager.drawScreen(0, 0, false, 0, streamRotation, false,
-                    isStreamVerticalFlip, isStreamHorizontalFlip);
-              } else {
-                textureManager.drawScreen(encoderWidth, encoderHeight, false, 0, streamRotation,
-                    false, isStreamVerticalFlip, isStreamHorizontalFlip);
-              }
-              //Necessary use surfaceManagerEncoder because preview manager size in background is 1x1.
-              if (takePhotoCallback != null) {
-                takePhotoCallback.onTakePhoto(
-                    GlUtil.getBitmap(false, 0, encoderWidth, encoderHeight, encoderWidth, encoderHeight));
-                takePhotoCallback = null;
-              }
-              surfaceManagerEncoder.swapBuffer();
+            //preview is 1x1 so a frame discarded by the pacer doesn't need to be drawn
+            encode = surfaceManagerEncoder != null && !framePacer.shouldDrop(frameTimeNs);
+          }
+          if (encode) {
+            textureManager.drawOffScreen();
+            if (skipStatic) {
+              signatureRender.setTexId(textureManager.getOutputTexId());
+              signatureRender.draw();
+              encode = contentChangeDetector.shouldEncode(signatureRender.getSignature(),
+                  frameTimeNs);
             }
           }
+          if (encode) {
+            textureManager.drawScreen(encoderWidth, encoderHeight, false, 0, 0, true, false, false);
+            surfaceManager.swapBuffer();
+            drawEncoder();
+          }
           if (!filterQueue.isEmpty()) {
             Filter filter = filterQueue.take();
-            textureManager.setFilter(filter.getPosition(), filter.getBaseFilterRender());
+            filter.apply(textureManager);
           } else if (loadAA) {
             textureManager.enableAA(AAEnabled);
             loadAA = false;
           }
+        } else if (skipStatic && contentChangeDetector.shouldRepeat(System.nanoTime())) {
+          //the source stopped giving frames, the last one is drawn again as keep alive
+          drawEncoder();
         }
       }
     } catch (InterruptedException ignore) {
       Thread.currentThread().interrupt();
     } finally {
+      if (signatureRender != null) {
+        signatureRender.release();
+        signatureRender = null;
+      }
       textureManager.release();
       releaseSurfaceManager();
     }
   }
 
+  private void drawEncoder() {
+    synchronized (sync) {
+      if (surfaceManagerEncoder != null) {
+        surfaceManagerEncoder.makeCurrent();
+        if (muteVideo) {
+          textureManager.drawScreen(0, 0, false, 0, streamRotation, false,
+              isStreamVerticalFlip, isStreamHorizontalFlip);
+        } else {
+          textureManager.drawScreen(encoderWidth, encoderHeight, false, 0, streamRotation,
+              false, isStreamVerticalFlip, isStreamHorizontalFlip);
+        }
+        //Necessary use surfaceManagerEncoder because preview manager size in background is 1x1.
+        if (takePhotoCallback != null) {
+          takePhotoCallback.onTakePhoto(
+              GlUtil.getBitmap(false, 0, encoderWidth, encoderHeight, encoderWidth, encoderHeight));
+          takePhotoCallback = null;
+        }
+        surfaceManagerEncoder.swapBuffer();
+      }
+    }
+  }
+
   @Override
   public void onFrameAvailable(SurfaceTexture surfaceTexture) {
     synchronized (sync) {
+      frameTimeNs = System.nanoTime();
       frameAvailable = true;
       sync.notifyAll();
     }
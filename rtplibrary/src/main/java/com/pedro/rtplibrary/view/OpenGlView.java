@@ -28,6 +28,7 @@ public class OpenGlView extends OpenGlViewBase {
   private boolean AAEnabled = false;
   private boolean keepAspectRatio = false;
   private int aspectRatioMode = 0;
+  private int numFilters = 1;
   private boolean isFlipHorizontal = false, isFlipVertical = false;
 
   public OpenGlView(Context context) {
@@ -41,7 +42,7 @@ public class OpenGlView extends OpenGlViewBase {
       keepAspectRatio = typedArray.getBoolean(R.styleable.OpenGlView_keepAspectRatio, false);
       aspectRatioMode = typedArray.getInt(R.styleable.OpenGlView_aspectRatioMode, 0);
       AAEnabled = typedArray.getBoolean(R.styleable.OpenGlView_AAEnabled, false);
-      ManagerRender.numFilters = typedArray.getInt(R.styleable.OpenGlView_numFilters, 1);
+      numFilters = typedArray.getInt(R.styleable.OpenGlView_numFilters, 1);
       isFlipHorizontal = typedArray.getBoolean(R.styleable.OpenGlView_isFlipHorizontal, false);
       isFlipVertical = typedArray.getBoolean(R.styleable.OpenGlView_isFlipVertical, false);
     } finally {
@@ -51,7 +52,7 @@ public class OpenGlView extends OpenGlViewBase {
 
   @Override
   public void init() {
-    if (!initialized) managerRender = new ManagerRender();
+    if (!initialized) managerRender = new ManagerRender(numFilters);
     managerRender.setCameraFlip(isFlipHorizontal, isFlipVertical);
     initialized = true;
   }
@@ -76,6 +77,31 @@ public class OpenGlView extends OpenGlViewBase {
     setFilter(0, baseFilterRender);
   }
 
+  @Override
+  public void addFilter(BaseFilterRender baseFilterRender) {
+    filterQueue.add(new Filter(Filter.Action.ADD, 0, baseFilterRender));
+  }
+
+  @Override
+  public void addFilter(int filterPosition, BaseFilterRender baseFilterRender) {
+    filterQueue.add(new Filter(Filter.Action.ADD_INDEX, filterPosition, baseFilterRender));
+  }
+
+  @Override
+  public void removeFilter(BaseFilterRender baseFilterRender) {
+    filterQueue.add(new Filter(Filter.Action.REMOVE, 0, baseFilterRender));
+  }
+
+  @Override
+  public void removeFilter(int filterPosition) {
+    filterQueue.add(new Filter(Filter.Action.REMOVE_INDEX, filterPosition, null));
+  }
+
+  @Override
+  public void clearFilters() {
+    filterQueue.add(new Filter(Filter.Action.CLEAR, 0, null));
+  }
+
   @Override
   public void enableAA(boolean AAEnabled) {
     this.AAEnabled = AAEnabled;
@@ -138,7 +164,7 @@ public class OpenGlView extends OpenGlViewBase {
           surfaceManager.swapBuffer();
 
           synchronized (sync) {
-            if (surfaceManagerEncoder != null && !fpsLimiter.limitFPS()) {
+            if (surfaceManagerEncoder != null && !framePacer.shouldDrop(frameTimeNs)) {
               surfaceManagerEncoder.makeCurrent();
               if (muteVideo) {
                 managerRender.drawScreen(0, 0, false, aspectRatioMode, streamRotation, false,
@@ -152,7 +178,7 @@ public class OpenGlView extends OpenGlViewBase {
           }
           if (!filterQueue.isEmpty()) {
             Filter filter = filterQueue.take();
-            managerRender.setFilter(filter.getPosition(), filter.getBaseFilterRender());
+            filter.apply(managerRender);
           } else if (loadAA) {
             managerRender.enableAA(AAEnabled);
             loadAA = false;
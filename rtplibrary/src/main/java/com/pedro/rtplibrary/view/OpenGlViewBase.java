@@ -10,7 +10,7 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import com.pedro.encoder.input.gl.SurfaceManager;
-import com.pedro.encoder.input.video.FpsLimiter;
+import com.pedro.encoder.input.video.FramePacer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
@@ -34,7 +34,9 @@ public abstract class OpenGlViewBase extends SurfaceView
   protected SurfaceManager surfaceManager = null;
   protected SurfaceManager surfaceManagerEncoder = null;
 
-  protected FpsLimiter fpsLimiter = new FpsLimiter();
+  protected FramePacer framePacer = new FramePacer();
+  //capture time of the last frame available
+  protected long frameTimeNs;
   protected final Semaphore semaphore = new Semaphore(0);
   protected final BlockingQueue<Filter> filterQueue = new LinkedBlockingQueue<>();
   protected final Object sync = new Object();
@@ -97,7 +99,14 @@ public abstract class OpenGlViewBase extends SurfaceView
 
   @Override
   public void setFps(int fps) {
-    fpsLimiter.setFPS(fps);
+    framePacer.setFps(fps);
+  }
+
+  /**
+   * @return pacer of frames drawn to the encoder, to read achieved fps and jitter.
+   */
+  public FramePacer getFramePacer() {
+    return framePacer;
   }
 
   @Override
@@ -165,6 +174,7 @@ public abstract class OpenGlViewBase extends SurfaceView
   @Override
   public void onFrameAvailable(SurfaceTexture surfaceTexture) {
     synchronized (sync) {
+      frameTimeNs = System.nanoTime();
       frameAvailable = true;
       sync.notifyAll();
     }
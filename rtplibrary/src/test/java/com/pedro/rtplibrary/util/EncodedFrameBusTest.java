@@ -0,0 +1,244 @@
+package com.pedro.rtplibrary.util;
+
+import android.media.MediaCodec;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.ossrs.rtmp.DropPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EncodedFrameBusTest {
+
+  private final EncodedFrameBus bus = new EncodedFrameBus();
+
+  @Test
+  public void framesGoBackToPoolWhenEverySubscriberReleasedThem() throws Exception {
+    RecordingSubscriber consumingInline = new RecordingSubscriber();
+    final CountDownLatch unblock = new CountDownLatch(1);
+    RecordingSubscriber blockedQueued = new RecordingSubscriber() {
+      @Override
+      public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+        super.onVideoFrame(videoBuffer, info);
+        await(unblock);
+      }
+    };
+    RecordingSubscriber queued = new RecordingSubscriber();
+    RecordingSubscriber inline = new RecordingSubscriber();
+    bus.subscribe(consumingInline);
+    EncodedFrameBus.Subscription blockedSubscription =
+        bus.subscribe(blockedQueued, "blocked", 10, DropPolicy.DROP_NEWEST);
+    EncodedFrameBus.Subscription queuedSubscription =
+        bus.subscribe(queued, "queued", 10, DropPolicy.DROP_NEWEST);
+    bus.subscribe(inline);
+
+    for (int i = 0; i < 5; i++) {
+      publishVideo(i, i == 0);
+    }
+    //one copy per publish, all of them still referenced by the blocked subscriber
+    assertEquals(0, bus.getPooledFrames());
+    unblock.countDown();
+    bus.unsubscribe(blockedSubscription);
+    bus.unsubscribe(queuedSubscription);
+    assertEquals(5, bus.getPooledFrames());
+
+    List<Long> expected = Arrays.asList(0L, 1L, 2L, 3L, 4L);
+    assertEquals(expected, consumingInline.videoPts);
+    assertEquals(expected, blockedQueued.videoPts);
+    assertEquals(expected, queued.videoPts);
+    assertEquals(expected, inline.videoPts);
+    //the inline subscriber before consumed the buffer, later subscribers see it unchanged
+    assertTrue(inline.contentMatched);
+    assertTrue(queued.contentMatched);
+
+    //the pooled copies are reused
+    EncodedFrameBus.Subscription subscription =
+        bus.subscribe(queued, "queued", 10, DropPolicy.DROP_NEWEST);
+    publishVideo(5, false);
+    bus.unsubscribe(subscription);
+    assertEquals(5, bus.getPooledFrames());
+  }
+
+  @Test
+  public void dropUntilKeyFrame() throws Exception {
+    final CountDownLatch firstFrame = new CountDownLatch(1);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final CountDownLatch delivered = new CountDownLatch(3);
+    final CountDownLatch audioDelivered = new CountDownLatch(1);
+    RecordingSubscriber subscriber = new RecordingSubscriber() {
+      @Override
+      public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+        super.onVideoFrame(videoBuffer, info);
+        firstFrame.countDown();
+        await(unblock);
+        delivered.countDown();
+      }
+
+      @Override
+      public void onAudioFrame(ByteBuffer audioBuffer, MediaCodec.BufferInfo info) {
+        super.onAudioFrame(audioBuffer, info);
+        audioDelivered.countDown();
+      }
+    };
+    EncodedFrameBus.Subscription subscription =
+        bus.subscribe(subscriber, "record", 2, DropPolicy.DROP_UNTIL_KEYFRAME);
+
+    publishVideo(0, true);
+    //frame 0 is in the subscriber, 1 and 2 fill the queue, 3 and 4 are dropped
+    assertTrue(firstFrame.await(1, TimeUnit.SECONDS));
+    for (int i = 1; i <= 4; i++) {
+      publishVideo(i, false);
+    }
+    assertEquals(2, subscription.getQueuedFrames());
+    unblock.countDown();
+    assertTrue(delivered.await(1, TimeUnit.SECONDS));
+
+    //queue has room again but video waits for a keyframe, audio is still delivered
+    publishVideo(6, false);
+    publishAudio(100);
+    assertTrue(audioDelivered.await(1, TimeUnit.SECONDS));
+    publishVideo(7, true);
+    publishVideo(8, false);
+    bus.unsubscribe(subscription);
+
+    assertEquals(Arrays.asList(0L, 1L, 2L, 7L, 8L), subscriber.videoPts);
+    assertEquals(Collections.singletonList(100L), subscriber.audioPts);
+    assertEquals(3, subscription.getDroppedVideoFrames());
+    assertEquals(0, subscription.getDroppedAudioFrames());
+  }
+
+  @Test
+  public void stopDeliversQueuedFrames() throws Exception {
+    RecordingSubscriber subscriber = new RecordingSubscriber() {
+      @Override
+      public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+        super.onVideoFrame(videoBuffer, info);
+        sleep(5);
+      }
+    };
+    EncodedFrameBus.Subscription subscription =
+        bus.subscribe(subscriber, "record", 30, DropPolicy.DROP_NEWEST);
+    for (int i = 0; i < 20; i++) {
+      publishVideo(i, i == 0);
+    }
+    bus.unsubscribe(subscription);
+
+    assertEquals(20, subscriber.videoPts.size());
+    assertEquals(0, subscription.getQueuedFrames());
+    assertEquals(0, subscription.getDroppedVideoFrames());
+    //nothing is queued after stop
+    publishVideo(20, false);
+    assertEquals(20, subscriber.videoPts.size());
+  }
+
+  @Test
+  public void stopWaitsForSlowSubscriber() throws Exception {
+    final CountDownLatch firstFrame = new CountDownLatch(1);
+    final List<Boolean> writing = Collections.synchronizedList(new ArrayList<Boolean>());
+    RecordingSubscriber subscriber = new RecordingSubscriber() {
+      @Override
+      public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+        super.onVideoFrame(videoBuffer, info);
+        writing.add(true);
+        firstFrame.countDown();
+        //a muxer write stalled longer than the stop timeout, it doesn't end when interrupted
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2500);
+        while (System.nanoTime() < end) {
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException ignored) {
+          }
+        }
+        writing.remove(0);
+      }
+    };
+    EncodedFrameBus.Subscription subscription =
+        bus.subscribe(subscriber, "record", 10, DropPolicy.DROP_NEWEST);
+    publishVideo(0, true);
+    assertTrue(firstFrame.await(1, TimeUnit.SECONDS));
+    for (int i = 1; i < 5; i++) {
+      publishVideo(i, false);
+    }
+    bus.unsubscribe(subscription);
+
+    assertTrue(writing.isEmpty());
+    //queued frames are discarded instead of delivered
+    assertEquals(Collections.singletonList(0L), subscriber.videoPts);
+    assertEquals(0, subscription.getQueuedFrames());
+    assertEquals(5, bus.getPooledFrames());
+    sleep(50);
+    assertEquals(1, subscriber.videoPts.size());
+  }
+
+  private void publishVideo(long pts, boolean keyFrame) {
+    ByteBuffer buffer = ByteBuffer.wrap(content(pts));
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    info.size = buffer.remaining();
+    info.presentationTimeUs = pts;
+    info.flags = keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+    bus.publishVideo(buffer, info);
+  }
+
+  private void publishAudio(long pts) {
+    ByteBuffer buffer = ByteBuffer.wrap(content(pts));
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    info.size = buffer.remaining();
+    info.presentationTimeUs = pts;
+    bus.publishAudio(buffer, info);
+  }
+
+  private static byte[] content(long pts) {
+    byte[] content = new byte[16 + (int) pts];
+    Arrays.fill(content, (byte) pts);
+    return content;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class RecordingSubscriber implements EncodedFrameBus.Subscriber {
+
+    final List<Long> videoPts = Collections.synchronizedList(new ArrayList<Long>());
+    final List<Long> audioPts = Collections.synchronizedList(new ArrayList<Long>());
+    volatile boolean contentMatched = true;
+
+    @Override
+    public void onVideoFrame(ByteBuffer videoBuffer, MediaCodec.BufferInfo info) {
+      videoPts.add(info.presentationTimeUs);
+      read(videoBuffer, info);
+    }
+
+    @Override
+    public void onAudioFrame(ByteBuffer audioBuffer, MediaCodec.BufferInfo info) {
+      audioPts.add(info.presentationTimeUs);
+      read(audioBuffer, info);
+    }
+
+    //reads with relative gets like the stream and record sinks, moving the position
+    private void read(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+      byte[] data = new byte[info.size];
+      buffer.position(info.offset);
+      buffer.get(data);
+      if (!Arrays.equals(content(info.presentationTimeUs), data)) contentMatched = false;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.pedro.rtplibrary.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QualityLadderTest {
+
+  private static final int K = 1024;
+
+  private final List<QualityLadder.Rung> rungChanges = new ArrayList<>();
+  private final List<Integer> bitrates = new ArrayList<>();
+  private QualityLadder ladder;
+
+  @Before
+  public void setUp() {
+    ladder = new QualityLadder(new QualityLadder.Listener() {
+      @Override
+      public void onRungChanged(QualityLadder.Rung rung) {
+        rungChanges.add(rung);
+      }
+
+      @Override
+      public void onBitrateAdapted(int bitrate) {
+        bitrates.add(bitrate);
+      }
+    });
+    //rungs of the class documentation
+    ladder.addRung(1280, 720, 30, 1500 * K, 4000 * K);
+    ladder.addRung(854, 480, 30, 600 * K, 1500 * K);
+    ladder.addRung(640, 360, 24, 0, 800 * K);
+  }
+
+  @Test
+  public void stepsDownAfterDownIntervalsUnderMin() {
+    assertEquals(1280, ladder.getRung().getWidth());
+    report(1000 * K, 2);
+    assertEquals(1280, ladder.getRung().getWidth());
+    report(1000 * K, 1);
+    assertEquals(854, ladder.getRung().getWidth());
+    assertEquals(1, rungChanges.size());
+
+    report(500 * K, 3);
+    assertEquals(640, ladder.getRung().getWidth());
+    assertEquals(24, ladder.getRung().getFps());
+    //bottom rung has no lower one
+    report(100 * K, 10);
+    assertEquals(640, ladder.getRung().getWidth());
+    assertEquals(2, rungChanges.size());
+  }
+
+  @Test
+  public void interruptedCountDoesNotChangeRung() {
+    report(1000 * K, 2);
+    report(2000 * K, 1);
+    report(1000 * K, 2);
+    assertEquals(1280, ladder.getRung().getWidth());
+    assertTrue(rungChanges.isEmpty());
+  }
+
+  @Test
+  public void stepsUpAfterUpIntervalsAtMaxOfRung() {
+    report(500 * K, 3);
+    report(500 * K, 3);
+    assertEquals(640, ladder.getRung().getWidth());
+
+    //BitrateAdapter reports 10% over the measured bitrate, the encoder is capped to 800k
+    report(880 * K, 9);
+    assertEquals(640, ladder.getRung().getWidth());
+    report(880 * K, 1);
+    assertEquals(854, ladder.getRung().getWidth());
+
+    report(1500 * K, 10);
+    assertEquals(1280, ladder.getRung().getWidth());
+    assertEquals(4, rungChanges.size());
+  }
+
+  @Test
+  public void bitrateIsLimitedToRungAndOnlyGivenOnChange() {
+    report(5000 * K, 1);
+    assertEquals(4000 * K, (int) bitrates.get(0));
+    report(5000 * K, 5);
+    assertEquals(1, bitrates.size());
+
+    //rung change gives the bitrate again even if it didn't change
+    report(1000 * K, 3);
+    assertEquals(854, rungChanges.get(0).getWidth());
+    assertEquals(3, bitrates.size());
+    report(1000 * K, 1);
+    assertEquals(3, bitrates.size());
+    report(2000 * K, 1);
+    assertEquals(1500 * K, (int) bitrates.get(3));
+  }
+
+  /**
+   * A BitrateAdapter fed with the bitrate the network lets through, that is the one of the encoder
+   * up to the capacity of the network.
+   */
+  @Test
+  public void followsNetworkCapacityWithBitrateAdapter() {
+    final int[] encoderBitrate = { 4000 * K };
+    BitrateAdapter bitrateAdapter = new BitrateAdapter(new BitrateAdapter.Listener() {
+      @Override
+      public void onBitrateAdapted(int bitrate) {
+        ladder.onBitrateAdapted(bitrate);
+        if (!bitrates.isEmpty()) encoderBitrate[0] = bitrates.get(bitrates.size() - 1);
+      }
+    });
+    bitrateAdapter.setMaxBitrate(4000 * K);
+
+    runNetwork(bitrateAdapter, encoderBitrate, 1000 * K, 60);
+    assertEquals(854, ladder.getRung().getWidth());
+    assertTrue(encoderBitrate[0] <= 1500 * K);
+
+    runNetwork(bitrateAdapter, encoderBitrate, 300 * K, 60);
+    assertEquals(640, ladder.getRung().getWidth());
+    assertTrue(encoderBitrate[0] <= 800 * K);
+
+    runNetwork(bitrateAdapter, encoderBitrate, 10000 * K, 400);
+    assertEquals(1280, ladder.getRung().getWidth());
+    assertEquals(4000 * K, encoderBitrate[0]);
+    assertEquals(4, rungChanges.size());
+  }
+
+  private void report(int bitrate, int intervals) {
+    for (int i = 0; i < intervals; i++) {
+      ladder.onBitrateAdapted(bitrate);
+    }
+  }
+
+  private static void runNetwork(BitrateAdapter bitrateAdapter, int[] encoderBitrate,
+      int capacity, int seconds) {
+    for (int i = 0; i < seconds; i++) {
+      bitrateAdapter.adaptBitrate(Math.min(encoderBitrate[0], capacity));
+    }
+  }
+}
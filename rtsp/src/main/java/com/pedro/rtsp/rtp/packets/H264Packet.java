@@ -107,7 +107,10 @@ public class H264Packet extends BasePacket {
     }
   }
 
-  private void setSpsPps(byte[] sps, byte[] pps) {
+  /**
+   * Parameter sets sent before each keyframe, can be changed while streaming.
+   */
+  public void setSpsPps(byte[] sps, byte[] pps) {
     stapA = new byte[sps.length + pps.length + 5];
 
     // STAP-A NAL header is 24
@@ -115,7 +115,10 @@ public class H265Packet extends BasePacket {
     }
   }
 
-  private void setSpsPpsVps(byte[] sps, byte[] pps, byte[] vps) {
+  /**
+   * Parameter sets sent before each keyframe, can be changed while streaming.
+   */
+  public void setSpsPpsVps(byte[] sps, byte[] pps, byte[] vps) {
     stapA = new byte[sps.length + pps.length + 6];
 
     stapA[0] = 48 << 1;
@@ -107,6 +107,11 @@ public class RtspClient {
 
   public void setSPSandPPS(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps) {
     commandsManager.setVideoInfo(sps, pps, vps);
+    //encoder restarted while streaming (resolution changed), new keyframes need new sps/pps
+    if (streaming) {
+      rtspSender.updateVideoInfo(commandsManager.getSps(), commandsManager.getPps(),
+          commandsManager.getVps());
+    }
   }
 
   public void setIsStereo(boolean isStereo) {
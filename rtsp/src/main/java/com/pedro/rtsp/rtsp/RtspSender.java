@@ -57,6 +57,18 @@ public class RtspSender implements VideoPacketCallback, AudioPacketCallback {
         vps == null ? new H264Packet(sps, pps, this) : new H265Packet(sps, pps, vps, this);
   }
 
+  /**
+   * Change parameter sets of the current video packetizer keeping its sequence number and SSRC,
+   * used when the encoder is restarted with other resolution while streaming.
+   */
+  public void updateVideoInfo(byte[] sps, byte[] pps, byte[] vps) {
+    if (vps == null && videoPacket instanceof H264Packet) {
+      ((H264Packet) videoPacket).setSpsPps(sps, pps);
+    } else if (vps != null && videoPacket instanceof H265Packet) {
+      ((H265Packet) videoPacket).setSpsPpsVps(sps, pps, vps);
+    }
+  }
+
   public void setAudioInfo(int sampleRate) {
     aacPacket = new AacPacket(sampleRate, this);
   }